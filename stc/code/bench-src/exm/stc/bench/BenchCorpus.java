@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.io.File;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import exm.stc.common.Logging;
+import exm.stc.common.Profiler;
+import exm.stc.common.Settings;
+import exm.stc.common.exceptions.InvalidOptionException;
+import exm.stc.common.exceptions.UserException;
+import exm.stc.common.lang.ForeignFunctions;
+import exm.stc.frontend.ASTWalker;
+import exm.stc.ic.STCMiddleEnd;
+import exm.stc.ic.opt.OptimizerPass;
+import exm.stc.ic.tree.ICTree.Program;
+
+/**
+ * Shared setup for compiler benchmarks.  Corpus files are given relative
+ * to the stc directory, which is taken from the stc.bench.root property.
+ *
+ * Most benchmarks here need the IC at a particular point in compilation.
+ * The IC is mutated in place, so it is rebuilt before each invocation
+ * by running the frontend and the passes that would precede the stage.
+ */
+public class BenchCorpus {
+
+  public static final String ROOT_PROPERTY = "stc.bench.root";
+
+  /** Modules imported by corpus files */
+  private static final String MODULE_DIRS[] = { "tests", "bench/util" };
+
+  private static Logger logger = null;
+
+  /**
+   * Initialize settings and logging.  Safe to call multiple times.
+   * @return logger to use in benchmarks
+   */
+  public static synchronized Logger init() throws InvalidOptionException {
+    if (logger == null) {
+      Settings.initSTCProperties();
+      for (String dir: MODULE_DIRS) {
+        Settings.addModulePath(path(dir));
+      }
+      logger = Logging.setupLogging(null, false);
+      // Avoid flooding benchmark output with warnings
+      logger.setLevel(Level.ERROR);
+    }
+    return logger;
+  }
+
+  /**
+   * @param file path relative to stc directory
+   * @return path to use
+   */
+  public static String path(String file) {
+    String root = System.getProperty(ROOT_PROPERTY, "..");
+    return new File(root, file).getPath();
+  }
+
+  /**
+   * Run frontend on file
+   * @param file path relative to stc directory
+   * @return middle end with IC for file
+   */
+  public static STCMiddleEnd frontend(String file) throws UserException {
+    String path = path(file);
+    ForeignFunctions foreignFuncs = new ForeignFunctions();
+    STCMiddleEnd middle = new STCMiddleEnd(logger, null, foreignFuncs,
+                                           Profiler.disabled());
+    ASTWalker walker = new ASTWalker(middle, foreignFuncs,
+                                     Profiler.disabled());
+    walker.walk(path, null);
+    return middle;
+  }
+
+  /**
+   * Run frontend on file, then run passes in order
+   * @param file path relative to stc directory
+   * @param passes
+   * @return IC program
+   */
+  public static Program frontendAndPasses(String file,
+      OptimizerPass ...passes) throws UserException {
+    Program program = frontend(file).getProgram();
+    for (OptimizerPass pass: passes) {
+      pass.optimize(logger, program);
+    }
+    return program;
+  }
+}
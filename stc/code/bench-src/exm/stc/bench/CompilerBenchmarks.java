@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exm.stc.common.Profiler;
+import exm.stc.common.exceptions.InvalidOptionException;
+import exm.stc.common.exceptions.UserException;
+import exm.stc.frontend.ParsedModule;
+import exm.stc.ic.STCMiddleEnd;
+import exm.stc.ic.opt.DeadCodeEliminator;
+import exm.stc.ic.opt.FixupVariables;
+import exm.stc.ic.opt.FlattenNested;
+import exm.stc.ic.opt.PruneFunctions;
+import exm.stc.ic.opt.UniqueVarNames;
+import exm.stc.ic.opt.valuenumber.ValueNumber;
+import exm.stc.ic.refcount.RefcountPass;
+import exm.stc.ic.tree.ICTree.Program;
+import exm.stc.tclbackend.TurbineGenerator;
+
+/**
+ * Benchmarks for compiler stages that dominate compile time.  Each stage
+ * is run on the IC as it would be at that point in a normal compile,
+ * except that the iterative optimizer passes are not run before
+ * ValueNumber, FixupVariables and RefcountPass.
+ *
+ * Run with "ant bench".  Pass JMH options, e.g. to select benchmarks or
+ * corpus files, with -Dbench.args="...".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompilerBenchmarks {
+
+  @State(Scope.Benchmark)
+  public static class Corpus {
+    /** Swift files, relative to stc directory */
+    @Param({"tests/355-nested-insert.swift",
+            "tests/452-assoc-array.swift",
+            "tests/900-mapreduce-1.swift",
+            "tests/986-sudoku.swift",
+            "bench/suite/ensemble/ensemble.swift",
+            "bench/suite/uts/uts.swift",
+            "bench/suite/wavefront/wavefront.swift"})
+    public String file;
+
+    Logger logger;
+
+    @Setup(Level.Trial)
+    public void setup() throws InvalidOptionException {
+      logger = BenchCorpus.init();
+    }
+  }
+
+  /**
+   * IC after the preprocessing passes, as input to value numbering
+   */
+  @State(Scope.Thread)
+  public static class PreprocessedIC {
+    Program program;
+
+    @Setup(Level.Invocation)
+    public void setup(Corpus corpus) throws UserException {
+      program = BenchCorpus.frontendAndPasses(corpus.file,
+          new PruneFunctions(), new UniqueVarNames(), new FlattenNested());
+    }
+  }
+
+  /**
+   * IC before variable passing annotations are added
+   */
+  @State(Scope.Thread)
+  public static class UnfixedIC {
+    Program program;
+
+    @Setup(Level.Invocation)
+    public void setup(Corpus corpus) throws UserException {
+      program = BenchCorpus.frontendAndPasses(corpus.file,
+          new PruneFunctions(), new UniqueVarNames(), new FlattenNested(),
+          new DeadCodeEliminator(), new PruneFunctions());
+    }
+  }
+
+  /**
+   * IC with variable passing annotations, as input to refcounting
+   */
+  @State(Scope.Thread)
+  public static class FixedIC {
+    Program program;
+
+    @Setup(Level.Invocation)
+    public void setup(Corpus corpus) throws UserException {
+      program = BenchCorpus.frontendAndPasses(corpus.file,
+          new PruneFunctions(), new UniqueVarNames(), new FlattenNested(),
+          new DeadCodeEliminator(), new PruneFunctions(),
+          new FixupVariables());
+    }
+  }
+
+  /**
+   * Fully optimized IC, as input to code generation.  Code generation
+   * does not modify the IC, so it can be reused.
+   */
+  @State(Scope.Thread)
+  public static class OptimizedIC {
+    STCMiddleEnd middle;
+
+    @Setup(Level.Trial)
+    public void setup(Corpus corpus) throws UserException {
+      middle = BenchCorpus.frontend(corpus.file);
+      middle.optimize();
+    }
+  }
+
+  @Benchmark
+  public ParsedModule parse(Corpus corpus) throws IOException {
+    return ParsedModule.parse("main", BenchCorpus.path(corpus.file), false);
+  }
+
+  /**
+   * Lower AST to IC, including parsing of all modules
+   */
+  @Benchmark
+  public STCMiddleEnd astWalker(Corpus corpus) throws UserException {
+    return BenchCorpus.frontend(corpus.file);
+  }
+
+  @Benchmark
+  public Program valueNumber(Corpus corpus, PreprocessedIC ic)
+      throws UserException {
+    new ValueNumber(true).optimize(corpus.logger, ic.program);
+    return ic.program;
+  }
+
+  @Benchmark
+  public Program fixupVariables(Corpus corpus, UnfixedIC ic)
+      throws UserException {
+    new FixupVariables().optimize(corpus.logger, ic.program);
+    return ic.program;
+  }
+
+  /**
+   * Refcount placement, i.e. RCPlacer for all functions
+   */
+  @Benchmark
+  public Program refcount(Corpus corpus, FixedIC ic) throws UserException {
+    new RefcountPass().optimize(corpus.logger, ic.program);
+    return ic.program;
+  }
+
+  /**
+   * Regenerate from IC and emit Tcl
+   */
+  @Benchmark
+  public ByteArrayOutputStream turbineGenerator(Corpus corpus,
+      OptimizedIC ic) throws UserException, IOException {
+    TurbineGenerator codeGen = new TurbineGenerator(corpus.logger,
+                        "benchmark", Profiler.disabled());
+    ic.middle.regenerate(codeGen);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    codeGen.generate(output);
+    return output;
+  }
+}
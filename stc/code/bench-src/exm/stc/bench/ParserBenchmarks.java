@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import exm.stc.ast.SwiftAST;
+import exm.stc.common.exceptions.STCFatal;
+import exm.stc.frontend.ParsedModule;
+
+/**
+ * Parser throughput on all of the test programs.  One operation parses
+ * every file in the tests directory that parses without errors, from
+ * memory.
+ *
+ * Setup prints a hash of the ASTs, so that grammar changes can be checked
+ * to produce identical trees.
+ *
+ * Run with "ant bench -Dbench.args=ParserBenchmarks".
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmarks {
+
+  @State(Scope.Benchmark)
+  public static class Corpus {
+    List<String> paths = new ArrayList<String>();
+    List<String> sources = new ArrayList<String>();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      File dir = new File(BenchCorpus.path("tests"));
+      File files[] = dir.listFiles();
+      Arrays.sort(files);
+
+      Hasher hash = Hashing.sha256().newHasher();
+      long bytes = 0;
+      for (File file: files) {
+        if (!file.getName().endsWith(".swift")) {
+          continue;
+        }
+        String source = Files.toString(file, Charsets.UTF_8);
+        ParsedModule parsed;
+        try {
+          parsed = ParsedModule.parse("main", file.getPath(),
+                                      new StringReader(source), false);
+        } catch (STCFatal e) {
+          // Test of syntax error
+          continue;
+        }
+        hashTree(hash, parsed.ast);
+        paths.add(file.getPath());
+        sources.add(source);
+        bytes += source.length();
+      }
+
+      System.out.println("Parsing " + sources.size() + " files, " + bytes +
+                         " chars, AST hash " + hash.hash());
+    }
+
+    private static void hashTree(Hasher hash, SwiftAST tree) {
+      hash.putInt(tree.getType());
+      hash.putString(String.valueOf(tree.getText()), Charsets.UTF_8);
+      hash.putInt(tree.getLine());
+      hash.putInt(tree.getCharPositionInLine());
+      hash.putInt(tree.getChildCount());
+      for (SwiftAST child: tree.children()) {
+        hashTree(hash, child);
+      }
+    }
+  }
+
+  @Benchmark
+  public int parseAll(Corpus corpus) throws IOException {
+    int nodes = 0;
+    for (int i = 0; i < corpus.sources.size(); i++) {
+      ParsedModule parsed = ParsedModule.parse("main", corpus.paths.get(i),
+                          new StringReader(corpus.sources.get(i)), false);
+      nodes += parsed.ast.getChildCount();
+    }
+    return nodes;
+  }
+}
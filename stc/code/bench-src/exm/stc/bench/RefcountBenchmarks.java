@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import exm.stc.common.exceptions.UserException;
+import exm.stc.common.lang.Arg;
+import exm.stc.ic.opt.DeadCodeEliminator;
+import exm.stc.ic.opt.FixupVariables;
+import exm.stc.ic.opt.FlattenNested;
+import exm.stc.ic.opt.PruneFunctions;
+import exm.stc.ic.opt.TreeWalk;
+import exm.stc.ic.opt.TreeWalk.TreeWalker;
+import exm.stc.ic.opt.UniqueVarNames;
+import exm.stc.ic.refcount.RefcountPass;
+import exm.stc.ic.tree.ICInstructions.Instruction;
+import exm.stc.ic.tree.ICTree.CleanupAction;
+import exm.stc.ic.tree.ICTree.Program;
+import exm.stc.ic.tree.TurbineOp.RefCountOp;
+
+/**
+ * Refcount placement time and quality.
+ *
+ * The placement benchmark runs RefcountPass on each corpus file.  Setup
+ * prints a summary of the refcount operations placed: their number, the
+ * total of constant amounts, and a hash of the operations ignoring order.
+ * Fewer operations is better.  Run on two builds to compare placement
+ * by a new implementation with the previous one.
+ *
+ * Run with "ant bench -Dbench.args=RefcountBenchmarks".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RefcountBenchmarks {
+
+  @State(Scope.Benchmark)
+  public static class Corpus {
+    /** Swift files, relative to stc directory */
+    @Param({"tests/355-nested-insert.swift",
+            "tests/452-assoc-array.swift",
+            "tests/986-sudoku.swift",
+            "bench/suite/ensemble/ensemble.swift",
+            "bench/suite/wavefront/wavefront.swift"})
+    public String file;
+
+    Logger logger;
+
+    @Setup(Level.Trial)
+    public void setup() throws UserException {
+      logger = BenchCorpus.init();
+
+      Program program = fixedIC(file);
+      new RefcountPass().optimize(logger, program);
+      printPlacement(logger, file, program);
+    }
+  }
+
+  /**
+   * IC with variable passing annotations, as input to refcounting
+   */
+  @State(Scope.Thread)
+  public static class FixedIC {
+    Program program;
+
+    @Setup(Level.Invocation)
+    public void setup(Corpus corpus) throws UserException {
+      program = fixedIC(corpus.file);
+    }
+  }
+
+  private static Program fixedIC(String file) throws UserException {
+    return BenchCorpus.frontendAndPasses(file,
+        new PruneFunctions(), new UniqueVarNames(), new FlattenNested(),
+        new DeadCodeEliminator(), new PruneFunctions(),
+        new FixupVariables());
+  }
+
+  private static void printPlacement(Logger logger, String file,
+                                     Program program) {
+    final List<String> ops = new ArrayList<String>();
+    final long total[] = new long[1];
+    TreeWalk.walk(logger, program, new TreeWalker() {
+      @Override
+      protected void visit(Instruction inst) {
+        addOp(inst);
+      }
+
+      @Override
+      protected void visit(CleanupAction cleanup) {
+        addOp(cleanup.action());
+      }
+
+      private void addOp(Instruction inst) {
+        if (RefCountOp.isRefcountOp(inst.op)) {
+          ops.add(inst.toString());
+          Arg amount = RefCountOp.getRCAmount(inst);
+          if (amount.isInt()) {
+            total[0] += Math.abs(amount.getInt());
+          }
+        }
+      }
+    });
+
+    Collections.sort(ops);
+    Hasher hash = Hashing.sha256().newHasher();
+    for (String op: ops) {
+      hash.putString(op, Charsets.UTF_8);
+    }
+    System.out.println(file + ": " + ops.size() + " refcount ops, " +
+          "constant total " + total[0] + ", placement hash " + hash.hash());
+  }
+
+  @Benchmark
+  public Program placement(Corpus corpus, FixedIC ic) throws UserException {
+    new RefcountPass().optimize(corpus.logger, ic.program);
+    return ic.program;
+  }
+}
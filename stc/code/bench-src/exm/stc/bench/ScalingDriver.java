@@ -0,0 +1,394 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import exm.stc.common.Profiler;
+import exm.stc.common.Profiler.Total;
+import exm.stc.common.exceptions.UserException;
+import exm.stc.common.lang.ForeignFunctions;
+import exm.stc.frontend.ASTWalker;
+import exm.stc.ic.STCMiddleEnd;
+import exm.stc.tclbackend.TurbineGenerator;
+
+/**
+ * Measure how compile time and heap grow with the size of generated
+ * programs, to find stages and passes that scale superlinearly.
+ *
+ * Each parameter of ScalingProgram is swept in turn, with the others
+ * held at their base values.  For each program, the frontend, optimizer
+ * and code generator are each timed, taking the fastest of several runs,
+ * and the peak heap used by each stage is recorded.  The same number of
+ * runs with the profiler enabled give the fastest time of each pass.
+ * These are separate since profiling adds to the time of each stage.
+ *
+ * For each parameter, the growth exponent of a stage is the slope of
+ * log(time) against log(parameter) over the two largest values, printed
+ * alongside that of the source size.  Passes whose time grows faster
+ * than the source size by more than a margin are reported as
+ * superlinear.
+ *
+ * Arguments are of the form name=v1,v2,...  A parameter with several
+ * values is swept, and one with a single value sets its base value.  If
+ * no parameter is swept, all are swept over default values.  Other
+ * arguments are reps=N (measured runs per program), warmup=N (runs of
+ * the base program to warm up the JVM) and dir=path (where to write
+ * generated programs).
+ *
+ * Run with "ant bench.scaling -Dbench.scaling.args=...".  The default
+ * sweeps take several minutes, mostly in the optimizer.
+ */
+public class ScalingDriver {
+
+  private static final String STAGES[] = {Profiler.STAGE_FRONTEND,
+                      Profiler.STAGE_OPTIMIZER, Profiler.STAGE_BACKEND};
+
+  /**
+   * Growth exponent above that of source size to report as superlinear
+   */
+  private static final double SUPERLINEAR_MARGIN = 0.5;
+
+  /**
+   * Fraction of stage time below which passes are not reported, since
+   * their times are too noisy to estimate growth
+   */
+  private static final double MIN_PASS_FRACTION = 0.05;
+
+  private static final double MB = 1024.0 * 1024.0;
+
+  private final Logger logger;
+  private final File dir;
+  private final int reps;
+
+  /** Count of programs written, to give each a unique file */
+  private int programCount = 0;
+
+  public ScalingDriver(Logger logger, File dir, int reps) {
+    this.logger = logger;
+    this.dir = dir;
+    this.reps = reps;
+  }
+
+  /**
+   * Measurements of compiling one program
+   */
+  private static class Result {
+    final long sourceChars;
+
+    /** Minimum time for each stage in ns */
+    final Map<String, Long> timeNs = new HashMap<String, Long>();
+
+    /** Maximum peak heap for each stage in bytes */
+    final Map<String, Long> peakHeap = new HashMap<String, Long>();
+
+    /** Minimum time of each pass in ns, keyed by stage/name */
+    final Map<String, Long> passTimeNs = new LinkedHashMap<String, Long>();
+
+    Result(long sourceChars) {
+      this.sourceChars = sourceChars;
+    }
+  }
+
+  public static void main(String args[]) throws Exception {
+    ScalingProgram base = ScalingProgram.base();
+    Map<String, int[]> sweeps = new LinkedHashMap<String, int[]>();
+    int reps = 3;
+    int warmup = 5;
+    File dir = null;
+
+    for (String arg: args) {
+      int eq = arg.indexOf('=');
+      if (eq < 0) {
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      }
+      String name = arg.substring(0, eq);
+      String value = arg.substring(eq + 1);
+      if (name.equals("reps")) {
+        reps = Integer.parseInt(value);
+      } else if (name.equals("warmup")) {
+        warmup = Integer.parseInt(value);
+      } else if (name.equals("dir")) {
+        dir = new File(value);
+      } else {
+        int values[] = parseValues(value);
+        if (values.length == 1) {
+          base = base.with(name, values[0]);
+        } else {
+          // Check name is valid
+          base.get(name);
+          sweeps.put(name, values);
+        }
+      }
+    }
+
+    if (sweeps.isEmpty()) {
+      sweeps.put(ScalingProgram.FUNCTIONS, new int[] {10, 20, 40});
+      sweeps.put(ScalingProgram.DEPTH, new int[] {4, 8, 16});
+      sweeps.put(ScalingProgram.FOREACH, new int[] {2, 4, 8});
+      sweeps.put(ScalingProgram.FIELDS, new int[] {8, 16, 32});
+      sweeps.put(ScalingProgram.EXPR, new int[] {20, 40, 80});
+    }
+
+    if (dir == null) {
+      dir = Files.createTempDir();
+    }
+
+    Logger logger = BenchCorpus.init();
+    ScalingDriver driver = new ScalingDriver(logger, dir, reps);
+    System.out.println("Base program: " + base);
+    System.out.println("Writing programs to " + dir);
+
+    for (int i = 0; i < warmup; i++) {
+      driver.compile(driver.write(base), Profiler.disabled());
+    }
+
+    for (Entry<String, int[]> sweep: sweeps.entrySet()) {
+      driver.sweep(base, sweep.getKey(), sweep.getValue());
+    }
+  }
+
+  private static int[] parseValues(String s) {
+    String parts[] = s.split(",");
+    int values[] = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      values[i] = Integer.parseInt(parts[i].trim());
+    }
+    return values;
+  }
+
+  public void sweep(ScalingProgram base, String param, int values[])
+      throws UserException, IOException {
+    System.out.println();
+    System.out.println("Sweeping " + param + " " + Arrays.toString(values));
+    System.out.println(String.format("%8s %10s %12s %12s %12s %10s %10s %10s",
+        param, "src KB", "frontend ms", "optimize ms", "backend ms",
+        "fe MB", "opt MB", "be MB"));
+
+    List<Result> results = new ArrayList<Result>();
+    for (int value: values) {
+      Result r = measure(base.with(param, value));
+      results.add(r);
+      System.out.println(String.format(
+          "%8d %10.1f %12.1f %12.1f %12.1f %10.1f %10.1f %10.1f", value,
+          r.sourceChars / 1024.0,
+          r.timeNs.get(STAGES[0]) / 1e6, r.timeNs.get(STAGES[1]) / 1e6,
+          r.timeNs.get(STAGES[2]) / 1e6,
+          r.peakHeap.get(STAGES[0]) / MB, r.peakHeap.get(STAGES[1]) / MB,
+          r.peakHeap.get(STAGES[2]) / MB));
+    }
+
+    if (values.length < 2) {
+      return;
+    }
+    int n = values.length;
+    double x1 = values[n - 2], x2 = values[n - 1];
+    Result r1 = results.get(n - 2), r2 = results.get(n - 1);
+    if (x1 <= 0 || x2 <= x1) {
+      System.out.println("Need increasing positive values for growth");
+      return;
+    }
+
+    double sourceGrowth = growth(x1, x2, r1.sourceChars, r2.sourceChars);
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Growth exponent: source %.2f", sourceGrowth));
+    for (String stage: STAGES) {
+      sb.append(String.format(", %s time %.2f heap %.2f", stage,
+          growth(x1, x2, r1.timeNs.get(stage), r2.timeNs.get(stage)),
+          growth(x1, x2, r1.peakHeap.get(stage), r2.peakHeap.get(stage))));
+    }
+    System.out.println(sb);
+
+    reportSuperlinear(param, x1, x2, r1, r2, sourceGrowth);
+  }
+
+  /**
+   * Report passes whose time grows faster than the source
+   */
+  private void reportSuperlinear(String param, double x1, double x2,
+      Result r1, Result r2, double sourceGrowth) {
+    Map<String, Long> stageTotals = new HashMap<String, Long>();
+    for (Entry<String, Long> e: r2.passTimeNs.entrySet()) {
+      String stage = e.getKey().substring(0, e.getKey().indexOf('/'));
+      Long total = stageTotals.get(stage);
+      stageTotals.put(stage, (total == null ? 0 : total) + e.getValue());
+    }
+
+    final Map<String, Double> passGrowth = new HashMap<String, Double>();
+    for (Entry<String, Long> e: r2.passTimeNs.entrySet()) {
+      String pass = e.getKey();
+      Long t1 = r1.passTimeNs.get(pass);
+      String stage = pass.substring(0, pass.indexOf('/'));
+      if (t1 == null || t1 == 0 ||
+          e.getValue() < MIN_PASS_FRACTION * stageTotals.get(stage)) {
+        continue;
+      }
+      double g = growth(x1, x2, t1, e.getValue());
+      if (g > sourceGrowth + SUPERLINEAR_MARGIN) {
+        passGrowth.put(pass, g);
+      }
+    }
+
+    if (passGrowth.isEmpty()) {
+      System.out.println("No superlinear passes in " + param);
+      return;
+    }
+    List<String> passes = new ArrayList<String>(passGrowth.keySet());
+    Collections.sort(passes, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return Double.compare(passGrowth.get(b), passGrowth.get(a));
+      }
+    });
+    for (String pass: passes) {
+      System.out.println(String.format(
+          "SUPERLINEAR in %s: %s exponent %.2f, %.1f ms at %s=%d", param,
+          pass, passGrowth.get(pass), r2.passTimeNs.get(pass) / 1e6,
+          param, (int)x2));
+    }
+  }
+
+  private static double growth(double x1, double x2, double y1, double y2) {
+    if (y1 <= 0 || y2 <= 0) {
+      return Double.NaN;
+    }
+    return Math.log(y2 / y1) / Math.log(x2 / x1);
+  }
+
+  private Result measure(ScalingProgram program)
+      throws UserException, IOException {
+    File file = write(program);
+    Result result = new Result(file.length());
+    for (int i = 0; i < reps; i++) {
+      Map<String, long[]> run = compile(file, Profiler.disabled());
+      for (Entry<String, long[]> e: run.entrySet()) {
+        String stage = e.getKey();
+        long time = e.getValue()[0], heap = e.getValue()[1];
+        Long prevTime = result.timeNs.get(stage);
+        Long prevHeap = result.peakHeap.get(stage);
+        result.timeNs.put(stage,
+            prevTime == null ? time : Math.min(prevTime, time));
+        result.peakHeap.put(stage,
+            prevHeap == null ? heap : Math.max(prevHeap, heap));
+      }
+    }
+
+    for (int i = 0; i < reps; i++) {
+      Profiler profiler = Profiler.create();
+      compile(file, profiler);
+      for (Total t: profiler.totals()) {
+        String pass = t.stage() + "/" + t.name();
+        Long prevTime = result.passTimeNs.get(pass);
+        result.passTimeNs.put(pass,
+            prevTime == null ? t.timeNs() : Math.min(prevTime, t.timeNs()));
+      }
+    }
+    return result;
+  }
+
+  private File write(ScalingProgram program) throws IOException {
+    File file = new File(dir, "scaling" + (programCount++) + ".swift");
+    Files.write(program.generate(), file, Charsets.UTF_8);
+    return file;
+  }
+
+  /**
+   * Compile file, measuring each stage
+   * @return map of stage to [time in ns, peak heap in bytes]
+   */
+  private Map<String, long[]> compile(File file, Profiler profiler)
+      throws UserException, IOException {
+    Map<String, long[]> stages = new HashMap<String, long[]>();
+    ForeignFunctions foreignFuncs = new ForeignFunctions();
+    STCMiddleEnd middle = new STCMiddleEnd(logger, null, foreignFuncs,
+                                           profiler);
+    ASTWalker walker = new ASTWalker(middle, foreignFuncs, profiler);
+
+    long start = startStage();
+    walker.walk(file.getPath(), null);
+    endStage(stages, Profiler.STAGE_FRONTEND, start);
+
+    start = startStage();
+    middle.optimize();
+    endStage(stages, Profiler.STAGE_OPTIMIZER, start);
+
+    start = startStage();
+    TurbineGenerator codeGen = new TurbineGenerator(logger, "scaling",
+                                                    profiler);
+    middle.regenerate(codeGen);
+    OutputStream out = ByteStreams.nullOutputStream();
+    codeGen.generate(out);
+    endStage(stages, Profiler.STAGE_BACKEND, start);
+    return stages;
+  }
+
+  /**
+   * Collect garbage and reset peak heap usage so that the peak during
+   * the stage can be measured.
+   * @return start time
+   */
+  private static long startStage() {
+    System.gc();
+    for (MemoryPoolMXBean pool: heapPools()) {
+      pool.resetPeakUsage();
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Record time and peak heap of stage.  Peak heap is the sum of the
+   * peaks of each pool, so may overestimate the true peak.
+   */
+  private static void endStage(Map<String, long[]> stages, String stage,
+                               long start) {
+    long time = System.nanoTime() - start;
+    long peak = 0;
+    for (MemoryPoolMXBean pool: heapPools()) {
+      peak += pool.getPeakUsage().getUsed();
+    }
+    stages.put(stage, new long[] {time, peak});
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pools.add(pool);
+      }
+    }
+    return pools;
+  }
+}
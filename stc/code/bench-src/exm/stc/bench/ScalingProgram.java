@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generate synthetic Swift programs that stress the compiler along one
+ * dimension at a time, for measuring how compile time and memory scale.
+ *
+ * The program is a chain of functions, each calling the previous one.
+ * Every function body has the same shape:
+ * <ul>
+ * <li>a struct with a number of fields, each assigned and then read</li>
+ * <li>a long arithmetic expression</li>
+ * <li>a nest of foreach loops</li>
+ * <li>nested if statements, with the output assigned on every path</li>
+ * </ul>
+ * Programs only use builtins, so need no modules.
+ *
+ * Run main() with arguments of the form name=value to print a program,
+ * e.g. to compile it with stc directly.
+ */
+public class ScalingProgram {
+
+  public static final String FUNCTIONS = "functions";
+  public static final String DEPTH = "depth";
+  public static final String FOREACH = "foreach";
+  public static final String FIELDS = "fields";
+  public static final String EXPR = "expr";
+
+  /** All parameter names, in order */
+  public static final List<String> PARAMS = Arrays.asList(
+                          FUNCTIONS, DEPTH, FOREACH, FIELDS, EXPR);
+
+  /** Number of functions */
+  private final int functions;
+
+  /** Nesting depth of if statements in each function */
+  private final int depth;
+
+  /** Number of nested foreach loops in each function */
+  private final int foreachNest;
+
+  /** Number of fields in struct */
+  private final int fields;
+
+  /** Number of terms in arithmetic expression in each function */
+  private final int exprLength;
+
+  public ScalingProgram(int functions, int depth, int foreachNest,
+                        int fields, int exprLength) {
+    if (functions < 1 || depth < 0 || foreachNest < 0 || fields < 1 ||
+        exprLength < 1) {
+      throw new IllegalArgumentException("Invalid parameters: " +
+            functions + " " + depth + " " + foreachNest + " " + fields +
+            " " + exprLength);
+    }
+    this.functions = functions;
+    this.depth = depth;
+    this.foreachNest = foreachNest;
+    this.fields = fields;
+    this.exprLength = exprLength;
+  }
+
+  /**
+   * @return small program to vary parameters from
+   */
+  public static ScalingProgram base() {
+    return new ScalingProgram(10, 2, 1, 4, 10);
+  }
+
+  public static void main(String args[]) {
+    ScalingProgram program = base();
+    for (String arg: args) {
+      int eq = arg.indexOf('=');
+      if (eq < 0) {
+        throw new IllegalArgumentException("Expected name=value: " + arg);
+      }
+      program = program.with(arg.substring(0, eq),
+                             Integer.parseInt(arg.substring(eq + 1)));
+    }
+    System.out.print(program.generate());
+  }
+
+  /**
+   * @return copy of this program with a parameter changed
+   */
+  public ScalingProgram with(String param, int value) {
+    int p[] = {functions, depth, foreachNest, fields, exprLength};
+    int i = PARAMS.indexOf(param);
+    if (i < 0) {
+      throw new IllegalArgumentException("Unknown parameter: " + param);
+    }
+    p[i] = value;
+    return new ScalingProgram(p[0], p[1], p[2], p[3], p[4]);
+  }
+
+  public int get(String param) {
+    int p[] = {functions, depth, foreachNest, fields, exprLength};
+    int i = PARAMS.indexOf(param);
+    if (i < 0) {
+      throw new IllegalArgumentException("Unknown parameter: " + param);
+    }
+    return p[i];
+  }
+
+  public String generate() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by ").append(getClass().getSimpleName())
+      .append(": ").append(this).append("\n\n");
+
+    sb.append("type rec {\n");
+    for (int i = 0; i < fields; i++) {
+      sb.append("  int f").append(i).append(";\n");
+    }
+    sb.append("}\n\n");
+
+    for (int i = 0; i < functions; i++) {
+      function(sb, i);
+    }
+
+    sb.append("main {\n");
+    sb.append("  trace(fn").append(functions - 1).append("(1));\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private void function(StringBuilder sb, int i) {
+    sb.append("(int o) fn").append(i).append(" (int x) {\n");
+    if (i == 0) {
+      sb.append("  int v = x;\n");
+    } else {
+      sb.append("  int v = fn").append(i - 1).append("(x + 1);\n");
+    }
+
+    sb.append("  rec r;\n");
+    for (int f = 0; f < fields; f++) {
+      sb.append("  r.f").append(f).append(" = v + ").append(f)
+        .append(";\n");
+    }
+    sb.append("  int s =");
+    for (int f = 0; f < fields; f++) {
+      sb.append(f == 0 ? " " : " + ").append("r.f").append(f);
+    }
+    sb.append(";\n");
+
+    // Alternate operators so that terms cannot be folded together
+    sb.append("  int e = s");
+    for (int t = 1; t < exprLength; t++) {
+      sb.append(t % 2 == 0 ? " - " : " + ").append("v * ").append(t);
+    }
+    sb.append(";\n");
+
+    String indent = "  ";
+    StringBuilder index = new StringBuilder("e");
+    for (int l = 0; l < foreachNest; l++) {
+      sb.append(indent).append("foreach i").append(l).append(" in [1:")
+        .append(l + 2).append("] {\n");
+      indent += "  ";
+      index.append(" + i").append(l);
+    }
+    if (foreachNest > 0) {
+      sb.append(indent).append("trace(").append(i).append(", ")
+        .append(index).append(");\n");
+    }
+    for (int l = foreachNest - 1; l >= 0; l--) {
+      indent = indent.substring(2);
+      sb.append(indent).append("}\n");
+    }
+
+    sb.append("  int d0 = e;\n");
+    nestedIf(sb, 0, "  ");
+    sb.append("}\n\n");
+  }
+
+  private void nestedIf(StringBuilder sb, int level, String indent) {
+    String d = "d" + level;
+    if (level == depth) {
+      sb.append(indent).append("o = ").append(d).append(";\n");
+      return;
+    }
+    String next = "d" + (level + 1);
+    sb.append(indent).append("if (").append(d).append(" %% ")
+      .append(level + 2).append(" == 0) {\n");
+    sb.append(indent).append("  int ").append(next).append(" = ")
+      .append(d).append(" + ").append(level).append(";\n");
+    nestedIf(sb, level + 1, indent + "  ");
+    sb.append(indent).append("} else {\n");
+    sb.append(indent).append("  o = ").append(d).append(";\n");
+    sb.append(indent).append("}\n");
+  }
+
+  @Override
+  public String toString() {
+    return FUNCTIONS + "=" + functions + " " + DEPTH + "=" + depth + " " +
+           FOREACH + "=" + foreachNest + " " + FIELDS + "=" + fields + " " +
+           EXPR + "=" + exprLength;
+  }
+}
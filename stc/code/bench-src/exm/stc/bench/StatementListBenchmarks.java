@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exm.stc.common.util.GapList;
+
+/**
+ * Compare block statement containers on the access patterns optimizer
+ * passes use, on blocks the size of fully unrolled loops.
+ *
+ * Run with "ant bench -Dbench.args=StatementListBenchmarks".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatementListBenchmarks {
+
+  @State(Scope.Thread)
+  public static class Block {
+    @Param({"LinkedList", "GapList"})
+    public String impl;
+
+    @Param({"100", "10000", "100000"})
+    public int statements;
+
+    List<Object> stmts;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+      List<Object> init = new ArrayList<Object>(statements);
+      for (int i = 0; i < statements; i++) {
+        init.add(new Object());
+      }
+      if (impl.equals("LinkedList")) {
+        stmts = new LinkedList<Object>(init);
+      } else {
+        stmts = new GapList<Object>(init);
+      }
+    }
+  }
+
+  /**
+   * Iterate over all statements
+   */
+  @Benchmark
+  public int walk(Block b) {
+    int count = 0;
+    for (Object stmt: b.stmts) {
+      if (stmt != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Forward walk replacing, removing and inserting statements, as
+   * ValueNumber and ReorderInstructions do
+   */
+  @Benchmark
+  public List<Object> rewriteForward(Block b) {
+    ListIterator<Object> it = b.stmts.listIterator();
+    int i = 0;
+    while (it.hasNext()) {
+      it.next();
+      if (i % 3 == 0) {
+        it.remove();
+      } else if (i % 5 == 0) {
+        it.add(new Object());
+      } else if (i % 7 == 0) {
+        it.set(new Object());
+      }
+      i++;
+    }
+    return b.stmts;
+  }
+
+  /**
+   * Backward walk inserting after statements, as refcount placement does
+   */
+  @Benchmark
+  public List<Object> insertBackward(Block b) {
+    ListIterator<Object> it = b.stmts.listIterator(b.stmts.size());
+    int i = 0;
+    while (it.hasPrevious()) {
+      it.previous();
+      if (i % 4 == 0) {
+        it.next();
+        it.add(new Object());
+        it.previous();
+        it.previous();
+      }
+      i++;
+    }
+    return b.stmts;
+  }
+
+  /**
+   * Insert statements at start of block, e.g. loop variable setup
+   */
+  @Benchmark
+  public List<Object> insertFront(Block b) {
+    for (int i = 0; i < 100; i++) {
+      b.stmts.add(0, new Object());
+    }
+    return b.stmts;
+  }
+}
@@ -15,9 +15,11 @@
  */
 grammar ExM;
 
-// TODO: need backtracking to disambiguate between function type
-// signature and function call statements in stmt
-options {output=AST; backtrack=true;}
+// The grammar is LL(*) apart from a few decisions that are resolved
+// with syntactic predicates.  Avoid global backtracking: it re-parses
+// whole subtrees speculatively, e.g. every function body and every
+// function call argument list.
+options {output=AST;}
 
 tokens {
     PLUS    = '+' ;
@@ -111,6 +113,7 @@ tokens {
 
 @parser::header {
 package exm.stc.ast.antlr;
+import java.util.List;
 import exm.stc.ast.FilePosition;
 import exm.stc.ast.FilePosition.LineMapping;
 
@@ -120,6 +123,17 @@ import exm.stc.ast.FilePosition.LineMapping;
     public boolean parserError = false;
     public LineMapping lineMap = null;
 
+    /** If not null, error messages are added here instead of printed */
+    public List<String> errorMessages = null;
+
+    public void emitErrorMessage(String msg) {
+      if (errorMessages != null) {
+        errorMessages.add(msg);
+      } else {
+        super.emitErrorMessage(msg);
+      }
+    }
+
     public void displayRecognitionError(String[] tokenNames,
                                     RecognitionException e) {
       // Log that there was an error, otherwise antlr might
@@ -150,6 +164,7 @@ import exm.stc.ast.FilePosition.LineMapping;
 
 @lexer::header {
 package exm.stc.ast.antlr;
+import java.util.List;
 import exm.stc.ast.FilePosition;
 import exm.stc.ast.FilePosition.LineMapping;
 }
@@ -160,6 +175,17 @@ import exm.stc.ast.FilePosition.LineMapping;
     public LineMapping lineMap = null;
     public boolean quiet = false; // if true, don't report errors
 
+    /** If not null, error messages are added here instead of printed */
+    public List<String> errorMessages = null;
+
+    public void emitErrorMessage(String msg) {
+      if (errorMessages != null) {
+        errorMessages.add(msg);
+      } else {
+        super.emitErrorMessage(msg);
+      }
+    }
+
     public void displayRecognitionError(String[] tokenNames,
                                     RecognitionException e) {
       if (quiet) return;
@@ -189,20 +215,23 @@ stmt:
     ;
 
 real_stmt:
-        (function_definition)
+        // Function definition vs. function call or assignment statement
+        (function_definition_start)=> function_definition
     |   (new_type_definition)
     |   (global_const_definition)
     |   (import_statement)
     |   (pragma_stmt)
+    // Annotated loops vs. annotated function call
+    |   (annotation* FOREACH)=> foreach_loop
+    |   (annotation* FOR)=> for_loop
+    // Update vs. declaration with parameterized type
+    |   (ID LT ID GT MUTATE)=> update_stmt
     |   (stmt_chain)
     |   (if_stmt)
     |   (switch_stmt)
     |   (block)
-    |   (foreach_loop)
-    |   (for_loop)
     |   (iterate_loop)
     |   (wait_stmt)
-    |   (update_stmt)
     ;
 
 stmt_chain:
@@ -280,6 +309,16 @@ function_definition:
         )
     );
 
+// Enough of a function definition to tell it apart from a statement
+function_definition_start:
+        annotation* (
+            APP
+        |   LT
+        |   formal_argument_list func_name formal_argument_list
+                (LBRACE | STRING)
+        )
+    ;
+
 func_name: ID;
 
 app_body:
@@ -560,7 +599,8 @@ cmpexpr_op: LT|LTE|GT|GTE
 
 aexpr:
         (mexpr->mexpr)
-        (     aexpr_op b=mexpr
+        (     // Greedily continue, e.g. in pragma "a - b"
+              (aexpr_op)=> aexpr_op b=mexpr
             -> ^(OPERATOR aexpr_op $aexpr $b)
         )*
     ;
@@ -599,7 +639,8 @@ uexpr_op: NOT
 // postfix expression
 pfexpr:
         (base_expr->base_expr)
-        (   array_index -> ^(ARRAY_LOAD $pfexpr array_index )
+        (   // Greedily continue, e.g. in pragma "A [1]"
+            (LSQUARE)=> array_index -> ^(ARRAY_LOAD $pfexpr array_index )
           | var_subscript -> ^(STRUCT_LOAD $pfexpr var_subscript )
         )*
     ;
@@ -618,7 +659,7 @@ var_subscript:
 
 base_expr:
             literal
-        |   function_call
+        |   (ATSIGN | ID LPAREN)=> function_call
         |   variable
         |   paren_expr
         |   array_constructor
@@ -742,7 +783,7 @@ more_expr:
 paren_expr:
     LPAREN e=expr (
         -> $e
-      | more_expr* -> ^( TUPLE $e more_expr* )
+      | more_expr+ -> ^( TUPLE $e more_expr+ )
     ) RPAREN;
 
 assignment_list:
@@ -74,6 +74,18 @@ public class SwiftAST extends CommonTree {
     this.identifier = identifier;
   }
 
+  /**
+   * Discard children and frontend annotations once the subtree has been
+   * compiled, so that its memory can be reclaimed.  The node itself
+   * remains in the tree with its token type and position.
+   */
+  public void release() {
+    children = null;
+    identifier = null;
+    exprType = null;
+    variableUsage = null;
+  }
+
   /**
    * Shorter alternative to getChildCount()
    */
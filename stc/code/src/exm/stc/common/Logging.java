@@ -25,6 +25,7 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 
+import exm.stc.common.exceptions.STCFatal;
 import exm.stc.common.util.Pair;
 import exm.stc.ui.ExitCode;
 
@@ -72,7 +73,7 @@ public class Logging {
       stcLogger.setLevel(threshold);
     } catch (IOException e) {
       System.out.println(e.getMessage());
-      System.exit(ExitCode.ERROR_IO.code());
+      throw new STCFatal(ExitCode.ERROR_IO.code());
     }
   }
 
@@ -90,6 +91,15 @@ public class Logging {
     stcLogger.setLevel(Level.WARN);
   }
 
+  /**
+   * Remove appenders added by setupLogging and forget emitted messages,
+   * so that logging can be set up again for another compilation.
+   */
+  public static void reset() {
+    getSTCLogger().removeAllAppenders();
+    emitted.clear();
+  }
+
   /**
    * @param level
    * @param msg
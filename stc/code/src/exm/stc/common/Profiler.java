@@ -0,0 +1,336 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * Record wall time, allocation and IR size for each phase and pass of
+ * the compiler, and write them out as a JSON report.
+ *
+ * Callers should check {@link #enabled()} before doing any work to
+ * collect IR sizes, since a disabled profiler discards everything.
+ */
+public class Profiler {
+
+  public static final String STAGE_FRONTEND = "frontend";
+  public static final String STAGE_OPTIMIZER = "optimizer";
+  public static final String STAGE_BACKEND = "backend";
+
+  private static final Profiler DISABLED = new Profiler(false);
+
+  private final boolean enabled;
+  private final List<Record> records = new ArrayList<Record>();
+
+  private Profiler(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public static Profiler create() {
+    return new Profiler(true);
+  }
+
+  public static Profiler disabled() {
+    return DISABLED;
+  }
+
+  public boolean enabled() {
+    return enabled;
+  }
+
+  /**
+   * Take sample at start or end of a phase
+   * @return sample to pass to record(), or null if disabled
+   */
+  public Sample sample() {
+    if (!enabled) {
+      return null;
+    }
+    return Sample.take();
+  }
+
+  /**
+   * Record a phase of compilation.  IR sizes should be measured outside
+   * the phase so that it is not counted in the phase's time.
+   * @param stage
+   * @param name name of phase or pass
+   * @param iteration optimizer iteration, or null if not applicable
+   * @param start sample taken at start of phase
+   * @param end sample taken at end of phase
+   * @param sizesBefore IR sizes before, or null if not measured
+   * @param sizesAfter IR sizes after, or null if not measured
+   */
+  public void record(String stage, String name, Long iteration,
+      Sample start, Sample end, Map<String, Long> sizesBefore,
+      Map<String, Long> sizesAfter) {
+    if (!enabled) {
+      return;
+    }
+    long allocated = -1;
+    if (start.threadAlloc != null && end.threadAlloc != null) {
+      allocated = 0;
+      for (Entry<Long, Long> e: end.threadAlloc.entrySet()) {
+        Long before = start.threadAlloc.get(e.getKey());
+        allocated += e.getValue() - (before == null ? 0 : before);
+      }
+    }
+
+    synchronized (records) {
+      records.add(new Record(stage, name, iteration,
+          end.nanoTime - start.nanoTime, allocated,
+          sizesBefore, sizesAfter));
+    }
+  }
+
+  /**
+   * Write JSON report with all records in order, followed by a summary
+   * of totals for each pass, sorted by decreasing time.
+   * @param out
+   * @throws IOException
+   */
+  public void writeReport(Writer out) throws IOException {
+    synchronized (records) {
+      out.write("{\n");
+      out.write("  \"input\": ");
+      writeString(out, Settings.get(Settings.INPUT_FILENAME));
+      out.write(",\n");
+      out.write("  \"allocationMeasured\": " +
+                (allocationBean() != null) + ",\n");
+      out.write("  \"records\": [");
+      boolean first = true;
+      for (Record r: records) {
+        out.write(first ? "\n" : ",\n");
+        first = false;
+        writeRecord(out, r);
+      }
+      out.write("\n  ],\n");
+
+      out.write("  \"summary\": [");
+      first = true;
+      for (Total t: totals()) {
+        out.write(first ? "\n" : ",\n");
+        first = false;
+        out.write("    {\"stage\": ");
+        writeString(out, t.stage);
+        out.write(", \"name\": ");
+        writeString(out, t.name);
+        out.write(", \"count\": " + t.count +
+                  ", \"timeNs\": " + t.timeNs +
+                  ", \"allocatedBytes\": " + t.allocated + "}");
+      }
+      out.write("\n  ]\n");
+      out.write("}\n");
+    }
+    out.flush();
+  }
+
+  private void writeRecord(Writer out, Record r) throws IOException {
+    out.write("    {\"stage\": ");
+    writeString(out, r.stage);
+    out.write(", \"name\": ");
+    writeString(out, r.name);
+    if (r.iteration != null) {
+      out.write(", \"iteration\": " + r.iteration);
+    }
+    out.write(", \"timeNs\": " + r.timeNs);
+    out.write(", \"allocatedBytes\": " + r.allocated);
+    if (r.sizesBefore != null) {
+      out.write(",\n     \"before\": ");
+      writeSizes(out, r.sizesBefore);
+    }
+    if (r.sizesAfter != null) {
+      out.write(",\n     \"after\": ");
+      writeSizes(out, r.sizesAfter);
+    }
+    out.write("}");
+  }
+
+  private static void writeSizes(Writer out, Map<String, Long> sizes)
+      throws IOException {
+    out.write("{");
+    boolean first = true;
+    for (Entry<String, Long> e: sizes.entrySet()) {
+      if (!first) {
+        out.write(", ");
+      }
+      first = false;
+      writeString(out, e.getKey());
+      out.write(": " + e.getValue());
+    }
+    out.write("}");
+  }
+
+  private static void writeString(Writer out, String s) throws IOException {
+    out.write("\"");
+    out.write(StringEscapeUtils.escapeJson(s));
+    out.write("\"");
+  }
+
+  /**
+   * @return totals for each stage and pass, sorted by decreasing time
+   */
+  public List<Total> totals() {
+    Map<String, Total> totals = new LinkedHashMap<String, Total>();
+    synchronized (records) {
+      for (Record r: records) {
+        String key = r.stage + "/" + r.name;
+        Total t = totals.get(key);
+        if (t == null) {
+          t = new Total(r.stage, r.name);
+          totals.put(key, t);
+        }
+        t.count++;
+        t.timeNs += r.timeNs;
+        if (t.allocated >= 0 && r.allocated >= 0) {
+          t.allocated += r.allocated;
+        } else {
+          t.allocated = -1;
+        }
+      }
+    }
+
+    List<Total> result = new ArrayList<Total>(totals.values());
+    Collections.sort(result, new Comparator<Total>() {
+      @Override
+      public int compare(Total a, Total b) {
+        if (a.timeNs == b.timeNs) {
+          return 0;
+        }
+        return a.timeNs > b.timeNs ? -1 : 1;
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @return bean that can measure allocated bytes, or null if not supported
+   */
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean =
+                          (com.sun.management.ThreadMXBean)bean;
+      if (sunBean.isThreadAllocatedMemorySupported() &&
+          sunBean.isThreadAllocatedMemoryEnabled()) {
+        return sunBean;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Time and per-thread allocation at a point in time.  Allocation is
+   * summed over all threads so that work done on helper threads, e.g. by
+   * parallel optimizer passes, is included.
+   */
+  public static class Sample {
+    private final long nanoTime;
+    /** Map of thread id to bytes allocated, null if not supported */
+    private final Map<Long, Long> threadAlloc;
+
+    private Sample(long nanoTime, Map<Long, Long> threadAlloc) {
+      this.nanoTime = nanoTime;
+      this.threadAlloc = threadAlloc;
+    }
+
+    private static Sample take() {
+      Map<Long, Long> threadAlloc = null;
+      com.sun.management.ThreadMXBean bean = allocationBean();
+      if (bean != null) {
+        long ids[] = bean.getAllThreadIds();
+        long bytes[] = bean.getThreadAllocatedBytes(ids);
+        threadAlloc = new HashMap<Long, Long>();
+        for (int i = 0; i < ids.length; i++) {
+          // Thread may have exited
+          if (bytes[i] >= 0) {
+            threadAlloc.put(ids[i], bytes[i]);
+          }
+        }
+      }
+      return new Sample(System.nanoTime(), threadAlloc);
+    }
+  }
+
+  private static class Record {
+    final String stage;
+    final String name;
+    final Long iteration;
+    final long timeNs;
+    final long allocated;
+    final Map<String, Long> sizesBefore;
+    final Map<String, Long> sizesAfter;
+
+    Record(String stage, String name, Long iteration, long timeNs,
+        long allocated, Map<String, Long> sizesBefore,
+        Map<String, Long> sizesAfter) {
+      this.stage = stage;
+      this.name = name;
+      this.iteration = iteration;
+      this.timeNs = timeNs;
+      this.allocated = allocated;
+      this.sizesBefore = sizesBefore;
+      this.sizesAfter = sizesAfter;
+    }
+  }
+
+  public static class Total {
+    private final String stage;
+    private final String name;
+    private long count = 0;
+    private long timeNs = 0;
+    private long allocated = 0;
+
+    private Total(String stage, String name) {
+      this.stage = stage;
+      this.name = name;
+    }
+
+    public String stage() {
+      return stage;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    /** Number of times phase was run */
+    public long count() {
+      return count;
+    }
+
+    public long timeNs() {
+      return timeNs;
+    }
+
+    /** Bytes allocated, or -1 if not measured */
+    public long allocated() {
+      return allocated;
+    }
+  }
+}
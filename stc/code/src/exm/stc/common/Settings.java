@@ -107,6 +107,17 @@ public class Settings {
   public static final String OPT_HOIST_REFCOUNTS = "stc.opt.hoist-refcounts";
 
   public static final String OPT_MAX_ITERATIONS = "stc.opt.max-iterations";
+  /* Skip optimizer passes on functions they are known not to change */
+  public static final String OPT_DETECT_FIXED_POINT =
+                            "stc.opt.detect-fixed-point";
+  /* Check that fixed point detection sees all changes to the IR by
+   * fingerprinting functions after each pass.  Slow: for debugging */
+  public static final String OPT_CHECK_FIXED_POINT =
+                            "stc.opt.check-fixed-point";
+
+  /* Number of threads to optimize functions with.  1 to optimize serially,
+   * 0 to use all available processors */
+  public static final String OPT_PARALLEL_THREADS = "stc.opt.parallel-threads";
 
   public static final String ENABLE_REFCOUNTING = "stc.refcounting";
   public static final String ENABLE_CHECKPOINTING = "stc.checkpointing";
@@ -123,9 +134,32 @@ public class Settings {
   public static final String LOG_TRACE = "stc.log.trace";
   public static final String COMPILER_DEBUG = "stc.compiler-debug";
 
-  /** Run compiler repeatedly so can be profiled */
+  /* How much of the IR to validate during optimization: "full" validates
+   * the whole program after every pass, "incremental" the functions each
+   * pass modified, "sampled" the functions modified in each optimizer
+   * iteration, and "final" only the final IR.  Setting stc.compiler-debug
+   * to false implies "final" */
+  public static final String VALIDATE_IR = "stc.validate-ir";
+
+  /** Write JSON report of time, allocation and IR size for each compiler
+   * phase and optimizer pass to this file.  Empty to disable. */
   public static final String PROFILE_STC = "stc.profile";
 
+  /** Directory for cache of compiled output used by stc -u and of
+   * parsed modules.  If empty, use ~/.stc/cache */
+  public static final String COMPILE_CACHE_DIR = "stc.cache.dir";
+  /** Limit on size of cache directory in MB.  Least recently used entries
+   * are evicted once it is exceeded.  Negative for no limit */
+  public static final String CACHE_MAX_SIZE = "stc.cache.max-size";
+  /** Cache parsed ASTs of imported modules on disk */
+  public static final String PARSE_CACHE = "stc.parse-cache";
+  /** Number of threads to parse imported modules with.  1 to parse
+   * serially, 0 to use all available processors */
+  public static final String PARSE_THREADS = "stc.parse-threads";
+  /** Release each part of the AST once the frontend has lowered it to IC,
+   * to reduce peak memory when compiling large programs */
+  public static final String FRONTEND_STREAMING = "stc.frontend.streaming";
+
   public static final String USE_C_PREPROCESSOR = "stc.c_preprocess";
   public static final String PREPROCESS_ONLY = "stc.preprocess_only";
   public static final String PREPROCESSOR_FORCE_GCC = "stc.preproc.force-gcc";
@@ -156,6 +190,7 @@ public class Settings {
     defaults.setProperty(STC_HOME, "");
     defaults.setProperty(TURBINE_HOME, "");
     defaults.setProperty(COMPILER_DEBUG, "true");
+    defaults.setProperty(VALIDATE_IR, "incremental");
     defaults.setProperty(USE_C_PREPROCESSOR, "false");
     defaults.setProperty(PREPROCESS_ONLY, "false");
     defaults.setProperty(PREPROCESSOR_FORCE_CPP, "false");
@@ -200,10 +235,18 @@ public class Settings {
     defaults.setProperty(OPT_BATCH_REFCOUNTS, "true");
     defaults.setProperty(OPT_HOIST_REFCOUNTS, "true");
     defaults.setProperty(OPT_MAX_ITERATIONS, "10");
+    defaults.setProperty(OPT_DETECT_FIXED_POINT, "true");
+    defaults.setProperty(OPT_CHECK_FIXED_POINT, "false");
+    defaults.setProperty(OPT_PARALLEL_THREADS, "1");
     defaults.setProperty(ENABLE_REFCOUNTING, "true");
     defaults.setProperty(ENABLE_CHECKPOINTING, "true");
     defaults.setProperty(AUTO_DECLARE, "true");
-    defaults.setProperty(PROFILE_STC, "false");
+    defaults.setProperty(PROFILE_STC, "");
+    defaults.setProperty(COMPILE_CACHE_DIR, "");
+    defaults.setProperty(CACHE_MAX_SIZE, "256");
+    defaults.setProperty(PARSE_CACHE, "true");
+    defaults.setProperty(PARSE_THREADS, "0");
+    defaults.setProperty(FRONTEND_STREAMING, "false");
     defaults.setProperty(LOG_FILE, "");
     defaults.setProperty(LOG_TRACE, "false");
 
@@ -218,16 +261,30 @@ public class Settings {
     properties = new Properties(defaults);
   }
 
+  /**
+   * Directory to resolve relative paths against, or null to use the
+   * process working directory
+   */
+  private static File workingDir = null;
+
   /**
      Try to overwrite each default property in properties
      with value from System
    */
   public static void initSTCProperties() throws InvalidOptionException {
-    // Pull in properties from wrapper script
+    initSTCProperties(System.getProperties());
+  }
+
+  /**
+   * Overwrite each default property in properties with value from source
+   * @param source properties passed from wrapper script
+   */
+  public static void initSTCProperties(Properties source)
+      throws InvalidOptionException {
     for (String key: properties.stringPropertyNames()) {
-      String sysVal = System.getProperty(key);
-      if (sysVal != null) {
-        properties.setProperty(key, sysVal);
+      String val = source.getProperty(key);
+      if (val != null) {
+        properties.setProperty(key, val);
       }
     }
     validateProperties();
@@ -235,6 +292,43 @@ public class Settings {
     initModulePath();
   }
 
+  /**
+   * Discard all settings, module path and metadata so that another
+   * compilation can be set up in the same process.
+   */
+  public static void reset() {
+    properties.clear();
+    modulePath.clear();
+    metadata.clear();
+    workingDir = null;
+  }
+
+  /**
+   * Resolve relative paths given by user against this directory
+   * instead of the process working directory.
+   * @param dir
+   */
+  public static void setWorkingDir(File dir) {
+    workingDir = dir;
+  }
+
+  public static File getWorkingDir() {
+    return workingDir;
+  }
+
+  /**
+   * @param path file path given by user
+   * @return path resolved against working directory
+   */
+  public static String resolvePath(String path) {
+    if (workingDir == null || new File(path).isAbsolute()) {
+      return path;
+    } else if (path.equals(".")) {
+      return workingDir.getPath();
+    }
+    return new File(workingDir, path).getPath();
+  }
+
   public static void set(String key, String value) {
     properties.setProperty(key, value);
   }
@@ -257,6 +351,27 @@ public class Settings {
     return Collections.unmodifiableList(modulePath);
   }
 
+  /**
+   * @return base directory for on-disk caches
+   */
+  public static File getCacheDir() {
+    String dir = get(COMPILE_CACHE_DIR);
+    if (dir == null || dir.length() == 0) {
+      return new File(System.getProperty("user.home") + File.separator +
+                      ".stc" + File.separator + "cache");
+    }
+    return new File(resolvePath(dir));
+  }
+
+  /**
+   * @return limit on size of cache directory in bytes, or negative if
+   *         no limit
+   */
+  public static long getCacheMaxBytes() {
+    long mb = getLongUnchecked(CACHE_MAX_SIZE);
+    return mb < 0 ? -1 : mb * 1024 * 1024;
+  }
+
   public static void addMetadata(String key, String val) {
     metadata.add(Pair.create(key, val));
   }
@@ -346,18 +461,26 @@ public class Settings {
     getBoolean(ENABLE_CHECKPOINTING);
     getBoolean(AUTO_DECLARE);
     getBoolean(COMPILER_DEBUG);
-    getBoolean(PROFILE_STC);
     getBoolean(USE_C_PREPROCESSOR);
     getBoolean(PREPROCESS_ONLY);
     getBoolean(PREPROCESSOR_FORCE_CPP);
     getBoolean(PREPROCESSOR_FORCE_GCC);
     getBoolean(MUST_PASS_WAIT_VARS);
+    getLong(CACHE_MAX_SIZE);
+    getBoolean(PARSE_CACHE);
+    getLong(PARSE_THREADS);
+    getBoolean(FRONTEND_STREAMING);
 
     getLong(OPT_MAX_ITERATIONS);
+    getBoolean(OPT_DETECT_FIXED_POINT);
+    getBoolean(OPT_CHECK_FIXED_POINT);
+    getLong(OPT_PARALLEL_THREADS);
 
     initInlineProperties();
 
     checkOneOf(DEBUG_LEVEL, Arrays.asList("off", "comments", "debugger"));
+    checkOneOf(VALIDATE_IR, Arrays.asList("full", "incremental", "sampled",
+                                          "final"));
   }
 
   private static void initInlineProperties() throws InvalidOptionException {
@@ -365,8 +488,12 @@ public class Settings {
     boolean fullInline = getBoolean(OPT_FULL_FUNCTION_INLINE);
 
     if (fullInline) {
-      defaults.setProperty(OPT_FUNCTION_INLINE_THRESHOLD,
-                Long.toString(FUNCTION_INLINE_THRESHOLD_FULL));
+      // Change default, but don't override user setting.  Defaults
+      // are shared between compilations so can't be modified.
+      if (!properties.containsKey(OPT_FUNCTION_INLINE_THRESHOLD)) {
+        properties.setProperty(OPT_FUNCTION_INLINE_THRESHOLD,
+                  Long.toString(FUNCTION_INLINE_THRESHOLD_FULL));
+      }
       properties.setProperty(OPT_FUNCTION_INLINE, "true");
     }
 
@@ -296,7 +296,8 @@ public class Arg implements Comparable<Arg>, Typed {
     default:
       throw new STCRuntimeError("Unknown oparg type " + this.kind.toString());
     }
-    return this.kind.hashCode() ^ hash1;
+    // Use ordinal so hash code is independent of identity hash code
+    return 31 * hash1 + this.kind.ordinal();
   }
 
   @Override
@@ -22,6 +22,13 @@ public class CompileTimeArgs {
     }
   }
   
+  /**
+   * Remove all bindings, e.g. before another compilation
+   */
+  public static void clear() {
+    compileTimeArgs.clear();
+  }
+
   public static String lookup(String key) {
     return compileTimeArgs.get(key);
   }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common.lang;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import exm.stc.common.lang.Types.Type;
+
+/**
+ * Global canonicalization table for types.  Every type is created through
+ * a factory that passes it through here, so a structurally identical type
+ * is always represented by the same object.
+ *
+ * The table uses its own notion of identity rather than Type.equals(),
+ * which deliberately ignores some details (e.g. reference mutability or
+ * the order of union alternatives) that must be preserved.  Because the
+ * component types of a type are themselves canonical, component types are
+ * compared by reference.
+ *
+ * Entries are weak: an entry is dropped once its type is unreachable.
+ */
+class TypeInterner {
+
+  private static final Map<Key, WeakReference<Type>> table =
+                                new WeakHashMap<Key, WeakReference<Type>>();
+
+  /**
+   * Return the canonical instance of a newly constructed type.
+   * @param type a new type object
+   * @param parts all of the state of the type: component types and any
+   *              other fields that distinguish it
+   * @return type itself if it was not yet in the table, otherwise the
+   *         existing instance
+   */
+  @SuppressWarnings("unchecked")
+  static synchronized <T extends Type> T intern(T type, Object ...parts) {
+    Key key = new Key(type.getClass(), parts);
+    WeakReference<Type> ref = table.get(key);
+    if (ref != null) {
+      Type existing = ref.get();
+      if (existing != null) {
+        return (T)existing;
+      }
+      // Collected but not yet expunged: drop stale key
+      table.remove(key);
+    }
+
+    // The type holds on to its key, keeping the entry alive
+    type.internKey = key;
+    table.put(key, new WeakReference<Type>(type));
+    return type;
+  }
+
+  private static class Key {
+    private final Class<?> clazz;
+    private final Object[] parts;
+    private final int hashCode;
+
+    Key(Class<?> clazz, Object[] parts) {
+      this.clazz = clazz;
+      this.parts = parts;
+      int h = clazz.hashCode();
+      for (Object part: parts) {
+        h = h * 31 + partHash(part);
+      }
+      this.hashCode = h;
+    }
+
+    private static int partHash(Object part) {
+      if (part instanceof Type) {
+        return System.identityHashCode(part);
+      } else {
+        return part == null ? 0 : part.hashCode();
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      if (hashCode != other.hashCode || clazz != other.clazz ||
+          parts.length != other.parts.length) {
+        return false;
+      }
+      for (int i = 0; i < parts.length; i++) {
+        Object p1 = parts[i], p2 = other.parts[i];
+        if (p1 instanceof Type || p2 instanceof Type) {
+          if (p1 != p2) {
+            return false;
+          }
+        } else if (p1 == null ? p2 != null : !p1.equals(p2)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return clazz.getSimpleName() + Arrays.toString(parts);
+    }
+  }
+}
@@ -49,18 +49,24 @@ public class Types {
     private final Type keyType;
     private final Type memberType;
 
-    public ArrayType(boolean local, Type keyType, Type memberType) {
+    private ArrayType(boolean local, Type keyType, Type memberType) {
       this.local = local;
       this.keyType = keyType;
       this.memberType = memberType;
     }
 
+    public static ArrayType create(boolean local, Type keyType,
+                                   Type memberType) {
+      return TypeInterner.intern(new ArrayType(local, keyType, memberType),
+                                 local, keyType, memberType);
+    }
+
     public static ArrayType sharedArray(Type keyType, Type memberType) {
-      return new ArrayType(false, keyType, memberType);
+      return ArrayType.create(false, keyType, memberType);
     }
 
     public static ArrayType localArray(Type keyType, Type memberType) {
-      return new ArrayType(true, keyType, memberType);
+      return ArrayType.create(true, keyType, memberType);
     }
 
     @Override
@@ -102,6 +108,9 @@ public class Types {
 
     @Override
     public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
       if (!(other instanceof Type)) {
         throw new STCRuntimeError("Comparing ArrayType with non-type " +
                 "object");
@@ -123,13 +132,13 @@ public class Types {
 
     @Override
     public Type bindTypeVars(Map<String, Type> vals) {
-      return new ArrayType(local, keyType.bindTypeVars(vals),
+      return ArrayType.create(local, keyType.bindTypeVars(vals),
                            memberType.bindTypeVars(vals));
     }
 
     @Override
     public Type bindAllTypeVars(Type type) {
-      return new ArrayType(local, keyType.bindAllTypeVars(type),
+      return ArrayType.create(local, keyType.bindAllTypeVars(type),
           memberType.bindAllTypeVars(type));
     }
 
@@ -165,7 +174,7 @@ public class Types {
       Type cKey = keyType.concretize(concreteArray.keyType);
       if (cMember == this.memberType && cKey == this.keyType)
         return this;
-      return new ArrayType(this.local, cKey, cMember);
+      return ArrayType.create(this.local, cKey, cMember);
     }
 
     @Override
@@ -194,7 +203,7 @@ public class Types {
       if (implMember == memberType && implKey == keyType) {
         return this;
       } else {
-        return new ArrayType(local, implKey, implMember);
+        return ArrayType.create(local, implKey, implMember);
       }
     }
 
@@ -204,7 +213,7 @@ public class Types {
     }
 
     public Type substituteElemType(Type newElem) {
-      return new ArrayType(local, keyType, newElem);
+      return ArrayType.create(local, keyType, newElem);
     }
   }
 
@@ -217,17 +226,22 @@ public class Types {
     public static final String BAG = "bag";
     private final Type elemType;
 
-    public BagType(boolean local, Type elemType) {
+    private BagType(boolean local, Type elemType) {
       this.local = local;
       this.elemType = elemType;
     }
 
+    public static BagType create(boolean local, Type elemType) {
+      return TypeInterner.intern(new BagType(local, elemType),
+                                 local, elemType);
+    }
+
     public static BagType sharedBag(Type memberType) {
-      return new BagType(false, memberType);
+      return BagType.create(false, memberType);
     }
 
     public static BagType localBag(Type memberType) {
-      return new BagType(true, memberType);
+      return BagType.create(true, memberType);
     }
 
     @Override
@@ -265,6 +279,9 @@ public class Types {
 
     @Override
     public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
       if (!(other instanceof Type)) {
         throw new STCRuntimeError("Comparing BagType with non-type " +
                 "object");
@@ -285,12 +302,12 @@ public class Types {
 
     @Override
     public Type bindTypeVars(Map<String, Type> vals) {
-      return new BagType(local, elemType.bindTypeVars(vals));
+      return BagType.create(local, elemType.bindTypeVars(vals));
     }
 
     @Override
     public Type bindAllTypeVars(Type type) {
-      return new BagType(local, elemType.bindAllTypeVars(type));
+      return BagType.create(local, elemType.bindAllTypeVars(type));
     }
 
     @Override
@@ -311,7 +328,7 @@ public class Types {
       Type cElem = elemType.concretize(concreteBag.memberType());
       if (cElem == this.elemType)
         return this;
-      return new BagType(local, cElem);
+      return BagType.create(local, cElem);
     }
 
     @Override
@@ -338,7 +355,7 @@ public class Types {
       if (implElem == elemType)
         return this;
       else
-        return new BagType(local, implElem);
+        return BagType.create(local, implElem);
     }
 
     @Override
@@ -347,7 +364,7 @@ public class Types {
     }
 
     public Type substituteElemType(Type newElem) {
-      return new BagType(local, newElem);
+      return BagType.create(local, newElem);
     }
   }
 
@@ -355,11 +372,16 @@ public class Types {
     private final Type referencedType;
     private final boolean mutable;
 
-    public RefType(Type referencedType, boolean mutable) {
+    private RefType(Type referencedType, boolean mutable) {
       this.referencedType = referencedType;
       this.mutable = mutable;
     }
 
+    public static RefType create(Type referencedType, boolean mutable) {
+      return TypeInterner.intern(new RefType(referencedType, mutable),
+                                 referencedType, mutable);
+    }
+
     public boolean mutable() {
       return mutable;
     }
@@ -397,6 +419,9 @@ public class Types {
 
     @Override
     public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
       if (!(other instanceof Type)) {
         throw new STCRuntimeError("Comparing ReferenceType with " +
               "non-type object");
@@ -432,13 +457,13 @@ public class Types {
 
     @Override
     public Type bindTypeVars(Map<String, Type> vals) {
-      return new RefType(referencedType.bindTypeVars(vals), mutable);
+      return RefType.create(referencedType.bindTypeVars(vals), mutable);
     }
 
 
     @Override
     public Type bindAllTypeVars(Type type) {
-      return new RefType(referencedType.bindAllTypeVars(type), mutable);
+      return RefType.create(referencedType.bindAllTypeVars(type), mutable);
     }
 
 
@@ -458,7 +483,7 @@ public class Types {
       Type cMember = referencedType.concretize(concrete.memberType());
       if (cMember == this.referencedType)
         return this;
-      return new RefType(cMember, mutable);
+      return RefType.create(cMember, mutable);
     }
 
     @Override
@@ -474,7 +499,7 @@ public class Types {
       else if (implMember == null)
         return null;
       else
-        return new RefType(implMember, mutable);
+        return RefType.create(implMember, mutable);
     }
 
     @Override
@@ -507,7 +532,7 @@ public class Types {
       }
     }
 
-    public StructType(boolean local, String typeName,
+    private StructType(boolean local, String typeName,
                        List<StructField> fields) {
       this.local = local;
       this.typeName = typeName;
@@ -515,6 +540,19 @@ public class Types {
       this.hashCode = calcHashCode();
     }
 
+    public static StructType create(boolean local, String typeName,
+                                    List<StructField> fields) {
+      Object[] parts = new Object[2 + fields.size() * 2];
+      parts[0] = local;
+      parts[1] = typeName;
+      for (int i = 0; i < fields.size(); i++) {
+        parts[2 + i * 2] = fields.get(i).name;
+        parts[3 + i * 2] = fields.get(i).type;
+      }
+      return TypeInterner.intern(new StructType(local, typeName, fields),
+                                 parts);
+    }
+
     private final boolean local;
     private final List<StructField> fields;
     private final String typeName;
@@ -525,13 +563,13 @@ public class Types {
       if (structType.local) {
         return structType;
       } else {
-        return new StructType(true, structType.typeName, structType.fields);
+        return StructType.create(true, structType.typeName, structType.fields);
       }
     }
 
     public static StructType sharedStruct(StructType structType) {
       if (structType.local) {
-        return new StructType(false, structType.typeName, structType.fields);
+        return StructType.create(false, structType.typeName, structType.fields);
       } else {
         return structType;
       }
@@ -539,12 +577,12 @@ public class Types {
 
     public static StructType localStruct(String typeName,
                                    List<StructField> fields) {
-      return new StructType(true, typeName, fields);
+      return StructType.create(true, typeName, fields);
     }
 
     public static StructType sharedStruct(String typeName,
                                   List<StructField> fields) {
-      return new StructType(false, typeName, fields);
+      return StructType.create(false, typeName, fields);
     }
 
     /**
@@ -619,6 +657,9 @@ public class Types {
 
     @Override
     public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
       if (!(other instanceof Type)) {
         throw new STCRuntimeError("Comparing ReferenceType with " +
               "non-type object");
@@ -870,7 +911,7 @@ public class Types {
   public static abstract class AbstractScalarType extends AbstractPrimType {
     protected final PrimType primType;
 
-    public AbstractScalarType(PrimType primType) {
+    protected AbstractScalarType(PrimType primType) {
       assert(primType != PrimType.FILE); // File type is handled elsewhere
       this.primType = primType;
     }
@@ -905,8 +946,12 @@ public class Types {
 
   public static class ScalarValueType extends AbstractScalarType {
 
-    public ScalarValueType(PrimType type) {
-      super(type);
+    private ScalarValueType(PrimType primType) {
+      super(primType);
+    }
+
+    public static ScalarValueType create(PrimType primType) {
+      return TypeInterner.intern(new ScalarValueType(primType), primType);
     }
 
     @Override
@@ -922,10 +967,14 @@ public class Types {
 
 
   public static class ScalarFutureType extends AbstractScalarType {
-    public ScalarFutureType(PrimType primType) {
+    private ScalarFutureType(PrimType primType) {
       super(primType);
     }
 
+    public static ScalarFutureType create(PrimType primType) {
+      return TypeInterner.intern(new ScalarFutureType(primType), primType);
+    }
+
     @Override
     public StructureType structureType() {
       return StructureType.SCALAR_FUTURE;
@@ -938,10 +987,15 @@ public class Types {
   }
 
   public static class ScalarUpdateableType extends AbstractScalarType {
-    public ScalarUpdateableType(PrimType primType) {
+    private ScalarUpdateableType(PrimType primType) {
       super(primType);
     }
 
+    public static ScalarUpdateableType create(PrimType primType) {
+      return TypeInterner.intern(new ScalarUpdateableType(primType),
+                                 primType);
+    }
+
     @Override
     public StructureType structureType() {
       return StructureType.SCALAR_UPDATEABLE;
@@ -954,12 +1008,12 @@ public class Types {
 
     public static ScalarFutureType asScalarFuture(Type upType) {
       assert(upType instanceof ScalarUpdateableType);
-      return new ScalarFutureType(upType.primType());
+      return ScalarFutureType.create(upType.primType());
     }
 
     public static ScalarValueType asScalarValue(Type valType) {
       assert(valType instanceof ScalarUpdateableType);
-      return new ScalarValueType(valType.primType());
+      return ScalarValueType.create(valType.primType());
     }
 
   }
@@ -1056,10 +1110,14 @@ public class Types {
 
   public static class FileValueType extends AbstractFileType {
 
-    public FileValueType(FileKind kind) {
+    private FileValueType(FileKind kind) {
       super(kind);
     }
 
+    public static FileValueType create(FileKind kind) {
+      return TypeInterner.intern(new FileValueType(kind), kind);
+    }
+
     @Override
     public StructureType structureType() {
       return StructureType.FILE_VALUE;
@@ -1074,10 +1132,14 @@ public class Types {
 
   public static class FileFutureType extends AbstractFileType {
 
-    public FileFutureType(FileKind kind) {
+    private FileFutureType(FileKind kind) {
       super(kind);
     }
 
+    public static FileFutureType create(FileKind kind) {
+      return TypeInterner.intern(new FileFutureType(kind), kind);
+    }
+
     @Override
     public StructureType structureType() {
       return StructureType.FILE_FUTURE;
@@ -1104,6 +1166,10 @@ public class Types {
       this.alts = Collections.unmodifiableList(alts);
     }
 
+    private static UnionType create(ArrayList<Type> alts) {
+      return TypeInterner.intern(new UnionType(alts), alts.toArray());
+    }
+
     public List<Type> getAlternatives() {
       return alts;
     }
@@ -1131,7 +1197,7 @@ public class Types {
       if (deduplicated.size() == 1) {
         return deduplicated.get(0);
       } else {
-        return new UnionType(new ArrayList<Type>(deduplicated));
+        return UnionType.create(new ArrayList<Type>(deduplicated));
       }
     }
 
@@ -1143,7 +1209,7 @@ public class Types {
         for (Type alt: alts) {
           list.add(alt);
         }
-        return new UnionType(list);
+        return UnionType.create(list);
       }
     }
 
@@ -1188,6 +1254,9 @@ public class Types {
 
     @Override
     public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
       if (!(other instanceof Type)) {
         throw new STCRuntimeError("Comparing UnionType " +
             "with non-type object");
@@ -1244,7 +1313,7 @@ public class Types {
       for (Type alt: alts) {
         boundAlts.add(alt.bindTypeVars(vals));
       }
-      return new UnionType(boundAlts);
+      return UnionType.create(boundAlts);
     }
 
     @Override
@@ -1253,7 +1322,7 @@ public class Types {
       for (Type alt: alts) {
         boundAlts.add(alt.bindAllTypeVars(type));
       }
-      return new UnionType(boundAlts);
+      return UnionType.create(boundAlts);
     }
 
     @Override
@@ -1289,7 +1358,7 @@ public class Types {
       for (Type t: alts) {
         implAlts.add(t.getImplType());
       }
-      return new UnionType(implAlts);
+      return UnionType.create(implAlts);
     }
 
     @Override
@@ -1310,6 +1379,10 @@ public class Types {
       this.fields = Collections.unmodifiableList(alts);
     }
 
+    private static TupleType create(ArrayList<Type> fields) {
+      return TypeInterner.intern(new TupleType(fields), fields.toArray());
+    }
+
     public List<Type> getFields() {
       return fields;
     }
@@ -1342,7 +1415,7 @@ public class Types {
       if (fields.size() == 1) {
         return fields.get(0);
       } else {
-        return new TupleType(new ArrayList<Type>(fields));
+        return TupleType.create(new ArrayList<Type>(fields));
       }
     }
 
@@ -1391,6 +1464,9 @@ public class Types {
 
     @Override
     public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
       if (!(other instanceof Type)) {
         throw new STCRuntimeError("Comparing TupleType " +
             "with non-type object");
@@ -1451,7 +1527,7 @@ public class Types {
       for (Type field: fields) {
         boundFields.add(field.bindTypeVars(vals));
       }
-      return new TupleType(boundFields);
+      return TupleType.create(boundFields);
     }
 
     @Override
@@ -1460,7 +1536,7 @@ public class Types {
       for (Type field: fields) {
         boundFields.add(field.bindAllTypeVars(type));
       }
-      return new TupleType(boundFields);
+      return TupleType.create(boundFields);
     }
 
     @Override
@@ -1535,7 +1611,7 @@ public class Types {
       }
 
       // Avoid creating identical type objects
-      return differences ? new TupleType(implFields) : this;
+      return differences ? TupleType.create(implFields) : this;
     }
 
     @Override
@@ -1555,11 +1631,15 @@ public class Types {
   public static class TypeVariable extends Type {
     private final String typeVarName;
 
-    public TypeVariable(String typeVarName) {
+    private TypeVariable(String typeVarName) {
       super();
       this.typeVarName = typeVarName;
     }
 
+    public static TypeVariable create(String typeVarName) {
+      return TypeInterner.intern(new TypeVariable(typeVarName), typeVarName);
+    }
+
     /**
      * Check two sets of bindings are compatible with each other
      * @param m1
@@ -1674,6 +1754,13 @@ public class Types {
 
   public static class WildcardType extends Type {
 
+    private WildcardType() {
+    }
+
+    public static WildcardType create() {
+      return TypeInterner.intern(new WildcardType());
+    }
+
     @Override
     public StructureType structureType() {
       return StructureType.WILDCARD;
@@ -1772,6 +1859,13 @@ public class Types {
    */
   public abstract static class Type implements Typed {
 
+    /**
+     * Key in canonicalization table.  All types are canonical, so equal
+     * types are usually the same object, but equals() still falls back to
+     * a structural comparison since it is looser than canonical identity.
+     */
+    Object internKey;
+
     /**
      * For Typed interface
      * @return
@@ -1913,11 +2007,7 @@ public class Types {
     /** if varargs is true, the final argument can be repeated many times */
     private final boolean varargs;
 
-    public FunctionType(List<Type> inputs, List<Type> outputs,
-                                                boolean varargs) {
-      this(inputs, outputs, varargs, null);
-    }
-    public FunctionType(List<Type> inputs, List<Type> outputs,
+    private FunctionType(List<Type> inputs, List<Type> outputs,
           boolean varargs, Collection<String> typeVars) {
       this.inputs.addAll(inputs);
       this.outputs.addAll(outputs);
@@ -1928,6 +2018,25 @@ public class Types {
       }
     }
 
+    public static FunctionType create(List<Type> inputs, List<Type> outputs,
+                                      boolean varargs) {
+      return create(inputs, outputs, varargs, null);
+    }
+
+    public static FunctionType create(List<Type> inputs, List<Type> outputs,
+          boolean varargs, Collection<String> typeVars) {
+      FunctionType ft = new FunctionType(inputs, outputs, varargs, typeVars);
+      // Counts separate the lists in the flattened key
+      List<Object> parts = new ArrayList<Object>();
+      parts.add(varargs);
+      parts.add(ft.inputs.size());
+      parts.addAll(ft.inputs);
+      parts.add(ft.outputs.size());
+      parts.addAll(ft.outputs);
+      parts.addAll(ft.typeVars);
+      return TypeInterner.intern(ft, parts.toArray());
+    }
+
     public List<Type> getInputs() {
       return Collections.unmodifiableList(inputs);
     }
@@ -1976,6 +2085,9 @@ public class Types {
 
     @Override
     public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
       if (!(obj instanceof Type)) {
         throw new STCRuntimeError("Comparing FunctionType " +
             "with non-type object");
@@ -2024,7 +2136,7 @@ public class Types {
         boundOutputs.add(output.bindTypeVars(vals));
       }
 
-      return new FunctionType(boundInputs, boundOutputs, varargs);
+      return FunctionType.create(boundInputs, boundOutputs, varargs);
     }
 
     @Override
@@ -2039,7 +2151,7 @@ public class Types {
         boundOutputs.add(output.bindAllTypeVars(type));
       }
 
-      return new FunctionType(boundInputs, boundOutputs, varargs);
+      return FunctionType.create(boundInputs, boundOutputs, varargs);
     }
 
     @Override
@@ -2077,7 +2189,7 @@ public class Types {
         concreteOut.add(out.concretize(cOut));
       }
       // TODO: how to handle varargs?
-      return new FunctionType(concreteIn, concreteOut, varargs);
+      return FunctionType.create(concreteIn, concreteOut, varargs);
     }
 
     @Override
@@ -2108,7 +2220,7 @@ public class Types {
         outs.add(out.getImplType());
       }
 
-      return new FunctionType(ins, outs, varargs);
+      return FunctionType.create(ins, outs, varargs);
     }
 
     @Override
@@ -2122,12 +2234,16 @@ public class Types {
     private final Type baseType;
     private final String name;
 
-    public SubType(Type baseType, String name) {
+    private SubType(Type baseType, String name) {
       super();
       this.baseType = baseType;
       this.name = name;
     }
 
+    public static SubType create(Type baseType, String name) {
+      return TypeInterner.intern(new SubType(baseType, name), baseType, name);
+    }
+
     @Override
     public StructureType structureType() {
       return baseType.structureType();
@@ -2158,12 +2274,12 @@ public class Types {
 
     @Override
     public Type bindTypeVars(Map<String, Type> vals) {
-      return new SubType(baseType.bindTypeVars(vals), name);
+      return SubType.create(baseType.bindTypeVars(vals), name);
     }
 
     @Override
     public Type bindAllTypeVars(Type type) {
-      return new SubType(baseType.bindAllTypeVars(type), name);
+      return SubType.create(baseType.bindAllTypeVars(type), name);
     }
 
     @Override
@@ -2212,6 +2328,9 @@ public class Types {
 
     @Override
     public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
       if (!(o instanceof SubType)) {
         return false;
       }
@@ -2374,7 +2493,7 @@ public class Types {
     }
 
     if (isRef) {
-      return new RefType(newCont, isMutableRef);
+      return RefType.create(newCont, isMutableRef);
     } else {
       return newCont;
     }
@@ -2706,9 +2825,9 @@ public class Types {
    */
   public static Type retrievedType(Typed t, boolean recursive) {
     if (isScalarFuture(t) || isScalarUpdateable(t))  {
-      return new ScalarValueType(t.type().primType());
+      return ScalarValueType.create(t.type().primType());
     } else if (isFile(t)) {
-      return new FileValueType(t.type().fileKind());
+      return FileValueType.create(t.type().fileKind());
     } else if (isRef(t)) {
       return t.type().baseType().memberType();
     } else if (recursive &&
@@ -2745,12 +2864,12 @@ public class Types {
   public static Type storeResultType(Typed t, boolean mutable) {
     if (isScalarFuture(t) || isScalarUpdateable(t) ||
             isFile(t) || isRef(t) || isContainer(t) || isStruct(t))  {
-      return new RefType(t.type(), mutable);
+      return RefType.create(t.type(), mutable);
     } else if (isScalarValue(t)) {
-      return new ScalarFutureType(t.type().primType());
+      return ScalarFutureType.create(t.type().primType());
     } else if (isFileVal(t)) {
       FileValueType fv = (FileValueType)t.type().getImplType();
-      return new FileFutureType(fv.fileKind());
+      return FileFutureType.create(fv.fileKind());
     } else if (isArrayLocal(t)) {
       ArrayType at = (ArrayType)t.type().getImplType();
       Type storedMemberType = storeResultType(at.memberType(), mutable);
@@ -2822,7 +2941,7 @@ public class Types {
     }
 
     if (differences) {
-      return new StructType(true, "unpacked:" + structType.typeName(),
+      return StructType.create(true, "unpacked:" + structType.typeName(),
                             unpackedFields);
     } else {
       return StructType.localStruct(structType);
@@ -2999,7 +3118,7 @@ public static boolean isTypeVar(Typed type) {
    */
   public static List<Type> typeIntersection(List<Type> types) {
     if(types.size() == 0) {
-      return Collections.<Type>singletonList(new WildcardType());
+      return Collections.<Type>singletonList(WildcardType.create());
     }
     // Shortcircuit common cases
     if (types.size() == 1 ||
@@ -3042,7 +3161,7 @@ public static boolean isTypeVar(Typed type) {
 
     if (intersection == null) {
       assert(sawWildcard);
-      return Collections.<Type>singletonList(new WildcardType());
+      return Collections.<Type>singletonList(WildcardType.create());
     }
 
     // Make sure alternatives in original order
@@ -3067,41 +3186,41 @@ public static boolean isTypeVar(Typed type) {
     return t;
   }
 
-  public static final Type F_INT = new ScalarFutureType(PrimType.INT);
-  public static final Type V_INT = new ScalarValueType(PrimType.INT);
+  public static final Type F_INT = ScalarFutureType.create(PrimType.INT);
+  public static final Type V_INT = ScalarValueType.create(PrimType.INT);
 
-  public static final Type F_STRING = new ScalarFutureType(PrimType.STRING);
-  public static final Type V_STRING = new ScalarValueType(PrimType.STRING);
+  public static final Type F_STRING = ScalarFutureType.create(PrimType.STRING);
+  public static final Type V_STRING = ScalarValueType.create(PrimType.STRING);
 
-  public static final Type F_FLOAT = new ScalarFutureType(PrimType.FLOAT);
-  public static final Type V_FLOAT = new ScalarValueType(PrimType.FLOAT);
-  public static final Type UP_FLOAT = new ScalarUpdateableType(PrimType.FLOAT);
+  public static final Type F_FLOAT = ScalarFutureType.create(PrimType.FLOAT);
+  public static final Type V_FLOAT = ScalarValueType.create(PrimType.FLOAT);
+  public static final Type UP_FLOAT = ScalarUpdateableType.create(PrimType.FLOAT);
 
-  public static final Type F_BOOL = new ScalarFutureType(PrimType.BOOL);
-  public static final Type V_BOOL = new ScalarValueType(PrimType.BOOL);
+  public static final Type F_BOOL = ScalarFutureType.create(PrimType.BOOL);
+  public static final Type V_BOOL = ScalarValueType.create(PrimType.BOOL);
 
-  public static final Type F_BLOB = new ScalarFutureType(PrimType.BLOB);
-  public static final Type V_BLOB = new ScalarValueType(PrimType.BLOB);
+  public static final Type F_BLOB = ScalarFutureType.create(PrimType.BLOB);
+  public static final Type V_BLOB = ScalarValueType.create(PrimType.BLOB);
 
-  public static final Type F_FILE = new FileFutureType(FileKind.LOCAL_FS);
-  public static final Type V_FILE = new FileValueType(FileKind.LOCAL_FS);
+  public static final Type F_FILE = FileFutureType.create(FileKind.LOCAL_FS);
+  public static final Type V_FILE = FileValueType.create(FileKind.LOCAL_FS);
 
-  public static final Type F_URL = new FileFutureType(FileKind.URL);
-  public static final Type V_URL = new FileValueType(FileKind.URL);
+  public static final Type F_URL = FileFutureType.create(FileKind.URL);
+  public static final Type V_URL = FileValueType.create(FileKind.URL);
 
-  public static final Type V_VOID = new ScalarValueType(PrimType.VOID);
-  public static final Type F_VOID = new ScalarFutureType(PrimType.VOID);
+  public static final Type V_VOID = ScalarValueType.create(PrimType.VOID);
+  public static final Type F_VOID = ScalarFutureType.create(PrimType.VOID);
 
   /**
    * Represents location of execution
    */
   public static final Type F_LOC_STRICTNESS =
-                        new SubType(F_STRING, "LocationStrictness");
+                        SubType.create(F_STRING, "LocationStrictness");
   public static final Type V_LOC_STRICTNESS =
                         V_STRING; // Internally a string
 
   public static final Type F_LOC_ACCURACY =
-                        new SubType(F_STRING, "LocationAccuracy");
+                        SubType.create(F_STRING, "LocationAccuracy");
   public static final Type V_LOC_ACCURACY =
                         V_STRING; // Internally a string
 
@@ -3150,7 +3269,7 @@ public static boolean isTypeVar(Typed type) {
     fields.add(new StructField(F_LOC_STRICTNESS, "strictness"));
     fields.add(new StructField(F_LOC_ACCURACY, "accuracy"));
 
-    return new StructType(local, "location", fields);
+    return StructType.create(local, "location", fields);
   }
 
 }
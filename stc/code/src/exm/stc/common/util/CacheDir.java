@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Size limit for on-disk cache directories, evicting least recently used
+ * files.  Files are marked as used by updating their modification time.
+ *
+ * The size of each directory is estimated from a scan plus the files
+ * added since, so that the directory is only rescanned once it may be
+ * over the limit.  Other processes may add files concurrently, so the
+ * limit is approximate.
+ */
+public class CacheDir {
+
+  /**
+   * Fraction of limit to prune down to, so that pruning isn't needed
+   * again on the next write
+   */
+  private static final double PRUNE_TARGET = 0.75;
+
+  /** Estimated size of directories in bytes, or absent if not scanned */
+  private static final Map<File, Long> estimatedSize =
+                                        new HashMap<File, Long>();
+
+  /**
+   * Mark cache file as recently used
+   */
+  public static void touch(File file) {
+    file.setLastModified(System.currentTimeMillis());
+  }
+
+  /**
+   * Record that a file was added to the cache directory, and evict least
+   * recently used files in it and its subdirectories if over the limit.
+   * @param logger
+   * @param dir
+   * @param added file added to directory
+   * @param maxBytes size limit, or negative for no limit
+   */
+  public static synchronized void added(Logger logger, File dir,
+                                        File added, long maxBytes) {
+    if (maxBytes < 0) {
+      return;
+    }
+    Long size = estimatedSize.get(dir);
+    if (size != null) {
+      size += added.length();
+      estimatedSize.put(dir, size);
+      if (size <= maxBytes) {
+        return;
+      }
+    }
+    estimatedSize.put(dir, prune(logger, dir, maxBytes));
+  }
+
+  /**
+   * Delete least recently used files until directory and subdirectories
+   * are within the limit
+   * @param logger
+   * @param dir
+   * @param maxBytes
+   * @return size of files remaining
+   */
+  public static long prune(Logger logger, File dir, long maxBytes) {
+    List<File> files = new ArrayList<File>();
+    listFiles(dir, files);
+
+    long total = 0;
+    final Map<File, Long> modified = new HashMap<File, Long>();
+    for (File f: files) {
+      total += f.length();
+      modified.put(f, f.lastModified());
+    }
+    if (total <= maxBytes) {
+      return total;
+    }
+
+    Collections.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return modified.get(a).compareTo(modified.get(b));
+      }
+    });
+
+    long target = (long)(maxBytes * PRUNE_TARGET);
+    int deleted = 0;
+    for (File f: files) {
+      if (total <= target) {
+        break;
+      }
+      long length = f.length();
+      if (f.delete()) {
+        total -= length;
+        deleted++;
+      }
+    }
+    logger.debug("Evicted " + deleted + " files from cache " + dir);
+    return total;
+  }
+
+  private static void listFiles(File dir, List<File> result) {
+    File contents[] = dir.listFiles();
+    if (contents == null) {
+      return;
+    }
+    for (File f: contents) {
+      if (f.isDirectory()) {
+        listFiles(f, result);
+      } else {
+        result.add(f);
+      }
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List stored in an array with a gap at the most recent insertion or
+ * removal point.  Insertions and removals through a ListIterator that is
+ * moving through the list only need to shift the elements that the
+ * iterator passed since the last modification, so a pass that walks a
+ * list and edits it as it goes takes time linear in the list length,
+ * like a linked list, but without allocating a node per element.
+ * Indexed access is constant time.
+ *
+ * List iterators support add, remove and set, and as with other
+ * lists throw ConcurrentModificationException if the list is modified
+ * other than through the iterator.
+ */
+public class GapList<T> extends AbstractList<T> implements RandomAccess {
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final Object[] EMPTY = new Object[0];
+
+  private Object[] elems;
+
+  /** Start of gap, i.e. the list index the next insertion goes in */
+  private int gapStart;
+
+  /** End of gap in elems, exclusive */
+  private int gapEnd;
+
+  public GapList() {
+    this.elems = EMPTY;
+    this.gapStart = 0;
+    this.gapEnd = 0;
+  }
+
+  public GapList(Collection<? extends T> c) {
+    this.elems = c.toArray(new Object[c.size()]);
+    this.gapStart = elems.length;
+    this.gapEnd = elems.length;
+  }
+
+  private int gapLength() {
+    return gapEnd - gapStart;
+  }
+
+  @Override
+  public int size() {
+    return elems.length - gapLength();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    checkIndex(index);
+    return (T)elems[physical(index)];
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T set(int index, T element) {
+    checkIndex(index);
+    int i = physical(index);
+    T prev = (T)elems[i];
+    elems[i] = element;
+    return prev;
+  }
+
+  @Override
+  public void add(int index, T element) {
+    if (index < 0 || index > size()) {
+      throw new IndexOutOfBoundsException("Index: " + index +
+                                          " Size: " + size());
+    }
+    if (gapLength() == 0) {
+      grow(1);
+    }
+    moveGap(index);
+    elems[gapStart++] = element;
+    modCount++;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> c) {
+    return addAll(size(), c);
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends T> c) {
+    if (index < 0 || index > size()) {
+      throw new IndexOutOfBoundsException("Index: " + index +
+                                          " Size: " + size());
+    }
+    Object[] added = c.toArray();
+    if (added.length == 0) {
+      return false;
+    }
+    if (gapLength() < added.length) {
+      grow(added.length);
+    }
+    moveGap(index);
+    System.arraycopy(added, 0, elems, gapStart, added.length);
+    gapStart += added.length;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T remove(int index) {
+    checkIndex(index);
+    moveGap(index);
+    T removed = (T)elems[gapEnd];
+    elems[gapEnd++] = null;
+    modCount++;
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(elems, null);
+    gapStart = 0;
+    gapEnd = elems.length;
+    modCount++;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index +
+                                          " Size: " + size());
+    }
+  }
+
+  private int physical(int index) {
+    return index < gapStart ? index : index + gapLength();
+  }
+
+  /**
+   * Move gap so it starts at list index
+   */
+  private void moveGap(int index) {
+    if (index < gapStart) {
+      int moved = gapStart - index;
+      System.arraycopy(elems, index, elems, gapEnd - moved, moved);
+      Arrays.fill(elems, index, Math.min(gapStart, gapEnd - moved), null);
+      gapStart = index;
+      gapEnd -= moved;
+    } else if (index > gapStart) {
+      int moved = index - gapStart;
+      System.arraycopy(elems, gapEnd, elems, gapStart, moved);
+      Arrays.fill(elems, Math.max(gapEnd, index), gapEnd + moved, null);
+      gapStart = index;
+      gapEnd += moved;
+    }
+  }
+
+  /**
+   * Enlarge array so that gap has at least the extra space
+   */
+  private void grow(int extra) {
+    int size = size();
+    int newCapacity = Math.max(Math.max(DEFAULT_CAPACITY, elems.length * 2),
+                               size + extra);
+    Object[] newElems = new Object[newCapacity];
+    int tail = elems.length - gapEnd;
+    System.arraycopy(elems, 0, newElems, 0, gapStart);
+    System.arraycopy(elems, gapEnd, newElems, newCapacity - tail, tail);
+    elems = newElems;
+    gapEnd = newCapacity - tail;
+  }
+}
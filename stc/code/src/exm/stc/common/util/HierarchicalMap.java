@@ -15,7 +15,9 @@
  */
 package exm.stc.common.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,14 +26,70 @@ import exm.stc.common.exceptions.STCRuntimeError;
 /**
  * An implementation of the Map interface that allows cheap creation of
  * nested maps.  If a lookup fails in the current map, then it sees if
- * the key is in the parent map.  Attempts to remove items that appear in
- * the parent result in a copy of the parent map.
+ * the key is in the parent map.  Removing a key also removes it from
+ * ancestors.
  *
+ * A map can keep a persistent snapshot of all entries visible in it, so
+ * that a lookup in a child takes a probe of the child's entries and one
+ * of the snapshot, however deeply nested the maps are.  Changes to
+ * ancestors remain visible in descendants: a snapshot records the parent
+ * snapshot it was built from, and when that differs from the parent's
+ * current one, only the keys that differ between the two are updated.
+ * Likewise keys changed in the map itself are queued and applied to its
+ * snapshot when it is next needed.
+ *
+ * Updating snapshots is not free, so while the parent's snapshot is out
+ * of date, lookups check the local entries of each map up the chain as
+ * usual, and the snapshot is only updated once enough lookups have
+ * needed it to pay for the update.  Thus lookups are never much slower
+ * than checking each map in turn, even if ancestors change between
+ * every lookup.
  */
 public class HierarchicalMap<K, V> implements Map<K, V> {
   private final HashMap<K, V> map;
   private HierarchicalMap<K, V> parent;
 
+  /**
+   * All entries visible in this map, or null if not built yet
+   */
+  private PersistentHashMap<K, V> visible = null;
+
+  /** Parent snapshot that visible is up to date with */
+  private PersistentHashMap<K, V> basis;
+
+  /** Keys changed in this map that are not yet applied to visible */
+  private final ArrayList<K> pending = new ArrayList<K>();
+
+  /** If visible must be rebuilt, since too many keys changed */
+  private boolean rebuild = false;
+
+  /** Value of tree.changes when visible was last updated */
+  private long checkedAt;
+
+  /** Lookups that passed through this map since visible was updated */
+  private long staleLookups = 0;
+
+  /** Shared by all maps in a hierarchy */
+  private final Tree tree;
+
+  private static class Tree {
+    /**
+     * Count of changes to maps with snapshots.  If unchanged, snapshots
+     * are up to date.
+     */
+    long changes = 0;
+  }
+
+  /**
+   * Ratio of lookups through a map to changes since its snapshot was
+   * updated, above which the snapshot is updated.  Updating the snapshot
+   * for a change costs much more than checking a map during a lookup.
+   */
+  private static final int UPDATE_RATIO = 64;
+
+  /** Marks absent value in lookups, since values may be null */
+  private static final Object NOT_FOUND = new Object();
+
   public HierarchicalMap() {
     this(null);
   }
@@ -39,33 +97,139 @@ public class HierarchicalMap<K, V> implements Map<K, V> {
   private HierarchicalMap(HierarchicalMap<K, V> parent) {
     this.map = new HashMap<K, V>();
     this.parent = parent;
+    this.tree = parent == null ? new Tree() : parent.tree;
   }
 
   public HierarchicalMap<K, V> makeChildMap() {
     return new HierarchicalMap<K,V>(this);
   }
-  @Override
-  public boolean containsKey(Object key) {
-    HierarchicalMap<K, V> curr = this;
-    do {
-      if (curr.map.containsKey(key)) {
-        return true;
+
+  /**
+   * @return snapshot of all entries visible in this map, built if needed
+   *         and updated if this map or an ancestor changed
+   */
+  private PersistentHashMap<K, V> snapshot() {
+    if (visible != null && checkedAt == tree.changes) {
+      return visible;
+    }
+
+    PersistentHashMap<K, V> parentVisible;
+    if (parent == null) {
+      parentVisible = PersistentHashMap.empty();
+    } else {
+      parentVisible = parent.snapshot();
+    }
+
+    if (visible == null || rebuild) {
+      visible = parentVisible.plusAll(map);
+      rebuild = false;
+    } else {
+      if (parentVisible != basis) {
+        for (K key: basis.changedKeys(parentVisible)) {
+          update(key, parentVisible);
+        }
       }
-      curr = curr.parent;
-    } while (curr != null);
-    return false;
+      for (K key: pending) {
+        update(key, parentVisible);
+      }
+    }
+    pending.clear();
+    basis = parentVisible;
+    checkedAt = tree.changes;
+    staleLookups = 0;
+    return visible;
   }
 
-  @Override
-  public V get(Object key) {
-    HierarchicalMap<K, V> curr = this;
+  /**
+   * Update key in snapshot from local entries or parent snapshot
+   */
+  private void update(K key, PersistentHashMap<K, V> parentVisible) {
+    if (map.containsKey(key)) {
+      visible = visible.plus(key, map.get(key));
+    } else if (parentVisible.containsKey(key)) {
+      visible = visible.plus(key, parentVisible.get(key));
+    } else {
+      visible = visible.minus(key);
+    }
+  }
+
+  /**
+   * Record that key changed in this map
+   */
+  private void changed(K key) {
+    if (visible == null) {
+      return;
+    }
+    if (rebuild) {
+      // Will be updated anyway
+    } else if (pending.size() > map.size()) {
+      // Cheaper to rebuild when needed
+      rebuild = true;
+      pending.clear();
+    } else {
+      pending.add(key);
+    }
+    tree.changes++;
+  }
+
+  /**
+   * @return snapshot of all entries visible in this map, or null if it is
+   *         not yet worth building or updating
+   */
+  private PersistentHashMap<K, V> currentSnapshot() {
+    if (visible != null && checkedAt == tree.changes) {
+      return visible;
+    }
+    long cost;
+    if (visible == null || rebuild) {
+      cost = map.size();
+    } else if (parent == null) {
+      cost = pending.size();
+    } else {
+      cost = tree.changes - checkedAt;
+    }
+    if (++staleLookups < UPDATE_RATIO * cost) {
+      return null;
+    }
+    return snapshot();
+  }
+
+  /**
+   * @return value for key, or NOT_FOUND
+   */
+  private Object lookup(Object key) {
+    // Most lookups miss in most maps, so check key first
+    if (map.containsKey(key)) {
+      return map.get(key);
+    } else if (parent == null) {
+      return NOT_FOUND;
+    }
+
+    PersistentHashMap<K, V> snapshot = parent.currentSnapshot();
+    if (snapshot != null) {
+      return snapshot.containsKey(key) ? snapshot.get(key) : NOT_FOUND;
+    }
+
+    HierarchicalMap<K, V> curr = parent;
     do {
       if (curr.map.containsKey(key)) {
         return curr.map.get(key);
       }
       curr = curr.parent;
     } while (curr != null);
-    return null;
+    return NOT_FOUND;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return lookup(key) != NOT_FOUND;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    Object val = lookup(key);
+    return val == NOT_FOUND ? null : (V)val;
   }
 
   /**
@@ -85,20 +249,38 @@ public class HierarchicalMap<K, V> implements Map<K, V> {
     return -1;
   }
 
+  /**
+   * @return unmodifiable view of entries defined at this level
+   */
+  public Map<K, V> localMap() {
+    return Collections.unmodifiableMap(map);
+  }
+
   @Override
   public V put(K key, V value) {
-    return map.put(key, value);
+    V prev = map.put(key, value);
+    changed(key);
+    return prev;
   }
 
   @Override
   public void putAll(Map<? extends K, ? extends V> m) {
-    map.putAll(m);
+    for (Entry<? extends K, ? extends V> e: m.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
   }
 
   @Override
   public void clear() {
     map.clear();
     parent = null; // Don't modify parent
+    if (visible != null) {
+      visible = PersistentHashMap.empty();
+      basis = visible;
+      pending.clear();
+      rebuild = false;
+      tree.changes++;
+    }
   }
 
   @Override
@@ -118,12 +300,12 @@ public class HierarchicalMap<K, V> implements Map<K, V> {
   @Override
   public boolean isEmpty() {
     HierarchicalMap<K, V> curr = this;
-    do {
+    while (curr != null) {
       if (!curr.map.isEmpty()) {
         return false;
       }
       curr = curr.parent;
-    } while (curr != null);
+    }
     return true;
   }
 
@@ -137,6 +319,7 @@ public class HierarchicalMap<K, V> implements Map<K, V> {
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public V remove(Object key) {
     V removed = map.remove(key);
     if (parent != null) {
@@ -147,6 +330,7 @@ public class HierarchicalMap<K, V> implements Map<K, V> {
         }
       }
     }
+    changed((K)key);
     return removed;
   }
 
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common.util;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set backed by a bitset over the indices assigned by an Indexer.
+ * Bulk operations with another IndexedBitSet sharing the same Indexer
+ * are done a word at a time without hashing or allocation.
+ * Iteration is in index order.
+ */
+public class IndexedBitSet<T> extends AbstractSet<T> {
+  private final Indexer<T> indexer;
+  private final BitSet bits;
+
+  public IndexedBitSet(Indexer<T> indexer) {
+    this.indexer = indexer;
+    this.bits = new BitSet(indexer.size());
+  }
+
+  /**
+   * Copy constructor
+   */
+  public IndexedBitSet(IndexedBitSet<T> other) {
+    this.indexer = other.indexer;
+    this.bits = (BitSet)other.bits.clone();
+  }
+
+  public Indexer<T> indexer() {
+    return indexer;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    int ix = indexer.lookup(o);
+    return ix >= 0 && bits.get(ix);
+  }
+
+  @Override
+  public boolean add(T e) {
+    int ix = indexer.index(e);
+    if (bits.get(ix)) {
+      return false;
+    }
+    bits.set(ix);
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    int ix = indexer.lookup(o);
+    if (ix < 0 || !bits.get(ix)) {
+      return false;
+    }
+    bits.clear(ix);
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return bits.cardinality();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return bits.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> c) {
+    IndexedBitSet<?> other = sameIndex(c);
+    if (other == null) {
+      return super.addAll(c);
+    }
+    int before = bits.cardinality();
+    bits.or(other.bits);
+    return bits.cardinality() != before;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    IndexedBitSet<?> other = sameIndex(c);
+    if (other == null) {
+      boolean changed = false;
+      for (Object o: c) {
+        if (remove(o)) {
+          changed = true;
+        }
+      }
+      return changed;
+    }
+    int before = bits.cardinality();
+    bits.andNot(other.bits);
+    return bits.cardinality() != before;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    IndexedBitSet<?> other = sameIndex(c);
+    if (other == null) {
+      return super.retainAll(c);
+    }
+    int before = bits.cardinality();
+    bits.and(other.bits);
+    return bits.cardinality() != before;
+  }
+
+  @Override
+  public boolean containsAll(Collection<?> c) {
+    IndexedBitSet<?> other = sameIndex(c);
+    if (other == null) {
+      return super.containsAll(c);
+    }
+    BitSet missing = (BitSet)other.bits.clone();
+    missing.andNot(bits);
+    return missing.isEmpty();
+  }
+
+  /**
+   * @return c if it is a bitset with the same indices as this, else null
+   */
+  private IndexedBitSet<?> sameIndex(Collection<?> c) {
+    if (c instanceof IndexedBitSet) {
+      IndexedBitSet<?> other = (IndexedBitSet<?>)c;
+      if (other.indexer == indexer) {
+        return other;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      int next = bits.nextSetBit(0);
+      int last = -1;
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public T next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = bits.nextSetBit(next + 1);
+        return indexer.get(last);
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        bits.clear(last);
+        last = -1;
+      }
+    };
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense integer indices, starting from zero, to objects in the
+ * order they are first seen.  Objects are identified by equals() and
+ * hashCode().  Used to key bitsets for dataflow analyses, e.g. one
+ * indexer per function for its variables.
+ */
+public class Indexer<T> {
+  private final Map<T, Integer> indices = new HashMap<T, Integer>();
+  private final ArrayList<T> objects = new ArrayList<T>();
+
+  /**
+   * @param o
+   * @return index of o, assigning a new one if not yet indexed
+   */
+  public int index(T o) {
+    Integer ix = indices.get(o);
+    if (ix == null) {
+      ix = objects.size();
+      indices.put(o, ix);
+      objects.add(o);
+    }
+    return ix;
+  }
+
+  /**
+   * @param o
+   * @return index of o, or -1 if not yet indexed
+   */
+  public int lookup(Object o) {
+    Integer ix = indices.get(o);
+    return ix == null ? -1 : ix;
+  }
+
+  /**
+   * @param ix
+   * @return first object assigned index
+   */
+  public T get(int ix) {
+    return objects.get(ix);
+  }
+
+  /**
+   * @return number of indices assigned
+   */
+  public int size() {
+    return objects.size();
+  }
+}
@@ -16,8 +16,12 @@
 
 package exm.stc.common.util;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -26,6 +30,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import com.google.common.collect.Multimap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.common.lang.Types.Type;
@@ -44,6 +50,50 @@ public class Misc {
     return df.format(new Date());
   }
 
+  /** Cached result of compilerJarHash() */
+  private static String compilerJarHash = null;
+  private static boolean compilerJarHashDone = false;
+
+  /**
+   * @return jar that compiler was loaded from, or null if not running
+   *         from a jar
+   */
+  public static File compilerJar() {
+    CodeSource src = Misc.class.getProtectionDomain().getCodeSource();
+    if (src != null) {
+      try {
+        File jar = new File(src.getLocation().toURI());
+        if (jar.isFile()) {
+          return jar;
+        }
+      } catch (URISyntaxException e) {
+        // Treat as not found
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Identify compiler build by hash of the jar it was loaded from.  The
+   * version number may not be changed between builds, so is not enough
+   * to tell if cached compiler output is stale.
+   * @return hash, or null if not running from a jar
+   */
+  public static synchronized String compilerJarHash() {
+    if (!compilerJarHashDone) {
+      compilerJarHashDone = true;
+      File jar = compilerJar();
+      if (jar != null) {
+        try {
+          compilerJarHash = Files.hash(jar, Hashing.sha256()).toString();
+        } catch (IOException e) {
+          // Leave as null
+        }
+      }
+    }
+    return compilerJarHash;
+  }
+
   public static String stackTrace(Throwable e) {
     StringWriter sw = new StringWriter();
     PrintWriter pw = new PrintWriter(sw);
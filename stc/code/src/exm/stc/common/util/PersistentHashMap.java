@@ -0,0 +1,547 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.common.util;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable hash map implemented as a hash array mapped trie.  Updates
+ * return a new map that shares all but the path to the updated entry with
+ * the original, so taking a snapshot is free, and lookups and updates
+ * take O(log32 n) steps.  Null keys are not supported; null values are.
+ */
+public class PersistentHashMap<K, V> implements Iterable<Entry<K, V>> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  /** Marks absent value in lookups, since values may be null */
+  private static final Object NOT_FOUND = new Object();
+
+  @SuppressWarnings("rawtypes")
+  private static final PersistentHashMap EMPTY =
+                                  new PersistentHashMap(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    Object val = lookup(key);
+    return val == NOT_FOUND ? null : (V)val;
+  }
+
+  public boolean containsKey(Object key) {
+    return lookup(key) != NOT_FOUND;
+  }
+
+  private Object lookup(Object key) {
+    if (root == null) {
+      return NOT_FOUND;
+    }
+    return root.get(hash(key), 0, key);
+  }
+
+  /**
+   * @return map with key bound to value
+   */
+  public PersistentHashMap<K, V> plus(K key, V value) {
+    assert(key != null);
+    boolean[] added = new boolean[1];
+    Node newRoot;
+    if (root == null) {
+      newRoot = BitmapNode.EMPTY.put(hash(key), 0, key, value, added);
+    } else {
+      newRoot = root.put(hash(key), 0, key, value, added);
+    }
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * @return map with all entries of m added, overriding entries in this
+   */
+  public PersistentHashMap<K, V> plusAll(Map<? extends K, ? extends V> m) {
+    PersistentHashMap<K, V> result = this;
+    for (Entry<? extends K, ? extends V> e: m.entrySet()) {
+      result = result.plus(e.getKey(), e.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * @return map without key
+   */
+  public PersistentHashMap<K, V> minus(Object key) {
+    if (root == null) {
+      return this;
+    }
+    Node newRoot = root.remove(hash(key), 0, key);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(newRoot, size - 1);
+  }
+
+  /**
+   * Find keys whose entries may differ between this map and another.
+   * Subtries shared by both maps are skipped, so this is cheap when one
+   * map was derived from the other by a few updates.
+   * @return keys that were added, removed or changed, possibly with some
+   *         unchanged keys and duplicates
+   */
+  @SuppressWarnings("unchecked")
+  public List<K> changedKeys(PersistentHashMap<K, V> other) {
+    List<Object> keys = new ArrayList<Object>();
+    diff(root, other.root, keys);
+    return (List<K>)keys;
+  }
+
+  private static void diff(Node a, Node b, List<Object> keys) {
+    if (a == b) {
+      return;
+    }
+    if (!(a instanceof BitmapNode) || !(b instanceof BitmapNode)) {
+      addKeys(a, keys);
+      addKeys(b, keys);
+      return;
+    }
+    BitmapNode na = (BitmapNode)a;
+    BitmapNode nb = (BitmapNode)b;
+    int bits = na.bitmap | nb.bitmap;
+    while (bits != 0) {
+      int bit = Integer.lowestOneBit(bits);
+      bits &= ~bit;
+      if ((na.bitmap & bit) == 0) {
+        addSlot(nb, nb.index(bit), keys);
+      } else if ((nb.bitmap & bit) == 0) {
+        addSlot(na, na.index(bit), keys);
+      } else {
+        int ia = na.index(bit);
+        int ib = nb.index(bit);
+        Object ka = na.key(ia), va = na.value(ia);
+        Object kb = nb.key(ib), vb = nb.value(ib);
+        if (ka == null && kb == null) {
+          diff((Node)va, (Node)vb, keys);
+        } else if (ka == null || kb == null || !ka.equals(kb) || va != vb) {
+          addSlot(na, ia, keys);
+          addSlot(nb, ib, keys);
+        }
+      }
+    }
+  }
+
+  private static void addSlot(Node node, int slot, List<Object> keys) {
+    Object k = node.key(slot);
+    if (k == null) {
+      addKeys((Node)node.value(slot), keys);
+    } else {
+      keys.add(k);
+    }
+  }
+
+  private static void addKeys(Node node, List<Object> keys) {
+    if (node == null) {
+      return;
+    }
+    for (int slot = 0; slot < node.slots(); slot++) {
+      addSlot(node, slot, keys);
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    // Spread bits so that keys with similar hash codes are split early
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  @Override
+  public Iterator<Entry<K, V>> iterator() {
+    return new EntryIterator<K, V>(root);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    boolean first = true;
+    for (Entry<K, V> e: this) {
+      if (!first) {
+        sb.append(", ");
+      }
+      first = false;
+      sb.append(e.getKey()).append("=").append(e.getValue());
+    }
+    return sb.append("}").toString();
+  }
+
+  /**
+   * Trie node.  Entries are stored in an array as key/value pairs.
+   * Nodes are never modified once built.
+   */
+  private static abstract class Node {
+    abstract Object get(int hash, int shift, Object key);
+
+    /**
+     * @param added set to true if key was not present
+     * @return updated node, or this if unchanged
+     */
+    abstract Node put(int hash, int shift, Object key, Object val,
+                      boolean[] added);
+
+    /**
+     * @return updated node, this if key not present, or null if empty
+     */
+    abstract Node remove(int hash, int shift, Object key);
+
+    /** Number of key/value slots, for iteration */
+    abstract int slots();
+
+    /** Key in slot, or null if slot holds a child node */
+    abstract Object key(int slot);
+
+    /** Value or child node in slot */
+    abstract Object value(int slot);
+  }
+
+  /**
+   * Node with up to 32 slots, one for each value of the next five bits of
+   * the hash, present if bit is set in bitmap.  A slot holds either
+   * a key and value, or null and a child node.
+   */
+  private static class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    final int bitmap;
+    final Object[] array;
+
+    BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object get(int hash, int shift, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int ix = index(bit);
+      Object k = array[2 * ix];
+      Object v = array[2 * ix + 1];
+      if (k == null) {
+        return ((Node)v).get(hash, shift + BITS, key);
+      } else if (key.equals(k)) {
+        return v;
+      } else {
+        return NOT_FOUND;
+      }
+    }
+
+    @Override
+    Node put(int hash, int shift, Object key, Object val, boolean[] added) {
+      int bit = bit(hash, shift);
+      int ix = index(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, 2 * ix);
+        newArray[2 * ix] = key;
+        newArray[2 * ix + 1] = val;
+        System.arraycopy(array, 2 * ix, newArray, 2 * ix + 2,
+                         array.length - 2 * ix);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+
+      Object k = array[2 * ix];
+      Object v = array[2 * ix + 1];
+      Object newSlot;
+      if (k == null) {
+        Node child = (Node)v;
+        Node newChild = child.put(hash, shift + BITS, key, val, added);
+        if (newChild == child) {
+          return this;
+        }
+        newSlot = newChild;
+      } else if (key.equals(k)) {
+        if (v == val) {
+          return this;
+        }
+        return withSlot(ix, k, val);
+      } else {
+        added[0] = true;
+        newSlot = pair(shift + BITS, k, v, key, val, hash);
+      }
+      return withSlot(ix, null, newSlot);
+    }
+
+    private BitmapNode withSlot(int ix, Object k, Object v) {
+      Object[] newArray = array.clone();
+      newArray[2 * ix] = k;
+      newArray[2 * ix + 1] = v;
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    /**
+     * Make node holding two different keys
+     */
+    private static Node pair(int shift, Object k1, Object v1,
+                             Object k2, Object v2, int hash2) {
+      int hash1 = hash(k1);
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[] {k1, v1, k2, v2});
+      }
+      boolean[] added = new boolean[1];
+      return EMPTY.put(hash1, shift, k1, v1, added)
+                  .put(hash2, shift, k2, v2, added);
+    }
+
+    @Override
+    Node remove(int hash, int shift, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int ix = index(bit);
+      Object k = array[2 * ix];
+      Object v = array[2 * ix + 1];
+      if (k == null) {
+        Node child = (Node)v;
+        Node newChild = child.remove(hash, shift + BITS, key);
+        if (newChild == child) {
+          return this;
+        } else if (newChild != null) {
+          return withSlot(ix, null, newChild);
+        }
+      } else if (!key.equals(k)) {
+        return this;
+      }
+
+      // Remove slot
+      if (bitmap == bit) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, 2 * ix);
+      System.arraycopy(array, 2 * ix + 2, newArray, 2 * ix,
+                       newArray.length - 2 * ix);
+      return new BitmapNode(bitmap & ~bit, newArray);
+    }
+
+    @Override
+    int slots() {
+      return array.length / 2;
+    }
+
+    @Override
+    Object key(int slot) {
+      return array[2 * slot];
+    }
+
+    @Override
+    Object value(int slot) {
+      return array[2 * slot + 1];
+    }
+  }
+
+  /**
+   * Node for keys whose full hashes are equal
+   */
+  private static class CollisionNode extends Node {
+    final int hash;
+    final Object[] array;
+
+    CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int find(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object get(int hash, int shift, Object key) {
+      if (hash != this.hash) {
+        return NOT_FOUND;
+      }
+      int i = find(key);
+      return i < 0 ? NOT_FOUND : array[i + 1];
+    }
+
+    @Override
+    Node put(int hash, int shift, Object key, Object val, boolean[] added) {
+      if (hash != this.hash) {
+        // Push this down a level below a bitmap node
+        BitmapNode parent = new BitmapNode(bit(this.hash, shift),
+                                           new Object[] {null, this});
+        return parent.put(hash, shift, key, val, added);
+      }
+      int i = find(key);
+      Object[] newArray;
+      if (i >= 0) {
+        if (array[i + 1] == val) {
+          return this;
+        }
+        newArray = array.clone();
+        newArray[i + 1] = val;
+      } else {
+        newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        newArray[array.length] = key;
+        newArray[array.length + 1] = val;
+        added[0] = true;
+      }
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override
+    Node remove(int hash, int shift, Object key) {
+      if (hash != this.hash) {
+        return this;
+      }
+      int i = find(key);
+      if (i < 0) {
+        return this;
+      } else if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override
+    int slots() {
+      return array.length / 2;
+    }
+
+    @Override
+    Object key(int slot) {
+      return array[2 * slot];
+    }
+
+    @Override
+    Object value(int slot) {
+      return array[2 * slot + 1];
+    }
+  }
+
+  /**
+   * Depth first traversal of trie
+   */
+  private static class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+    /** Nodes on path to current position, and next slot in each */
+    private final Node nodes[] = new Node[8];
+    private final int slots[] = new int[8];
+    private int depth;
+    private Entry<K, V> next;
+
+    EntryIterator(Node root) {
+      if (root == null) {
+        depth = -1;
+      } else {
+        nodes[0] = root;
+        slots[0] = 0;
+        depth = 0;
+      }
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        Node node = nodes[depth];
+        int slot = slots[depth];
+        if (slot >= node.slots()) {
+          depth--;
+          continue;
+        }
+        slots[depth]++;
+        Object k = node.key(slot);
+        Object v = node.value(slot);
+        if (k == null) {
+          depth++;
+          nodes[depth] = (Node)v;
+          slots[depth] = 0;
+        } else {
+          next = new SimpleImmutableEntry<K, V>((K)k, (V)v);
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Entry<K, V> result = next;
+      advance();
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
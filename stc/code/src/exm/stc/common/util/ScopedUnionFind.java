@@ -39,6 +39,12 @@ public class ScopedUnionFind<T> {
    */
   private final TwoWayMap<T, T> canonical;
 
+  /**
+   * Canonical of each member in this or an ancestor scope, for lookups
+   * without walking up the scopes.
+   */
+  private final HierarchicalMap<T, T> visibleCanonical;
+
 
   /**
    * Children that we might need to propagate changes to
@@ -50,6 +56,8 @@ public class ScopedUnionFind<T> {
   private ScopedUnionFind(ScopedUnionFind<T> parent) {
     this.parent = parent;
     this.canonical = TwoWayMap.create();
+    this.visibleCanonical = parent == null ? new HierarchicalMap<T, T>() :
+                                   parent.visibleCanonical.makeChildMap();
     this.subscribed = HashMultimap.create();
   }
 
@@ -62,14 +70,9 @@ public class ScopedUnionFind<T> {
   }
 
   public T lookup(T x) {
-    ScopedUnionFind<T> curr = this;
-    while (curr != null) {
-      T canon = curr.canonical.get(x);
-      if (canon != null) {
-        return canon;
-      }
-
-      curr = curr.parent;
+    T canon = visibleCanonical.get(x);
+    if (canon != null) {
+      return canon;
     }
 
     // x is on its own
@@ -101,6 +104,7 @@ public class ScopedUnionFind<T> {
 
     for (T affectedMember: affectedMembers) {
       canonical.put(affectedMember, winnerCanon);
+      visibleCanonical.put(affectedMember, winnerCanon);
     }
 
     subscribeToParentUpdates(winnerCanon);
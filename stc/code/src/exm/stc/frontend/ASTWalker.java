@@ -31,6 +31,9 @@ import exm.stc.ast.FilePosition.LineMapping;
 import exm.stc.ast.SwiftAST;
 import exm.stc.ast.antlr.ExMParser;
 import exm.stc.common.Logging;
+import exm.stc.common.Profiler;
+import exm.stc.common.Profiler.Sample;
+import exm.stc.common.Settings;
 import exm.stc.common.exceptions.DoubleDefineException;
 import exm.stc.common.exceptions.InvalidAnnotationException;
 import exm.stc.common.exceptions.InvalidConstructException;
@@ -122,6 +125,7 @@ public class ASTWalker {
 
   private final STCMiddleEnd backend;
   private final ForeignFunctions foreignFuncs;
+  private final Profiler profiler;
   private final VarCreator varCreator;
   private final LValWalker lValWalker;
   private final ExprWalker exprWalker;
@@ -130,15 +134,24 @@ public class ASTWalker {
 
   /** Track which modules are loaded and compiled */
   private final LoadedModules modules;
+
+  /**
+   * Release top-level statements and functions from the AST once they
+   * have been compiled, so that the AST and its annotations do not stay
+   * in memory alongside the IC built from them.
+   */
+  private boolean releaseAST = false;
   private static enum FrontendPass {
     DEFINITIONS, // Process top level defs
     COMPILE_TOPLEVEL, // Compile top-levelcode
     COMPILE_FUNCTIONS, // Compile functions
   }
 
-  public ASTWalker(STCMiddleEnd backend, ForeignFunctions foreignFuncs) {
+  public ASTWalker(STCMiddleEnd backend, ForeignFunctions foreignFuncs,
+                   Profiler profiler) {
     this.backend = backend;
     this.foreignFuncs = foreignFuncs;
+    this.profiler = profiler;
     this.modules = new LoadedModules();
     this.varCreator = new VarCreator(backend);
     this.wrapper = new WrapperGen(backend);
@@ -151,23 +164,23 @@ public class ASTWalker {
    * Walk the AST and make calls to backend to generate lower level code.
    * This function is called to start the walk at the top level file
    * @param mainFilePath the main file path to process
-   * @param originalMainFilePath original main file, in case a temporary file
-   *                             is being directly parsed
-   * @param preprocessed true if module was preprocessed
+   * @param preprocessedSource output of preprocessor for main file, or
+   *                           null if it was not preprocessed
    * @throws UserException
    */
-  public void walk(String mainFilePath, String originalMainFilePath,
-                 boolean preprocessed) throws UserException {
+  public void walk(String mainFilePath, String preprocessedSource)
+                   throws UserException {
 
     GlobalContext context = new GlobalContext(mainFilePath,
                       Logging.getSTCLogger(), foreignFuncs);
+    releaseAST = Settings.getBooleanUnchecked(Settings.FRONTEND_STREAMING);
 
     // Assume root module for now
-    String mainModuleName =  FilenameUtils.getBaseName(originalMainFilePath);
+    String mainModuleName =  FilenameUtils.getBaseName(mainFilePath);
     LocatedModule mainModule = new LocatedModule(mainFilePath, mainModuleName,
-                                                 preprocessed);
+                                                 preprocessedSource);
     LocatedModule builtins = LocatedModule.fromPath(context,
-                          Arrays.asList("builtins"), false);
+                                            Arrays.asList("builtins"));
 
     /*
      * Three passes:
@@ -175,11 +188,35 @@ public class ASTWalker {
      * 2. compile top-level code, so that any variables can be referenced in funcitons
      * 3. compile functions
      */
+    Sample start = profiler.sample();
+    modules.prefetch(context, Arrays.asList(builtins, mainModule));
     loadDefinitions(context, mainModule, builtins);
+    recordPass(FrontendPass.DEFINITIONS, start);
 
+    start = profiler.sample();
     compileTopLevel(context, mainModule, builtins);
+    recordPass(FrontendPass.COMPILE_TOPLEVEL, start);
 
+    start = profiler.sample();
     compileFunctions(context);
+    recordPass(FrontendPass.COMPILE_FUNCTIONS, start);
+  }
+
+  /**
+   * @return all modules loaded by walk(), in order of loading
+   */
+  public List<LocatedModule> loadedModules() {
+    return modules.loadedModules();
+  }
+
+  private void recordPass(FrontendPass pass, Sample start) {
+    if (profiler.enabled()) {
+      Sample end = profiler.sample();
+      Map<String, Long> sizes = backend.irSizes();
+      sizes.put("modules", (long)modules.loadedModules().size());
+      profiler.record(Profiler.STAGE_FRONTEND, pass.name().toLowerCase(),
+                      null, start, end, null, sizes);
+    }
   }
 
   private void loadDefinitions(GlobalContext context,
@@ -385,8 +422,13 @@ public class ASTWalker {
       }
     }
 
-    for (SwiftAST stmt: stmts) {
+    for (int i = 0; i < stmts.size(); i++) {
+      SwiftAST stmt = stmts.get(i);
       walkStatement(context, stmt, WalkMode.NORMAL);
+      if (releaseAST) {
+        stmts.set(i, null);
+        stmt.release();
+      }
     }
   }
 
@@ -408,8 +450,14 @@ public class ASTWalker {
       int type = stmt.getType();
       if (type == ExMParser.DEFINE_FUNCTION) {
         compileFunction(context, stmt);
+        if (releaseAST) {
+          stmt.release();
+        }
       } else if (type == ExMParser.DEFINE_APP_FUNCTION) {
         compileAppFunction(context, stmt);
+        if (releaseAST) {
+          stmt.release();
+        }
       } else if (TopLevel.isStatement(type) ||
                  TopLevel.isDefinition(type)) {
         // Can ignore other definitions and statements
@@ -439,7 +487,7 @@ public class ASTWalker {
     if (pass == FrontendPass.DEFINITIONS ||
         pass == FrontendPass.COMPILE_TOPLEVEL) {
       LocatedModule module = LocatedModule.fromModuleNameAST(context,
-                                                    moduleID, false);
+                                                              moduleID);
       loadModule(context, topLevelCx, pass, module);
     }
   }
@@ -2434,7 +2482,7 @@ public class ASTWalker {
       // Unpack to flat representation
       NestedContainerInfo ci = new NestedContainerInfo(in.type());
       Type memberValType = Types.retrievedType(ci.baseType);
-      Type localInType =  new ArrayType(true, Types.F_INT, memberValType);
+      Type localInType =  ArrayType.create(true, Types.F_INT, memberValType);
       localInput = varCreator.createValueVar(context, localInType, in, true);
       backend.unpackArrayToFlat(VarRepr.backendVar(localInput),
                                 VarRepr.backendArg(in));
@@ -2668,7 +2716,7 @@ public class ASTWalker {
     if (aliasOnly) {
       newType = baseType;
     } else {
-      newType = new SubType(baseType, typeName);
+      newType = SubType.create(baseType, typeName);
     }
 
     context.defineType(typeName, newType);
@@ -20,9 +20,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -48,6 +46,7 @@ import exm.stc.common.lang.Var.Alloc;
 import exm.stc.common.lang.Var.DefType;
 import exm.stc.common.lang.Var.SourceLoc;
 import exm.stc.common.lang.Var.VarProvenance;
+import exm.stc.common.util.HierarchicalMap;
 import exm.stc.common.util.StackLite;
 
 /**
@@ -71,22 +70,23 @@ public abstract class Context {
   protected final Logger logger;
 
   /**
-     Map from variable name to Variable object
+     Map from variable name to Variable object.  Includes variables
+     visible from parent contexts.
    */
-  protected final Map<String,Var> variables = new HashMap<String,Var>();
+  protected final HierarchicalMap<String,Var> variables;
 
   /**
    * Map from type name to the type object.  Most types are defined
    * in global context only, but we also have type variables with
-   * restricted scope.
+   * restricted scope.  Includes types visible from parent contexts.
    */
-  protected final Map<String, Type> types = new HashMap<String, Type>();
+  protected final HierarchicalMap<String, Type> types;
 
   /**
-   * Track all definitions (variables and types)
+   * Track all definitions (variables and types), including those
+   * visible from parent contexts.
    */
-  protected final Map<String, DefInfo> allDefs =
-                                         new HashMap<String, DefInfo>();
+  protected final HierarchicalMap<String, DefInfo> allDefs;
 
   /**
    * Current input file
@@ -113,6 +113,15 @@ public abstract class Context {
     this.parent = parent;
     this.level = level;
     this.logger = logger;
+    if (parent == null) {
+      this.variables = new HierarchicalMap<String, Var>();
+      this.types = new HierarchicalMap<String, Type>();
+      this.allDefs = new HierarchicalMap<String, DefInfo>();
+    } else {
+      this.variables = parent.variables.makeChildMap();
+      this.types = parent.types.makeChildMap();
+      this.allDefs = parent.allDefs.makeChildMap();
+    }
   }
 
   /**
@@ -441,7 +450,8 @@ public abstract class Context {
    * @return the variables which were declared in this scope
    */
   public Collection<Var> getScopeVariables() {
-    return Collections.unmodifiableCollection(variables.values());
+    return Collections.unmodifiableCollection(
+                                variables.localMap().values());
   }
 
   /**
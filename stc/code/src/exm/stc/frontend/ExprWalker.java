@@ -681,7 +681,7 @@ public class ExprWalker {
       // Need to dereference into temporary var
       Type readOnlyElemType = TypeChecker.containerElemType(arrayVar, false);
       copyDst = varCreator.createTmp(context,
-              new RefType(readOnlyElemType, false));
+              RefType.create(readOnlyElemType, false));
       mustDereference = true;
     }
 
@@ -55,6 +55,7 @@ import exm.stc.common.lang.Var.DefType;
 import exm.stc.common.lang.Var.VarProvenance;
 import exm.stc.common.util.Counters;
 import exm.stc.common.util.Pair;
+import exm.stc.frontend.typecheck.FnCallCache;
 
 /**
  * Global context for entire program
@@ -92,6 +93,12 @@ public class GlobalContext extends Context {
 
   private final Counters<String> globalCounters = new Counters<String>();
 
+  /**
+   * Memoized function call resolution.  Invalidated whenever a function
+   * is defined.
+   */
+  private final FnCallCache fnCallCache = new FnCallCache();
+
   public GlobalContext(String inputFile, Logger logger,
                         ForeignFunctions foreignFuncs) {
     super(null, logger, 0);
@@ -191,6 +198,11 @@ public class GlobalContext extends Context {
                  DefaultVals<Var> defaultVals) {
     functionOverloads.put(name,
         new FnOverload(fnID, type, inArgNames, defaultVals));
+    fnCallCache.invalidate();
+  }
+
+  public FnCallCache fnCallCache() {
+    return fnCallCache;
   }
 
   /**
@@ -312,7 +324,7 @@ public class GlobalContext extends Context {
 
   @Override
   public List<Var> getVisibleVariables() {
-    return new ArrayList<Var>(variables.values());
+    return new ArrayList<Var>(variables.localMap().values());
   }
 
   @Override
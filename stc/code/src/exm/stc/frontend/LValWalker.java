@@ -497,14 +497,14 @@ public class LValWalker {
               backendLValArr, Arg.newInt(arrIx));
         } else {
           assert (Types.isArrayRef(lvalArr.type()));
-          mVar = varCreator.createTmp(context, new RefType(memberType, true));
+          mVar = varCreator.createTmp(context, RefType.create(memberType, true));
           backend.arrayRefCreateNestedImm(VarRepr.backendVar(mVar),
                           backendLValArr, Arg.newInt(arrIx));
         }
 
       } else {
         // Handle the general case where the index must be computed
-        mVar = varCreator.createTmp(context, new RefType(memberType, true));
+        mVar = varCreator.createTmp(context, RefType.create(memberType, true));
         Var indexVar = evalKey(context, lvalArr, indexExpr);
 
         Var backendIx = VarRepr.backendVar(indexVar);
@@ -522,7 +522,7 @@ public class LValWalker {
        * Retrieving a member that isn't a container type must use reference
        * because we might have to wait for the result to be inserted
        */
-      mVar = varCreator.createTmp(context, new RefType(memberType, true));
+      mVar = varCreator.createTmp(context, RefType.create(memberType, true));
     }
 
     return new LValue(lval, lval.tree, mVar, lval.indices.subList(1,
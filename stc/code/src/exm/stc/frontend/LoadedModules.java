@@ -2,6 +2,7 @@ package exm.stc.frontend;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -9,6 +10,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import exm.stc.ast.FilePosition.LineMapping;
 import exm.stc.ast.SwiftAST;
@@ -16,8 +22,11 @@ import exm.stc.ast.antlr.ExMParser;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.InvalidSyntaxException;
 import exm.stc.common.exceptions.ModuleLoadException;
+import exm.stc.common.exceptions.STCRuntimeError;
+import exm.stc.common.exceptions.UserException;
 import exm.stc.common.util.Pair;
 import exm.stc.common.util.StackLite;
+import exm.stc.frontend.ParsedModule.SyntaxErrors;
 import exm.stc.frontend.tree.Literals;
 
 public class LoadedModules {
@@ -32,6 +41,13 @@ public class LoadedModules {
   /** List of modules in order of inclusion */
   private List<LocatedModule> loadedModules = new ArrayList<LocatedModule>();
 
+  /**
+   * Modules parsed ahead of time by prefetch(), but not yet loaded.
+   * Keyed by canonical name.
+   */
+  private Map<String, Pair<LocatedModule, ParsedModule>> prefetched =
+            new HashMap<String, Pair<LocatedModule, ParsedModule>>();
+
   /** List of modules we've started compiling top level of */
   private Set<ParsedModule> startedTopLevelCompile =
               new HashSet<ParsedModule>();
@@ -56,12 +72,17 @@ public class LoadedModules {
       parsed = loadedModuleMap.get(module.canonicalName);
     } else {
       didLoad = true;
-      // Load the file
-      try {
-        parsed = ParsedModule.parse(module.canonicalName, module.filePath,
-                                    module.preprocessed);
-      } catch (IOException e) {
-        throw new ModuleLoadException(context, module.filePath, e);
+      Pair<LocatedModule, ParsedModule> early =
+                        prefetched.remove(module.canonicalName);
+      if (early != null && early.val1.filePath.equals(module.filePath)) {
+        parsed = early.val2;
+      } else {
+        // Load the file
+        try {
+          parsed = parse(module);
+        } catch (IOException e) {
+          throw new ModuleLoadException(context, module.filePath, e);
+        }
       }
       loadedModuleMap.put(module.canonicalName, parsed);
       loadedModules.add(module);
@@ -69,6 +90,159 @@ public class LoadedModules {
     return Pair.create(parsed, didLoad);
   }
 
+  private static ParsedModule parse(LocatedModule module)
+      throws IOException {
+    ParsedModule parsed;
+    try {
+      parsed = parseDeferErrors(module);
+    } catch (SyntaxErrors e) {
+      e.report();
+      throw e;
+    }
+    parsed.reportErrors();
+    return parsed;
+  }
+
+  /**
+   * Parse module without reporting syntax errors
+   * @throws SyntaxErrors which the caller must report
+   */
+  private static ParsedModule parseDeferErrors(LocatedModule module)
+      throws IOException {
+    if (module.modulePath != null) {
+      // Imported modules are often unchanged between compiles
+      return ParsedModuleCache.parse(module.canonicalName,
+                                     module.filePath, false);
+    } else if (module.preprocessedSource != null) {
+      return ParsedModule.parse(module.canonicalName, module.filePath,
+              new StringReader(module.preprocessedSource), true);
+    } else {
+      return ParsedModule.parse(module.canonicalName, module.filePath,
+                                false);
+    }
+  }
+
+  /**
+   * Parse modules and everything they import, directly or indirectly,
+   * on a thread pool, so that later calls to loadIfNeeded() don't need
+   * to parse.  The import graph is explored breadth first: all modules
+   * at one level are parsed concurrently, then scanned for top-level
+   * import statements to find the next level.
+   *
+   * This does not register modules: the order of loadedModules() is
+   * still determined by calls to loadIfNeeded().  Imports that can't be
+   * located are skipped, so that the error is reported at the import
+   * statement when it is compiled.
+   * @param context
+   * @param roots
+   * @throws ModuleLoadException if a module can't be read
+   */
+  public void prefetch(Context context, List<LocatedModule> roots)
+      throws ModuleLoadException {
+    int threads = Settings.getIntUnchecked(Settings.PARSE_THREADS);
+    if (threads == 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    if (threads <= 1) {
+      return;
+    }
+
+    Set<String> seen = new HashSet<String>(loadedModuleMap.keySet());
+    List<LocatedModule> level = new ArrayList<LocatedModule>();
+    for (LocatedModule root: roots) {
+      if (seen.add(root.canonicalName)) {
+        level.add(root);
+      }
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      while (!level.isEmpty()) {
+        List<Future<ParsedModule>> results =
+                      new ArrayList<Future<ParsedModule>>(level.size());
+        for (final LocatedModule module: level) {
+          results.add(pool.submit(new Callable<ParsedModule>() {
+            @Override
+            public ParsedModule call() throws IOException {
+              return parseDeferErrors(module);
+            }
+          }));
+        }
+
+        // Handle results, including errors, in deterministic order
+        List<LocatedModule> nextLevel = new ArrayList<LocatedModule>();
+        for (int i = 0; i < level.size(); i++) {
+          LocatedModule module = level.get(i);
+          ParsedModule parsed = getParseResult(context, module,
+                                               results.get(i));
+          prefetched.put(module.canonicalName,
+                         Pair.create(module, parsed));
+
+          for (LocatedModule imported: findImports(context, parsed)) {
+            if (seen.add(imported.canonicalName)) {
+              nextLevel.add(imported);
+            }
+          }
+        }
+        level = nextLevel;
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static ParsedModule getParseResult(Context context,
+      LocatedModule module, Future<ParsedModule> result)
+          throws ModuleLoadException {
+    try {
+      ParsedModule parsed = result.get();
+      parsed.reportErrors();
+      return parsed;
+    } catch (InterruptedException e) {
+      throw new STCRuntimeError("Interrupted while parsing " +
+                                module.filePath);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SyntaxErrors) {
+        // Report here so errors appear in same order every time
+        ((SyntaxErrors)cause).report();
+        throw (SyntaxErrors)cause;
+      } else if (cause instanceof IOException) {
+        throw new ModuleLoadException(context, module.filePath,
+                                      (IOException)cause);
+      } else if (cause instanceof RuntimeException) {
+        // E.g. STCFatal after I/O error
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new STCRuntimeError("Unexpected error parsing " +
+                                  module.filePath, cause);
+      }
+    }
+  }
+
+  /**
+   * @return modules imported at top level of parsed module that could
+   *         be located
+   */
+  private static List<LocatedModule> findImports(Context context,
+                                                 ParsedModule parsed) {
+    List<LocatedModule> imports = new ArrayList<LocatedModule>();
+    for (SwiftAST stmt: parsed.ast.children()) {
+      if (stmt.getType() == ExMParser.IMPORT &&
+          stmt.getChildCount() == 1) {
+        try {
+          imports.add(LocatedModule.fromModuleNameAST(context,
+                                                      stmt.child(0)));
+        } catch (UserException e) {
+          // Will be reported when import is compiled
+        }
+      }
+    }
+    return imports;
+  }
+
   public ParsedModule currentModule() {
     return moduleStack.peek();
   }
@@ -110,6 +284,22 @@ public class LoadedModules {
 
   private static String locateModule(Context context, String moduleName,
                               List<String> modulePath) throws ModuleLoadException {
+    String filePath = findModuleFile(modulePath);
+    if (filePath != null) {
+      LogHelper.debug(context, "Resolved " + moduleName + " to " + filePath);
+      return filePath;
+    }
+
+    throw new ModuleLoadException(context, "Could not find module " + moduleName +
+                  " in search path: " + Settings.getModulePath().toString());
+  }
+
+  /**
+   * Find the file for a module in the module search path
+   * @param modulePath components of module name
+   * @return path of first matching file, or null if not found
+   */
+  public static String findModuleFile(List<String> modulePath) {
     for (String searchDir: Settings.getModulePath()) {
       if (searchDir.length() == 0) {
         continue;
@@ -122,14 +312,11 @@ public class LoadedModules {
       String fileName = modulePath.get(modulePath.size() - 1) + ".swift";
       String filePath = currDir + File.separator + fileName;
 
-      if (new File(filePath).isFile()) {
-        LogHelper.debug(context, "Resolved " + moduleName + " to " + filePath);
+      if (new File(Settings.resolvePath(filePath)).isFile()) {
         return filePath;
       }
     }
-
-    throw new ModuleLoadException(context, "Could not find module " + moduleName +
-                  " in search path: " + Settings.getModulePath().toString());
+    return null;
   }
 
 
@@ -137,13 +324,22 @@ public class LoadedModules {
   public static class LocatedModule {
     public final String filePath;
     public final String canonicalName;
-    public final boolean preprocessed;
+    /** Output of preprocessor, or null if module is read from file */
+    public final String preprocessedSource;
+    /** Components of module name, or null if not located by name */
+    public final List<String> modulePath;
 
     public LocatedModule(String filePath, String canonicalName,
-      boolean preprocessed) {
+      String preprocessedSource) {
+      this(filePath, canonicalName, preprocessedSource, null);
+    }
+
+    private LocatedModule(String filePath, String canonicalName,
+        String preprocessedSource, List<String> modulePath) {
       this.filePath = filePath;
       this.canonicalName = canonicalName;
-      this.preprocessed = preprocessed;
+      this.preprocessedSource = preprocessedSource;
+      this.modulePath = modulePath;
     }
 
     /**
@@ -154,11 +350,11 @@ public class LoadedModules {
      * @return
      * @throws ModuleLoadException
      */
-    public static LocatedModule fromPath(Context context, List<String> modulePath,
-        boolean preprocessed) throws ModuleLoadException {
+    public static LocatedModule fromPath(Context context,
+        List<String> modulePath) throws ModuleLoadException {
       String canonicalName = moduleCanonicalName(modulePath);
       String filePath = locateModule(context, canonicalName, modulePath);
-      return new LocatedModule(filePath, canonicalName, preprocessed);
+      return new LocatedModule(filePath, canonicalName, null, modulePath);
     }
 
     /**
@@ -171,7 +367,7 @@ public class LoadedModules {
      * @throws ModuleLoadException
      */
     public static LocatedModule fromModuleNameAST(Context context,
-        SwiftAST moduleID, boolean preprocessed)
+        SwiftAST moduleID)
             throws InvalidSyntaxException, ModuleLoadException {
       List<String> modulePath;
       if (moduleID.getType() == ExMParser.STRING) {
@@ -195,7 +391,7 @@ public class LoadedModules {
           modulePath.add(idT.getText());
         }
       }
-      return fromPath(context, modulePath, preprocessed);
+      return fromPath(context, modulePath);
     }
 
   }
@@ -95,21 +95,14 @@ public class LocalContext extends Context {
 
   @Override
   public DefInfo lookupDef(String name) {
-    DefInfo result = allDefs.get(name);
-    if (result != null) {
-      return result;
-    } else {
-      return parent.lookupDef(name);
-    }
+    // Includes parent definitions
+    return allDefs.get(name);
   }
 
   @Override
   public Var lookupVarUnsafe(String name) {
-    Var result;
-    result = variables.get(name);
-    if (result != null)
-      return result;
-    return parent.lookupVarUnsafe(name);
+    // Includes parent variables
+    return variables.get(name);
   }
 
   @Override
@@ -238,7 +231,7 @@ public class LocalContext extends Context {
 
     // All variable from parent visible, plus variables defined in this scope
     result.addAll(parent.getVisibleVariables());
-    result.addAll(variables.values());
+    result.addAll(variables.localMap().values());
 
     return result;
   }
@@ -251,12 +244,8 @@ public class LocalContext extends Context {
 
   @Override
   public Type lookupTypeUnsafe(String typeName) {
-    Type t = types.get(typeName);
-    if (t != null) {
-      return t;
-    } else {
-      return parent.lookupTypeUnsafe(typeName);
-    }
+    // Includes parent types
+    return types.get(typeName);
   }
 
 
@@ -3,10 +3,16 @@ package exm.stc.frontend;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StreamTokenizer;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import org.antlr.runtime.ANTLRInputStream;
+import org.antlr.runtime.ANTLRReaderStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
 import org.antlr.runtime.Token;
@@ -16,6 +22,7 @@ import exm.stc.ast.FilePosition.LineMapping;
 import exm.stc.ast.SwiftAST;
 import exm.stc.ast.antlr.ExMLexer;
 import exm.stc.ast.antlr.ExMParser;
+import exm.stc.common.Settings;
 import exm.stc.common.exceptions.STCFatal;
 import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.ui.ExitCode;
@@ -27,10 +34,17 @@ public class ParsedModule {
 
   public ParsedModule(String moduleName, String filePath, SwiftAST ast,
                       LineMapping lineMapping) {
+    this(moduleName, filePath, ast, lineMapping,
+         Collections.<String>emptyList());
+  }
+
+  public ParsedModule(String moduleName, String filePath, SwiftAST ast,
+                      LineMapping lineMapping, List<String> errorMessages) {
     this.moduleName = moduleName;
     this.inputFilePath = filePath;
     this.ast = ast;
     this.lineMapping = lineMapping;
+    this.errorMessages = Collections.unmodifiableList(errorMessages);
   }
 
   /** Canonical name for module */
@@ -39,6 +53,12 @@ public class ParsedModule {
   public final SwiftAST ast;
   public final LineMapping lineMapping;
 
+  /**
+   * Errors the parser recovered from, e.g. invalid characters skipped by
+   * the lexer.  Not printed while parsing: see reportErrors()
+   */
+  public final List<String> errorMessages;
+
   /**
    * Parse the specified file and create a ParsedModule object
    * @param path
@@ -49,8 +69,41 @@ public class ParsedModule {
   public static ParsedModule parse(String moduleName, String path,
                                    boolean preprocessed) throws IOException {
     FileInputStream inputStream = setupInput(path);
+    try {
+      return parse(moduleName, path, inputStream, preprocessed);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Parse the input and create a ParsedModule object
+   * @param moduleName
+   * @param path path of file input was read from
+   * @param inputStream
+   * @param preprocessed
+   * @return
+   * @throws IOException
+   */
+  public static ParsedModule parse(String moduleName, String path,
+      InputStream inputStream, boolean preprocessed) throws IOException {
+    return parse(moduleName, path, new InputStreamReader(inputStream),
+                 preprocessed);
+  }
+
+  /**
+   * Parse the input and create a ParsedModule object
+   * @param moduleName
+   * @param path path of file input was read from
+   * @param reader
+   * @param preprocessed
+   * @return
+   * @throws IOException
+   */
+  public static ParsedModule parse(String moduleName, String path,
+      Reader reader, boolean preprocessed) throws IOException {
     /* Parse the input file and build AST */
-    ANTLRInputStream antlrInput = new ANTLRInputStream(inputStream);
+    ANTLRReaderStream antlrInput = new ANTLRReaderStream(reader);
     LineMapping lineMapping;
     if (preprocessed) {
       int startMark = antlrInput.mark();
@@ -60,9 +113,19 @@ public class ParsedModule {
       // Treat # lines as comments.  All input from same file
       lineMapping = LineMapping.makeSimple(path);
     }
-    SwiftAST tree = runANTLR(antlrInput, lineMapping);
+    List<String> errors = new ArrayList<String>();
+    SwiftAST tree = runANTLR(antlrInput, lineMapping, errors);
+
+    return new ParsedModule(moduleName, path, tree, lineMapping, errors);
+  }
 
-    return new ParsedModule(moduleName, path, tree, lineMapping);
+  /**
+   * Print errors that the parser recovered from
+   */
+  public void reportErrors() {
+    for (String msg: errorMessages) {
+      System.err.println(msg);
+    }
   }
   /**
    * @param filePath
@@ -81,7 +144,7 @@ public class ParsedModule {
   private static FileInputStream setupInput(String inputFilename) {
     FileInputStream input = null;
     try {
-      input = new FileInputStream(inputFilename);
+      input = new FileInputStream(Settings.resolvePath(inputFilename));
     } catch (IOException e) {
       System.out.println("Error opening input Swift file: " +
                                             e.getMessage());
@@ -94,13 +157,18 @@ public class ParsedModule {
      Use ANTLR to parse the input and get the Tree
    * @throws IOException
    */
-  private static SwiftAST runANTLR(ANTLRInputStream input, LineMapping lineMap) {
+  private static SwiftAST runANTLR(ANTLRReaderStream input,
+                      LineMapping lineMap, List<String> errors) {
 
+    // Collect errors rather than printing so that modules can be parsed
+    // concurrently, with errors reported in a deterministic order
     ExMLexer lexer = new ExMLexer(input);
     lexer.lineMap = lineMap;
+    lexer.errorMessages = errors;
     CommonTokenStream tokens = new CommonTokenStream(lexer);
     ExMParser parser = new ExMParser(tokens);
     parser.lineMap = lineMap;
+    parser.errorMessages = errors;
     parser.setTreeAdaptor(new SwTreeAdaptor());
 
     // Launch parsing
@@ -124,8 +192,7 @@ public class ParsedModule {
      */
     if (parser.parserError) {
       // This is a user error
-      System.err.println("Error occurred during parsing.");
-      throw new STCFatal(ExitCode.ERROR_USER.code());
+      throw new SyntaxErrors(errors);
     }
 
     // Do we actually need this check? -Justin (10/26/2011)
@@ -144,7 +211,7 @@ public class ParsedModule {
    * @param lexer
    * @param tree
    */
-  private static LineMapping parsePreprocOutput(ANTLRInputStream input) {
+  private static LineMapping parsePreprocOutput(ANTLRReaderStream input) {
 
     /*
      * This function is a dirty hack, but works ok
@@ -200,6 +267,27 @@ public class ParsedModule {
     return posTrack;
   }
 
+  /**
+   * Thrown if there were syntax errors while parsing.  The errors are
+   * not printed when thrown: the catcher must call report().
+   */
+  public static class SyntaxErrors extends STCFatal {
+    private static final long serialVersionUID = 1L;
+    public final List<String> messages;
+
+    public SyntaxErrors(List<String> messages) {
+      super(ExitCode.ERROR_USER.code());
+      this.messages = Collections.unmodifiableList(messages);
+    }
+
+    public void report() {
+      for (String msg: messages) {
+        System.err.println(msg);
+      }
+      System.err.println("Error occurred during parsing.");
+    }
+  }
+
   public static class SwTreeAdaptor extends CommonTreeAdaptor {
     @Override
     public Object create(Token t) {
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.frontend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.Token;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import exm.stc.ast.FilePosition;
+import exm.stc.ast.FilePosition.LineMapping;
+import exm.stc.ast.SwiftAST;
+import exm.stc.common.Logging;
+import exm.stc.common.Settings;
+import exm.stc.common.util.CacheDir;
+import exm.stc.common.util.Misc;
+import exm.stc.common.util.StackLite;
+
+/**
+ * Persistent cache of parsed modules, so that unchanged modules don't need
+ * to be run through the parser again.
+ *
+ * Entries are keyed by a hash of the compiler jar, the path of the module
+ * and its contents.  Including the compiler jar means that grammar changes
+ * invalidate the cache.  The path is included as given as well as
+ * canonicalized, since the line mapping records the path as given.  The
+ * cache is not used if the compiler is not running from a jar.
+ *
+ * The cache shares the stc.cache.max-size limit with the compile cache,
+ * with least recently used entries evicted once it is exceeded.
+ *
+ * Each entry is a binary file with the line mapping, a table of token
+ * strings, and the AST nodes in preorder.  Only the token type, text and
+ * position are stored for each node, since that is all the frontend uses.
+ */
+public class ParsedModuleCache {
+
+  private static final int MAGIC = 0x53544341; // "STCA"
+  private static final int FORMAT_VERSION = 1;
+  private static final String SUFFIX = ".ast";
+  private static final String SUBDIR = "parsed";
+
+  /**
+   * Parse module, using cached AST if possible.  Falls back to parsing
+   * if cache is disabled or any error occurs while using it.
+   * @param moduleName
+   * @param path
+   * @param preprocessed
+   * @return
+   * @throws IOException if file could not be read
+   */
+  public static ParsedModule parse(String moduleName, String path,
+                            boolean preprocessed) throws IOException {
+    String jarHash = Misc.compilerJarHash();
+    if (!Settings.getBooleanUnchecked(Settings.PARSE_CACHE) ||
+        jarHash == null) {
+      return ParsedModule.parse(moduleName, path, preprocessed);
+    }
+
+    Logger logger = Logging.getSTCLogger();
+    File file = new File(Settings.resolvePath(path));
+    byte contents[] = Files.toByteArray(file);
+
+    Hasher h = Hashing.sha256().newHasher();
+    h.putString(jarHash, Charsets.UTF_8);
+    h.putString(file.getCanonicalPath(), Charsets.UTF_8);
+    h.putString(path, Charsets.UTF_8);
+    h.putBoolean(preprocessed);
+    h.putBytes(contents);
+    File dir = new File(Settings.getCacheDir(), SUBDIR);
+    File entry = new File(dir, h.hash().toString() + SUFFIX);
+
+    if (entry.isFile()) {
+      try {
+        ParsedModule result = read(moduleName, path, entry);
+        CacheDir.touch(entry);
+        logger.trace("Loaded cached AST for " + path + " from " + entry);
+        return result;
+      } catch (IOException e) {
+        logger.debug("Error reading cached AST " + entry + ": " +
+                     e.getMessage());
+      }
+    }
+
+    ParsedModule parsed = ParsedModule.parse(moduleName, path,
+                          new ByteArrayInputStream(contents), preprocessed);
+    if (!parsed.errorMessages.isEmpty()) {
+      // Don't cache, so that errors are reported every time
+      return parsed;
+    }
+    try {
+      write(parsed, dir, entry);
+      logger.trace("Cached AST for " + path + " in " + entry);
+      CacheDir.added(logger, Settings.getCacheDir(), entry,
+                     Settings.getCacheMaxBytes());
+    } catch (IOException e) {
+      logger.debug("Error writing cached AST " + entry + ": " +
+                   e.getMessage());
+    }
+    return parsed;
+  }
+
+  private static void write(ParsedModule parsed, File dir, File entry)
+      throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create directory " + dir);
+    }
+
+    // Write to temporary file and rename so readers never see partial file
+    File tmp = File.createTempFile(entry.getName(), ".tmp", dir);
+    boolean renamed = false;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                              new FileOutputStream(tmp)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeLineMapping(out, parsed.lineMapping);
+        writeTree(out, parsed.ast);
+      } finally {
+        out.close();
+      }
+
+      renamed = tmp.renameTo(entry);
+      if (!renamed) {
+        throw new IOException("Could not rename " + tmp + " to " + entry);
+      }
+    } finally {
+      // Don't leave partial file behind, e.g. if a string was too long
+      // for writeUTF
+      if (!renamed) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private static ParsedModule read(String moduleName, String path,
+      File entry) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                          new FileInputStream(entry)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Bad header");
+      }
+      LineMapping lineMapping = readLineMapping(in);
+      SwiftAST ast = readTree(in);
+      return new ParsedModule(moduleName, path, ast, lineMapping);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeLineMapping(DataOutputStream out,
+      LineMapping lineMapping) throws IOException {
+    writeVarInt(out, lineMapping.entries().size());
+    for (Entry<Integer, FilePosition> e: lineMapping.entries().entrySet()) {
+      writeVarInt(out, e.getKey());
+      out.writeUTF(e.getValue().file);
+      writeVarInt(out, e.getValue().line);
+    }
+  }
+
+  private static LineMapping readLineMapping(DataInputStream in)
+      throws IOException {
+    LineMapping lineMapping = new LineMapping();
+    int size = readVarInt(in);
+    for (int i = 0; i < size; i++) {
+      int preprocLine = readVarInt(in);
+      String file = in.readUTF();
+      int line = readVarInt(in);
+      lineMapping.addPreprocInfo(preprocLine, file, line);
+    }
+    return lineMapping;
+  }
+
+  /**
+   * Write table of strings, then each node in preorder as:
+   * token type + 2 (0 for nil, since EOF is -1), string index + 1
+   * (0 for null), line, column + 1, number of children
+   */
+  private static void writeTree(DataOutputStream out, SwiftAST root)
+      throws IOException {
+    List<SwiftAST> nodes = new ArrayList<SwiftAST>();
+    Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    List<String> strings = new ArrayList<String>();
+
+    StackLite<SwiftAST> stack = new StackLite<SwiftAST>();
+    stack.push(root);
+    while (!stack.isEmpty()) {
+      SwiftAST node = stack.pop();
+      nodes.add(node);
+      Token tok = node.getToken();
+      if (tok != null && tok.getText() != null &&
+          !stringIndex.containsKey(tok.getText())) {
+        stringIndex.put(tok.getText(), strings.size());
+        strings.add(tok.getText());
+      }
+      for (int i = node.childCount() - 1; i >= 0; i--) {
+        stack.push(node.child(i));
+      }
+    }
+
+    writeVarInt(out, strings.size());
+    for (String s: strings) {
+      out.writeUTF(s);
+    }
+
+    writeVarInt(out, nodes.size());
+    for (SwiftAST node: nodes) {
+      Token tok = node.getToken();
+      if (tok == null) {
+        writeVarInt(out, 0);
+      } else {
+        writeVarInt(out, tok.getType() + 2);
+        String text = tok.getText();
+        writeVarInt(out, text == null ? 0 : stringIndex.get(text) + 1);
+        writeVarInt(out, tok.getLine());
+        writeVarInt(out, tok.getCharPositionInLine() + 1);
+      }
+      writeVarInt(out, node.childCount());
+    }
+  }
+
+  private static SwiftAST readTree(DataInputStream in) throws IOException {
+    int stringCount = readVarInt(in);
+    String strings[] = new String[stringCount];
+    for (int i = 0; i < stringCount; i++) {
+      strings[i] = in.readUTF();
+    }
+
+    int nodeCount = readVarInt(in);
+    if (nodeCount == 0) {
+      throw new IOException("Empty tree");
+    }
+    SwiftAST root = null;
+    // Parents with number of children still to be read
+    StackLite<SwiftAST> parents = new StackLite<SwiftAST>();
+    StackLite<Integer> remaining = new StackLite<Integer>();
+    for (int i = 0; i < nodeCount; i++) {
+      SwiftAST node;
+      int type = readVarInt(in);
+      if (type == 0) {
+        node = new SwiftAST(null);
+      } else {
+        int textIx = readVarInt(in);
+        CommonToken tok = new CommonToken(type - 2,
+                              textIx == 0 ? null : strings[textIx - 1]);
+        tok.setLine(readVarInt(in));
+        tok.setCharPositionInLine(readVarInt(in) - 1);
+        node = new SwiftAST(tok);
+      }
+      int childCount = readVarInt(in);
+
+      if (root == null) {
+        root = node;
+      } else {
+        if (parents.isEmpty()) {
+          throw new IOException("Malformed tree");
+        }
+        parents.peek().addChild(node);
+        int left = remaining.pop() - 1;
+        if (left == 0) {
+          parents.pop();
+        } else {
+          remaining.push(left);
+        }
+      }
+      if (childCount > 0) {
+        parents.push(node);
+        remaining.push(childCount);
+      }
+    }
+    if (!parents.isEmpty()) {
+      throw new IOException("Truncated tree");
+    }
+    return root;
+  }
+
+  private static void writeVarInt(DataOutputStream out, int val)
+      throws IOException {
+    while ((val & ~0x7f) != 0) {
+      out.writeByte((val & 0x7f) | 0x80);
+      val >>>= 7;
+    }
+    out.writeByte(val);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int val = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      val |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return val;
+      }
+    }
+    throw new IOException("Malformed integer");
+  }
+}
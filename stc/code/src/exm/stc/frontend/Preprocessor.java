@@ -0,0 +1,1040 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.frontend;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.io.Files;
+
+import exm.stc.common.Settings;
+import exm.stc.common.exceptions.PreprocessorException;
+import exm.stc.common.util.StackLite;
+
+/**
+ * C preprocessor for Swift source files that runs inside the compiler,
+ * rather than in a separate cpp process.
+ *
+ * Supports the parts of the C preprocessor used by Swift programs:
+ * #include, object-like macros defined with #define or -D, conditionals,
+ * #undef, #line, #error, #warning and #pragma once.  Function-like macros
+ * are not supported: programs that need them can use the external
+ * preprocessor with stc.preproc.force-cpp or stc.preproc.force-gcc.
+ *
+ * The output follows the cpp output format so that it can be parsed the
+ * same way: comments are removed, whitespace between tokens is collapsed,
+ * indentation is kept, and "# line "file"" markers record where each line
+ * came from.
+ */
+public class Preprocessor {
+
+  private static final int MAX_INCLUDE_DEPTH = 200;
+
+  /** Emit line marker instead of this many blank lines, like cpp */
+  private static final int MAX_BLANK_LINES = 8;
+
+  private static final String COMMAND_LINE = "<command-line>";
+
+  /** Two character operators in #if expressions */
+  private static final List<String> OPERATORS_2 = Arrays.asList(
+          "||", "&&", "==", "!=", "<=", ">=", "<<", ">>");
+
+  /** Binary operators in #if expressions, from lowest precedence */
+  private static final String BINARY_OPS[][] = {
+    {"||"}, {"&&"}, {"|"}, {"^"}, {"&"}, {"==", "!="},
+    {"<", "<=", ">", ">="}, {"<<", ">>"}, {"+", "-"}, {"*", "/", "%"}
+  };
+
+  private final Logger logger;
+  private final List<String> includePath;
+
+  private final Map<String, List<Tok>> macros =
+                                      new HashMap<String, List<Tok>>();
+
+  /** Canonical paths of files with #pragma once */
+  private final Set<String> onceFiles = new HashSet<String>();
+
+  private Charset charset;
+  private final StringBuilder out = new StringBuilder();
+  /** File and line of next output line */
+  private String outFile;
+  private int outLine;
+
+  /**
+   * @param logger
+   * @param includePath directories to search for included files
+   */
+  public Preprocessor(Logger logger, List<String> includePath) {
+    this.logger = logger;
+    this.includePath = includePath;
+  }
+
+  /**
+   * Define macro from command line
+   * @param def NAME or NAME=VALUE.  Value defaults to 1
+   * @throws PreprocessorException
+   */
+  public void define(String def) throws PreprocessorException {
+    int eq = def.indexOf('=');
+    String name = eq < 0 ? def : def.substring(0, eq);
+    String value = eq < 0 ? "1" : def.substring(eq + 1);
+    List<Tok> nameToks = lex(name, null);
+    if (nameToks.size() >= 2 && nameToks.get(0).kind == TokKind.IDENT &&
+        nameToks.get(1).text.equals("(") && !nameToks.get(1).white) {
+      throw new PreprocessorException(COMMAND_LINE, 1, 0,
+                                      functionLikeMessage(def));
+    } else if (nameToks.size() != 1 ||
+               nameToks.get(0).kind != TokKind.IDENT) {
+      throw new PreprocessorException(COMMAND_LINE, 1, 0,
+          "macro names must be identifiers: " + def);
+    }
+    addMacro(COMMAND_LINE, 1, name, lex(value, null));
+  }
+
+  /**
+   * Preprocess file
+   * @param path path of file, which is used in line markers
+   * @param charset encoding of input files
+   * @return preprocessed text
+   * @throws IOException if input couldn't be read
+   * @throws PreprocessorException
+   */
+  public String preprocess(String path, Charset charset)
+      throws IOException, PreprocessorException {
+    this.charset = charset;
+    out.setLength(0);
+    Source src = new Source(path, new File(Settings.resolvePath(path)),
+                            charset);
+    marker(1, path, "");
+    processSource(src, 0);
+    return out.toString();
+  }
+
+  private void processSource(Source src, int depth)
+      throws IOException, PreprocessorException {
+    StackLite<Cond> conds = new StackLite<Cond>();
+    while (src.hasNext()) {
+      int lineNo = src.nextLineNumber();
+      boolean startInComment = src.inComment;
+      List<Tok> toks = lex(src.readLine(), src);
+      if (toks.isEmpty()) {
+        continue;
+      }
+
+      Tok first = toks.get(0);
+      if (!startInComment && first.kind == TokKind.PUNCT &&
+          first.text.equals("#")) {
+        directive(src, lineNo, toks, conds, depth);
+      } else if (conds.isEmpty() || conds.peek().active) {
+        emitLine(src, lineNo, toks);
+      }
+    }
+
+    if (!conds.isEmpty()) {
+      Cond cond = conds.peek();
+      throw new PreprocessorException(src.name, cond.line, 0,
+                                  "unterminated #" + cond.directive);
+    }
+  }
+
+  private void directive(Source src, int lineNo, List<Tok> toks,
+      StackLite<Cond> conds, int depth)
+          throws IOException, PreprocessorException {
+    if (toks.size() == 1) {
+      // Null directive
+      return;
+    }
+    boolean active = conds.isEmpty() || conds.peek().active;
+    Tok nameTok = toks.get(1);
+    String name = nameTok.text;
+
+    if (name.equals("ifdef") || name.equals("ifndef")) {
+      if (active) {
+        String macro = macroName(src, lineNo, toks);
+        boolean defined = isDefined(macro);
+        conds.push(new Cond(name, lineNo, true,
+                            name.equals("ifdef") == defined));
+      } else {
+        conds.push(new Cond(name, lineNo, false, false));
+      }
+    } else if (name.equals("if")) {
+      if (active) {
+        conds.push(new Cond(name, lineNo, true,
+                            evalCondition(src, lineNo, toks)));
+      } else {
+        conds.push(new Cond(name, lineNo, false, false));
+      }
+    } else if (name.equals("elif")) {
+      Cond cond = openCond(src, lineNo, nameTok, conds);
+      if (cond.parentActive && !cond.taken) {
+        cond.active = evalCondition(src, lineNo, toks);
+        cond.taken = cond.active;
+      } else {
+        cond.active = false;
+      }
+    } else if (name.equals("else")) {
+      Cond cond = openCond(src, lineNo, nameTok, conds);
+      cond.seenElse = true;
+      cond.active = cond.parentActive && !cond.taken;
+      cond.taken = true;
+    } else if (name.equals("endif")) {
+      openCond(src, lineNo, nameTok, conds);
+      conds.pop();
+    } else if (!active) {
+      // Other directives are ignored in skipped blocks
+    } else if (nameTok.kind == TokKind.NUMBER) {
+      // Line marker, e.g. from preprocessed file
+      lineDirective(src, lineNo, toks.subList(1, toks.size()));
+    } else if (name.equals("line")) {
+      lineDirective(src, lineNo, expandLine(toks.subList(2, toks.size()),
+                                            src, lineNo));
+    } else if (name.equals("define")) {
+      String macro = macroName(src, lineNo, toks);
+      List<Tok> body = toks.subList(3, toks.size());
+      if (!body.isEmpty() && body.get(0).text.equals("(") &&
+          !body.get(0).white) {
+        throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                                        functionLikeMessage(macro));
+      }
+      addMacro(src.name, lineNo, macro, body);
+    } else if (name.equals("undef")) {
+      macros.remove(macroName(src, lineNo, toks));
+    } else if (name.equals("include")) {
+      include(src, lineNo, toks, depth);
+    } else if (name.equals("error")) {
+      throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                      "#error " + spell(toks.subList(2, toks.size())));
+    } else if (name.equals("warning")) {
+      logger.warn(src.name + ":" + lineNo + ": warning: #warning " +
+                  spell(toks.subList(2, toks.size())));
+    } else if (name.equals("pragma")) {
+      if (toks.size() == 3 && toks.get(2).text.equals("once")) {
+        onceFiles.add(src.file.getCanonicalPath());
+      } else {
+        logger.debug(src.name + ":" + lineNo + ": ignoring #pragma " +
+                     spell(toks.subList(2, toks.size())));
+      }
+    } else {
+      throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                  "invalid preprocessing directive #" + name);
+    }
+  }
+
+  private Cond openCond(Source src, int lineNo, Tok nameTok,
+      StackLite<Cond> conds) throws PreprocessorException {
+    if (conds.isEmpty()) {
+      throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                          "#" + nameTok.text + " without #if");
+    }
+    Cond cond = conds.peek();
+    if (cond.seenElse && !nameTok.text.equals("endif")) {
+      throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                          "#" + nameTok.text + " after #else");
+    }
+    return cond;
+  }
+
+  private String macroName(Source src, int lineNo, List<Tok> toks)
+      throws PreprocessorException {
+    String directive = toks.get(1).text;
+    if (toks.size() < 3) {
+      throw new PreprocessorException(src.name, lineNo, toks.get(1).col,
+                    "no macro name given in #" + directive + " directive");
+    }
+    Tok name = toks.get(2);
+    if (name.kind != TokKind.IDENT) {
+      throw new PreprocessorException(src.name, lineNo, name.col,
+                                      "macro names must be identifiers");
+    } else if (name.text.equals("defined")) {
+      throw new PreprocessorException(src.name, lineNo, name.col,
+                      "\"defined\" cannot be used as a macro name");
+    }
+    return name.text;
+  }
+
+  private static String functionLikeMessage(String macro) {
+    return "function-like macro " + macro + " is not supported by the " +
+           "built-in preprocessor: set stc.preproc.force-cpp or " +
+           "stc.preproc.force-gcc to use an external C preprocessor";
+  }
+
+  private void addMacro(String file, int line, String name, List<Tok> body) {
+    List<Tok> value = new ArrayList<Tok>(body.size());
+    for (Tok tok: body) {
+      value.add(value.isEmpty() ? tok.withSpacing(false, false) : tok);
+    }
+    List<Tok> prev = macros.put(name, value);
+    if (prev != null && !spell(prev).equals(spell(value))) {
+      logger.warn(file + ":" + line + ": warning: \"" + name +
+                  "\" redefined");
+    }
+  }
+
+  private boolean isDefined(String macro) {
+    return macros.containsKey(macro) || macro.equals("__LINE__") ||
+           macro.equals("__FILE__");
+  }
+
+  private void include(Source src, int lineNo, List<Tok> toks, int depth)
+      throws IOException, PreprocessorException {
+    List<Tok> arg = toks.subList(2, toks.size());
+    String spec = includeSpec(arg);
+    if (spec == null) {
+      // Computed include
+      spec = includeSpec(expandLine(arg, src, lineNo));
+    }
+    Tok nameTok = toks.get(1);
+    if (spec == null) {
+      throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                      "#include expects \"FILENAME\" or <FILENAME>");
+    }
+
+    boolean angled = spec.charAt(0) == '<';
+    String name = spec.substring(1, spec.length() - 1);
+    List<String> candidates = new ArrayList<String>();
+    if (new File(name).isAbsolute()) {
+      candidates.add(name);
+    } else {
+      if (!angled) {
+        // Search directory of including file first
+        int slash = src.path.lastIndexOf('/');
+        candidates.add(src.path.substring(0, slash + 1) + name);
+      }
+      for (String dir: includePath) {
+        candidates.add(dir.endsWith("/") ? dir + name : dir + "/" + name);
+      }
+    }
+
+    for (String candidate: candidates) {
+      File file = new File(Settings.resolvePath(candidate));
+      if (!file.isFile()) {
+        continue;
+      }
+      if (depth + 1 >= MAX_INCLUDE_DEPTH) {
+        throw new PreprocessorException(src.name, lineNo, nameTok.col,
+            "#include nested depth " + (depth + 1) +
+            " exceeds maximum of " + MAX_INCLUDE_DEPTH);
+      }
+      if (onceFiles.contains(file.getCanonicalPath())) {
+        return;
+      }
+      syncLine(src.name, lineNo);
+      marker(1, candidate, " 1");
+      processSource(new Source(candidate, file, charset), depth + 1);
+      marker(src.nextLineNumber(), src.name, " 2");
+      return;
+    }
+    throw new PreprocessorException(src.name, lineNo, nameTok.col,
+                            name + ": No such file or directory");
+  }
+
+  /**
+   * @return include file name with delimiters, or null if not valid
+   */
+  private static String includeSpec(List<Tok> toks) {
+    if (toks.isEmpty()) {
+      return null;
+    }
+    Tok first = toks.get(0);
+    if (first.kind == TokKind.STRING && first.text.charAt(0) == '"') {
+      return first.text;
+    } else if (first.text.equals("<")) {
+      for (int i = 1; i < toks.size(); i++) {
+        if (toks.get(i).text.equals(">")) {
+          return "<" + spell(toks.subList(1, i)) + ">";
+        }
+      }
+    }
+    return null;
+  }
+
+  private void lineDirective(Source src, int lineNo, List<Tok> args)
+      throws PreprocessorException {
+    if (args.isEmpty() || args.get(0).kind != TokKind.NUMBER) {
+      throw new PreprocessorException(src.name, lineNo, 0,
+                          "#line directive requires a line number");
+    }
+    int line;
+    try {
+      line = Integer.parseInt(args.get(0).text);
+    } catch (NumberFormatException e) {
+      throw new PreprocessorException(src.name, lineNo, args.get(0).col,
+          "\"" + args.get(0).text + "\" is not a valid line number");
+    }
+    src.lineDelta = line - (src.nextPhysicalLine());
+    if (args.size() > 1 && args.get(1).kind == TokKind.STRING &&
+        args.get(1).text.charAt(0) == '"') {
+      src.name = unescape(args.get(1).text);
+    }
+  }
+
+  private boolean evalCondition(Source src, int lineNo, List<Tok> toks)
+      throws PreprocessorException {
+    // Replace defined operators before expanding macros
+    List<Tok> resolved = new ArrayList<Tok>();
+    for (int i = 2; i < toks.size(); i++) {
+      Tok tok = toks.get(i);
+      if (tok.kind != TokKind.IDENT || !tok.text.equals("defined")) {
+        resolved.add(tok);
+        continue;
+      }
+      i++;
+      boolean paren = i < toks.size() && toks.get(i).text.equals("(");
+      if (paren) {
+        i++;
+      }
+      if (i >= toks.size() || toks.get(i).kind != TokKind.IDENT) {
+        throw new PreprocessorException(src.name, lineNo, tok.col,
+                  "operator \"defined\" requires an identifier");
+      }
+      boolean defined = isDefined(toks.get(i).text);
+      if (paren) {
+        i++;
+        if (i >= toks.size() || !toks.get(i).text.equals(")")) {
+          throw new PreprocessorException(src.name, lineNo, tok.col,
+                  "missing ')' after \"defined\"");
+        }
+      }
+      resolved.add(new Tok(defined ? "1" : "0", TokKind.NUMBER, tok.white,
+                           false, tok.col));
+    }
+
+    List<Tok> expr = expandLine(resolved, src, lineNo);
+    return new ExprParser(src.name, lineNo, expr).parse() != 0;
+  }
+
+  private void emitLine(Source src, int lineNo, List<Tok> toks) {
+    List<Tok> expanded = expandLine(toks, src, lineNo);
+    syncLine(src.name, lineNo);
+    for (int i = 1; i < toks.get(0).col; i++) {
+      out.append(' ');
+    }
+    Tok prev = null;
+    for (Tok tok: expanded) {
+      if (tok.white ||
+          (tok.avoidPaste && prev != null && wouldPaste(prev, tok))) {
+        out.append(' ');
+      }
+      out.append(tok.text);
+      prev = tok;
+    }
+    out.append('\n');
+    outLine++;
+  }
+
+  /**
+   * Get output to the start of the given line, with blank lines if
+   * it is close, or a line marker otherwise.
+   */
+  private void syncLine(String file, int line) {
+    if (file.equals(outFile) && line >= outLine &&
+        line - outLine < MAX_BLANK_LINES) {
+      while (outLine < line) {
+        out.append('\n');
+        outLine++;
+      }
+    } else {
+      marker(line, file, "");
+    }
+  }
+
+  private void marker(int line, String file, String flags) {
+    out.append("# ").append(line).append(" ").append(escape(file))
+       .append(flags).append('\n');
+    outFile = file;
+    outLine = line;
+  }
+
+  private List<Tok> expandLine(List<Tok> toks, Source src, int lineNo) {
+    Expansion exp = new Expansion();
+    expandInto(toks, exp, src.name, lineNo, new HashSet<String>());
+    return exp.toks;
+  }
+
+  /**
+   * Expand macros, rescanning the expansion for further macros.  Macros
+   * are not expanded inside their own expansion.
+   */
+  private void expandInto(List<Tok> toks, Expansion exp, String file,
+                          int line, Set<String> disabled) {
+    for (Tok tok: toks) {
+      List<Tok> body = null;
+      if (tok.kind == TokKind.IDENT && !disabled.contains(tok.text)) {
+        body = macroBody(tok.text, file, line);
+      }
+      if (body == null) {
+        exp.add(tok);
+      } else {
+        exp.pendingWhite |= tok.white;
+        exp.pendingPaste = true;
+        disabled.add(tok.text);
+        expandInto(body, exp, file, line, disabled);
+        disabled.remove(tok.text);
+        exp.pendingPaste = true;
+      }
+    }
+  }
+
+  private List<Tok> macroBody(String name, String file, int line) {
+    List<Tok> body = macros.get(name);
+    if (body != null) {
+      return body;
+    } else if (name.equals("__LINE__")) {
+      return Arrays.asList(new Tok(Integer.toString(line), TokKind.NUMBER,
+                                   false, false, 0));
+    } else if (name.equals("__FILE__")) {
+      return Arrays.asList(new Tok(escape(file), TokKind.STRING,
+                                   false, false, 0));
+    }
+    return null;
+  }
+
+  /**
+   * Check if two adjacent tokens would be read as a different token if
+   * no space was put between them.
+   */
+  private static boolean wouldPaste(Tok a, Tok b) {
+    char x = a.text.charAt(a.text.length() - 1);
+    char y = b.text.charAt(0);
+    switch (a.kind) {
+      case IDENT:
+        return b.kind == TokKind.IDENT || b.kind == TokKind.NUMBER;
+      case NUMBER:
+        return b.kind == TokKind.IDENT || b.kind == TokKind.NUMBER ||
+               y == '.' || y == '+' || y == '-';
+      case PUNCT:
+        if (b.kind == TokKind.NUMBER) {
+          return x == '.';
+        } else if (b.kind != TokKind.PUNCT) {
+          return false;
+        }
+        return (y == '=' && "+-*/%&|^<>=!".indexOf(x) >= 0) ||
+               (x == y && "+-<>&|#:/.".indexOf(x) >= 0) ||
+               (x == '-' && y == '>') || (x == '/' && y == '*');
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Split a line into preprocessing tokens, skipping whitespace and
+   * comments.
+   * @param line
+   * @param src source to track block comments spanning lines, or null
+   */
+  private static List<Tok> lex(String line, Source src) {
+    List<Tok> toks = new ArrayList<Tok>();
+    boolean inComment = src != null && src.inComment;
+    boolean white = false;
+    int n = line.length();
+    int i = 0;
+    while (i < n) {
+      if (inComment) {
+        int end = line.indexOf("*/", i);
+        if (end < 0) {
+          i = n;
+          break;
+        }
+        i = end + 2;
+        inComment = false;
+        white = true;
+        continue;
+      }
+
+      char c = line.charAt(i);
+      char next = i + 1 < n ? line.charAt(i + 1) : 0;
+      if (c == ' ' || c == '\t' || c == '\f' || c == 0x0b || c == '\r') {
+        white = true;
+        i++;
+        continue;
+      } else if (c == '/' && next == '*') {
+        inComment = true;
+        white = true;
+        i += 2;
+        continue;
+      } else if (c == '/' && next == '/') {
+        break;
+      }
+
+      int start = i;
+      TokKind kind;
+      if (isIdentStart(c)) {
+        kind = TokKind.IDENT;
+        i++;
+        while (i < n && isIdentPart(line.charAt(i))) {
+          i++;
+        }
+      } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+        kind = TokKind.NUMBER;
+        i++;
+        while (i < n) {
+          char d = line.charAt(i);
+          if ((d == 'e' || d == 'E' || d == 'p' || d == 'P') &&
+              i + 1 < n && (line.charAt(i + 1) == '+' ||
+                            line.charAt(i + 1) == '-')) {
+            i += 2;
+          } else if (isIdentPart(d) || d == '.') {
+            i++;
+          } else {
+            break;
+          }
+        }
+      } else if (c == '"' || c == '\'') {
+        int end = -1;
+        for (int j = i + 1; j < n; j++) {
+          char d = line.charAt(j);
+          if (d == '\\') {
+            j++;
+          } else if (d == c) {
+            end = j + 1;
+            break;
+          }
+        }
+        if (end < 0) {
+          // Unterminated: rest of line is passed through, like cpp
+          kind = TokKind.OTHER;
+          i = n;
+        } else {
+          kind = TokKind.STRING;
+          i = end;
+        }
+      } else {
+        kind = TokKind.PUNCT;
+        i++;
+      }
+      toks.add(new Tok(line.substring(start, i), kind, white, false, start));
+      white = false;
+    }
+
+    if (src != null) {
+      src.inComment = inComment;
+    }
+    return toks;
+  }
+
+  private static boolean isIdentStart(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' ||
+           c == '$' || c >= 0x80;
+  }
+
+  private static boolean isIdentPart(char c) {
+    return isIdentStart(c) || isDigit(c);
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Spell out tokens, with single spaces where there was whitespace
+   */
+  private static String spell(List<Tok> toks) {
+    StringBuilder sb = new StringBuilder();
+    for (Tok tok: toks) {
+      if (tok.white && sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(tok.text);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Quote file name for line marker
+   */
+  private static String escape(String file) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < file.length(); i++) {
+      char c = file.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20 || c == 0x7f) {
+        sb.append(String.format("\\%03o", (int)c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  private static String unescape(String quoted) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1; i < quoted.length() - 1; i++) {
+      char c = quoted.charAt(i);
+      if (c == '\\' && i + 1 < quoted.length() - 1) {
+        c = quoted.charAt(++i);
+      }
+      sb.append(c);
+    }
+    return sb.toString();
+  }
+
+  private static enum TokKind {
+    IDENT,
+    NUMBER,
+    /** String or character literal */
+    STRING,
+    PUNCT,
+    /** Rest of line after unterminated quote */
+    OTHER,
+  }
+
+  private static class Tok {
+    final String text;
+    final TokKind kind;
+    /** Preceded by whitespace or comment */
+    final boolean white;
+    /** Follows a macro expansion boundary, so might paste with previous */
+    final boolean avoidPaste;
+    /** Column in source line, starting from 0 */
+    final int col;
+
+    Tok(String text, TokKind kind, boolean white, boolean avoidPaste,
+        int col) {
+      this.text = text;
+      this.kind = kind;
+      this.white = white;
+      this.avoidPaste = avoidPaste;
+      this.col = col;
+    }
+
+    Tok withSpacing(boolean white, boolean avoidPaste) {
+      return new Tok(text, kind, white, avoidPaste, col);
+    }
+
+    @Override
+    public String toString() {
+      return text;
+    }
+  }
+
+  /**
+   * Result of macro expansion.  Spacing of expanded macros is carried
+   * over to the next token.
+   */
+  private static class Expansion {
+    final List<Tok> toks = new ArrayList<Tok>();
+    boolean pendingWhite = false;
+    boolean pendingPaste = false;
+
+    void add(Tok tok) {
+      if (pendingWhite || pendingPaste) {
+        tok = tok.withSpacing(tok.white || pendingWhite,
+                              tok.avoidPaste || pendingPaste);
+        pendingWhite = false;
+        pendingPaste = false;
+      }
+      toks.add(tok);
+    }
+  }
+
+  /**
+   * Conditional block
+   */
+  private static class Cond {
+    final String directive;
+    final int line;
+    /** Whether enclosing block is active */
+    final boolean parentActive;
+    /** Whether current branch is active */
+    boolean active;
+    /** Whether a branch has been taken already */
+    boolean taken;
+    boolean seenElse = false;
+
+    Cond(String directive, int line, boolean parentActive, boolean active) {
+      this.directive = directive;
+      this.line = line;
+      this.parentActive = parentActive;
+      this.active = active;
+      this.taken = active;
+    }
+  }
+
+  /**
+   * Input file being processed
+   */
+  private static class Source {
+    /** Path used to find file, for resolving relative includes */
+    final String path;
+    final File file;
+    final String lines[];
+    /** Name in line markers, which can be changed by #line */
+    String name;
+    /** Difference between reported and physical line numbers */
+    int lineDelta = 0;
+    int lineIx = 0;
+    /** Whether in block comment at start of next line */
+    boolean inComment = false;
+
+    Source(String path, File file, Charset charset) throws IOException {
+      this.path = path;
+      this.file = file;
+      this.name = path;
+      String text = Files.toString(file, charset);
+      if (text.endsWith("\n")) {
+        text = text.substring(0, text.length() - 1);
+      }
+      this.lines = text.length() == 0 ? new String[0] : text.split("\n", -1);
+      for (int i = 0; i < lines.length; i++) {
+        if (lines[i].endsWith("\r")) {
+          lines[i] = lines[i].substring(0, lines[i].length() - 1);
+        }
+      }
+    }
+
+    boolean hasNext() {
+      return lineIx < lines.length;
+    }
+
+    int nextPhysicalLine() {
+      return lineIx + 1;
+    }
+
+    int nextLineNumber() {
+      return nextPhysicalLine() + lineDelta;
+    }
+
+    /**
+     * Read next logical line, joining lines ending with backslash
+     */
+    String readLine() {
+      String line = lines[lineIx++];
+      if (!line.endsWith("\\")) {
+        return line;
+      }
+      StringBuilder sb = new StringBuilder();
+      while (line.endsWith("\\")) {
+        sb.append(line, 0, line.length() - 1);
+        if (lineIx >= lines.length) {
+          return sb.toString();
+        }
+        line = lines[lineIx++];
+      }
+      return sb.append(line).toString();
+    }
+  }
+
+  /**
+   * Evaluate #if expression with long arithmetic
+   */
+  private static class ExprParser {
+    private final String file;
+    private final int line;
+    private final List<Tok> toks;
+    private int pos = 0;
+    /** Depth of unevaluated subexpressions, e.g. after false && */
+    private int unevaluated = 0;
+
+    ExprParser(String file, int line, List<Tok> toks) {
+      this.file = file;
+      this.line = line;
+      this.toks = toks;
+    }
+
+    long parse() throws PreprocessorException {
+      if (toks.isEmpty()) {
+        throw error("#if with no expression");
+      }
+      long result = conditional();
+      if (pos < toks.size()) {
+        throw error("missing binary operator before token \"" +
+                    toks.get(pos).text + "\"");
+      }
+      return result;
+    }
+
+    private long conditional() throws PreprocessorException {
+      long cond = binary(0);
+      if (!"?".equals(opAt(pos))) {
+        return cond;
+      }
+      pos++;
+      if (cond == 0) {
+        unevaluated++;
+      }
+      long ifTrue = conditional();
+      if (cond == 0) {
+        unevaluated--;
+      }
+      if (!":".equals(opAt(pos))) {
+        throw error("'?' without following ':'");
+      }
+      pos++;
+      if (cond != 0) {
+        unevaluated++;
+      }
+      long ifFalse = conditional();
+      if (cond != 0) {
+        unevaluated--;
+      }
+      return cond != 0 ? ifTrue : ifFalse;
+    }
+
+    private long binary(int level) throws PreprocessorException {
+      if (level == BINARY_OPS.length) {
+        return unary();
+      }
+      long left = binary(level + 1);
+      while (true) {
+        String op = opAt(pos);
+        if (op == null || !Arrays.asList(BINARY_OPS[level]).contains(op)) {
+          return left;
+        }
+        pos += op.length();
+        boolean shortCircuit = (op.equals("&&") && left == 0) ||
+                               (op.equals("||") && left != 0);
+        if (shortCircuit) {
+          unevaluated++;
+        }
+        long right = binary(level + 1);
+        if (shortCircuit) {
+          unevaluated--;
+        }
+        left = apply(op, left, right);
+      }
+    }
+
+    private long apply(String op, long l, long r)
+        throws PreprocessorException {
+      if (op.equals("||")) return (l != 0 || r != 0) ? 1 : 0;
+      if (op.equals("&&")) return (l != 0 && r != 0) ? 1 : 0;
+      if (op.equals("|")) return l | r;
+      if (op.equals("^")) return l ^ r;
+      if (op.equals("&")) return l & r;
+      if (op.equals("==")) return l == r ? 1 : 0;
+      if (op.equals("!=")) return l != r ? 1 : 0;
+      if (op.equals("<")) return l < r ? 1 : 0;
+      if (op.equals("<=")) return l <= r ? 1 : 0;
+      if (op.equals(">")) return l > r ? 1 : 0;
+      if (op.equals(">=")) return l >= r ? 1 : 0;
+      if (op.equals("<<")) return l << r;
+      if (op.equals(">>")) return l >> r;
+      if (op.equals("+")) return l + r;
+      if (op.equals("-")) return l - r;
+      if (op.equals("*")) return l * r;
+      assert(op.equals("/") || op.equals("%")) : op;
+      if (r == 0) {
+        if (unevaluated > 0) {
+          return 0;
+        }
+        throw error("division by zero in #if");
+      }
+      return op.equals("/") ? l / r : l % r;
+    }
+
+    private long unary() throws PreprocessorException {
+      if (pos >= toks.size()) {
+        throw error("#if expression ends unexpectedly");
+      }
+      Tok tok = toks.get(pos);
+      String op = opAt(pos);
+      if (op != null && op.length() == 1 && "!-+~(".contains(op)) {
+        pos++;
+        if (op.equals("(")) {
+          long val = conditional();
+          if (!")".equals(opAt(pos))) {
+            throw error("missing ')' in expression");
+          }
+          pos++;
+          return val;
+        }
+        long val = unary();
+        if (op.equals("!")) return val == 0 ? 1 : 0;
+        if (op.equals("-")) return -val;
+        if (op.equals("~")) return ~val;
+        return val;
+      }
+
+      pos++;
+      if (tok.kind == TokKind.NUMBER) {
+        return parseNumber(tok.text);
+      } else if (tok.kind == TokKind.IDENT) {
+        // Identifiers that are not macros evaluate to 0
+        return 0;
+      } else if (tok.kind == TokKind.STRING && tok.text.charAt(0) == '\'') {
+        return charValue(tok.text);
+      }
+      throw error("token \"" + tok.text +
+                  "\" is not valid in preprocessor expressions");
+    }
+
+    /**
+     * @return operator starting at position, or null if not an operator
+     */
+    private String opAt(int i) {
+      if (i >= toks.size() || toks.get(i).kind != TokKind.PUNCT) {
+        return null;
+      }
+      String op = toks.get(i).text;
+      if (i + 1 < toks.size() && toks.get(i + 1).kind == TokKind.PUNCT &&
+          !toks.get(i + 1).white) {
+        String op2 = op + toks.get(i + 1).text;
+        if (OPERATORS_2.contains(op2)) {
+          return op2;
+        }
+      }
+      return op;
+    }
+
+    private long parseNumber(String text) throws PreprocessorException {
+      String digits = text.replaceFirst("[uUlL]+$", "");
+      try {
+        if (digits.startsWith("0x") || digits.startsWith("0X")) {
+          return new BigInteger(digits.substring(2), 16).longValue();
+        } else if (digits.startsWith("0") && digits.length() > 1) {
+          return new BigInteger(digits.substring(1), 8).longValue();
+        } else {
+          return new BigInteger(digits).longValue();
+        }
+      } catch (NumberFormatException e) {
+        throw error("invalid integer constant \"" + text + "\" in #if");
+      }
+    }
+
+    private long charValue(String text) throws PreprocessorException {
+      String body = text.substring(1, text.length() - 1);
+      if (body.length() == 1) {
+        return body.charAt(0);
+      } else if (body.length() == 2 && body.charAt(0) == '\\') {
+        char c = body.charAt(1);
+        switch (c) {
+          case 'n': return '\n';
+          case 't': return '\t';
+          case 'r': return '\r';
+          case '0': return 0;
+          default: return c;
+        }
+      }
+      throw error("unsupported character constant " + text + " in #if");
+    }
+
+    private PreprocessorException error(String message) {
+      return new PreprocessorException(file, line, 0, message);
+    }
+  }
+}
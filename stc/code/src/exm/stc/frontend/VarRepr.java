@@ -147,14 +147,14 @@ public class VarRepr {
       Type backendElemType = backendTypeInternal(frontendElemType,
                                                  checkInstantiate);
       if (storeRefInContainer(backendElemType)) {
-        type = Types.substituteElemType(type, new RefType(backendElemType, true));
+        type = Types.substituteElemType(type, RefType.create(backendElemType, true));
       }
     } else if (Types.isRef(type)) {
       Type frontendDerefT = type.memberType();
       Type backendDerefT = backendTypeInternal(frontendDerefT,
                                                checkInstantiate);
       if (!frontendDerefT.equals(backendDerefT)) {
-        type = new RefType(backendDerefT, Types.isMutableRef(type));
+        type = RefType.create(backendDerefT, Types.isMutableRef(type));
       }
     } else if (Types.isStruct(type) || Types.isStructLocal(type)) {
       type = backendStructType((StructType)type, checkInstantiate);
@@ -184,12 +184,12 @@ public class VarRepr {
                                         checkInstantiate);
       if (storeRefInStruct(fieldT)) {
         // Need to store as ref to separate data
-        fieldT = new RefType(fieldT, true);
+        fieldT = RefType.create(fieldT, true);
       }
       backendFields.add(new StructField(fieldT, frontendF.name()));
     }
 
-    return new StructType(frontend.isLocal(), frontend.typeName(),
+    return StructType.create(frontend.isLocal(), frontend.typeName(),
                             backendFields);
   }
 
@@ -262,7 +262,7 @@ public class VarRepr {
       backendOutputs.add(backendType(out, false));
     }
 
-    FunctionType result = new FunctionType(backendInputs, backendOutputs,
+    FunctionType result = FunctionType.create(backendInputs, backendOutputs,
                frontendType.hasVarargs(), frontendType.getTypeVars());
 
     conversionCache.put(frontendType, result);
@@ -274,7 +274,7 @@ public class VarRepr {
   public static Type elemRepr(Type memberType, CompoundType c,
                               boolean mutable) {
     if (storeRefInCompound(memberType, c)) {
-      return new RefType(memberType, mutable);
+      return RefType.create(memberType, mutable);
     } else {
       return memberType;
     }
@@ -809,7 +809,7 @@ class VariableUsageAnalyzer {
 
     // Need to recurse right away to get statement order right
     LocatedModule module = LocatedModule.fromModuleNameAST(context,
-                                                    moduleID, false);
+                                                              moduleID);
 
     Pair<ParsedModule, Boolean> loaded = modules.loadIfNeeded(context, module);
     ParsedModule newModule = loaded.val1;
@@ -99,7 +99,7 @@ public class FunctionDecl {
     LocalContext typeVarContext = LocalContext.fnContext(context, function);
 
     for (String typeParam: typeParams) {
-      typeVarContext.defineType(typeParam, new TypeVariable(typeParam));
+      typeVarContext.defineType(typeParam, TypeVariable.create(typeParam));
     }
 
     assert(inArgTree.getType() == ExMParser.FORMAL_ARGUMENT_LIST);
@@ -161,7 +161,7 @@ public class FunctionDecl {
     checkDuplicateArgs(context, function, inNames, outNames);
 
     FunctionType ftype;
-    ftype = new FunctionType(inArgTypes, outArgTypes, varArgs, typeParams);
+    ftype = FunctionType.create(inArgTypes, outArgTypes, varArgs, typeParams);
     DefaultVals<Var> defaultVals =
                            DefaultVals.fromDefaultValVector(defaultVector);
     return new FunctionDecl(ftype, inNames, outNames, defaultVals);
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.frontend.typecheck;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import exm.stc.common.lang.Types.FunctionType;
+import exm.stc.common.lang.Types.Type;
+import exm.stc.frontend.typecheck.FunctionTypeChecker.FnCallInfo;
+import exm.stc.frontend.typecheck.FunctionTypeChecker.FnMatch;
+
+/**
+ * Memoize results of overload resolution and concretisation of function
+ * calls, since the same function is often called many times with the same
+ * argument types.
+ *
+ * Results only depend on the overloads and the argument and output types,
+ * which are canonical, so keys compare them by reference.  Only successful
+ * matches are cached: failures must be reported at each call site.
+ *
+ * The cache must be invalidated when functions are defined, since that
+ * can change the set of overloads for a name.
+ */
+public class FnCallCache {
+
+  private final Map<Key, FnMatch> inputMatches = new HashMap<Key, FnMatch>();
+
+  private final Map<Key, FunctionType> outputMatches =
+                                      new HashMap<Key, FunctionType>();
+
+  public FnMatch lookupInputs(FnCallInfo info) {
+    return inputMatches.get(inputKey(info));
+  }
+
+  public void addInputs(FnCallInfo info, FnMatch match) {
+    inputMatches.put(inputKey(info), match);
+  }
+
+  public FunctionType lookupOutputs(FnMatch match, List<Type> outTs) {
+    return outputMatches.get(outputKey(match, outTs));
+  }
+
+  public void addOutputs(FnMatch match, List<Type> outTs,
+                         FunctionType concreteType) {
+    outputMatches.put(outputKey(match, outTs), concreteType);
+  }
+
+  public void invalidate() {
+    inputMatches.clear();
+    outputMatches.clear();
+  }
+
+  private static Key inputKey(FnCallInfo info) {
+    List<Object> parts = new ArrayList<Object>();
+    parts.add(info.name);
+    parts.add(info.fnTypes.size());
+    parts.addAll(info.fnTypes);
+    parts.add(info.argTypes.size());
+    parts.addAll(info.argTypes);
+    // Sort keyword args so order is consistent
+    for (Entry<String, Type> kwArg:
+              new TreeMap<String, Type>(info.kwArgTypes).entrySet()) {
+      parts.add(kwArg.getKey());
+      parts.add(kwArg.getValue());
+    }
+    return new Key(parts.toArray());
+  }
+
+  private static Key outputKey(FnMatch match, List<Type> outTs) {
+    List<Object> parts = new ArrayList<Object>(outTs.size() + 1);
+    parts.add(match);
+    parts.addAll(outTs);
+    return new Key(parts.toArray());
+  }
+
+  /**
+   * Key that compares strings and boxed integers by value, and everything
+   * else (types, overloads and matches) by reference.
+   */
+  private static class Key {
+    private final Object[] parts;
+    private final int hashCode;
+
+    Key(Object[] parts) {
+      this.parts = parts;
+      int h = 0;
+      for (Object part: parts) {
+        h = h * 31 + (byValue(part) ? part.hashCode() :
+                                      System.identityHashCode(part));
+      }
+      this.hashCode = h;
+    }
+
+    private static boolean byValue(Object part) {
+      return part instanceof String || part instanceof Integer;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      if (hashCode != other.hashCode || parts.length != other.parts.length) {
+        return false;
+      }
+      for (int i = 0; i < parts.length; i++) {
+        Object p1 = parts[i], p2 = other.parts[i];
+        if (p1 != p2 && !(byValue(p1) && p1.equals(p2))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -60,7 +60,14 @@ public class FunctionTypeChecker {
     FnMatch match = concretiseInputs(context, fc);
 
     List<Type> outTs = Var.extractTypes(outputs);
-    FunctionType concreteOutTs = concretiseOutputs(context, match, outputs, outTs);
+    FnCallCache cache = context.getGlobals().fnCallCache();
+    FunctionType concreteOutTs = cache.lookupOutputs(match, outTs);
+    if (concreteOutTs == null) {
+      concreteOutTs = concretiseOutputs(context, match, outputs, outTs);
+      cache.addOutputs(match, outTs, concreteOutTs);
+    } else {
+      checkFunctionOutputsValid(context, match.overload.id, outputs);
+    }
 
     return new ConcreteMatch(match.overload, concreteOutTs);
   }
@@ -128,7 +135,7 @@ public class FunctionTypeChecker {
         if (argExprAltNoRef.assignableTo(formalArgAlt)) {
           Type argExprResult = argExprAltNoRef.concretize(formalArgAlt);
           if (Types.isRef(argExprAlt)) {
-            argExprResult = new RefType(argExprResult,
+            argExprResult = RefType.create(argExprResult,
                 ((RefType)argExprAlt).mutable());
           }
           return Pair.create(formalArgAlt, argExprResult);
@@ -162,8 +169,26 @@ public class FunctionTypeChecker {
 
     FnCallInfo info = new FnCallInfo(fc.originalName(), fc.overloads(),
                                      posArgTypes, kwArgTypes);
+    return concretiseInputsCached(context, info);
+  }
 
-    return concretiseInputsOverloaded(context, info);
+  /**
+   * Resolve function call based on input arguments, reusing the result
+   * of an earlier call with the same overloads and argument types.
+   * @param context
+   * @param info
+   * @return
+   * @throws TypeMismatchException
+   */
+  static FnMatch concretiseInputsCached(Context context, FnCallInfo info)
+      throws TypeMismatchException {
+    FnCallCache cache = context.getGlobals().fnCallCache();
+    FnMatch match = cache.lookupInputs(info);
+    if (match == null) {
+      match = concretiseInputsOverloaded(context, info);
+      cache.addInputs(info, match);
+    }
+    return match;
   }
 
   /**
@@ -623,7 +648,7 @@ public class FunctionTypeChecker {
     List<Type> concreteInputs = bindTypeVariables(inputs, binding);
     List<Type> concreteOutputs = bindTypeVariables(
         abstractType.getOutputs(), binding);
-    return new FunctionType(concreteInputs, concreteOutputs, false);
+    return FunctionType.create(concreteInputs, concreteOutputs, false);
   }
 
   /**
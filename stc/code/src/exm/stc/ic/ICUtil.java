@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -33,6 +32,7 @@ import exm.stc.common.lang.PassedVar;
 import exm.stc.common.lang.TaskProp.TaskPropKey;
 import exm.stc.common.lang.TaskProp.TaskProps;
 import exm.stc.common.lang.Var;
+import exm.stc.common.util.GapList;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICTree.Block;
 import exm.stc.ic.tree.ICTree.CleanupAction;
@@ -276,9 +276,9 @@ public class ICUtil {
     }
   }
 
-  public static LinkedList<Statement> cloneStatements(
+  public static GapList<Statement> cloneStatements(
       List<Statement> stmts) {
-    LinkedList<Statement> output = new LinkedList<Statement>();
+    GapList<Statement> output = new GapList<Statement>();
     for (Statement stmt: stmts) {
       output.add(stmt.cloneStatement());
     }
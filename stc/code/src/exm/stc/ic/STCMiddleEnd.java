@@ -28,6 +28,8 @@ import com.google.common.collect.ArrayListMultimap;
 
 import exm.stc.common.CompilerBackend;
 import exm.stc.common.CompilerBackend.RefCount;
+import exm.stc.common.Profiler;
+import exm.stc.common.Profiler.Sample;
 import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.common.exceptions.UndefinedTypeException;
 import exm.stc.common.exceptions.UserException;
@@ -108,14 +110,18 @@ public class STCMiddleEnd {
 //Place to log IC to (can be null for no output)
   private PrintStream icOutput;
 
+  private final Profiler profiler;
+
   private Block currBlock() {
     return blockStack.peek();
   }
 
-  public STCMiddleEnd(Logger logger, PrintStream icOutput, ForeignFunctions foreignFuncs) {
+  public STCMiddleEnd(Logger logger, PrintStream icOutput,
+                      ForeignFunctions foreignFuncs, Profiler profiler) {
     this.logger = logger;
     this.program = new Program(foreignFuncs);
     this.icOutput = icOutput;
+    this.profiler = profiler;
 
     initDefaults();
   }
@@ -127,7 +133,7 @@ public class STCMiddleEnd {
 
   public void optimize() throws UserException {
     logger.debug("Optimising Swift IC");
-    this.program = ICOptimizer.optimize(logger, icOutput, program);
+    this.program = ICOptimizer.optimize(logger, icOutput, profiler, program);
     logger.debug("Optimisation done");
   }
 
@@ -138,10 +144,28 @@ public class STCMiddleEnd {
    */
   public void regenerate(CompilerBackend backend) throws UserException {
     logger.debug("Using Swift IC to regenerate code");
+    Sample start = profiler.sample();
     this.program.generate(logger, backend);
+    profiler.record(Profiler.STAGE_BACKEND, "regenerate", null, start,
+                    profiler.sample(), null, null);
     logger.debug("Done using Swift IC to regenerate code");
   }
 
+  /**
+   * @return IC program built so far
+   */
+  public Program getProgram() {
+    return program;
+  }
+
+  /**
+   * Measure size of IC built so far, for profiling
+   * @return
+   */
+  public Map<String, Long> irSizes() {
+    return program.irSizes();
+  }
+
   public void requirePackage(RequiredPackage pkg) {
     program.addRequiredPackage(pkg);
   }
@@ -13,6 +13,7 @@ import com.google.common.collect.ListMultimap;
 import exm.stc.common.Logging;
 import exm.stc.common.lang.Var;
 import exm.stc.common.lang.Var.Alloc;
+import exm.stc.common.util.HierarchicalMap;
 import exm.stc.common.util.Pair;
 import exm.stc.ic.aliases.Alias.AliasTransform;
 import exm.stc.ic.tree.ICInstructions.Instruction;
@@ -60,6 +61,19 @@ public class AliasTracker {
    */
   private final ListMultimap<AliasKey, Var> pathToVar;
 
+  /**
+   * First entry of varToPath for each var in the innermost scope that has
+   * one, i.e. the canonical path.  Includes ancestor scopes so lookups
+   * don't need to walk up the scopes.
+   */
+  private final HierarchicalMap<Var, AliasKey> canonicalPaths;
+
+  /**
+   * First entry of pathToVar for each path in the innermost scope that
+   * has one, i.e. the canonical var.  Includes ancestor scopes.
+   */
+  private final HierarchicalMap<AliasKey, Var> canonicalVars;
+
 
   /**
    * All keys that the var is the root of
@@ -74,6 +88,13 @@ public class AliasTracker {
     this.parent = parent;
     this.varToPath = ArrayListMultimap.create();
     this.pathToVar = ArrayListMultimap.create();
+    if (parent == null) {
+      this.canonicalPaths = new HierarchicalMap<Var, AliasKey>();
+      this.canonicalVars = new HierarchicalMap<AliasKey, Var>();
+    } else {
+      this.canonicalPaths = parent.canonicalPaths.makeChildMap();
+      this.canonicalVars = parent.canonicalVars.makeChildMap();
+    }
     this.refCopyVarToPath = ArrayListMultimap.create();
     // We need to look at parent to find additional roots
     this.roots = ArrayListMultimap.create();
@@ -277,6 +298,7 @@ public class AliasTracker {
         currList.add(0, var);
       }
     }
+    canonicalVars.put(path, pathToVar.get(path).get(0));
   }
 
   private void setAsCanonicalPath(Var var, AliasKey path) {
@@ -290,6 +312,7 @@ public class AliasTracker {
         currList.add(0, path);
       }
     }
+    canonicalPaths.put(var, varToPath.get(var).get(0));
   }
 
   /**
@@ -337,17 +360,8 @@ public class AliasTracker {
     if (key.pathLength() == 0) {
       return key.var;
     } else {
-      // Find the one in the innermost scope
-      AliasTracker curr = this;
-      while (curr != null) {
-        List<Var> vars = curr.pathToVar.get(key);
-        if (vars.size() > 0) {
-          // Return first one
-          return vars.get(0);
-        }
-        curr = curr.parent;
-      }
-      return null;
+      // First one in the innermost scope
+      return canonicalVars.get(key);
     }
   }
 
@@ -390,31 +404,30 @@ public class AliasTracker {
    *        Should not be null
    */
   private AliasKey getCanonical(Var var, boolean includeCopies) {
-    AliasTracker curr = this;
-    while (curr != null) {
-      List<AliasKey> keys = curr.varToPath.get(var);
-      if (keys.size() > 0) {
-        AliasKey best = keys.get(0);
-        if (best.hasUnknown()) {
-          // There will be no keys here with unknown components
-          break;
-        } else {
-          return best;
-        }
-      }
-      curr = curr.parent;
+    AliasKey best = canonicalPaths.get(var);
+    if (best == null) {
+      // Not a part of any structure
+      return new AliasKey(var);
+    } else if (!best.hasUnknown()) {
+      return best;
     }
 
     if (includeCopies) {
+      // There will be no keys here with unknown components.  Search for
+      // copies from the scope with the imprecise key.
+      AliasTracker curr = this;
+      while (curr.varToPath.get(var).isEmpty()) {
+        curr = curr.parent;
+      }
       while (curr != null) {
         List<AliasKey> keys = curr.refCopyVarToPath.get(var);
         if (keys.size() > 0) {
-          AliasKey best = keys.get(0);
-          if (best.hasUnknown()) {
+          AliasKey copy = keys.get(0);
+          if (copy.hasUnknown()) {
             // There will be no keys with unknown components
             break;
           } else {
-            return best;
+            return copy;
           }
         }
         curr = curr.parent;
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.ic.opt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import exm.stc.common.lang.FnID;
+import exm.stc.ic.opt.TreeWalk.TreeWalker;
+import exm.stc.ic.tree.ICInstructions.FunctionCall;
+import exm.stc.ic.tree.ICInstructions.Instruction;
+import exm.stc.ic.tree.ICTree.Function;
+import exm.stc.ic.tree.ICTree.Program;
+
+/**
+ * Compute analyses of functions on demand and cache the results, so that
+ * passes do not each rebuild the same facts from scratch.
+ *
+ * Cached results for a function are discarded once it changes.  Mutators
+ * in Block and the continuations report changes through the function's
+ * modification count.  Changes made to instructions in place, e.g. by
+ * Instruction.renameVars, are only counted if made through
+ * Block.renameVars or followed by Function.markModified(), so the
+ * optimizer pipeline also invalidates all results after each pass.  An
+ * analysis used during a pass should therefore only depend on the
+ * structure of the IR, not on instruction arguments.
+ */
+public class AnalysisManager {
+
+  /**
+   * An analysis of a single function.  The result must only depend on
+   * the function, and must not be modified once computed.
+   */
+  public static interface Analysis<T> {
+    public String name();
+    public T compute(Logger logger, Function f);
+  }
+
+  private static class Cached {
+    final long modCount;
+    final Object result;
+
+    Cached(long modCount, Object result) {
+      this.modCount = modCount;
+      this.result = result;
+    }
+  }
+
+  /**
+   * Results by function and analysis.  Weak keys so that functions are
+   * dropped once removed from the program.
+   */
+  private final Map<Function, Map<Analysis<?>, Cached>> results =
+              new WeakHashMap<Function, Map<Analysis<?>, Cached>>();
+
+  /**
+   * Get result of analysis, computing it if not cached or stale.
+   * Safe to call from concurrent per-function passes.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(Logger logger, Function f, Analysis<T> analysis) {
+    long modCount = f.modCount();
+    synchronized (this) {
+      Map<Analysis<?>, Cached> fnResults = results.get(f);
+      if (fnResults != null) {
+        Cached cached = fnResults.get(analysis);
+        if (cached != null && cached.modCount == modCount) {
+          return (T)cached.result;
+        }
+      }
+    }
+
+    if (logger.isTraceEnabled()) {
+      logger.trace("Computing " + analysis.name() + " for " + f.id());
+    }
+    T result = analysis.compute(logger, f);
+
+    synchronized (this) {
+      Map<Analysis<?>, Cached> fnResults = results.get(f);
+      if (fnResults == null) {
+        fnResults = new HashMap<Analysis<?>, Cached>();
+        results.put(f, fnResults);
+      }
+      fnResults.put(analysis, new Cached(modCount, result));
+    }
+    return result;
+  }
+
+  /**
+   * Discard results for a function
+   */
+  public synchronized void invalidate(Function f) {
+    results.remove(f);
+  }
+
+  /**
+   * Discard all results
+   */
+  public synchronized void invalidateAll() {
+    results.clear();
+  }
+
+  /**
+   * Summary of function calls made from a function
+   */
+  public static class CallSummary {
+    /** Called function for each call instruction, in program order */
+    public final List<FnID> callSites;
+
+    /** All called functions */
+    public final Set<FnID> called;
+
+    /** Function size in instructions */
+    public final long instructionCount;
+
+    private CallSummary(List<FnID> callSites, Set<FnID> called,
+                        long instructionCount) {
+      this.callSites = Collections.unmodifiableList(callSites);
+      this.called = Collections.unmodifiableSet(called);
+      this.instructionCount = instructionCount;
+    }
+  }
+
+  public static final Analysis<CallSummary> CALL_SUMMARY =
+                                          new Analysis<CallSummary>() {
+    @Override
+    public String name() {
+      return "call summary";
+    }
+
+    @Override
+    public CallSummary compute(Logger logger, Function f) {
+      final List<FnID> callSites = new ArrayList<FnID>();
+      final Set<FnID> called = new HashSet<FnID>();
+      final long count[] = new long[1];
+      TreeWalk.walk(logger, f, new TreeWalker() {
+        @Override
+        protected void visit(Instruction inst) {
+          if (inst instanceof FunctionCall) {
+            FnID id = ((FunctionCall)inst).functionID();
+            callSites.add(id);
+            called.add(id);
+          }
+          count[0]++;
+        }
+      });
+      return new CallSummary(callSites, called, count[0]);
+    }
+  };
+
+  public CallSummary callSummary(Logger logger, Function f) {
+    return get(logger, f, CALL_SUMMARY);
+  }
+
+  /**
+   * Build the call graph of the program from cached call summaries
+   * @return map of called function -> function in which call occurred.
+   *        A caller occurs once per call site, in program order.
+   */
+  public ListMultimap<FnID, FnID> callers(Logger logger, Program program) {
+    ListMultimap<FnID, FnID> callers = ArrayListMultimap.create();
+    for (Function f: program.functions()) {
+      for (FnID callee: callSummary(logger, f).callSites) {
+        callers.put(callee, f.id());
+      }
+    }
+    return callers;
+  }
+}
@@ -27,6 +27,7 @@ import exm.stc.common.util.Pair;
 import exm.stc.ic.aliases.AliasKey;
 import exm.stc.ic.aliases.AliasTracker;
 import exm.stc.ic.opt.InitVariables.InitState;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICInstructions.Instruction;
 import exm.stc.ic.tree.ICTree.Block;
@@ -42,13 +43,18 @@ import exm.stc.ic.tree.TurbineOp;
  * Try to merge multiple array inserts into a single build instruction.
  * TODO: optimise multisets
  */
-public class ArrayBuild implements OptimizerPass {
+public class ArrayBuild implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "Array build";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_ARRAY_BUILD;
@@ -22,6 +22,7 @@ import org.apache.log4j.Logger;
 
 import exm.stc.common.Settings;
 import exm.stc.common.lang.FnID;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.OptimizerPass.FunctionOptimizerPass;
 import exm.stc.ic.tree.Conditionals.IfStatement;
 import exm.stc.ic.tree.ForeachLoops.ForeachLoop;
@@ -43,13 +44,19 @@ import exm.stc.ic.tree.ICTree.Function;
  * Doing this for loops has the potential to reduce overhead, but the biggest
  * gains might be from the optimizations that can follow on after the fusion
  */
-public class ContinuationFusion extends FunctionOptimizerPass {
+public class ContinuationFusion extends FunctionOptimizerPass
+    implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "Continuation fusion";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_CONTROLFLOW_FUSION;
@@ -16,21 +16,25 @@
 package exm.stc.ic.opt;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
-
 import exm.stc.common.Settings;
+import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.common.exceptions.UserException;
 import exm.stc.common.lang.Arg;
+import exm.stc.common.lang.FnID;
 import exm.stc.common.lang.Var;
 import exm.stc.common.util.StackLite;
 import exm.stc.common.util.TernaryLogic.Ternary;
@@ -38,23 +42,33 @@ import exm.stc.ic.ICUtil;
 import exm.stc.ic.componentaliases.Component;
 import exm.stc.ic.componentaliases.ComponentAlias;
 import exm.stc.ic.componentaliases.ComponentGraph;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionFilter;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
+import exm.stc.ic.opt.OptimizerPass.PerFunctionPass;
+import exm.stc.ic.tree.Conditionals.Conditional;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICInstructions.Instruction;
 import exm.stc.ic.tree.ICTree.Block;
 import exm.stc.ic.tree.ICTree.Function;
+import exm.stc.ic.tree.ICTree.GlobalConstants;
 import exm.stc.ic.tree.ICTree.GlobalVars;
 import exm.stc.ic.tree.ICTree.Program;
 import exm.stc.ic.tree.ICTree.Statement;
 import exm.stc.ic.tree.ICTree.StatementType;
 import exm.stc.ic.tree.Opcode;
 
-public class DeadCodeEliminator implements OptimizerPass {
+public class DeadCodeEliminator implements DeterministicPass, PerFunctionPass {
 
   @Override
   public String getPassName() {
     return "Dead code elimination";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_DEAD_CODE_ELIM;
@@ -62,274 +76,543 @@ public class DeadCodeEliminator implements OptimizerPass {
 
   @Override
   public void optimize(Logger logger, Program program) throws UserException {
-    for (Function f: program.functions()) {
-      eliminate(logger, f, program.globalVars());
-    }
+    optimize(logger, program, null);
+  }
+
+  @Override
+  public void optimize(Logger logger, Program program, FunctionFilter filter)
+      throws UserException {
+    FunctionPassScheduler.run(logger, program, this, filter);
+  }
+
+  @Override
+  public void optimize(Logger logger, Program program,
+      GlobalConstants constants, Function f) {
+    eliminate(logger, f, program.globalVars());
+  }
+
+  @Override
+  public Set<FnID> interferingFunctions(Logger logger, Program program,
+                                        Function f) {
+    return Collections.emptySet();
   }
 
   /**
    * Eliminates dead code in the current block and child blocks. Since this is a
    * data flow language, the easiest way to do this is to find variables which
-   * aren't needed, eliminate those and the instructions which write to them,
-   * and then do that repeatedly until we don't have anything more to eliminate.
+   * aren't needed, eliminate those and the instructions which write to them.
    *
    * We avoid eliminating any instructions with side-effects, and anything that
    * contributes to the return value of a function. We currently assume that all
    * non-builtin functions have side effects, as well as any builtins operations
    * that are not specifically marked as side-effect free.
    *
+   * The function is walked once to build def-use chains.  Removing code can
+   * make continuations into noops, which can be removed in turn, making more
+   * variables dead.  This is handled with a worklist, only revisiting blocks
+   * that code was removed from and variables that the removed code used, so
+   * the whole pass is linear in the size of the function.
+   *
    * @param logger
    * @param f
    * @param globalVars
    */
   public static void eliminate(Logger logger, Function f, GlobalVars globalVars) {
-    boolean converged = false;
-    boolean changed = false;
-    while (!converged) {
-      /*
-       * Dead variable elimination can allow dead code blocks to be removed,
-       * which can allow more variables to be removed.  So we should just
-       * iterate until no more changes were made
-       */
-      boolean changeThisIter = eliminateIter(logger, f, globalVars);
-      converged = !changeThisIter;
-      changed = changed || changeThisIter;
+    DefUse du = new DefUse(logger);
+    du.build(f, globalVars);
+
+    if (logger.isTraceEnabled()) {
+      logger.trace("Dead code elimination in function " + f.id() + "\n" +
+                   "dependencies: \n" + du.printDepGraph(4));
     }
 
-    if (changed) {
+    du.eliminate();
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("Final variables to be eliminated: " + du.removed);
+    }
+
+    if (!du.removed.isEmpty()) {
+      // Remove any remaining references, e.g. in continuations
+      f.mainBlock().removeVars(du.removed);
       inlineContinuations(logger, f.mainBlock());
     }
   }
 
   /**
-   *
-   * @param logger
-   * @param f
-   * @param globalVars
-   * @return true if changes made
+   * Def-use chains for a variable, with dead code elimination state
    */
-  private static boolean eliminateIter(Logger logger, Function f,
-                                        GlobalVars globalVars) {
-    /* All vars defined in function blocks that could possibly be eliminated */
-    HashSet<Var> removeCandidates = new HashSet<Var>();
-
-    /* Set of vars that are definitely required */
-    HashSet<Var> needed = new HashSet<Var>();
-    needed.addAll(globalVars.variables());
-
-    /* List of vars that were written.  Need to ensure that all variables
-     * that are keys in writeEffect are tracked. */
-    List<Component> modifiedComponents = new ArrayList<Component>();
-    /*
-     * Graph of dependencies from vars to other vars. If edge exists v1 -> v2
-     * this means that if v1 is required, then v2 is required
+  private static class VarInfo {
+    final Var var;
+
+    /**
+     * Number of reasons the var is needed regardless of other vars,
+     * e.g. side-effects, or being required by a continuation
      */
-    ListMultimap<Var, Var> dependencyGraph = ArrayListMultimap.create();
+    int roots = 0;
 
-    /* Track components so that we know if a write from A may flow to B*/
-    ComponentGraph components = new ComponentGraph();
+    /** True if var is currently known to be needed */
+    boolean needed = false;
 
-    walkFunction(logger, f, removeCandidates, needed, dependencyGraph,
-                 modifiedComponents, components);
+    /** Declaring block if var is a candidate for removal, otherwise null */
+    Block declBlock = null;
 
-    if (logger.isTraceEnabled()) {
-      logger.trace("Dead code elimination in function " + f.id() + "\n" +
-                   "removal candidates: " + removeCandidates + "\n" +
-                   "definitely needed: "+ needed + "\n" +
-                   "dependencies: \n" + printDepGraph(dependencyGraph, 4) +
-                   "modifiedComponents: " + modifiedComponents + "\n" +
-                   "components: \n" + components);
+    /** Vars that are needed if this var is needed */
+    final List<VarInfo> deps = new ArrayList<VarInfo>();
+
+    /** Vars that depend on this var: the reverse of deps */
+    final List<VarInfo> users = new ArrayList<VarInfo>();
+
+    /** Instructions that modify this var, and their blocks */
+    final List<Instruction> defs = new ArrayList<Instruction>();
+    final List<Block> defBlocks = new ArrayList<Block>();
+
+    VarInfo(Var var) {
+      this.var = var;
     }
 
-    /*
-     * Add in component info.
-     * Take into account that we might modify value of containing
-     * structure, e.g. array
-     */
-    for (Component written: modifiedComponents) {
-      Set<Var> potentialAliases = components.findPotentialAliases(written);
+    @Override
+    public String toString() {
+      return var.name();
+    }
+  }
 
-      if (logger.isTraceEnabled()) {
-        logger.trace("Modified var " + written + " potential aliases: " +
-                      potentialAliases);
-      }
-      for (Var maybeAffected: potentialAliases) {
-        if (logger.isTraceEnabled()) {
-          logger.trace("Add transitive dep " + maybeAffected +
-                        " => " + written);
-        }
-        // Need to keep var that we wrote the affected var through
-        dependencyGraph.put(maybeAffected, written.var);
-      }
+  /**
+   * Def-use chains for a function, used to incrementally find and remove
+   * dead code.
+   */
+  private static class DefUse {
+    private final Logger logger;
+
+    private final Map<Var, VarInfo> vars = new HashMap<Var, VarInfo>();
+
+    /** Vars required by each continuation */
+    private final Map<Continuation, Collection<Var>> contRoots =
+                        new IdentityHashMap<Continuation, Collection<Var>>();
+
+    /** Vars removed so far */
+    final Set<Var> removed = new HashSet<Var>();
+
+    /** Blocks that code was removed from */
+    private final StackLite<Block> changedBlocks = new StackLite<Block>();
+
+    /** Needed vars that may no longer be needed */
+    private final List<VarInfo> suspects = new ArrayList<VarInfo>();
+
+    DefUse(Logger logger) {
+      this.logger = logger;
     }
 
-    if (logger.isTraceEnabled())
-      logger.trace("dependencies after component updates: \n" +
-                   printDepGraph(dependencyGraph, 4));
-    /*
-     * Expand set of needed based on dependency graph
-     */
-    StackLite<Var> workStack = new StackLite<Var>();
-    workStack.addAll(needed);
-
-    while (!workStack.isEmpty()) {
-      Var neededVar = workStack.pop();
-      // This loop converges as dependencyGraph is taken apart
-      List<Var> deps = dependencyGraph.removeAll(neededVar);
-      if (deps != null) {
-        needed.addAll(deps);
-        workStack.addAll(deps);
+    private VarInfo info(Var v) {
+      VarInfo info = vars.get(v);
+      if (info == null) {
+        info = new VarInfo(v);
+        vars.put(v, info);
       }
+      return info;
     }
 
-    removeCandidates.removeAll(needed);
+    private void addRoot(Var v) {
+      info(v).roots++;
+    }
 
-    if (logger.isDebugEnabled()) {
-      logger.debug("Final variables to be eliminated: " + removeCandidates);
+    private void addRoots(Collection<Var> vs) {
+      for (Var v: vs) {
+        addRoot(v);
+      }
     }
-    if (removeCandidates.isEmpty()) {
-      return false;
-    } else {
-      f.mainBlock().removeVars(removeCandidates);
-      return true;
+
+    private void addDep(Var user, Var dep) {
+      VarInfo userInfo = info(user);
+      VarInfo depInfo = info(dep);
+      userInfo.deps.add(depInfo);
+      depInfo.users.add(userInfo);
     }
-  }
 
-  /**
-   * Collect information for dead code elimination
-   *
-   * @param logger
-   * @param f
-   * @param removeCandidates list of vars declared in function that
-   *                           could be removed
-   * @param needed
-   * @param dependencyGraph
-   * @param modifiedVars
-   * @param components
-   */
-  private static void walkFunction(Logger logger, Function f,
-      HashSet<Var> removeCandidates, HashSet<Var> needed,
-      ListMultimap<Var, Var> dependencyGraph, List<Component> modifiedComponents,
-      ComponentGraph components) {
-    StackLite<Block> workStack = new StackLite<Block>();
-    workStack.push(f.mainBlock());
+    /**
+     * Walk function to build def-use chains, removing any noop
+     * continuations, and find needed vars.
+     */
+    void build(Function f, GlobalVars globalVars) {
+      addRoots(globalVars.variables());
+      addRoots(f.getOutputList());
 
-    needed.addAll(f.getOutputList());
+      /* List of vars that were written.  Need to ensure that all variables
+       * that are keys in writeEffect are tracked. */
+      List<Component> modifiedComponents = new ArrayList<Component>();
 
-    while (!workStack.isEmpty()) {
-      Block block = workStack.pop();
+      /* Track components so that we know if a write from A may flow to B*/
+      ComponentGraph components = new ComponentGraph();
 
-      walkBlockVars(block, removeCandidates, dependencyGraph);
+      StackLite<Block> workStack = new StackLite<Block>();
+      workStack.push(f.mainBlock());
+      while (!workStack.isEmpty()) {
+        Block block = workStack.pop();
 
-      walkInstructions(logger, block, needed, dependencyGraph,
-                       modifiedComponents, components);
+        for (Var v: block.variables()) {
+          if (!v.storage().isGlobal()) {
+            info(v).declBlock = block;
+          }
+        }
 
-      Iterator<Continuation> it = block.allComplexStatements().iterator();
-      while (it.hasNext()) {
-        Continuation c = it.next();
-        if (c.isNoop()) {
-          it.remove();
-        } else {
-          // Add vars for continuation
-          needed.addAll(c.requiredVars(true));
+        walkInstructions(block, modifiedComponents, components);
+
+        Iterator<Continuation> it = block.allComplexStatements().iterator();
+        while (it.hasNext()) {
+          Continuation c = it.next();
+          if (c.isNoop()) {
+            it.remove();
+            // Enclosing continuation may now be a noop
+            changedBlocks.push(block);
+          } else {
+            // Add vars for continuation
+            Collection<Var> required = c.requiredVars(true);
+            contRoots.put(c, required);
+            addRoots(required);
+
+            for (Block inner: c.getBlocks()) {
+              workStack.push(inner);
+            }
+          }
+        }
+      }
+
+      /*
+       * Add in component info.
+       * Take into account that we might modify value of containing
+       * structure, e.g. array
+       */
+      for (Component written: modifiedComponents) {
+        Set<Var> potentialAliases = components.findPotentialAliases(written);
 
-          for (Block inner: c.getBlocks()) {
-            workStack.push(inner);
+        if (logger.isTraceEnabled()) {
+          logger.trace("Modified var " + written + " potential aliases: " +
+                        potentialAliases);
+        }
+        for (Var maybeAffected: potentialAliases) {
+          if (logger.isTraceEnabled()) {
+            logger.trace("Add transitive dep " + maybeAffected +
+                          " => " + written);
+          }
+          // Need to keep var that we wrote the affected var through
+          addDep(maybeAffected, written.var);
+        }
+      }
+
+      /*
+       * Expand set of needed based on dependencies
+       */
+      StackLite<VarInfo> work = new StackLite<VarInfo>();
+      for (VarInfo info: vars.values()) {
+        if (info.roots > 0) {
+          work.push(info);
+        }
+      }
+      markNeeded(work, null);
+    }
+
+    /**
+     * Mark vars needed, along with all of their dependencies
+     * @param work vars to mark
+     * @param within if not null, only mark vars in this set
+     */
+    private static void markNeeded(StackLite<VarInfo> work,
+                                   Set<VarInfo> within) {
+      while (!work.isEmpty()) {
+        VarInfo info = work.pop();
+        if (info.needed) {
+          continue;
+        }
+        info.needed = true;
+        for (VarInfo dep: info.deps) {
+          if (!dep.needed && (within == null || within.contains(dep))) {
+            work.push(dep);
           }
         }
       }
     }
-  }
 
-  private static void walkInstructions(Logger logger,
-      Block block, HashSet<Var> needed, ListMultimap<Var, Var> dependencyGraph,
-      List<Component> modifiedComponents, ComponentGraph components) {
-    ListIterator<Statement> it = block.statementIterator();
-    while (it.hasNext()) {
-      Statement stmt = it.next();
-      if (stmt.type() == StatementType.INSTRUCTION) {
-        walkInstruction(logger, stmt.instruction(), needed, dependencyGraph,
-                        modifiedComponents, components);
-      } else if (stmt.type() == StatementType.CONDITIONAL) {
-        if (stmt.conditional().isNoop()) {
-          it.remove();
+    private void walkInstructions(Block block,
+        List<Component> modifiedComponents, ComponentGraph components) {
+      ListIterator<Statement> it = block.statementIterator();
+      while (it.hasNext()) {
+        Statement stmt = it.next();
+        if (stmt.type() == StatementType.INSTRUCTION) {
+          Instruction inst = stmt.instruction();
+          for (Var out: inst.getModifiedOutputs()) {
+            VarInfo outInfo = info(out);
+            outInfo.defs.add(inst);
+            outInfo.defBlocks.add(block);
+          }
+          walkInstruction(inst, modifiedComponents, components);
+        } else if (stmt.type() == StatementType.CONDITIONAL) {
+          if (stmt.conditional().isNoop()) {
+            it.remove();
+            changedBlocks.push(block);
+          }
         }
       }
     }
-  }
 
-  private static void walkInstruction(Logger logger, Instruction inst,
-      HashSet<Var> needed, ListMultimap<Var, Var> dependencyGraph,
-      List<Component> modifiedComponents, ComponentGraph components) {
-    // If it has side-effects, need all inputs and outputs
-    if (inst.hasSideEffects()) {
-      needed.addAll(inst.getOutputs());
-      for (Arg input: inst.getInputs()) {
-        if (input.isVar()) {
-          needed.add(input.getVar());
+    private void walkInstruction(Instruction inst,
+        List<Component> modifiedComponents, ComponentGraph components) {
+      // If it has side-effects, need all inputs and outputs
+      if (inst.hasSideEffects()) {
+        addRoots(inst.getOutputs());
+        for (Arg input: inst.getInputs()) {
+          if (input.isVar()) {
+            addRoot(input.getVar());
+          }
         }
+      } else {
+        // Add edges to dependency graph
+        List<Var> outputs = inst.getOutputs();
+        List<Var> modOutputs = inst.getModifiedOutputs();
+        List<Var> readOutputs = inst.getReadOutputs();
+        List<Arg> inputs = inst.getInputs();
+
+        // First, if multiple modified outputs, need to remove all at once
+        if (modOutputs.size() > 1) {
+          // Connect mod outputs in ring so that they are
+          // strongly connected component
+          for (int i = 0; i < modOutputs.size(); i++) {
+            int j = (i + 1) % modOutputs.size();
+            addDep(modOutputs.get(i), modOutputs.get(j));
+          }
+        }
+        if (modOutputs.size() > 0) {
+          // Second, modified output depends on all inputs and read outputs.
+          // Just use one output if multiple
+          Var out = modOutputs.get(0);
+          for (Arg in: inputs) {
+            if (in.isVar()) {
+              addOutputDep(inst, out, in.getVar());
+            }
+          }
+
+          for (Var readOut: readOutputs) {
+            addOutputDep(inst, out, readOut);
+          }
+        }
+        // Writing mapped var can have side-effect, unless we're storing a
+        // mapped value var that was written
+        for (Var output: outputs) {
+          if (output.isMapped() != Ternary.FALSE &&
+              inst.op != Opcode.STORE_FILE) {
+            addRoot(output);
+          }
+        }
+
+        // Update any components that were modified
+        List<Component> modComponents = inst.getModifiedComponents();
+        if (modComponents != null)
+        {
+          for (Component mod: modComponents) {
+            addModComponent(inst, modifiedComponents, mod);
+          }
+        }
+        else
+        {
+          for (Var mod: modOutputs) {
+            addModComponent(inst, modifiedComponents,
+                          new Component(mod, Arg.NONE));
+          }
+        }
+
+        // Update structural information
+        for (ComponentAlias componentAlias: inst.getComponentAliases()) {
+          components.addPotentialComponent(componentAlias);
+        }
+      }
+    }
+
+    private void addOutputDep(Instruction inst, Var out, Var in) {
+      if (logger.isTraceEnabled())
+        logger.trace("Add dep " + out + " => " + in + " for inst " + inst);
+      addDep(out, in);
+    }
+
+    /**
+     * Remove dead code until no more can be removed
+     */
+    void eliminate() {
+      List<VarInfo> dead = new ArrayList<VarInfo>();
+      for (VarInfo info: vars.values()) {
+        if (info.declBlock != null && !info.needed) {
+          dead.add(info);
+        }
+      }
+      removeDead(dead);
+
+      while (true) {
+        removeNoopContinuations();
+        if (suspects.isEmpty()) {
+          break;
+        }
+        removeDead(findNoLongerNeeded());
+      }
+    }
+
+    /**
+     * Remove declarations of dead vars and instructions that write them
+     */
+    private void removeDead(List<VarInfo> dead) {
+      if (dead.isEmpty()) {
+        return;
+      }
+      if (logger.isTraceEnabled()) {
+        logger.trace("Removing dead vars: " + dead);
+      }
+      for (VarInfo info: dead) {
+        removed.add(info.var);
       }
-    } else {
-      // Add edges to dependency graph
-      List<Var> outputs = inst.getOutputs();
-      List<Var> modOutputs = inst.getModifiedOutputs();
-      List<Var> readOutputs = inst.getReadOutputs();
-      List<Arg> inputs = inst.getInputs();
-
-      // First, if multiple modified outputs, need to remove all at once
-      if (modOutputs.size() > 1) {
-        // Connect mod outputs in ring so that they are
-        // strongly connected component
-        for (int i = 0; i < modOutputs.size(); i++) {
-          int j = (i + 1) % modOutputs.size();
-          dependencyGraph.put(modOutputs.get(i), modOutputs.get(j));
+
+      Map<Block, Set<Var>> declsToRemove = new HashMap<Block, Set<Var>>();
+      Map<Block, Set<Instruction>> instsToRemove =
+                                  new HashMap<Block, Set<Instruction>>();
+      for (VarInfo info: dead) {
+        Set<Var> decls = declsToRemove.get(info.declBlock);
+        if (decls == null) {
+          decls = new HashSet<Var>();
+          declsToRemove.put(info.declBlock, decls);
+        }
+        decls.add(info.var);
+
+        for (int i = 0; i < info.defs.size(); i++) {
+          Instruction inst = info.defs.get(i);
+          for (Var out: inst.getModifiedOutputs()) {
+            if (!removed.contains(out)) {
+              throw new STCRuntimeError("Can't remove instruction " + inst +
+                  " because not all outputs in remove vars set " + removed);
+            }
+          }
+          Block block = info.defBlocks.get(i);
+          Set<Instruction> insts = instsToRemove.get(block);
+          if (insts == null) {
+            insts = new HashSet<Instruction>();
+            instsToRemove.put(block, insts);
+          }
+          insts.add(inst);
         }
       }
-      if (modOutputs.size() > 0) {
-        // Second, modified output depends on all inputs and read outputs.
-        // Just use one output if multiple
-        Var out = modOutputs.get(0);
-        for (Arg in: inputs) {
-          if (in.isVar()) {
-            addOutputDep(logger, inst, dependencyGraph, components, out,
-                         in.getVar());
+
+      for (Entry<Block, Set<Var>> e: declsToRemove.entrySet()) {
+        e.getKey().removeVarDeclarations(e.getValue());
+      }
+      for (Entry<Block, Set<Instruction>> e: instsToRemove.entrySet()) {
+        e.getKey().removeStatements(e.getValue());
+        changedBlocks.push(e.getKey());
+      }
+    }
+
+    /**
+     * Remove continuations that became noops because code was removed
+     * from their blocks.  Vars they required become suspects.
+     */
+    private void removeNoopContinuations() {
+      while (!changedBlocks.isEmpty()) {
+        Block block = changedBlocks.pop();
+        Continuation c = block.getParentCont();
+        if (c == null || !contRoots.containsKey(c) || !c.isNoop()) {
+          continue;
+        }
+
+        Block parent = c.parent();
+        if (c instanceof Conditional) {
+          parent.removeStatements(Collections.singleton((Conditional)c));
+        } else {
+          ListIterator<Continuation> it = parent.continuationIterator();
+          while (it.hasNext()) {
+            if (it.next() == c) {
+              it.remove();
+              break;
+            }
           }
         }
+        changedBlocks.push(parent);
 
-        for (Var readOut: readOutputs) {
-          addOutputDep(logger, inst, dependencyGraph, components, out,
-                       readOut);
+        for (Var v: contRoots.remove(c)) {
+          VarInfo info = vars.get(v);
+          info.roots--;
+          if (info.roots == 0 && info.needed) {
+            suspects.add(info);
+          }
         }
       }
-      // Writing mapped var can have side-effect, unless we're storing a
-      // mapped value var that was written
-      for (Var output: outputs) {
-        if (output.isMapped() != Ternary.FALSE &&
-            inst.op != Opcode.STORE_FILE) {
-          needed.add(output);
+    }
+
+    /**
+     * Recompute which vars are needed after roots were removed.  Only vars
+     * reachable from the suspects can be affected.
+     * @return removal candidates that are no longer needed
+     */
+    private List<VarInfo> findNoLongerNeeded() {
+      Set<VarInfo> affected = new HashSet<VarInfo>();
+      StackLite<VarInfo> work = new StackLite<VarInfo>();
+      work.addAll(suspects);
+      suspects.clear();
+      while (!work.isEmpty()) {
+        VarInfo info = work.pop();
+        if (affected.add(info)) {
+          for (VarInfo dep: info.deps) {
+            if (dep.needed) {
+              work.push(dep);
+            }
+          }
         }
       }
 
-      // Update any components that were modified
-      List<Component> modComponents = inst.getModifiedComponents();
-      if (modComponents != null)
-      {
-        for (Component mod: modComponents) {
-          addModComponent(inst, modifiedComponents, mod);
+      for (VarInfo info: affected) {
+        info.needed = false;
+      }
+
+      // Anything still a root, or used by a needed var outside the
+      // affected region, is still needed
+      for (VarInfo info: affected) {
+        if (info.roots > 0) {
+          work.push(info);
+        } else {
+          for (VarInfo user: info.users) {
+            if (user.needed) {
+              work.push(info);
+              break;
+            }
+          }
         }
       }
-      else
-      {
-        for (Var mod: modOutputs) {
-          addModComponent(inst, modifiedComponents,
-                        new Component(mod, Arg.NONE));
+      markNeeded(work, affected);
+
+      List<VarInfo> dead = new ArrayList<VarInfo>();
+      for (VarInfo info: affected) {
+        if (!info.needed && info.declBlock != null) {
+          dead.add(info);
         }
       }
+      return dead;
+    }
 
-      // Update structural information
-      for (ComponentAlias componentAlias: inst.getComponentAliases()) {
-        components.addPotentialComponent(componentAlias);
+    private String printDepGraph(int indent) {
+      List<Var> keys = new ArrayList<Var>(vars.keySet());
+      Collections.sort(keys);
+      StringBuilder sb = new StringBuilder();
+      for (Var key: keys) {
+        VarInfo info = vars.get(key);
+        if (info.deps.isEmpty()) {
+          continue;
+        }
+        for (int i = 0; i < indent; i++) {
+          sb.append(' ');
+        }
+        sb.append(key.name() + " => [");
+        List<Var> deps = new ArrayList<Var>();
+        for (VarInfo dep: info.deps) {
+          deps.add(dep.var);
+        }
+        ICUtil.prettyPrintVarList(sb, deps);
+        sb.append("]\n");
       }
+
+      return sb.toString();
     }
   }
 
@@ -347,40 +630,6 @@ public class DeadCodeEliminator implements OptimizerPass {
     }
   }
 
-  private static void addOutputDep(Logger logger,
-      Instruction inst, ListMultimap<Var, Var> dependencyGraph,
-      ComponentGraph components, Var out, Var in) {
-    if (logger.isTraceEnabled())
-      logger.trace("Add dep " + out + " => " + in + " for inst " + inst);
-    dependencyGraph.put(out, in);
-  }
-
-  private static void walkBlockVars(Block block,
-      HashSet<Var> removeCandidates, ListMultimap<Var, Var> dependencyGraph) {
-    for (Var v: block.variables()) {
-      if (!v.storage().isGlobal()) {
-        removeCandidates.add(v);
-      }
-    }
-  }
-
-  private static String printDepGraph(ListMultimap<Var, Var> dependencyGraph,
-                                      int indent) {
-    List<Var> keys = new ArrayList<Var>(dependencyGraph.keySet());
-    Collections.sort(keys);
-    StringBuilder sb = new StringBuilder();
-    for (Var key: keys) {
-      for (int i = 0; i < indent; i++) {
-        sb.append(' ');
-      }
-      sb.append(key.name() + " => [");
-      ICUtil.prettyPrintVarList(sb, dependencyGraph.get(key));
-      sb.append("]\n");
-    }
-
-    return sb.toString();
-  }
-
   /**
    * Inline continuations, e.g. waits with no arguments to cleanup
    * for any removed variables
@@ -14,6 +14,7 @@ import exm.stc.common.lang.FnID;
 import exm.stc.common.lang.Var;
 import exm.stc.common.lang.Var.Alloc;
 import exm.stc.common.lang.Var.DefType;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.TreeWalk.TreeWalker;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICInstructions.Instruction;
@@ -28,13 +29,18 @@ import exm.stc.ic.tree.ICTree.RenameMode;
  * Identify global variables that are only used in entry function and convert to locals.
  *
  */
-public class DemoteGlobals implements OptimizerPass {
+public class DemoteGlobals implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "demote globals";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_DEMOTE_GLOBALS;
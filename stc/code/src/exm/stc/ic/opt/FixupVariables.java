@@ -32,9 +32,9 @@ import exm.stc.common.lang.RefCounting;
 import exm.stc.common.lang.Types;
 import exm.stc.common.lang.Var;
 import exm.stc.common.lang.Var.Alloc;
-import exm.stc.common.util.HierarchicalSet;
+import exm.stc.common.util.IndexedBitSet;
+import exm.stc.common.util.Indexer;
 import exm.stc.common.util.Pair;
-import exm.stc.common.util.Sets;
 import exm.stc.ic.ICUtil;
 import exm.stc.ic.aliases.AliasKey;
 import exm.stc.ic.aliases.AliasTracker;
@@ -55,6 +55,9 @@ import exm.stc.ic.tree.Opcode;
 /**
  * Fix up passInVars and keepOpenVars in IC.  Perform validation
  * to make sure variables are visible.
+ *
+ * Variables of each function are given dense indices so that the sets
+ * of visible, read and written variables are bitsets.
  */
 public class FixupVariables implements OptimizerPass {
 
@@ -101,6 +104,8 @@ public class FixupVariables implements OptimizerPass {
         // the top of the loop
         fixupFunction(logger, prog.allGlobals(), fn,
                       referencedGlobals, FixupVarMode.ADD);
+        // Lists are now correct: keep them up to date as code is added
+        fn.setMaintainPassing(true);
       } else {
         fixupFunction(logger, prog.allGlobals(), fn,
                       referencedGlobals, FixupVarMode.NO_UPDATE);
@@ -114,7 +119,8 @@ public class FixupVariables implements OptimizerPass {
   public static void fixupFunction(Logger logger,
       AllGlobals globals,  Function fn, Set<Var> referencedGlobals,
       FixupVarMode fixupMode) {
-    HierarchicalSet<Var> fnargs = new HierarchicalSet<Var>();
+    Indexer<Var> varIndex = new Indexer<Var>();
+    IndexedBitSet<Var> fnargs = new IndexedBitSet<Var>(varIndex);
     for (Var v : fn.getInputList()) {
       fnargs.add(v);
     }
@@ -125,7 +131,7 @@ public class FixupVariables implements OptimizerPass {
 
     AliasTracker aliases = new AliasTracker();
 
-    Result res = fixupBlockRec(logger, fn, fn.mainBlock(),
+    Result res = fixupBlockRec(logger, varIndex, fn, fn.mainBlock(),
                        ExecContext.control(), fnargs,
                        referencedGlobals, aliases, fixupMode);
     if (fixupMode != FixupVarMode.NO_UPDATE) {
@@ -165,29 +171,24 @@ public class FixupVariables implements OptimizerPass {
   }
 
   private static class Result {
-    final Set<Var> read; /** Variables that were read */
-    final Set<Var> written; /** Variables that were written (de-aliased) */
+    final IndexedBitSet<Var> read; /** Variables that were read */
+    final IndexedBitSet<Var> written; /** Variables that were written (de-aliased) */
     /** Original aliases for write variables, to make sure that redundant
      * aliases are passed correctly in case of suboptimal code */
-    final Set<Var> aliasWritten;
+    final IndexedBitSet<Var> aliasWritten;
 
-    Result() {
+    Result(Indexer<Var> varIndex) {
       super();
-      this.read = new HashSet<Var>();
-      this.written = new HashSet<Var>();
-      this.aliasWritten = new HashSet<Var>();
-    }
-
-    public List<Set<Var>> allSets() {
-      List<Set<Var>> res = new ArrayList<Set<Var>>();
-      res.add(read);
-      res.add(written);
-      res.add(aliasWritten);
-      return res;
+      this.read = new IndexedBitSet<Var>(varIndex);
+      this.written = new IndexedBitSet<Var>(varIndex);
+      this.aliasWritten = new IndexedBitSet<Var>(varIndex);
     }
 
     Set<Var> allNeeded() {
-      return Sets.union(allSets());
+      Set<Var> res = new IndexedBitSet<Var>(read);
+      res.addAll(written);
+      res.addAll(aliasWritten);
+      return res;
     }
 
     /**
@@ -203,18 +204,16 @@ public class FixupVariables implements OptimizerPass {
      * Add everything from another result with exclusions
      */
     void addExcluding(Result other, Collection<Var> exclusion) {
-      List<Pair<Set<Var>, Set<Var>>> fromTos =
-                      new ArrayList<Pair<Set<Var>, Set<Var>>>();
+      List<Pair<IndexedBitSet<Var>, IndexedBitSet<Var>>> fromTos =
+          new ArrayList<Pair<IndexedBitSet<Var>, IndexedBitSet<Var>>>();
       fromTos.add(Pair.create(other.read, read));
       fromTos.add(Pair.create(other.written, written));
       fromTos.add(Pair.create(other.aliasWritten, aliasWritten));
 
-      for (Pair<Set<Var>, Set<Var>> fromTo: fromTos) {
-        for (Var var: fromTo.val1) {
-          if (!exclusion.contains(var)) {
-            fromTo.val2.add(var);
-          }
-        }
+      for (Pair<IndexedBitSet<Var>, IndexedBitSet<Var>> fromTo: fromTos) {
+        Set<Var> added = new IndexedBitSet<Var>(fromTo.val1);
+        added.removeAll(exclusion);
+        fromTo.val2.addAll(added);
       }
     }
 
@@ -309,9 +308,9 @@ public class FixupVariables implements OptimizerPass {
    * @param fixupMode
    * @return
    */
-  private static Result fixupBlockRec(Logger logger,
+  private static Result fixupBlockRec(Logger logger, Indexer<Var> varIndex,
       Function function, Block block, ExecContext execCx,
-      HierarchicalSet<Var> visible, Set<Var> referencedGlobals,
+      IndexedBitSet<Var> visible, Set<Var> referencedGlobals,
       AliasTracker aliases, FixupVarMode fixupMode) {
 
     if (fixupMode == FixupVarMode.REBUILD) {
@@ -320,7 +319,7 @@ public class FixupVariables implements OptimizerPass {
     }
 
     // blockVars: variables defined in this block
-    Set<Var> blockVars = new HashSet<Var>();
+    Set<Var> blockVars = new IndexedBitSet<Var>(varIndex);
 
     // update block variables and visible variables
     for (Var v: block.variables()) {
@@ -331,11 +330,11 @@ public class FixupVariables implements OptimizerPass {
     List<Pair<Var, Var>> createdAliases = new ArrayList<Pair<Var, Var>>();
 
     // Work out which variables are read/writte which aren't locally declared
-    Result result = new Result();
+    Result result = new Result(varIndex);
     findBlockNeeded(block, result, aliases, createdAliases);
 
     for (Continuation c : block.allComplexStatements()) {
-      variablePassing(logger, function, execCx, c,
+      variablePassing(logger, varIndex, function, execCx, c,
               visible, referencedGlobals, aliases,
               blockVars, result, fixupMode);
     }
@@ -450,9 +449,9 @@ public class FixupVariables implements OptimizerPass {
    * @param neededVars
    * @param fixupMode !
    */
-  private static void variablePassing(Logger logger, Function function,
-          ExecContext outerCx,
-          Continuation continuation, HierarchicalSet<Var> visible,
+  private static void variablePassing(Logger logger, Indexer<Var> varIndex,
+          Function function, ExecContext outerCx,
+          Continuation continuation, IndexedBitSet<Var> visible,
           Set<Var> referencedGlobals, AliasTracker outerAliases, Set<Var> outerBlockVars,
           Result result, FixupVarMode fixupMode) {
     // First see what variables the continuation defines inside itself
@@ -461,12 +460,12 @@ public class FixupVariables implements OptimizerPass {
     AliasTracker contAliases = outerAliases.makeChild();
 
     for (Block innerBlock : continuation.getBlocks()) {
-      HierarchicalSet<Var> childVisible = visible.makeChild();
+      IndexedBitSet<Var> childVisible = new IndexedBitSet<Var>(visible);
       for (Var v : constructVars) {
         childVisible.add(v);
       }
       AliasTracker blockAliases = contAliases.makeChild();
-      Result inner = fixupBlockRec(logger,
+      Result inner = fixupBlockRec(logger, varIndex,
           function, innerBlock, innerCx, childVisible,
           referencedGlobals, blockAliases, fixupMode);
 
@@ -493,7 +492,7 @@ public class FixupVariables implements OptimizerPass {
 
   private static void rebuildContinuationPassedVars(Function function,
           Continuation continuation, ExecContext contCx,
-          HierarchicalSet<Var> visibleVars,
+          Set<Var> visibleVars,
           Set<Var> outerBlockVars, AliasTracker outerAliases,
           Result outer, Result inner, FixupVarMode fixupMode) {
     // Rebuild passed in vars
@@ -558,7 +557,7 @@ public class FixupVariables implements OptimizerPass {
   }
 
   private static void rebuildContinuationKeepOpenVars(Function function,
-      Continuation continuation, HierarchicalSet<Var> visible,
+      Continuation continuation, Set<Var> visible,
       Set<Var> outerBlockVars, AliasTracker outerAliases,
       Result outer, Result inner, FixupVarMode fixupMode) {
     List<Var> keepOpen = new ArrayList<Var>();
@@ -606,7 +605,7 @@ public class FixupVariables implements OptimizerPass {
    * @return set of global vars needed from outside
    */
   private static Set<Var> addGlobalImports(Block block,
-          ExecContext execCx, HierarchicalSet<Var> visible,
+          ExecContext execCx, Set<Var> visible,
           FixupVarMode fixupMode, Set<Var> read, Set<Var> written,
           Set<Var> aliasWritten) {
     // if global constant missing, just add it
@@ -630,7 +629,7 @@ public class FixupVariables implements OptimizerPass {
   }
 
   private static void addGlobalImports(Block block, ExecContext execCx,
-      HierarchicalSet<Var> visible, FixupVarMode fixupMode,
+      Set<Var> visible, FixupVarMode fixupMode,
       Set<Var> existingGlobals, Set<Var> neededSet, boolean written) {
     for (Var var: neededSet) {
       if (visible.contains(var) &&
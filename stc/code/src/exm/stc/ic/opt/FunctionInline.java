@@ -41,10 +41,8 @@ import exm.stc.common.lang.PassedVar;
 import exm.stc.common.lang.Var;
 import exm.stc.common.lang.WaitMode;
 import exm.stc.common.lang.WaitVar;
-import exm.stc.common.util.Counters;
 import exm.stc.common.util.Pair;
 import exm.stc.common.util.StackLite;
-import exm.stc.ic.opt.TreeWalk.TreeWalker;
 import exm.stc.ic.tree.Conditionals.Conditional;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICContinuations.WaitStatement;
@@ -120,13 +118,13 @@ public class FunctionInline implements OptimizerPass {
     boolean changed;
     int i = 0;
     do {
-      FuncCallFinder finder = new FuncCallFinder();
-      TreeWalk.walk(logger, program, finder);
+      ListMultimap<FnID, FnID> callers =
+                    program.analyses().callers(logger, program);
 
-      pruneBuiltins(logger, program, finder);
+      pruneBuiltins(logger, program, callers);
 
       Pair<ListMultimap<FnID, FnID>, Set<FnID>> actions =
-                               selectInlineFunctions(program, finder);
+                      selectInlineFunctions(logger, program, callers);
       ListMultimap<FnID, FnID> inlineLocations = actions.val1;
       Set<FnID> toRemove = actions.val2;
 
@@ -140,12 +138,12 @@ public class FunctionInline implements OptimizerPass {
   }
 
   private void pruneBuiltins(Logger logger, Program program,
-      FuncCallFinder finder) {
+      ListMultimap<FnID, FnID> callers) {
     ForeignFunctions foreignFuncs = program.foreignFunctions();
     Iterator<BuiltinFunction> it = program.builtinIterator();
     while (it.hasNext()) {
       BuiltinFunction f = it.next();
-      List<FnID> usages = finder.functionUsages.get(f.id());
+      List<FnID> usages = callers.get(f.id());
       if (usages.size() == 0 && !foreignFuncs.hasOpEquiv(f.id()) &&
           !foreignFuncs.isLocalImpl(f.id())) {
         logger.debug("Prune builtin: " + f.id());
@@ -158,18 +156,19 @@ public class FunctionInline implements OptimizerPass {
    * Choose which functions will be removed totally (and remove them now)
    * and calls to which function from where will be inlined.
    * Removes cycles from inlining graph
+   * @param logger
    * @param program
-   * @param finder
+   * @param callers map of function -> caller functions, one per call
    * @return Map of function -> caller functions determining which calls
    *        to inline
    */
   private Pair<ListMultimap<FnID, FnID>, Set<FnID>> selectInlineFunctions(
-      Program program, FuncCallFinder finder) {
+      Logger logger, Program program, ListMultimap<FnID, FnID> callers) {
 
     // Map from caller to callee for IC functions only
     Map<FnID, FnID> functionCalls = new HashMap<FnID, FnID>();
     for (Function callee: program.functions()) {
-      for (FnID caller: finder.functionUsages.get(callee.id())) {
+      for (FnID caller: callers.get(callee.id())) {
         functionCalls.put(caller, callee.id());
       }
     }
@@ -178,8 +177,9 @@ public class FunctionInline implements OptimizerPass {
     Set<FnID> toRemove = new HashSet<FnID>();
     // Narrow inline candidates by number of calls, remove unused functions
     for (Function f: program.functions()) {
-      List<FnID> callLocs = finder.functionUsages.get(f.id());
-      long functionSize = finder.getFunctionSize(f);
+      List<FnID> callLocs = callers.get(f.id());
+      long functionSize =
+          program.analyses().callSummary(logger, f).instructionCount;
       if (f.id().equals(FnID.ENTRY_FUNCTION)) {
         // Do nothing
       } else if (callLocs == null || callLocs.size() == 0) {
@@ -559,35 +559,4 @@ public class FunctionInline implements OptimizerPass {
     logger.trace("Replace " + var + " with " + newVar
             + " for inline into function " + targetFunction.id());
   }
-
-  private static class FuncCallFinder extends TreeWalker {
-
-    /**
-     * Map of called function -> name of function in which call occurred.
-     * Context function may occur multiple times in the list
-     */
-    ListMultimap<FnID, FnID> functionUsages = ArrayListMultimap.create();
-
-    /**
-     * Function sizes in instructions
-     */
-    private Counters<FnID> functionSizes = new Counters<FnID>();
-
-    @Override
-    public void visit(Logger logger, Function functionContext,
-                                      Instruction inst) {
-      if (isFunctionCall(inst)) {
-        FnID calledFunction = ((FunctionCall)inst).functionID();
-        functionUsages.put(calledFunction, functionContext.id());
-      }
-
-      // Count number of instructions
-      functionSizes.increment(functionContext.id());
-    }
-
-    public long getFunctionSize(Function function) {
-      return functionSizes.getCount(function.id());
-    }
-
-  }
 }
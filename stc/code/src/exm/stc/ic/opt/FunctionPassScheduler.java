@@ -0,0 +1,302 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.ic.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import exm.stc.common.Settings;
+import exm.stc.common.exceptions.STCRuntimeError;
+import exm.stc.common.exceptions.UserException;
+import exm.stc.common.lang.Arg;
+import exm.stc.common.lang.FnID;
+import exm.stc.common.lang.Var;
+import exm.stc.ic.tree.ICTree.Function;
+import exm.stc.ic.tree.ICTree.GlobalConstants;
+import exm.stc.ic.tree.ICTree.Program;
+import exm.stc.ic.tree.ICTree.RenameMode;
+
+/**
+ * Run a per-function optimization over all functions in a program, either
+ * serially or on a fork/join pool, depending on
+ * {@link Settings#OPT_PARALLEL_THREADS}.
+ *
+ * A parallel run produces the same IR as a serial run:
+ * <ul>
+ * <li>Functions are grouped into waves.  A function is placed in a later wave
+ *    than any function before it in the program that interferes with it,
+ *    so interfering functions are optimized in the same order as a serial
+ *    run.  Functions in a wave are optimized concurrently.</li>
+ * <li>Each task gets a private fork of the global constants.  After each
+ *    wave, new constants are merged back in program order, and any
+ *    constant that would have been named differently in a serial run is
+ *    renamed in the function.</li>
+ * </ul>
+ *
+ * A {@link FunctionFilter} can be provided to skip functions that do not
+ * need to be optimized.  Functions are then grouped into waves in serial
+ * runs too.  The filter is consulted for all functions in a wave before
+ * any are optimized, and notified after the whole wave was optimized, so
+ * makes the same decisions in serial and parallel runs.
+ */
+public class FunctionPassScheduler {
+
+  /**
+   * Interface for passes that optimize each function separately.
+   */
+  public static interface FunctionTask {
+    /**
+     * Optimize a single function.  May be called concurrently for different
+     * functions, so any state must be confined to the call.
+     * @param logger
+     * @param program
+     * @param constants global constants to use instead of program.constants()
+     * @param f
+     * @throws UserException
+     */
+    public void optimize(Logger logger, Program program,
+        GlobalConstants constants, Function f) throws UserException;
+
+    /**
+     * @param logger
+     * @param program
+     * @param f
+     * @return functions whose optimization may read or modify state that
+     *        optimization of f reads or modifies.  Need not be symmetric.
+     */
+    public Set<FnID> interferingFunctions(Logger logger, Program program,
+                                          Function f);
+  }
+
+  /**
+   * Interface to select which functions a task is run on.
+   */
+  public static interface FunctionFilter {
+    /**
+     * @param f
+     * @return true if the task should be run on f
+     */
+    public boolean shouldOptimize(Function f);
+
+    /**
+     * Called after the task was run on all functions in f's wave, and any
+     * new constants merged.
+     * @param f
+     */
+    public void optimized(Function f);
+  }
+
+  private static ForkJoinPool pool = null;
+
+  public static void run(Logger logger, Program program, FunctionTask task)
+      throws UserException {
+    run(logger, program, task, null);
+  }
+
+  /**
+   * @param logger
+   * @param program
+   * @param task
+   * @param filter if non-null, only optimize functions selected by filter
+   * @throws UserException
+   */
+  public static void run(Logger logger, Program program, FunctionTask task,
+                         FunctionFilter filter) throws UserException {
+    int threads = threadCount();
+    boolean parallel = threads > 1 && program.functions().size() > 1;
+    if (!parallel && filter == null) {
+      for (Function f: program.functions()) {
+        task.optimize(logger, program, program.constants(), f);
+      }
+      return;
+    }
+
+    List<List<Function>> waves = buildWaves(logger, program, task);
+    if (logger.isTraceEnabled()) {
+      logger.trace("Optimizing " + program.functions().size() +
+                   " functions in " + waves.size() + " waves");
+    }
+
+    ForkJoinPool pool = parallel ? getPool(threads) : null;
+    for (List<Function> wave: waves) {
+      if (filter != null) {
+        wave = filterWave(wave, filter);
+        if (wave.isEmpty()) {
+          continue;
+        }
+      }
+      if (parallel) {
+        runWave(logger, pool, program, task, wave);
+      } else {
+        for (Function f: wave) {
+          task.optimize(logger, program, program.constants(), f);
+        }
+      }
+      if (filter != null) {
+        for (Function f: wave) {
+          filter.optimized(f);
+        }
+      }
+    }
+  }
+
+  private static List<Function> filterWave(List<Function> wave,
+                                           FunctionFilter filter) {
+    List<Function> result = new ArrayList<Function>(wave.size());
+    for (Function f: wave) {
+      if (filter.shouldOptimize(f)) {
+        result.add(f);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Helper for tasks that depend on the functions they call
+   * @param logger
+   * @param program
+   * @param f
+   * @return all functions called from f
+   */
+  public static Set<FnID> calledFunctions(Logger logger, Program program,
+                                          Function f) {
+    return program.analyses().callSummary(logger, f).called;
+  }
+
+  private static int threadCount() {
+    int threads = Settings.getIntUnchecked(Settings.OPT_PARALLEL_THREADS);
+    if (threads == 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return threads;
+  }
+
+  private static synchronized ForkJoinPool getPool(int threads) {
+    if (pool == null || pool.getParallelism() != threads) {
+      if (pool != null) {
+        pool.shutdown();
+      }
+      pool = new ForkJoinPool(threads);
+    }
+    return pool;
+  }
+
+  /**
+   * Assign functions to waves so that each function is in a later wave
+   * than any earlier function in the program that it interferes with.
+   * @return waves, with functions in program order within each wave
+   */
+  private static List<List<Function>> buildWaves(Logger logger,
+      Program program, FunctionTask task) {
+    List<Function> functions = program.functions();
+    Map<FnID, Integer> index = new HashMap<FnID, Integer>();
+    for (int i = 0; i < functions.size(); i++) {
+      index.put(functions.get(i).id(), i);
+    }
+
+    // Earlier functions that each function must wait for
+    List<List<Integer>> waitFor = new ArrayList<List<Integer>>();
+    for (int i = 0; i < functions.size(); i++) {
+      waitFor.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < functions.size(); i++) {
+      Function f = functions.get(i);
+      for (FnID other: task.interferingFunctions(logger, program, f)) {
+        Integer j = index.get(other);
+        if (j == null || j == i) {
+          continue;
+        } else if (j < i) {
+          waitFor.get(i).add(j);
+        } else {
+          waitFor.get(j).add(i);
+        }
+      }
+    }
+
+    int waveNums[] = new int[functions.size()];
+    List<List<Function>> waves = new ArrayList<List<Function>>();
+    for (int i = 0; i < functions.size(); i++) {
+      int waveNum = 0;
+      for (int j: waitFor.get(i)) {
+        waveNum = Math.max(waveNum, waveNums[j] + 1);
+      }
+      waveNums[i] = waveNum;
+      if (waveNum == waves.size()) {
+        waves.add(new ArrayList<Function>());
+      }
+      waves.get(waveNum).add(functions.get(i));
+    }
+    return waves;
+  }
+
+  private static void runWave(final Logger logger, ForkJoinPool pool,
+      final Program program, final FunctionTask task, List<Function> wave)
+          throws UserException {
+    List<Callable<GlobalConstants>> calls =
+                    new ArrayList<Callable<GlobalConstants>>(wave.size());
+    for (final Function f: wave) {
+      final GlobalConstants constants = program.constants().fork();
+      calls.add(new Callable<GlobalConstants>() {
+        @Override
+        public GlobalConstants call() throws UserException {
+          task.optimize(logger, program, constants, f);
+          return constants;
+        }
+      });
+    }
+
+    List<Future<GlobalConstants>> results = pool.invokeAll(calls);
+
+    // Merge in program order so results match serial run
+    for (int i = 0; i < wave.size(); i++) {
+      Function f = wave.get(i);
+      GlobalConstants constants = getResult(results.get(i));
+      Map<Var, Arg> renames = program.constants().mergeFork(constants);
+      if (!renames.isEmpty()) {
+        logger.trace("Renaming constants in " + f.id() + ": " + renames);
+        f.renameVars(renames, RenameMode.REPLACE_VAR, true);
+      }
+    }
+  }
+
+  private static <T> T getResult(Future<T> result) throws UserException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      throw new STCRuntimeError("Interrupted while optimizing", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UserException) {
+        throw (UserException)cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      } else if (cause instanceof Error) {
+        throw (Error)cause;
+      } else {
+        throw new STCRuntimeError("Unexpected error while optimizing", cause);
+      }
+    }
+  }
+}
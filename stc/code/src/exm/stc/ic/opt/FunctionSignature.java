@@ -26,6 +26,7 @@ import exm.stc.common.lang.Var.VarProvenance;
 import exm.stc.common.lang.WaitVar;
 import exm.stc.common.util.Pair;
 import exm.stc.ic.WrapUtil;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.tree.ICInstructions.FunctionCall;
 import exm.stc.ic.tree.ICInstructions.Instruction;
 import exm.stc.ic.tree.ICTree.Block;
@@ -37,13 +38,18 @@ import exm.stc.ic.tree.TurbineOp;
 /**
  * Optimize function signature
  */
-public class FunctionSignature implements OptimizerPass {
+public class FunctionSignature implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "Function signature changing";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_FUNCTION_SIGNATURE;
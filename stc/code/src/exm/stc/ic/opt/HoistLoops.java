@@ -15,23 +15,30 @@
  */
 package exm.stc.ic.opt;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import exm.stc.common.Logging;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.STCRuntimeError;
+import exm.stc.common.exceptions.UserException;
 import exm.stc.common.lang.Arg;
 import exm.stc.common.lang.ExecContext;
 import exm.stc.common.lang.ExecTarget;
+import exm.stc.common.lang.FnID;
 import exm.stc.common.lang.Location;
 import exm.stc.common.lang.Semantics;
 import exm.stc.common.lang.Types;
 import exm.stc.common.lang.Var;
 import exm.stc.common.lang.WaitVar;
 import exm.stc.common.util.HierarchicalMap;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionFilter;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
+import exm.stc.ic.opt.OptimizerPass.PerFunctionPass;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICContinuations.ContinuationType;
 import exm.stc.ic.tree.ICContinuations.WaitStatement;
@@ -39,6 +46,7 @@ import exm.stc.ic.tree.ICInstructions.Instruction;
 import exm.stc.ic.tree.ICTree.Block;
 import exm.stc.ic.tree.ICTree.CleanupAction;
 import exm.stc.ic.tree.ICTree.Function;
+import exm.stc.ic.tree.ICTree.GlobalConstants;
 import exm.stc.ic.tree.ICTree.Program;
 import exm.stc.ic.tree.ICTree.Statement;
 
@@ -54,7 +62,7 @@ import exm.stc.ic.tree.ICTree.Statement;
  *                                            output
  *
  */
-public class HoistLoops implements OptimizerPass {
+public class HoistLoops implements DeterministicPass, PerFunctionPass {
 
   /**
    * If true, hoist array reads in such a way that could prevent
@@ -71,39 +79,60 @@ public class HoistLoops implements OptimizerPass {
     return "Loop hoisting";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName() + (aggressive ? " (aggressive)" : "");
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_HOIST;
   }
 
   @Override
-  public void optimize(Logger logger, Program prog) {
-    for (Function f: prog.functions()) {
-      HoistTracking global = new HoistTracking();
-      // Global constants already written
-      for (Var gv: prog.allGlobals()) {
-        if (gv.storage().isConst()) {
-          // Constants are pre-written
-          global.write(gv, false);
-        }
-        global.declare(gv);
-      }
+  public void optimize(Logger logger, Program prog) throws UserException {
+    optimize(logger, prog, null);
+  }
 
-      // Set up map for top block of function
-      HoistTracking mainBlockState =
-          global.makeChild(f.mainBlock(), true, true,
-                           ExecContext.control(), 0, 0);
+  @Override
+  public void optimize(Logger logger, Program prog, FunctionFilter filter)
+      throws UserException {
+    FunctionPassScheduler.run(logger, prog, this, filter);
+  }
 
-      // Inputs are written elsewhere
-      for (Var in: f.getInputList()) {
-        mainBlockState.write(in, false);
-        mainBlockState.declare(in);
-      }
-      for (Var out: f.getOutputList()) {
-        mainBlockState.declare(out);
+  @Override
+  public void optimize(Logger logger, Program prog,
+      GlobalConstants constants, Function f) {
+    HoistTracking global = new HoistTracking();
+    // Global constants already written
+    for (Var gv: prog.allGlobals()) {
+      if (gv.storage().isConst()) {
+        // Constants are pre-written
+        global.write(gv, false);
       }
-      hoistRec(logger, mainBlockState);
+      global.declare(gv);
+    }
+
+    // Set up map for top block of function
+    HoistTracking mainBlockState =
+        global.makeChild(f.mainBlock(), true, true,
+                         ExecContext.control(), 0, 0);
+
+    // Inputs are written elsewhere
+    for (Var in: f.getInputList()) {
+      mainBlockState.write(in, false);
+      mainBlockState.declare(in);
     }
+    for (Var out: f.getOutputList()) {
+      mainBlockState.declare(out);
+    }
+    hoistRec(logger, mainBlockState);
+  }
+
+  @Override
+  public Set<FnID> interferingFunctions(Logger logger, Program prog,
+                                        Function f) {
+    return Collections.emptySet();
   }
 
   /**
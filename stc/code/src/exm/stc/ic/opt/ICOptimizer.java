@@ -19,31 +19,29 @@ import java.io.PrintStream;
 
 import org.apache.log4j.Logger;
 
+import exm.stc.common.Profiler;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.InvalidWriteException;
 import exm.stc.common.exceptions.UserException;
+import exm.stc.ic.opt.OptimizerPipeline.FixedPointTracker;
 import exm.stc.ic.opt.valuenumber.ValueNumber;
 import exm.stc.ic.refcount.RefcountPass;
 import exm.stc.ic.tree.ICTree.Program;
 
 public class ICOptimizer {
 
-  /**
-   * If true, validate as frequently as possible
-   */
-  public static final boolean SUPER_DEBUG = true;
-
   /**
    * Optimize the program and return a new one
    *
    * NOTE: the input might be modified in-place
    * @param icOutput where to log IC between optimiation steps.  Null for
    *              no output
+   * @param profiler profiler to record passes with
    * @return
    * @throws InvalidWriteException
    */
   public static Program optimize(Logger logger, PrintStream icOutput,
-                                 Program prog) throws UserException {
+              Profiler profiler, Program prog) throws UserException {
     boolean logIC = icOutput != null;
     if (logIC) {
       prog.log(icOutput, "Initial IC before optimization");
@@ -51,11 +49,11 @@ public class ICOptimizer {
 
     long nIterations = Settings.getLongUnchecked(Settings.OPT_MAX_ITERATIONS);
 
-    boolean debug = Settings.getBooleanUnchecked(Settings.COMPILER_DEBUG);
+    Validate.Level validation = Validate.Level.fromSettings();
 
-    preprocess(icOutput, logger, debug, prog);
-    iterate(icOutput, logger, prog, debug, nIterations);
-    postprocess(icOutput, logger, debug, prog, nIterations);
+    preprocess(icOutput, profiler, logger, validation, prog);
+    iterate(icOutput, profiler, logger, prog, validation, nIterations);
+    postprocess(icOutput, profiler, logger, prog, nIterations);
 
     if (logIC) {
       prog.log(icOutput, "Final optimized IC");
@@ -66,14 +64,17 @@ public class ICOptimizer {
   /**
    * Do preprocessing optimizer steps
    * @param icOutput
+   * @param profiler
    * @param logger
-   * @param debug
+   * @param validation
    * @param program
    * @throws Exception
    */
-  private static void preprocess(PrintStream icOutput, Logger logger,
-                         boolean debug, Program program) throws UserException {
+  private static void preprocess(PrintStream icOutput, Profiler profiler,
+      Logger logger, Validate.Level validation, Program program)
+          throws UserException {
     OptimizerPipeline preprocess = new OptimizerPipeline(icOutput);
+    preprocess.setProfiler(profiler);
 
     // Cut down size of IR right away
     preprocess.addPass(new PruneFunctions());
@@ -82,7 +83,7 @@ public class ICOptimizer {
     preprocess.addPass(new UniqueVarNames());
     // Must fix up variables as frontend doesn't do it
     preprocess.addPass(new FlattenNested());
-    if (debug)
+    if (validation != Validate.Level.FINAL)
       preprocess.addPass(Validate.standardValidator());
 
     preprocess.runPipeline(logger, program, 0);
@@ -91,25 +92,47 @@ public class ICOptimizer {
   /**
    * Do one iteration of the iterative optimizer passes
    * @param icOutput
+   * @param profiler
    * @param logger
    * @param prog
-   * @param debug
+   * @param validation
    * @param iteration
    * @param nIterations
    * @throws Exception
    */
-  private static void iterate(PrintStream icOutput, Logger logger,
-      Program prog, boolean debug, long nIterations) throws UserException {
+  private static void iterate(PrintStream icOutput, Profiler profiler,
+      Logger logger, Program prog, Validate.Level validation,
+      long nIterations) throws UserException {
 
     // FunctionInline is stateful
     FunctionInline inliner = new FunctionInline();
     boolean canReorder = true;
 
+    // Skip passes on functions that they are known not to change
+    FixedPointTracker fixedPoints = null;
+    if (Settings.getBooleanUnchecked(Settings.OPT_DETECT_FIXED_POINT)) {
+      fixedPoints = new FixedPointTracker(
+          Settings.getBooleanUnchecked(Settings.OPT_CHECK_FIXED_POINT));
+    }
+
+    // Validate whole program, or only functions modified since they were
+    // last validated
+    Validate validator;
+    if (validation == Validate.Level.FULL) {
+      validator = Validate.standardValidator();
+    } else {
+      validator = Validate.incrementalValidator();
+    }
+    boolean validateEachPass = validation == Validate.Level.FULL ||
+                               validation == Validate.Level.INCREMENTAL;
+
     for (long iteration = 0; iteration < nIterations; iteration++) {
       OptimizerPipeline pipe = new OptimizerPipeline(icOutput);
-      if (SUPER_DEBUG) {
-        pipe.setValidator(Validate.standardValidator());
+      if (validateEachPass) {
+        pipe.setValidator(validator);
       }
+      pipe.setFixedPointTracker(fixedPoints);
+      pipe.setProfiler(profiler);
 
       // First prune and inline any functions
       if (iteration == nIterations / 2) {
@@ -129,7 +152,8 @@ public class ICOptimizer {
         // Try occasionally to unroll loops.  Don't do it on first iteration
         // so the code can be shrunk a little first
         pipe.addPass(new LoopUnroller());
-        pipe.addPass(Validate.standardValidator());
+        if (validation == Validate.Level.FULL)
+          pipe.addPass(validator);
       }
 
       boolean lastHalf = iteration > nIterations * 2;
@@ -183,8 +207,8 @@ public class ICOptimizer {
       // results can be cleaned up by forward dataflow
       if (iteration == nIterations - (nIterations / 4) - 1) {
         pipe.addPass(new Pipeline());
-        if (debug)
-          pipe.addPass(Validate.standardValidator());
+        if (validation == Validate.Level.FULL)
+          pipe.addPass(validator);
       }
 
       // Expand ops about halfway through
@@ -198,8 +222,9 @@ public class ICOptimizer {
                               && iteration % 2 == 0;
       pipe.addPass(new WaitCoalescer(doWaitMerges, canReorder));
 
-      if (debug)
-        pipe.addPass(Validate.standardValidator());
+      if (validation == Validate.Level.FULL ||
+          validation == Validate.Level.SAMPLED)
+        pipe.addPass(validator);
 
       pipe.runPipeline(logger, prog, iteration);
 
@@ -208,9 +233,11 @@ public class ICOptimizer {
     }
   }
 
-  private static void postprocess(PrintStream icOutput, Logger logger,
-      boolean debug, Program prog, long nIterations) throws UserException {
+  private static void postprocess(PrintStream icOutput, Profiler profiler,
+      Logger logger, Program prog, long nIterations)
+          throws UserException {
     OptimizerPipeline postprocess = new OptimizerPipeline(icOutput);
+    postprocess.setProfiler(profiler);
 
     // Final dead code elimination to clean up any remaining dead code
     // (from last iteration or constant sharing)
@@ -222,11 +249,9 @@ public class ICOptimizer {
     // Add in all the variable passing annotations now that instructions,
     // continuations and variables are fixed
     postprocess.addPass(new FixupVariables());
-    // Add in reference counting after passing annotations
+    // Add in reference counting after passing annotations.  Annotations
+    // are updated as the pass adds instructions.
     postprocess.addPass(new RefcountPass());
-    // Refcount pass sometimes adds instructions, do another fixup as a
-    // workaround to make sure that passing annotations are still correct
-    postprocess.addPass(new FixupVariables());
 
     postprocess.addPass(Validate.finalValidator());
     postprocess.runPipeline(logger, prog,  nIterations - 1);
@@ -19,6 +19,7 @@ import exm.stc.common.lang.Var;
 import exm.stc.common.lang.Var.DefType;
 import exm.stc.common.lang.Var.VarProvenance;
 import exm.stc.ic.WrapUtil;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.OptimizerPass.FunctionOptimizerPass;
 import exm.stc.ic.tree.ICContinuations.BlockingVar;
 import exm.stc.ic.tree.ICContinuations.Continuation;
@@ -42,13 +43,19 @@ import exm.stc.ic.tree.TurbineOp;
  * 
  * @author tim
  */
-public class LoopSimplify extends FunctionOptimizerPass {
+public class LoopSimplify extends FunctionOptimizerPass
+    implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "Loop simplify";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_LOOP_SIMPLIFY;
@@ -187,6 +187,8 @@ public class OptUtil {
         for (Statement inst: instBuffer) {
           inst.renameVars(function, renames, RenameMode.REPLACE_VAR);
         }
+        // Renaming instructions in place isn't seen by the function
+        srcBlock.getFunction().markModified();
       } else {
         oldOutReplacement = oldOut;
       }
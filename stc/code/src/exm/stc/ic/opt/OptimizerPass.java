@@ -15,10 +15,17 @@
  */
 package exm.stc.ic.opt;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.apache.log4j.Logger;
 
 import exm.stc.common.exceptions.UserException;
+import exm.stc.common.lang.FnID;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionFilter;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionTask;
 import exm.stc.ic.tree.ICTree.Function;
+import exm.stc.ic.tree.ICTree.GlobalConstants;
 import exm.stc.ic.tree.ICTree.Program;
 
 /**
@@ -33,13 +40,66 @@ public interface OptimizerPass {
   public abstract void optimize(Logger logger, Program program)
                                               throws UserException;
   
-  public static abstract class FunctionOptimizerPass implements OptimizerPass {
+  /**
+   * A pass whose effect depends only on the IR it is run on and on
+   * its pass key.  If it left some IR unchanged once, it will leave that
+   * IR unchanged again, so it need not be rerun until the IR changes.
+   */
+  public static interface DeterministicPass extends OptimizerPass {
+    /**
+     * @return key identifying the pass and any options affecting it
+     */
+    public String getPassKey();
+  }
+
+  /**
+   * A pass that optimizes each function separately, which can be run on
+   * a subset of functions.  Optimizing a function should only modify that
+   * function and global constants, and should only depend on that function,
+   * global variables and constants, and interfering functions.
+   */
+  public static interface PerFunctionPass extends OptimizerPass,
+                                                  FunctionTask {
+    /**
+     * Optimize the functions selected by the filter.
+     * @param logger
+     * @param program
+     * @param filter if null, optimize all functions
+     * @throws UserException
+     */
+    public void optimize(Logger logger, Program program,
+                         FunctionFilter filter) throws UserException;
+  }
+
+  /**
+   * A pass that optimizes each function independently.  Functions may
+   * be optimized concurrently, so implementations must not keep
+   * per-function state in fields.
+   */
+  public static abstract class FunctionOptimizerPass
+                                              implements PerFunctionPass {
 
     @Override
     public void optimize(Logger logger, Program program) throws UserException {
-      for (Function f: program.functions()) {
-        optimize(logger, f);
-      }
+      optimize(logger, program, null);
+    }
+
+    @Override
+    public void optimize(Logger logger, Program program,
+        FunctionFilter filter) throws UserException {
+      FunctionPassScheduler.run(logger, program, this, filter);
+    }
+
+    @Override
+    public void optimize(Logger logger, Program program,
+        GlobalConstants constants, Function f) throws UserException {
+      optimize(logger, f);
+    }
+
+    @Override
+    public Set<FnID> interferingFunctions(Logger logger, Program program,
+                                          Function f) {
+      return Collections.emptySet();
     }
     
     public abstract void optimize(Logger logger, Function f) throws UserException;
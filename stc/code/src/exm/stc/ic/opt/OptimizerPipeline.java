@@ -17,12 +17,27 @@ package exm.stc.ic.opt;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import exm.stc.common.Profiler;
+import exm.stc.common.Profiler.Sample;
 import exm.stc.common.Settings;
+import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.common.exceptions.UserException;
+import exm.stc.common.lang.FnID;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionFilter;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
+import exm.stc.ic.opt.OptimizerPass.PerFunctionPass;
+import exm.stc.ic.tree.ICTree.BuiltinFunction;
+import exm.stc.ic.tree.ICTree.Function;
 import exm.stc.ic.tree.ICTree.Program;
 
 
@@ -35,6 +50,8 @@ public class OptimizerPipeline {
   private final List<OptimizerPass> passes = new ArrayList<OptimizerPass>();
   private final PrintStream icOutput;
   private Validate validator = null;
+  private FixedPointTracker fixedPoints = null;
+  private Profiler profiler = Profiler.disabled();
 
   public void addPass(OptimizerPass pass) {
     passes.add(pass);
@@ -44,25 +61,341 @@ public class OptimizerPipeline {
     this.validator = validator;
   }
 
+  /**
+   * Skip deterministic passes over functions where they would not
+   * change the IR
+   * @param fixedPoints tracker, which can be shared between pipelines
+   */
+  public void setFixedPointTracker(FixedPointTracker fixedPoints) {
+    this.fixedPoints = fixedPoints;
+  }
+
+  /**
+   * Record time, allocation and IR size for each pass run
+   * @param profiler
+   */
+  public void setProfiler(Profiler profiler) {
+    this.profiler = profiler;
+  }
+
   public void runPipeline(Logger logger, Program program, long iteration) throws UserException {
+    // Program may have been modified outside of pipeline
+    updatePassing(program);
+    checkModified(program);
+
     for (OptimizerPass pass: passes) {
       if (passEnabled(pass)) {
         logger.debug("Iteration: " + iteration + " Pass: "
                    + pass.getPassName());
-        pass.optimize(logger, program);
+        Map<String, Long> sizesBefore = null;
+        if (profiler.enabled()) {
+          sizesBefore = program.irSizes();
+        }
+        Sample start = profiler.sample();
+        if (fixedPoints == null) {
+          pass.optimize(logger, program);
+        } else if (!runTracked(logger, program, pass)) {
+          logger.debug("Skipped pass: IR at fixed point");
+          continue;
+        }
+        checkModified(program);
+        updatePassing(program);
+        if (profiler.enabled()) {
+          Sample end = profiler.sample();
+          profiler.record(Profiler.STAGE_OPTIMIZER, pass.getPassName(),
+                  iteration, start, end, sizesBefore, program.irSizes());
+        }
         if (icOutput != null) {
           program.log(icOutput, "Iteration " + iteration + " IC after " +
                                  pass.getPassName());
         }
         if (validator != null) {
+          start = profiler.sample();
           validator.optimize(logger, program);
+          profiler.record(Profiler.STAGE_OPTIMIZER, validator.getPassName(),
+                          iteration, start, profiler.sample(), null, null);
         }
       }
     }
   }
 
+  /**
+   * Bring modification tracking up to date after changes that may not have
+   * been reported, so that stale analyses are not used.  Instructions
+   * changed in place other than through Block.renameVars aren't reported,
+   * so analyses are discarded after each pass.
+   */
+  private void checkModified(Program program) {
+    if (fixedPoints != null) {
+      fixedPoints.checkAll(program);
+    }
+    program.analyses().invalidateAll();
+  }
+
+  /**
+   * Apply variable passing updates for code added by last pass
+   */
+  private void updatePassing(Program program) {
+    for (Function f: program.functions()) {
+      f.updatePassing();
+    }
+  }
+
+  /**
+   * Run pass, skipping functions or the whole pass where possible, and
+   * update fixed point tracking.
+   * @return false if the whole pass was skipped
+   */
+  private boolean runTracked(Logger logger, Program program,
+                             OptimizerPass pass) throws UserException {
+    if (!(pass instanceof DeterministicPass)) {
+      long startEpoch = fixedPoints.checkAll(program);
+      pass.optimize(logger, program);
+      fixedPoints.ranPass(program, null, startEpoch);
+      return true;
+    }
+
+    String passKey = ((DeterministicPass)pass).getPassKey();
+    if (pass instanceof PerFunctionPass) {
+      PerFunctionPass fnPass = (PerFunctionPass)pass;
+      fnPass.optimize(logger, program,
+                fixedPoints.functionFilter(logger, program, passKey, fnPass));
+      return true;
+    } else if (fixedPoints.isUnchanged(program, passKey)) {
+      return false;
+    } else {
+      long startEpoch = fixedPoints.checkAll(program);
+      pass.optimize(logger, program);
+      fixedPoints.ranPass(program, passKey, startEpoch);
+      return true;
+    }
+  }
+
   public boolean passEnabled(OptimizerPass pass) {
     String key = pass.getConfigEnabledKey();
     return key == null || Settings.getBooleanUnchecked(key);
   }
+
+  /**
+   * Track which deterministic passes are known to leave functions
+   * unchanged.  Mutators in ICTree count changes to each function and to
+   * global state, which are moved to new epochs when the changes are next
+   * observed.  A pass need not be rerun on a function if neither the
+   * function, the functions it depends on, or the global state have moved
+   * to a new epoch since the pass last left the function unchanged.
+   * Instructions don't report changes, so passes that modify them in
+   * place must go through Block.renameVars or call
+   * Function.markModified().
+   *
+   * Optionally, functions and global state are also fingerprinted after
+   * each pass to check that no changes were missed by the mutators.
+   */
+  public static class FixedPointTracker {
+    /**
+     * Map from pass key to epoch when the deterministic pass last
+     * left the whole program unchanged
+     */
+    private final Map<String, Long> programUnchanged =
+                                          new HashMap<String, Long>();
+
+    /**
+     * Map from pass key to epoch when the deterministic per-function pass
+     * last left each function unchanged
+     */
+    private final Map<String, Map<FnID, Long>> functionUnchanged =
+                                  new HashMap<String, Map<FnID, Long>>();
+
+    /** Fingerprints to check modification counts, null if not checking */
+    private final ModificationCheck check;
+
+    /**
+     * @param checkModifications if true, fingerprint IR to check that
+     *          all modifications are counted
+     */
+    public FixedPointTracker(boolean checkModifications) {
+      this.check = checkModifications ? new ModificationCheck() : null;
+    }
+
+    /**
+     * Bring epochs of all functions and global state up to date
+     * @param program
+     * @return the most recent epoch
+     */
+    public long checkAll(Program program) {
+      if (check != null) {
+        check.checkAll(program);
+      }
+      program.globalsEpoch();
+      for (Function f: program.functions()) {
+        f.epoch();
+      }
+      return Function.currentEpoch();
+    }
+
+    /**
+     * @return true if any function or global state moved to an epoch
+     *         after the given epoch
+     */
+    private static boolean modifiedSince(Program program, long epoch) {
+      if (program.globalsEpoch() > epoch) {
+        return true;
+      }
+      for (Function f: program.functions()) {
+        if (f.epoch() > epoch) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @param program
+     * @param passKey
+     * @return true if the deterministic pass is known to leave the whole
+     *         program unchanged
+     */
+    public boolean isUnchanged(Program program, String passKey) {
+      Long unchangedEpoch = programUnchanged.get(passKey);
+      return unchangedEpoch != null &&
+             !modifiedSince(program, unchangedEpoch);
+    }
+
+    /**
+     * Update after running a whole-program pass
+     * @param program
+     * @param passKey key of deterministic pass, or null
+     * @param startEpoch result of {@link #checkAll(Program)} before pass
+     */
+    public void ranPass(Program program, String passKey, long startEpoch) {
+      checkAll(program);
+      if (passKey != null) {
+        if (modifiedSince(program, startEpoch)) {
+          programUnchanged.remove(passKey);
+        } else {
+          programUnchanged.put(passKey, Function.currentEpoch());
+        }
+      }
+    }
+
+    /**
+     * @return filter that selects functions that the deterministic pass may
+     *         change, and updates tracking after the pass runs on each.
+     */
+    public FunctionFilter functionFilter(final Logger logger,
+        final Program program, final String passKey,
+        final PerFunctionPass pass) {
+      Map<FnID, Long> unchanged = functionUnchanged.get(passKey);
+      if (unchanged == null) {
+        unchanged = new HashMap<FnID, Long>();
+        functionUnchanged.put(passKey, unchanged);
+      }
+      final Map<FnID, Long> unchangedEpochs = unchanged;
+
+      return new FunctionFilter() {
+        /** Most recent epoch before pass was run on each function */
+        private final Map<FnID, Long> startEpochs = new HashMap<FnID, Long>();
+
+        @Override
+        public boolean shouldOptimize(Function f) {
+          if (changedSinceUnchanged(f)) {
+            startEpochs.put(f.id(), Function.currentEpoch());
+            return true;
+          }
+          logger.trace("Skipping function " + f.id() + ": unchanged");
+          return false;
+        }
+
+        private boolean changedSinceUnchanged(Function f) {
+          Long unchangedEpoch = unchangedEpochs.get(f.id());
+          if (unchangedEpoch == null || f.epoch() > unchangedEpoch ||
+              program.globalsEpoch() > unchangedEpoch) {
+            return true;
+          }
+          for (FnID dep: pass.interferingFunctions(logger, program, f)) {
+            Function depF = program.lookupFunction(dep);
+            if (depF != null && depF.epoch() > unchangedEpoch) {
+              return true;
+            }
+          }
+          return false;
+        }
+
+        @Override
+        public void optimized(Function f) {
+          if (check != null) {
+            check.checkGlobals(program);
+            check.checkFunction(f);
+          }
+          long startEpoch = startEpochs.remove(f.id());
+          if (f.epoch() > startEpoch ||
+              program.globalsEpoch() > startEpoch) {
+            unchangedEpochs.remove(f.id());
+          } else {
+            unchangedEpochs.put(f.id(), Function.currentEpoch());
+          }
+        }
+      };
+    }
+  }
+
+  /**
+   * Check that modification counts are updated whenever the IR changes,
+   * by comparing fingerprints of functions and global state
+   */
+  private static class ModificationCheck {
+    private static class Fingerprint {
+      final long modCount;
+      final HashCode hash;
+
+      Fingerprint(long modCount, HashCode hash) {
+        this.modCount = modCount;
+        this.hash = hash;
+      }
+    }
+
+    private final Map<FnID, Fingerprint> functions =
+                                      new HashMap<FnID, Fingerprint>();
+
+    private Fingerprint globals = null;
+
+    void checkAll(Program program) {
+      checkGlobals(program);
+      for (Function f: program.functions()) {
+        checkFunction(f);
+      }
+    }
+
+    void checkGlobals(Program program) {
+      StringBuilder sb = new StringBuilder();
+      program.constants().prettyPrint(sb);
+      program.globalVars().prettyPrint(sb);
+      ListIterator<BuiltinFunction> builtinIt = program.builtinIterator();
+      while (builtinIt.hasNext()) {
+        sb.append(builtinIt.next().id()).append("\n");
+      }
+      for (Function f: program.functions()) {
+        sb.append(f.id()).append("\n");
+      }
+      globals = check("global state", globals,
+                      program.globalsModCount(), sb);
+    }
+
+    void checkFunction(Function f) {
+      StringBuilder sb = new StringBuilder();
+      f.prettyPrint(sb);
+      functions.put(f.id(), check("function " + f.id(),
+                        functions.get(f.id()), f.modCount(), sb));
+    }
+
+    private static Fingerprint check(String what, Fingerprint prev,
+                                     long modCount, StringBuilder sb) {
+      HashCode hash = Hashing.murmur3_128().hashUnencodedChars(sb);
+      if (prev != null && prev.modCount == modCount &&
+          !prev.hash.equals(hash)) {
+        throw new STCRuntimeError("Modification of " + what +
+                                  " was not counted");
+      }
+      return new Fingerprint(modCount, hash);
+    }
+  }
 }
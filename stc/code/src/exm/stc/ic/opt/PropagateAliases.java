@@ -16,6 +16,7 @@ import exm.stc.common.lang.WaitVar;
 import exm.stc.common.util.HierarchicalSet;
 import exm.stc.ic.aliases.AliasKey;
 import exm.stc.ic.aliases.AliasTracker;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.OptimizerPass.FunctionOptimizerPass;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICContinuations.ContinuationType;
@@ -33,13 +34,19 @@ import exm.stc.ic.tree.TurbineOp;
  * 
  * TODO: remove waitedForAliases approach and wait directly on aliases
  */
-public class PropagateAliases extends FunctionOptimizerPass {
+public class PropagateAliases extends FunctionOptimizerPass
+    implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "Propagate aliases";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_PROPAGATE_ALIASES;
@@ -22,6 +22,7 @@ import exm.stc.common.lang.Types;
 import exm.stc.common.lang.Var;
 import exm.stc.common.util.Pair;
 import exm.stc.common.util.StackLite;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.OptimizerPass.FunctionOptimizerPass;
 import exm.stc.ic.opt.TreeWalk.TreeWalker;
 import exm.stc.ic.tree.Conditionals.Conditional;
@@ -45,7 +46,8 @@ import exm.stc.ic.tree.Opcode;
  * Overall we try to be conservative: if we can't determine whether A must precede B,
  * we assume that their current order is correct.
  */
-public class ReorderInstructions extends FunctionOptimizerPass {
+public class ReorderInstructions extends FunctionOptimizerPass
+    implements DeterministicPass {
 
   public ReorderInstructions() {
   }
@@ -55,6 +57,11 @@ public class ReorderInstructions extends FunctionOptimizerPass {
     return "Reorder instructions";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_REORDER_INSTS;
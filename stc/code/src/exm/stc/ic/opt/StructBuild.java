@@ -23,6 +23,7 @@ import exm.stc.common.lang.Types.StructType.StructField;
 import exm.stc.common.lang.Types.Type;
 import exm.stc.common.lang.Var;
 import exm.stc.common.util.StackLite;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.OptimizerPass.FunctionOptimizerPass;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICInstructions.Instruction;
@@ -37,13 +38,19 @@ import exm.stc.ic.tree.TurbineOp;
  * TODO: combine with array build?
  * TODO: store array references if assigned in whole?
  */
-public class StructBuild extends FunctionOptimizerPass {
+public class StructBuild extends FunctionOptimizerPass
+    implements DeterministicPass {
 
   @Override
   public String getPassName() {
     return "Struct build";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName();
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_ARRAY_BUILD;
@@ -24,14 +24,18 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import exm.stc.common.Settings;
 import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.common.exceptions.UserException;
 import exm.stc.common.lang.Arg;
 import exm.stc.common.lang.ExecContext;
 import exm.stc.common.lang.ExecTarget;
+import exm.stc.common.lang.FnID;
 import exm.stc.common.lang.Semantics;
 import exm.stc.common.lang.Var;
 import exm.stc.common.util.HierarchicalSet;
+import exm.stc.ic.opt.FixupVariables.FixupVarMode;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
 import exm.stc.ic.opt.TreeWalk.TreeWalker;
 import exm.stc.ic.tree.ICContinuations.ContVarDefType;
 import exm.stc.ic.tree.ICContinuations.Continuation;
@@ -51,26 +55,66 @@ import exm.stc.ic.tree.TurbineOp.RefCountOp;
  * - Check variable names in block unique
  * - Check cleanups are in right place with block variables
  * - Check parent links are valid
+ *
+ * An incremental validator only checks functions that were modified
+ * since it last validated them.
  */
-public class Validate implements OptimizerPass {
+public class Validate implements DeterministicPass {
+
+  /**
+   * How much of the IR to validate during optimization
+   */
+  public static enum Level {
+    /** Whole program after every pass */
+    FULL,
+    /** Functions modified by each pass, after every pass */
+    INCREMENTAL,
+    /** Functions modified during an iteration, at end of iteration */
+    SAMPLED,
+    /** Only the final IR */
+    FINAL;
+
+    public static Level fromSettings() {
+      if (!Settings.getBooleanUnchecked(Settings.COMPILER_DEBUG)) {
+        return FINAL;
+      }
+      return valueOf(Settings.get(Settings.VALIDATE_IR).toUpperCase());
+    }
+  }
+
   private final boolean checkVarPassing;
   private final boolean checkCleanups;
   private final boolean noNestedBlocks;
   private final boolean checkExecContext;
 
+  /**
+   * Epoch at which each function was last validated.  Null if not
+   * incremental.
+   */
+  private final Map<FnID, Long> validatedEpochs;
 
   private Validate(boolean checkVarPassing,
                    boolean checkCleanups,
                    boolean noNestedBlocks,
-                   boolean checkExecContext) {
+                   boolean checkExecContext,
+                   boolean incremental) {
     this.checkVarPassing = checkVarPassing;
     this.checkCleanups = checkCleanups;
     this.noNestedBlocks = noNestedBlocks;
     this.checkExecContext = checkExecContext;
+    this.validatedEpochs = incremental ? new HashMap<FnID, Long>() : null;
   }
 
   public static Validate standardValidator() {
-    return new Validate(true, true, false, true);
+    return new Validate(true, true, false, true, false);
+  }
+
+  /**
+   * @return standard validator that skips functions not modified since
+   *         they were last validated.
+   */
+  public static Validate incrementalValidator() {
+    return new Validate(true, true, false, true, true);
   }
 
   /**
@@ -79,7 +123,7 @@ public class Validate implements OptimizerPass {
    *                    variable passing check
    */
   public static Validate finalValidator() {
-    return new Validate(false, false, false, true);
+    return new Validate(false, false, false, true, false);
   }
 
   @Override
@@ -87,6 +131,13 @@ public class Validate implements OptimizerPass {
     return "Validate";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName() + " " + checkVarPassing + " " + checkCleanups +
+           " " + noNestedBlocks + " " + checkExecContext + " " +
+           (validatedEpochs != null);
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return null;
@@ -94,21 +145,49 @@ public class Validate implements OptimizerPass {
 
   @Override
   public void optimize(Logger logger, Program program) throws UserException {
-    if (checkVarPassing) {
-      // Check visibility of vars without modifying IC
-      FixupVariables.fixupProgram(logger, program, false);
-    }
+    if (validatedEpochs == null) {
+      if (checkVarPassing) {
+        // Check visibility of vars without modifying IC
+        FixupVariables.fixupProgram(logger, program, false);
+      }
+
+      for (Function fn : program.functions()) {
+        checkFunction(logger, program, fn);
+      }
+    } else {
+      // Functions are checked against global state, so must be
+      // revalidated if it changed
+      long globalsEpoch = program.globalsEpoch();
+      int validated = 0;
+      for (Function fn : program.functions()) {
+        long epoch = Math.max(fn.epoch(), globalsEpoch);
+        Long validatedEpoch = validatedEpochs.get(fn.id());
+        if (validatedEpoch != null && validatedEpoch == epoch) {
+          continue;
+        }
 
-    for (Function fn : program.functions()) {
-      checkParentLinks(logger, program, fn);
-      checkUniqueVarNames(logger, program.allGlobals(), fn);
-      InitVariables.checkVarInit(logger, fn);
-      if (checkExecContext) {
-        checkExecCx(logger, program, fn);
+        if (checkVarPassing) {
+          FixupVariables.fixupFunction(logger, program.allGlobals(), fn,
+                              new HashSet<Var>(), FixupVarMode.NO_UPDATE);
+        }
+        checkFunction(logger, program, fn);
+        validatedEpochs.put(fn.id(), epoch);
+        validated++;
       }
-      checkDuplicateRefs(logger, fn);
+      logger.trace("Validated " + validated + " modified functions");
     }
   }
+
+  private void checkFunction(Logger logger, Program program, Function fn) {
+    checkParentLinks(logger, program, fn);
+    checkUniqueVarNames(logger, program.allGlobals(), fn);
+    InitVariables.checkVarInit(logger, fn);
+    if (checkExecContext) {
+      checkExecCx(logger, program, fn);
+    }
+    checkDuplicateRefs(logger, fn);
+  }
+
   /**
    * Check that var names are unique within each function, and
    * that all references to variable have same attributes
@@ -28,16 +28,18 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.SetMultimap;
 
 import exm.stc.common.Logging;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.STCRuntimeError;
+import exm.stc.common.exceptions.UserException;
 import exm.stc.common.lang.Arg;
 import exm.stc.common.lang.ExecContext;
 import exm.stc.common.lang.ExecTarget;
+import exm.stc.common.lang.FnID;
 import exm.stc.common.lang.Location;
 import exm.stc.common.lang.PassedVar;
 import exm.stc.common.lang.TaskProp.TaskProps;
@@ -50,7 +52,10 @@ import exm.stc.common.util.Pair;
 import exm.stc.common.util.Sets;
 import exm.stc.common.util.StackLite;
 import exm.stc.ic.ICUtil;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionFilter;
 import exm.stc.ic.opt.OptUtil.InstOrCont;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
+import exm.stc.ic.opt.OptimizerPass.PerFunctionPass;
 import exm.stc.ic.opt.TreeWalk.TreeWalker;
 import exm.stc.ic.tree.Conditionals.Conditional;
 import exm.stc.ic.tree.ICContinuations.BlockingVar;
@@ -61,6 +66,7 @@ import exm.stc.ic.tree.ICContinuations.WaitStatement;
 import exm.stc.ic.tree.ICInstructions.Instruction;
 import exm.stc.ic.tree.ICTree.Block;
 import exm.stc.ic.tree.ICTree.Function;
+import exm.stc.ic.tree.ICTree.GlobalConstants;
 import exm.stc.ic.tree.ICTree.Program;
 import exm.stc.ic.tree.ICTree.Statement;
 import exm.stc.ic.tree.ICTree.StatementType;
@@ -173,7 +179,7 @@ import exm.stc.ic.tree.ICTree.StatementType;
  * Go to all subblocks and do the same
  *
  */
-public class WaitCoalescer implements OptimizerPass {
+public class WaitCoalescer implements DeterministicPass, PerFunctionPass {
   // If true, merge continuations
   private final boolean doMerges;
   // If true, retain explicit waits even if removing them is valid
@@ -189,17 +195,42 @@ public class WaitCoalescer implements OptimizerPass {
     return "Wait coalescing";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName() + " merges=" + doMerges +
+           " retainExplicit=" + retainExplicit;
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_WAIT_COALESCE;
   }
 
   @Override
-  public void optimize(Logger logger, Program prog) {
-    for (Function f: prog.functions()) {
-      logger.trace("Wait coalescer entering function " + f.id());
-      rearrangeWaits(logger, prog, f, f.mainBlock(), ExecContext.control());
-    }
+  public void optimize(Logger logger, Program prog) throws UserException {
+    optimize(logger, prog, null);
+  }
+
+  @Override
+  public void optimize(Logger logger, Program prog, FunctionFilter filter)
+      throws UserException {
+    FunctionPassScheduler.run(logger, prog, this, filter);
+  }
+
+  @Override
+  public void optimize(Logger logger, Program prog,
+      GlobalConstants constants, Function f) {
+    logger.trace("Wait coalescer entering function " + f.id());
+    rearrangeWaits(logger, prog, f, f.mainBlock(), ExecContext.control());
+  }
+
+  /**
+   * Depends on blocking inputs of called functions
+   */
+  @Override
+  public Set<FnID> interferingFunctions(Logger logger, Program prog,
+                                        Function f) {
+    return FunctionPassScheduler.calledFunctions(logger, prog, f);
   }
 
   public boolean rearrangeWaits(Logger logger, Program prog, Function fn,
@@ -1090,8 +1121,10 @@ public class WaitCoalescer implements OptimizerPass {
 
   private static SetMultimap<Var, InstOrCont> buildWaiterMap(Program prog,
                                                           Block block) {
-    // Use linked list to support more efficient removal in middle of list
-    SetMultimap<Var, InstOrCont> waitMap = HashMultimap.create();
+    // Use linked list to support more efficient removal in middle of list.
+    // Keep in insertion order so that relocated code stays in original
+    // order independent of hash codes
+    SetMultimap<Var, InstOrCont> waitMap = LinkedHashMultimap.create();
     findRelocatableBlockingInstructions(prog, block, waitMap);
     findBlockingContinuations(block, waitMap);
     return waitMap;
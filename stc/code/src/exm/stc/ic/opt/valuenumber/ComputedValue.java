@@ -112,11 +112,18 @@ public class ComputedValue<T> {
    */
   @Override
   public boolean equals(Object otherO) {
+    if (this == otherO) {
+      // Common case for interned values
+      return true;
+    }
     if (!(otherO instanceof ComputedValue)) {
       throw new STCRuntimeError("Compared ComputedValue to " +
                                 otherO.getClass());
     }
     ComputedValue<?> other = (ComputedValue<?>) otherO;
+    if (this.hashCode != other.hashCode) {
+      return false;
+    }
     if (this.op == other.op &&
         this.subop.equals(other.subop) &&
         this.inputs.size() == other.inputs.size()) {
@@ -139,8 +146,14 @@ public class ComputedValue<T> {
   }
 
   public int calcHashCode() {
-    int result = this.op.hashCode();
-    result = 37 * result + this.subop.hashCode();
+    // Hash enums by ordinal so that hash codes, and therefore iteration
+    // order of hash tables, don't depend on identity hash codes
+    int result = this.op.ordinal();
+    if (this.subop instanceof Enum) {
+      result = 37 * result + ((Enum<?>)this.subop).ordinal();
+    } else {
+      result = 37 * result + this.subop.hashCode();
+    }
     for (T o: this.inputs) {
       if (o == null) {
         throw new STCRuntimeError("Null input in " + this);
@@ -718,6 +731,9 @@ public class ComputedValue<T> {
         throw new STCRuntimeError("Comparing " + this.getClass().getName() +
                   " with " + obj.getClass().getName());
       ArgOrCV other = (ArgOrCV) obj;
+      if (hashCode != other.hashCode) {
+        return false;
+      }
       if (arg != null) {
         if (other.arg == null) {
           return false;
@@ -65,6 +65,11 @@ class CongruentSets {
    */
   private final ScopedUnionFind<ArgOrCV> canonical;
 
+  /**
+   * Unique representations of values, shared with all scopes
+   */
+  private final ValueInterner values;
+
   /**
    * Track sets that were merged into this one.  Allows
    * finding an alternate value if current is out of scope.
@@ -116,8 +121,10 @@ class CongruentSets {
     this.parent = parent;
     if (parent == null) {
       this.canonical = ScopedUnionFind.createRoot();
+      this.values = new ValueInterner();
     } else {
       this.canonical = parent.canonical.newScope();
+      this.values = parent.values;
     }
     this.mergedInto = ArrayListMultimap.create();
     this.componentIndex = HashMultimap.create();
@@ -237,7 +244,7 @@ class CongruentSets {
   public ArgOrCV findCanonical(Arg arg) {
     assert(arg != null);
     // Don't need to canonicalize arg
-    ArgOrCV result = findCanonicalInternal(new ArgOrCV(arg));
+    ArgOrCV result = findCanonicalInternal(values.arg(arg));
     assert(result != null);
     return result;
   }
@@ -259,7 +266,7 @@ class CongruentSets {
    * @return non-null value (may be val itself)
    */
   ArgOrCV findCanonicalInternal(ArgCV val) {
-    return findCanonicalInternal(new ArgOrCV(val));
+    return findCanonicalInternal(values.cv(val));
   }
 
   /**
@@ -318,7 +325,7 @@ class CongruentSets {
   }
 
   public Set<ArgOrCV> findCongruentValues(Arg val) {
-    return findCongruentValues(new ArgOrCV(val));
+    return findCongruentValues(values.arg(val));
   }
 
   /**
@@ -610,7 +617,7 @@ class CongruentSets {
     // First replace the args with whatever current canonical values
     ArgCV replacedInputs = canonicalizeInputs(origVal, addComponentIndex);
     // Then perform additional canonicalization
-    return canonicalizeInternal(consts, replacedInputs);
+    return values.intern(canonicalizeInternal(consts, replacedInputs));
   }
 
 
@@ -660,6 +667,7 @@ class CongruentSets {
   private ArgCV canonicalizeInputs(ArgCV cv, boolean addComponentIndex) {
     List<Arg> inputs = cv.getInputs();
     List<Arg> newInputs = new ArrayList<Arg>(inputs.size());
+    boolean changed = false;
     for (Arg input: inputs) {
       // Canonicalize inputs to get this into a canonical form
 
@@ -669,6 +677,7 @@ class CongruentSets {
         assert(canonicalInput.isArg());
         // Add canonical
         newInputs.add(canonicalInput.arg());
+        changed = changed || !canonicalInput.arg().equals(input);
       } else {
         // Not allowed to substitute, e.g. for filenames where we don't
         // have reference transparency for args
@@ -676,7 +685,9 @@ class CongruentSets {
       }
     }
 
-    ArgCV newCV = new ArgCV(cv.op, cv.subop, newInputs);
+    // Reuse unique copy of value
+    ArgCV newCV = values.cv(changed ? new ArgCV(cv.op, cv.subop, newInputs)
+                                    : cv).cv();
     if (addComponentIndex && findCanonicalInternal(newCV) == null) {
       // Add to index if not present
       for (Arg newInput: newInputs) {
@@ -831,8 +842,7 @@ class CongruentSets {
         return null;
       }
 
-      ArgOrCV cv = new ArgOrCV(v.asArg());
-      ArgOrCV replace = canonical.lookup(cv);
+      ArgOrCV replace = canonical.lookup(values.arg(v.asArg()));
 
       if (replace != null && replace.isArg()) {
         if (!replacementIsAccessible(replace.arg())) {
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.ic.opt.valuenumber;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import exm.stc.common.lang.Arg;
+import exm.stc.ic.opt.valuenumber.ComputedValue.ArgCV;
+import exm.stc.ic.opt.valuenumber.ComputedValue.ArgOrCV;
+
+/**
+ * Hash-consing table for the values in the congruent sets of a function,
+ * so that each structurally distinct value is represented by one object.
+ * Comparisons of interned values then succeed on the reference check or
+ * fail on the cached hash code, and repeated lookups of the same arg
+ * don't allocate a new wrapper.
+ */
+class ValueInterner {
+  private final Map<Arg, ArgOrCV> args = new HashMap<Arg, ArgOrCV>();
+  private final Map<ArgCV, ArgOrCV> cvs = new HashMap<ArgCV, ArgOrCV>();
+
+  /**
+   * @return the unique wrapper for arg
+   */
+  public ArgOrCV arg(Arg arg) {
+    ArgOrCV result = args.get(arg);
+    if (result == null) {
+      result = new ArgOrCV(arg);
+      args.put(arg, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return the unique wrapper for a value equal to cv
+   */
+  public ArgOrCV cv(ArgCV cv) {
+    ArgOrCV result = cvs.get(cv);
+    if (result == null) {
+      result = new ArgOrCV(cv);
+      cvs.put(cv, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return the unique value equal to val, which may be val itself
+   */
+  public ArgOrCV intern(ArgOrCV val) {
+    if (val.isArg()) {
+      ArgOrCV result = args.get(val.arg());
+      if (result == null) {
+        args.put(val.arg(), val);
+        return val;
+      }
+      return result;
+    } else {
+      ArgOrCV result = cvs.get(val.cv());
+      if (result == null) {
+        cvs.put(val.cv(), val);
+        return val;
+      }
+      return result;
+    }
+  }
+}
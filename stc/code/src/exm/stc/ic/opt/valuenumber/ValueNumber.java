@@ -47,16 +47,19 @@ import exm.stc.common.util.TernaryLogic.Ternary;
 import exm.stc.ic.ICUtil;
 import exm.stc.ic.WrapUtil;
 import exm.stc.ic.aliases.Alias;
-import exm.stc.ic.opt.ICOptimizer;
+import exm.stc.ic.opt.FunctionPassScheduler;
+import exm.stc.ic.opt.FunctionPassScheduler.FunctionFilter;
 import exm.stc.ic.opt.InitVariables;
 import exm.stc.ic.opt.InitVariables.InitState;
 import exm.stc.ic.opt.OptUtil;
 import exm.stc.ic.opt.OptUtil.OptVarCreator;
-import exm.stc.ic.opt.OptimizerPass;
+import exm.stc.ic.opt.OptimizerPass.DeterministicPass;
+import exm.stc.ic.opt.OptimizerPass.PerFunctionPass;
 import exm.stc.ic.opt.ProgressOpcodes;
 import exm.stc.ic.opt.ProgressOpcodes.Category;
 import exm.stc.ic.opt.TreeWalk;
 import exm.stc.ic.opt.TreeWalk.TreeWalker;
+import exm.stc.ic.opt.Validate;
 import exm.stc.ic.opt.valuenumber.Congruences.OptUnsafeError;
 import exm.stc.ic.opt.valuenumber.ValLoc.IsAssign;
 import exm.stc.ic.tree.Conditionals.Conditional;
@@ -103,7 +106,7 @@ import exm.stc.ic.tree.TurbineOp;
  * of dead code, which can be cleaned up in a pass of the dead code eliminator.
  *
  */
-public class ValueNumber implements OptimizerPass {
+public class ValueNumber implements DeterministicPass, PerFunctionPass {
 
   private Logger logger;
 
@@ -118,10 +121,16 @@ public class ValueNumber implements OptimizerPass {
    */
   private boolean finalizedVarEnabled;
 
+  /**
+   * True if we should check consistency of congruence state
+   */
+  private boolean validateCongruences;
+
   public ValueNumber(boolean reorderingAllowed) {
     this.reorderingAllowed = reorderingAllowed;
 
     finalizedVarEnabled = Settings.getBooleanUnchecked(Settings.OPT_FINALIZED_VAR);
+    validateCongruences = Validate.Level.fromSettings() == Validate.Level.FULL;
   }
 
   @Override
@@ -129,6 +138,11 @@ public class ValueNumber implements OptimizerPass {
     return "Value numbering";
   }
 
+  @Override
+  public String getPassKey() {
+    return getPassName() + (reorderingAllowed ? " (reorder)" : "");
+  }
+
   @Override
   public String getConfigEnabledKey() {
     return Settings.OPT_VALUE_NUMBER;
@@ -136,26 +150,46 @@ public class ValueNumber implements OptimizerPass {
 
   @Override
   public void optimize(Logger logger, Program prog) throws UserException {
+    optimize(logger, prog, null);
+  }
+
+  @Override
+  public void optimize(Logger logger, Program prog, FunctionFilter filter)
+      throws UserException {
     this.logger = logger;
-    for (Function f: prog.functions()) {
-      runPass(prog, f);
-      liftWaitRec(logger, prog, f, f.mainBlock());
-    }
+    FunctionPassScheduler.run(logger, prog, this, filter);
   }
 
-  private void runPass(Program prog, Function f) {
+  @Override
+  public void optimize(Logger logger, Program prog, GlobalConstants consts,
+                       Function f) {
+    runPass(prog, consts, f);
+    liftWaitRec(logger, prog, f, f.mainBlock());
+  }
+
+  /**
+   * Optimizing a function depends on blocking inputs of functions it calls,
+   * and may change its own blocking inputs.
+   */
+  @Override
+  public Set<FnID> interferingFunctions(Logger logger, Program prog,
+                                        Function f) {
+    return FunctionPassScheduler.calledFunctions(logger, prog, f);
+  }
+
+  private void runPass(Program prog, GlobalConstants consts, Function f) {
     logger.trace("Optimizing function @" + f.id());
     try {
       // First pass finds all congruence classes and expands some instructions
       Map<Block, Congruences> congMap;
-      congMap = findCongruences(prog, f, ExecContext.control());
+      congMap = findCongruences(prog, consts, f, ExecContext.control());
 
       // Second pass replaces values based on congruence classes
-      replaceVals(prog.constants(), f.id(), f.mainBlock(), congMap,
+      replaceVals(consts, f.id(), f.mainBlock(), congMap,
                   InitState.enterFunction(f));
 
       // Third pass inlines continuations
-      inlinePass(prog.constants(), f.mainBlock(), congMap);
+      inlinePass(consts, f.mainBlock(), congMap);
     } catch (OptUnsafeError e) {
       logger.debug("Optimization cancelled for function " + f.id());
     }
@@ -371,15 +405,18 @@ public class ValueNumber implements OptimizerPass {
    *      for this function.
    */
   private Map<Block, Congruences> findCongruences(Program program,
-          Function f, ExecContext execCx) throws OptUnsafeError {
+      GlobalConstants consts, Function f, ExecContext execCx)
+          throws OptUnsafeError {
     Map<Block, Congruences> result = new HashMap<Block, Congruences>();
     Congruences initState = initFuncState(logger, program.foreignFunctions(),
-                                          program.constants(), f);
-    findCongruencesRec(program, f, f.mainBlock(), execCx, initState, result);
+                                          consts, f);
+    findCongruencesRec(program, consts, f, f.mainBlock(), execCx, initState,
+                       result);
     return result;
   }
 
-  private void findCongruencesRec(Program program, Function f, Block block,
+  private void findCongruencesRec(Program program, GlobalConstants consts,
+      Function f, Block block,
       ExecContext execCx, Congruences state, Map<Block, Congruences> result)
           throws OptUnsafeError {
     result.put(block, state);
@@ -394,7 +431,7 @@ public class ValueNumber implements OptimizerPass {
 
         Instruction inst = stmt.instruction();
         if (logger.isTraceEnabled() && inst.op != Opcode.COMMENT) {
-          state.printTraceInfo(logger, program.constants());
+          state.printTraceInfo(logger, consts);
           logger.trace("-----------------------------");
           logger.trace("At instruction: " + inst);
         }
@@ -407,31 +444,32 @@ public class ValueNumber implements OptimizerPass {
            */
           continue;
         }
-        findCongruencesInst(program, f, execCx, block, stmts, inst, stmtIndex,
-                            state);
+        findCongruencesInst(program, consts, f, execCx, block, stmts, inst,
+                            stmtIndex, state);
       } else {
         assert (stmt.type() == StatementType.CONDITIONAL);
         // handle situations like:
         // all branches assign future X a local values v1,v2,v3,etc.
         // in this case should try to create another local value outside of
         // conditional z which has the value from all branches stored
-        UnifiedValues unified = findCongruencesContRec(program, f, execCx,
-                            stmt.conditional(), stmtIndex, state, result);
-        state.addUnifiedValues(program.constants(), f.id().uniqueName(),
+        UnifiedValues unified = findCongruencesContRec(program, consts, f,
+                    execCx, stmt.conditional(), stmtIndex, state, result);
+        state.addUnifiedValues(consts, f.id().uniqueName(),
                               stmtIndex, unified);
       }
     }
 
     int stmtCount = block.getStatements().size();
     for (Continuation cont: block.getContinuations()) {
-      findCongruencesContRec(program, f, execCx, cont, stmtCount,
+      findCongruencesContRec(program, consts, f, execCx, cont, stmtCount,
                              state, result);
     }
 
-    validateState(program.constants(), state);
+    validateState(consts, state);
   }
 
-  private void findCongruencesInst(Program prog, Function f,
+  private void findCongruencesInst(Program prog, GlobalConstants consts,
+      Function f,
       ExecContext execCx, Block block, ListIterator<Statement> stmts,
       Instruction inst, int stmtIndex, Congruences state) throws OptUnsafeError {
 
@@ -441,7 +479,7 @@ public class ValueNumber implements OptimizerPass {
      * NOTE: we don't delete any instructions on this pass, but rather rely on
      * dead code elim to later clean up unneeded instructions instead.
      */
-    updateCongruent(logger, prog.constants(), f, inst, stmtIndex, state);
+    updateCongruent(logger, consts, f, inst, stmtIndex, state);
 
 
     if (finalizedVarEnabled) {
@@ -457,7 +495,7 @@ public class ValueNumber implements OptimizerPass {
   }
 
   private UnifiedValues findCongruencesContRec(Program prog,
-      Function fn, ExecContext execCx, Continuation cont,
+      GlobalConstants consts, Function fn, ExecContext execCx, Continuation cont,
       int stmtIndex, Congruences state, Map<Block, Congruences> result)
           throws OptUnsafeError {
     logger.trace("Recursing on continuation " + cont.getType());
@@ -477,15 +515,17 @@ public class ValueNumber implements OptimizerPass {
 
     // Try to avoid going down invalid branches
     if (cont.isConditional()) {
-      return tryUnifyBranches(prog, fn, execCx, cont, stmtIndex, state, result);
+      return tryUnifyBranches(prog, consts, fn, execCx, cont, stmtIndex, state,
+                              result);
     } else {
-      findCongruencesBranchesRec(prog, fn, execCx, cont, stmtIndex, state, result,
-                                 cont.getBlocks(), null);
+      findCongruencesBranchesRec(prog, consts, fn, execCx, cont, stmtIndex,
+                                 state, result, cont.getBlocks(), null);
       return UnifiedValues.EMPTY;
     }
   }
 
-  private UnifiedValues tryUnifyBranches(Program prog, Function fn,
+  private UnifiedValues tryUnifyBranches(Program prog, GlobalConstants consts,
+      Function fn,
       ExecContext execCx, Continuation cont, int stmtIndex, Congruences state,
       Map<Block, Congruences> result)
       throws OptUnsafeError {
@@ -513,11 +553,11 @@ public class ValueNumber implements OptimizerPass {
     List<Congruences> branchStates = unifyBranches ?
                       new ArrayList<Congruences>() : null;
 
-    findCongruencesBranchesRec(prog, fn, execCx, cont, stmtIndex, state, result,
-                                branchBlocks, branchStates);
+    findCongruencesBranchesRec(prog, consts, fn, execCx, cont, stmtIndex,
+                               state, result, branchBlocks, branchStates);
 
     if (unifyBranches) {
-      return UnifiedValues.unify(logger, prog.constants(), fn,
+      return UnifiedValues.unify(logger, consts, fn,
                     reorderingAllowed, stmtIndex, state, cont,
                               branchStates, branchBlocks);
     } else {
@@ -525,7 +565,8 @@ public class ValueNumber implements OptimizerPass {
     }
   }
 
-  private void findCongruencesBranchesRec(Program prog, Function fn,
+  private void findCongruencesBranchesRec(Program prog,
+      GlobalConstants consts, Function fn,
       ExecContext execCx, Continuation cont, int stmtIndex, Congruences state,
       Map<Block, Congruences> result,
       List<Block> branchBlocks, List<Congruences> branchStates)
@@ -555,8 +596,8 @@ public class ValueNumber implements OptimizerPass {
           blockState.markClosedBlockStart(bv.var, bv.recursive);
         }
       }
-      findCongruencesRec(prog, fn, contBlock, cont.childContext(execCx),
-                         blockState, result);
+      findCongruencesRec(prog, consts, fn, contBlock,
+                         cont.childContext(execCx), blockState, result);
 
       if (branchStates != null) {
         branchStates.add(blockState);
@@ -591,7 +632,7 @@ public class ValueNumber implements OptimizerPass {
       if (stmt.type() == StatementType.INSTRUCTION) {
         // Replace vars in instruction
         Instruction inst = stmt.instruction();
-        replaceCongruent(function, inst, state, init);
+        replaceCongruent(function, block, inst, state, init);
 
         if (!inst.hasSideEffects() && inst.getOutputs().size() == 1) {
           Var output = inst.getOutput(0);
@@ -602,15 +643,19 @@ public class ValueNumber implements OptimizerPass {
               Arg val = state.findRetrieveResult(output, false);
               if (val != null && init.isInitialized(val, false)) {
                 Instruction futureSet = TurbineOp.storePrim(output, val);
-                stmtIt.set(futureSet);
-                logger.trace("Replaced with " + futureSet);
+                if (!sameInstruction(inst, futureSet)) {
+                  stmtIt.set(futureSet);
+                  logger.trace("Replaced with " + futureSet);
+                }
               }
             } else if (Types.isScalarValue(output)) {
               Arg val = state.findValue(output);
               if (val != null && val.isConst()) {
                 Instruction valueSet = ICInstructions.valueSet(output, val);
-                stmtIt.set(valueSet);
-                logger.trace("Replaced with " + valueSet);
+                if (!sameInstruction(inst, valueSet)) {
+                  stmtIt.set(valueSet);
+                  logger.trace("Replaced with " + valueSet);
+                }
               }
             }
           }
@@ -794,6 +839,16 @@ public class ValueNumber implements OptimizerPass {
     }
   }
 
+  /**
+   * Check if replacement is identical, so that unchanged code isn't
+   * reported as modified
+   */
+  private static boolean sameInstruction(Instruction inst,
+                                         Instruction replacement) {
+    return inst.op == replacement.op &&
+           inst.toString().equals(replacement.toString());
+  }
+
   private static final List<RenameMode> RENAME_MODES =
       Arrays.asList(RenameMode.VALUE, RenameMode.REFERENCE);
 
@@ -804,7 +859,7 @@ public class ValueNumber implements OptimizerPass {
     }
   }
 
-  private void replaceCongruent(FnID function, Instruction inst,
+  private void replaceCongruent(FnID function, Block block, Instruction inst,
                                 Congruences congruent, InitState init) {
     assert(congruent != null);
 
@@ -812,7 +867,8 @@ public class ValueNumber implements OptimizerPass {
       logger.trace("Instruction before replacement: " + inst);
     }
     for (RenameMode mode: RENAME_MODES) {
-      inst.renameVars(function, congruent.replacements(mode, init), mode);
+      block.renameVars(function, inst, congruent.replacements(mode, init),
+                       mode);
     }
     if (logger.isTraceEnabled()) {
       logger.trace("Instruction after replacement: " + inst);
@@ -1027,7 +1083,7 @@ public class ValueNumber implements OptimizerPass {
    * Do any validations of the state of things
    */
   private void validateState(GlobalConstants consts, Congruences state) {
-    if (ICOptimizer.SUPER_DEBUG) {
+    if (validateCongruences) {
       state.validate(consts);
     }
   }
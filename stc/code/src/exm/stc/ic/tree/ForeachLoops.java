@@ -108,6 +108,7 @@ public class ForeachLoops {
 
     public void addStartIncrement(RefCount incr) {
       startIncrements.add(incr);
+      requiredVarsChanged();
     }
 
     public void addConstantStartIncrement(Var v, RefCountType t, Arg amount) {
@@ -126,6 +127,7 @@ public class ForeachLoops {
 
       // If we didn't have it already
       constStartIncrements.put(v, new RefCount(v, t, amount));
+      requiredVarsChanged();
     }
 
     public List<RefCount> getEndDecrements() {
@@ -134,6 +136,7 @@ public class ForeachLoops {
 
     public void addEndDecrement(RefCount decr) {
       endDecrements.add(decr);
+      requiredVarsChanged();
     }
 
     public void prettyPrintIncrs(StringBuilder sb) {
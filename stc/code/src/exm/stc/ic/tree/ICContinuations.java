@@ -107,6 +107,26 @@ public class ICContinuations {
       }
     }
 
+    /**
+     * Should be called by subclasses when the variables required by the
+     * continuation change other than through its blocks.
+     */
+    protected void requiredVarsChanged() {
+      if (parent != null) {
+        parent.continuationChanged(this);
+      }
+    }
+
+    /**
+     * Should be called by subclasses when the continuation is modified
+     * other than through its blocks.
+     */
+    protected void codeChanged() {
+      if (parent != null) {
+        parent.codeChanged();
+      }
+    }
+
     public abstract void generate(Logger logger, CompilerBackend gen, GenInfo info);
 
     public abstract void prettyPrint(StringBuilder sb, String currentIndent);
@@ -134,6 +154,7 @@ public class ICContinuations {
         this.replaceVarsInBlocks(function, renames, mode);
       }
       this.replaceConstructVars(renames, mode);
+      codeChanged();
     }
 
     /**
@@ -290,6 +311,17 @@ public class ICContinuations {
       throw new STCRuntimeError("not implemented");
     }
 
+    /**
+     * Only applies to async continuations.
+     * Add variable to passed and keep open vars, if not already present
+     * @param var
+     * @param read true if variable is read inside continuation
+     * @param written true if variable is written inside continuation
+     */
+    public void passVarIn(Var var, boolean read, boolean written) {
+      throw new STCRuntimeError("not implemented");
+    }
+
     /**
      * Remove this continuation from block, inlining one of
      * the nested blocks inside the continuation (e.g. the predicted branch
@@ -367,6 +399,7 @@ public class ICContinuations {
     private boolean runLast = false;
     public void setRunLast(boolean val) {
       runLast = val;
+      codeChanged();
     }
     public boolean runLast() {
       return runLast;
@@ -513,12 +546,14 @@ public class ICContinuations {
     public void setPassedVars(Collection<PassedVar> passedVars) {
       this.passedVars.clear();
       this.passedVars.addAll(passedVars);
+      codeChanged();
     }
 
     @Override
     public void setKeepOpenVars(Collection<Var> keepOpenVars) {
       this.keepOpenVars.clear();
       this.keepOpenVars.addAll(keepOpenVars);
+      codeChanged();
     }
 
     @Override
@@ -526,6 +561,29 @@ public class ICContinuations {
       return Collections.unmodifiableList(this.keepOpenVars);
     }
 
+    @Override
+    public void passVarIn(Var var, boolean read, boolean written) {
+      PassedVar existing = null;
+      for (PassedVar passed: passedVars) {
+        if (passed.var.equals(var)) {
+          existing = passed;
+          break;
+        }
+      }
+      if (existing == null || (read && existing.writeOnly)) {
+        // Merge to keep list in canonical order
+        setPassedVars(PassedVar.mergeLists(
+            Collections.singletonList(new PassedVar(var, !read)), passedVars));
+      }
+
+      if (written && RefCounting.trackWriteRefCount(var) &&
+          !keepOpenVars.contains(var)) {
+        List<Var> keepOpen = new ArrayList<Var>(keepOpenVars);
+        keepOpen.add(var);
+        setKeepOpenVars(keepOpen);
+      }
+    }
+
     /**
      * For overriding by child class
      * @param renames
@@ -538,6 +596,54 @@ public class ICContinuations {
     public final void replaceConstructVars(Map<Var, Arg> renames,
                                             RenameMode mode) {
       this.replaceConstructVars_(renames, mode);
+      if (mode == RenameMode.REPLACE_VAR) {
+        replacePassedVars(renames);
+      }
+    }
+
+    /**
+     * Replace variables in passing annotations, so that they don't refer
+     * to variables that were renamed away
+     * @param renames
+     */
+    private void replacePassedVars(Map<Var, Arg> renames) {
+      boolean changed = false;
+      List<PassedVar> newPassed = new ArrayList<PassedVar>();
+      for (PassedVar passed: passedVars) {
+        Arg replacement = renames.get(passed.var);
+        if (replacement == null) {
+          newPassed.add(passed);
+        } else {
+          changed = true;
+          if (replacement.isVar()) {
+            newPassed.add(new PassedVar(replacement.getVar(),
+                                        passed.writeOnly));
+          }
+        }
+      }
+      if (changed) {
+        // Merge to remove duplicates and keep list in canonical order
+        setPassedVars(PassedVar.mergeLists(newPassed,
+                                    Collections.<PassedVar>emptyList()));
+      }
+
+      changed = false;
+      List<Var> newKeepOpen = new ArrayList<Var>();
+      for (Var keepOpen: keepOpenVars) {
+        Arg replacement = renames.get(keepOpen);
+        if (replacement == null) {
+          newKeepOpen.add(keepOpen);
+        } else {
+          changed = true;
+          if (replacement.isVar() &&
+              !newKeepOpen.contains(replacement.getVar())) {
+            newKeepOpen.add(replacement.getVar());
+          }
+        }
+      }
+      if (changed) {
+        setKeepOpenVars(newKeepOpen);
+      }
     }
 
     /**
@@ -770,6 +876,7 @@ public class ICContinuations {
         if (loopVars.get(i).equals(var)) {
           blockingVars.set(i, true);
           this.loopContinue.setBlocking(i, true);
+          codeChanged();
           break;
         }
       }
@@ -779,10 +886,12 @@ public class ICContinuations {
 
     public void setLoopBreak(LoopBreak loopBreak) {
       this.loopBreak = loopBreak;
+      codeChanged();
     }
 
     public void setLoopContinue(LoopContinue loopContinue) {
       this.loopContinue = loopContinue;
+      codeChanged();
     }
 
     @Override
@@ -892,6 +1001,7 @@ public class ICContinuations {
           assert(!this.definedHere.get(i)) : loopVar;
           this.loopVars.set(i, newV);
           this.definedHere.set(i, true);
+          codeChanged();
         }
       }
     }
@@ -1037,6 +1147,7 @@ public class ICContinuations {
         if (!closedInitVals.get(i) && init.isVar()
              && closed.contains(init.getVar())) {
           closedInitVals.set(i, true); // Record for later
+          codeChanged();
         }
         if (!blockingVars.get(i)) {
           if (loopContinue.isLoopVarClosed(i) && closedInitVals.get(i)) {
@@ -1082,6 +1193,7 @@ public class ICContinuations {
       int index = initVals.indexOf(initVal);
       assert(index >= 0) : initVal;
       closedInitVals.set(index, true);
+      codeChanged();
     }
 
     @Override
@@ -1157,6 +1269,7 @@ public class ICContinuations {
       // Reset closed info to be safe
       closedInitVals.set(index, false);
       loopContinue.setLoopVarClosed(index, false);
+      codeChanged();
     }
   }
 
@@ -1420,10 +1533,12 @@ public class ICContinuations {
     public void setTarget(ExecTarget target) {
       assert(target.isAsync());
       this.target = target;
+      codeChanged();
     }
 
     public void setMode(WaitMode mode) {
       this.mode = mode;
+      codeChanged();
     }
 
     @Override
@@ -1505,6 +1620,7 @@ public class ICContinuations {
     public void addWaitVars(Collection<WaitVar> vars) {
       this.waitVars.addAll(vars);
       WaitVar.removeDuplicates(this.waitVars);
+      codeChanged();
     }
 
     @Override
@@ -1514,6 +1630,7 @@ public class ICContinuations {
         WaitVar wv = it.next();
         if (removeVars.contains(wv.var)) {
           it.remove();
+          codeChanged();
         }
       }
 
@@ -1539,6 +1656,7 @@ public class ICContinuations {
         } else if ((closedVars.contains(wv.var) && !recursionRequired(wv.var))
             || recClosedVars.contains(wv.var)) {
           it.remove();
+          codeChanged();
         } else {
           varsLeft = true;
         }
@@ -1565,6 +1683,7 @@ public class ICContinuations {
             } else if (!retainExplicit || r.explicit || !wv.explicit) {
               // Sufficiently explicit
               it.remove();
+              codeChanged();
             }
           }
         }
@@ -1585,6 +1704,7 @@ public class ICContinuations {
         }
         // If we made it here, don't need to recurse
         recursive = false;
+        codeChanged();
       }
     }
 
@@ -115,8 +115,14 @@ public class ICInstructions {
       // Do nothing
     }
 
-    public void removeVars(Set<Var> removeVars) {
+    /**
+     * Remove references to variables from instruction
+     * @param removeVars
+     * @return true if instruction was changed
+     */
+    public boolean removeVars(Set<Var> removeVars) {
       // default impl: do nothing
+      return false;
     }
 
     /**
@@ -1866,10 +1872,11 @@ public class ICInstructions {
     }
 
     @Override
-    public void removeVars(Set<Var> removeVars) {
+    public boolean removeVars(Set<Var> removeVars) {
       assert(!removeVars.contains(newLoopVars.get(0)));
-      loopUsedVars.removeAll(removeVars);
-      newLoopVars.removeAll(removeVars);
+      boolean changed = loopUsedVars.removeAll(removeVars);
+      changed |= newLoopVars.removeAll(removeVars);
+      return changed;
     }
 
     @Override
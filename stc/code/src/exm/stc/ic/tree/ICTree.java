@@ -22,14 +22,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -62,11 +64,15 @@ import exm.stc.common.lang.Var.DefType;
 import exm.stc.common.lang.Var.VarProvenance;
 import exm.stc.common.lang.WaitVar;
 import exm.stc.common.lang.WrappedForeignFunction;
+import exm.stc.common.util.GapList;
 import exm.stc.common.util.MultiCollection;
+import exm.stc.common.util.Pair;
 import exm.stc.common.util.StackLite;
 import exm.stc.common.util.TwoWayMap;
 import exm.stc.ic.ICUtil;
+import exm.stc.ic.opt.AnalysisManager;
 import exm.stc.ic.tree.Conditionals.Conditional;
+import exm.stc.ic.tree.ICContinuations.ContVarDefType;
 import exm.stc.ic.tree.ICContinuations.Continuation;
 import exm.stc.ic.tree.ICInstructions.Instruction;
 
@@ -120,6 +126,23 @@ public class ICTree {
      */
     private boolean checkpointRequired = false;
 
+    /**
+     * Cached analyses of functions
+     */
+    private final AnalysisManager analyses = new AnalysisManager();
+
+    /** Count of changes to the lists of functions and builtins */
+    private long functionListModCount = 0;
+
+    /**
+     * Modification epoch of global constants and variables, and lists of
+     * functions and builtins, ordered with function epochs
+     */
+    private long globalsEpoch = 0;
+
+    /** Value of globalsModCount() when globalsEpoch was assigned */
+    private long globalsEpochModCount = 0;
+
     public Program(ForeignFunctions foreignFunctions) {
       this.foreignFunctions = foreignFunctions;
     }
@@ -200,11 +223,13 @@ public class ICTree {
 
     public void addBuiltin(BuiltinFunction fn) {
       this.builtinFuns.add(fn);
+      functionListModCount++;
     }
 
     public void addFunction(Function fn) {
       this.functions.add(fn);
       this.functionsByID.put(fn.id(), fn);
+      functionListModCount++;
     }
 
     public void addFunctions(Collection<Function> c) {
@@ -242,12 +267,14 @@ public class ICTree {
           internal.set(e);
           functionsByID.remove(lastReturned.id());
           functionsByID.put(e.id(), e);
+          functionListModCount++;
         }
 
         @Override
         public void remove() {
           internal.remove();
           functionsByID.remove(lastReturned);
+          functionListModCount++;
         }
 
         @Override
@@ -288,12 +315,89 @@ public class ICTree {
         public void add(Function e) {
           internal.add(e);
           functionsByID.put(e.id(), e);
+          functionListModCount++;
         }
       };
     }
 
     public ListIterator<BuiltinFunction> builtinIterator() {
-      return builtinFuns.listIterator();
+      // Use custom iterator to intercept operations
+      return new ListIterator<BuiltinFunction>() {
+        private final ListIterator<BuiltinFunction> internal =
+                              builtinFuns.listIterator();
+
+        @Override
+        public void set(BuiltinFunction e) {
+          internal.set(e);
+          functionListModCount++;
+        }
+
+        @Override
+        public void remove() {
+          internal.remove();
+          functionListModCount++;
+        }
+
+        @Override
+        public int previousIndex() {
+          return internal.previousIndex();
+        }
+
+        @Override
+        public BuiltinFunction previous() {
+          return internal.previous();
+        }
+
+        @Override
+        public int nextIndex() {
+          return internal.nextIndex();
+        }
+
+        @Override
+        public BuiltinFunction next() {
+          return internal.next();
+        }
+
+        @Override
+        public boolean hasPrevious() {
+          return internal.hasPrevious();
+        }
+
+        @Override
+        public boolean hasNext() {
+          return internal.hasNext();
+        }
+
+        @Override
+        public void add(BuiltinFunction e) {
+          internal.add(e);
+          functionListModCount++;
+        }
+      };
+    }
+
+    /**
+     * @return count of changes to global constants and variables, and
+     *         lists of functions and builtins
+     */
+    public long globalsModCount() {
+      return constants.modCount() + globalVars.modCount() +
+             functionListModCount;
+    }
+
+    /**
+     * Should not be called while other threads are modifying global state.
+     * @return modification epoch of global constants and variables, and
+     *         lists of functions and builtins, moving to a new epoch if
+     *         they changed since the last call
+     */
+    public long globalsEpoch() {
+      long modCount = globalsModCount();
+      if (modCount != globalsEpochModCount) {
+        globalsEpoch = Function.epochCounter.incrementAndGet();
+        globalsEpochModCount = modCount;
+      }
+      return globalsEpoch;
     }
 
     public GlobalConstants constants() {
@@ -304,6 +408,48 @@ public class ICTree {
       return globalVars;
     }
 
+    /**
+     * Measure size of program, for profiling
+     * @return map of counts of functions, blocks, statements, etc
+     */
+    public Map<String, Long> irSizes() {
+      long blocks = 0, instructions = 0, continuations = 0, cleanups = 0;
+      long variables = 0;
+      StackLite<Block> stack = new StackLite<Block>();
+      for (Function f: functions) {
+        variables += f.getInputList().size() + f.getOutputList().size();
+        stack.push(f.mainBlock());
+      }
+      while (!stack.isEmpty()) {
+        Block curr = stack.pop();
+        blocks++;
+        variables += curr.variables().size();
+        cleanups += curr.cleanupActions.size();
+        for (Statement stmt: curr.statements) {
+          if (stmt.type() == StatementType.INSTRUCTION) {
+            instructions++;
+          }
+        }
+        for (Continuation c: curr.allComplexStatements()) {
+          continuations++;
+          for (Block inner: c.getBlocks()) {
+            stack.push(inner);
+          }
+        }
+      }
+
+      Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+      sizes.put("functions", (long)functions.size());
+      sizes.put("blocks", blocks);
+      sizes.put("instructions", instructions);
+      sizes.put("continuations", continuations);
+      sizes.put("cleanups", cleanups);
+      sizes.put("variables", variables);
+      sizes.put("globals", (long)globalVars.variables().size());
+      sizes.put("constants", (long)constants.vars().size());
+      return sizes;
+    }
+
     public static class AllGlobals extends MultiCollection<Var> {
 
       private AllGlobals(Collection<? extends Collection<? extends Var>> iterables) {
@@ -315,6 +461,10 @@ public class ICTree {
       return new AllGlobals(Arrays.asList(constants.vars(), globalVars.variables()));
     }
 
+    public AnalysisManager analyses() {
+      return analyses;
+    }
+
     public ForeignFunctions foreignFunctions() {
       return foreignFunctions;
     }
@@ -398,6 +548,61 @@ public class ICTree {
                     new TreeMap<Var, Arg>(), ArrayListMultimap.<Arg, Var>create());
     private final HashSet<String> usedNames = new HashSet<String>();
 
+    /** Count of changes to constants */
+    private long modCount = 0;
+
+    /**
+     * Constants added since this was forked, in order of addition.
+     * Null if not a fork.
+     */
+    private final List<Var> forkAdded;
+
+    public GlobalConstants() {
+      this.forkAdded = null;
+    }
+
+    private GlobalConstants(GlobalConstants parent) {
+      this.globalConsts.putAll(parent.globalConsts);
+      // Preserve order of variables with same value
+      for (Arg val: parent.globalConsts.inverse().keySet()) {
+        Collection<Var> vars = this.globalConsts.getByValue(val);
+        vars.clear();
+        vars.addAll(parent.globalConsts.getByValue(val));
+      }
+      this.usedNames.addAll(parent.usedNames);
+      this.forkAdded = new ArrayList<Var>();
+    }
+
+    /**
+     * Create a private copy of the constants, e.g. for use by a single
+     * thread.  Constants added to the copy can be merged back in with
+     * {@link #mergeFork(GlobalConstants)}.
+     * @return
+     */
+    public GlobalConstants fork() {
+      return new GlobalConstants(this);
+    }
+
+    /**
+     * Add constants created in a fork of this, in the order they were
+     * created in the fork.  Each constant is looked up or created in the
+     * same way as if the fork's changes had been made directly to this.
+     * @param fork
+     * @return renames required for vars in fork where a different var
+     *         was chosen in this.  Empty if no renaming needed
+     */
+    public Map<Var, Arg> mergeFork(GlobalConstants fork) {
+      assert(fork.forkAdded != null);
+      Map<Var, Arg> renames = new HashMap<Var, Arg>();
+      for (Var forkVar: fork.forkAdded) {
+        Var var = getOrCreateByVal(fork.lookupByVar(forkVar));
+        if (!var.identical(forkVar)) {
+          renames.put(forkVar, var.asArg());
+        }
+      }
+      return renames;
+    }
+
     public void add(Var var, Arg val) {
       assert(var.storage() == Alloc.GLOBAL_CONST);
       assert(var.defType() == DefType.GLOBAL_CONST);
@@ -408,6 +613,10 @@ public class ICTree {
           new STCRuntimeError("Overwriting global constant " + var.name());
 
       usedNames.add(var.name());
+      if (forkAdded != null) {
+        forkAdded.add(var);
+      }
+      modCount++;
     }
 
     /**
@@ -439,7 +648,13 @@ public class ICTree {
     }
 
     public void remove(Var unused) {
-      globalConsts.remove(unused);
+      if (globalConsts.remove(unused) != null) {
+        modCount++;
+      }
+    }
+
+    public long modCount() {
+      return modCount;
     }
 
     public Collection<Var> lookupByValue(Arg val) {
@@ -488,6 +703,9 @@ public class ICTree {
     protected final HashMap<Var, Arg> initReadRefcounts;
     protected final HashMap<Var, Arg> initWriteRefcounts;
 
+    /** Count of changes, not including changes through iterators */
+    private long modCount = 0;
+
 
     public Variables() {
       this (new ArrayList<Var>(), new HashMap<Var, Arg>(),
@@ -516,12 +734,21 @@ public class ICTree {
       return Collections.unmodifiableList(variables);
     }
 
+    /**
+     * @return iterator over variables.  Modifications through the iterator
+     *         are not counted by {@link #modCount()}
+     */
     public ListIterator<Var> variableIterator() {
       return variables.listIterator();
     }
 
+    public long modCount() {
+      return modCount;
+    }
+
     public void addVariable(Var var) {
       variables.add(var);
+      modCount++;
     }
 
     public void addVariable(Var variable, boolean atTop) {
@@ -530,19 +757,33 @@ public class ICTree {
       } else {
         this.variables.add(variable);
       }
+      modCount++;
     }
 
     public void addAllVariables(List<Var> variables2) {
       variables.addAll(variables2);
+      modCount++;
     }
 
     public void removeVariable(Var var) {
       // Remove all
-      while(variables.remove(var));
+      while(variables.remove(var)) {
+        modCount++;
+      }
     }
 
-    public void removeAllVariables(Set<Var> vars) {
-      while(variables.removeAll(vars));
+    /**
+     * @return true if any variables were removed
+     */
+    public boolean removeAllVariables(Set<Var> vars) {
+      boolean removed = false;
+      while(variables.removeAll(vars)) {
+        removed = true;
+      }
+      if (removed) {
+        modCount++;
+      }
+      return removed;
     }
 
     public Arg getInitReadRefcount(Var v) {
@@ -573,6 +814,7 @@ public class ICTree {
         "Tried to reassign refcount for var " + blockVar;
 
       refcountMap.put(blockVar, Arg.newInt(val));
+      modCount++;
     }
 
     /**
@@ -740,6 +982,42 @@ public class ICTree {
 
     private final HashSet<String> usedVarNames;
 
+    /**
+     * Source of modification epochs, shared by all functions and
+     * program-wide state
+     */
+    private static final AtomicLong epochCounter = new AtomicLong();
+
+    /**
+     * Modification epoch: moved forward when the function is found to
+     * have changed since the epoch was assigned.  Epochs are ordered
+     * across all functions.
+     */
+    private long epoch = epochCounter.incrementAndGet();
+
+    /** Value of modCount when epoch was assigned */
+    private long epochModCount = 0;
+
+    /**
+     * Count of changes to the function.  Incremented by mutators in this
+     * class, Block and the continuations, so cached analysis results can
+     * be checked for staleness.  Only one thread modifies a function at
+     * a time.
+     */
+    private volatile long modCount = 0;
+
+    /**
+     * If true, variable passing annotations of continuations are updated
+     * as code is added to the function
+     */
+    private boolean maintainPassing = false;
+
+    /**
+     * Code added to blocks since variable passing was last updated
+     */
+    private final List<Pair<Block, Object>> passingQueue =
+                                      new ArrayList<Pair<Block, Object>>();
+
     public Function(FnID id, List<Var> iList,
         List<Var> oList, ExecTarget mode) {
       this(id, iList, Collections.<WaitVar>emptyList(), oList,
@@ -778,6 +1056,103 @@ public class ICTree {
       return id;
     }
 
+    /**
+     * Epochs only track changes to whole functions: passes are scheduled
+     * per function, so nothing would use the epochs of individual blocks.
+     * Should not be called while another thread is modifying the function.
+     * @return modification epoch, moving the function to a new epoch if
+     *         it changed since the last call
+     */
+    public long epoch() {
+      long currModCount = modCount;
+      if (currModCount != epochModCount) {
+        epoch = epochCounter.incrementAndGet();
+        epochModCount = currModCount;
+      }
+      return epoch;
+    }
+
+    /**
+     * Record that the function was modified in a way that the mutators
+     * cannot detect, e.g. by changing an instruction in place.  Block
+     * and continuation mutators report changes themselves, but methods
+     * of Instruction do not.
+     */
+    public void markModified() {
+      modCount++;
+    }
+
+    public long modCount() {
+      return modCount;
+    }
+
+    /**
+     * Notification from mutators that the function's code changed
+     */
+    void codeChanged() {
+      modCount++;
+    }
+
+    public boolean maintainPassing() {
+      return maintainPassing;
+    }
+
+    /**
+     * Start or stop updating variable passing annotations as code is added
+     * to blocks or renamed.  Should only be enabled once the annotations
+     * are correct.  Updates only add variables: variables that are no
+     * longer used after code is removed stay in the annotations, so
+     * FixupVariables must be rerun to rebuild them after dead code
+     * elimination.
+     * @param maintainPassing
+     */
+    public void setMaintainPassing(boolean maintainPassing) {
+      this.maintainPassing = maintainPassing;
+      passingQueue.clear();
+    }
+
+    /**
+     * Update variable passing annotations for code added since last
+     * update.  Updates are deferred so that the annotations don't change
+     * under a pass that is using them.
+     */
+    public void updatePassing() {
+      if (passingQueue.isEmpty()) {
+        return;
+      }
+      // Contents of blocks, to skip code that was removed again
+      Map<Block, Set<Object>> blockContents =
+                          new IdentityHashMap<Block, Set<Object>>();
+      for (Pair<Block, Object> added: passingQueue) {
+        Block block = added.val1;
+        Object code = added.val2;
+        Set<Object> contents = blockContents.get(block);
+        if (contents == null) {
+          contents = block.contents();
+          blockContents.put(block, contents);
+        }
+        if (!contents.contains(code)) {
+          continue;
+        }
+
+        if (code instanceof Statement) {
+          block.passVarsIn((Statement)code);
+        } else if (code instanceof Continuation) {
+          block.passVarsIn((Continuation)code);
+        } else {
+          block.passVarsIn((CleanupAction)code);
+        }
+      }
+      passingQueue.clear();
+    }
+
+    /**
+     * @return the most recent epoch of any function
+     */
+    public static long currentEpoch() {
+      return epochCounter.get();
+    }
+
 
     public List<Var> getInputList() {
       return Collections.unmodifiableList(this.iList);
@@ -812,6 +1187,7 @@ public class ICTree {
       Var output = oList.get(i);
       if (!oListWriteOnly.contains(output)) {
         oListWriteOnly.add(output);
+        codeChanged();
       }
     }
 
@@ -837,6 +1213,7 @@ public class ICTree {
       Block old = this.mainBlock;
       this.mainBlock = newBlock;
       this.mainBlock.setParent(this, false);
+      codeChanged();
       return old;
     }
 
@@ -895,11 +1272,13 @@ public class ICTree {
           // already there
           if (newWaitVar.explicit && !i.explicit) {
             it.set(newWaitVar);
+            codeChanged();
           }
           return;
         }
       }
       blockingInputs.add(newWaitVar);
+      codeChanged();
     }
 
     public ExecTarget mode() {
@@ -981,6 +1360,7 @@ public class ICTree {
         }
 
         WaitVar.replaceVars(blockingInputs, renames);
+        codeChanged();
       }
 
       if (recursive) {
@@ -1068,7 +1448,7 @@ public class ICTree {
     }
 
     private Block(BlockType type, Continuation parentCont, Function parentFunction) {
-      this(type, parentCont, parentFunction, true, new LinkedList<Statement>(),
+      this(type, parentCont, parentFunction, true, new GapList<Statement>(),
           new Variables(), new ArrayList<Continuation>(), new ArrayList<CleanupAction>());
     }
 
@@ -1081,7 +1461,7 @@ public class ICTree {
     private Block(BlockType type,
         Continuation parentCont, Function parentFunction,
         boolean emptyBlock,
-        LinkedList<Statement> instructions,
+        GapList<Statement> instructions,
         Variables variables,
         ArrayList<Continuation> conds,
         ArrayList<CleanupAction> cleanupActions) {
@@ -1194,7 +1574,7 @@ public class ICTree {
       return type;
     }
 
-    private final LinkedList<Statement> statements;
+    private final GapList<Statement> statements;
 
     private final ArrayList<CleanupAction> cleanupActions;
 
@@ -1203,9 +1583,171 @@ public class ICTree {
     /** conditional statements for block */
     private final ArrayList<Continuation> continuations;
 
+    /**
+     * Notify parent function that code in this block changed
+     */
+    void codeChanged() {
+      if (parentFunction != null) {
+        parentFunction.codeChanged();
+      }
+    }
+
+    /**
+     * @return true if variable passing annotations should be updated
+     *         for code added to this block
+     */
+    private boolean maintainPassing() {
+      return parentFunction != null && parentFunction.maintainPassing();
+    }
+
+    /**
+     * Notification from a continuation in this block that the variables
+     * it requires may have changed
+     */
+    void continuationChanged(Continuation c) {
+      codeChanged();
+      if (maintainPassing()) {
+        queuePassing(c);
+      }
+    }
+
+    /**
+     * @return identity set of statements, continuations and cleanups
+     */
+    private Set<Object> contents() {
+      Set<Object> contents = Collections.newSetFromMap(
+                                  new IdentityHashMap<Object, Boolean>());
+      contents.addAll(statements);
+      contents.addAll(continuations);
+      contents.addAll(cleanupActions);
+      return contents;
+    }
+
+    /**
+     * Queue variable passing update for code added to this block
+     * @param code a statement, continuation or cleanup action
+     */
+    private void queuePassing(Object code) {
+      parentFunction.passingQueue.add(Pair.create(this, code));
+    }
+
+    /**
+     * Queue variable passing update for all code in this block
+     */
+    private void queuePassingAll() {
+      for (Statement stmt: statements) {
+        queuePassing(stmt);
+      }
+      for (Continuation c: continuations) {
+        queuePassing(c);
+      }
+      for (CleanupAction cleanup: cleanupActions) {
+        queuePassing(cleanup);
+      }
+    }
+
+    /**
+     * Update variable passing for a statement added to this block
+     */
+    private void passVarsIn(Statement stmt) {
+      if (stmt.type() == StatementType.INSTRUCTION) {
+        passVarsIn(stmt.instruction());
+      } else {
+        assert(stmt.type() == StatementType.CONDITIONAL);
+        passVarsIn((Continuation)stmt.conditional());
+      }
+    }
+
+    private void passVarsIn(Instruction inst) {
+      for (Arg in: inst.getInputs()) {
+        if (in.isVar()) {
+          passVarIn(in.getVar(), true, false);
+        }
+      }
+      for (Var read: inst.getReadOutputs()) {
+        passVarIn(read, true, false);
+      }
+      for (Var written: inst.getOutputs()) {
+        passVarIn(written, false, true);
+      }
+    }
+
+    private void passVarsIn(CleanupAction cleanup) {
+      for (Arg in: cleanup.action().getInputs()) {
+        if (in.isVar()) {
+          passVarIn(in.getVar(), true, false);
+        }
+      }
+    }
+
+    /**
+     * Update variable passing for a continuation added to this block.
+     * Annotations of any asynchronous continuations inside it must
+     * already be correct.
+     */
+    private void passVarsIn(Continuation c) {
+      for (Var v: c.requiredVars(false)) {
+        passVarIn(v, true, false);
+      }
+      if (c.variablePassing().isAutomatic()) {
+        for (Block inner: c.getBlocks()) {
+          for (Statement stmt: inner.getStatements()) {
+            inner.passVarsIn(stmt);
+          }
+          for (Continuation innerC: inner.getContinuations()) {
+            inner.passVarsIn(innerC);
+          }
+          for (CleanupAction cleanup: inner.getCleanups()) {
+            inner.passVarsIn(cleanup);
+          }
+        }
+      } else {
+        for (PassedVar passed: c.getPassedVars()) {
+          passVarIn(passed.var, !passed.writeOnly, passed.writeOnly);
+        }
+        for (Var keepOpen: c.getKeepOpenVars()) {
+          passVarIn(keepOpen, false, true);
+        }
+      }
+    }
+
+    /**
+     * Pass a variable used in this block into enclosing continuations,
+     * up to the scope where it is declared.  Globals are imported into
+     * the block instead, unless written, in which case they are passed
+     * from the function's main block.
+     * @param var
+     * @param read
+     * @param written
+     */
+    private void passVarIn(Var var, boolean read, boolean written) {
+      Block curr = this;
+      while (!curr.variables.contains(var)) {
+        if (var.storage().isGlobal() &&
+            (!written || curr.getType() == BlockType.MAIN_BLOCK)) {
+          curr.addVariable(var, true);
+          return;
+        }
+        Continuation cont = curr.getParentCont();
+        if (cont == null ||
+            cont.constructDefinedVars(ContVarDefType.NEW_DEF).contains(var)) {
+          // Function argument or defined by continuation
+          return;
+        }
+        if (!cont.variablePassing().isAutomatic()) {
+          cont.passVarIn(var, read, written);
+        }
+        curr = cont.parent();
+      }
+    }
+
     public void addStatement(Statement st) {
       st.setParent(this);
       statements.add(st);
+      codeChanged();
+      if (maintainPassing()) {
+        queuePassing(st);
+      }
     }
 
     public void addInstruction(Instruction e) {
@@ -1213,7 +1755,11 @@ public class ICTree {
     }
 
     public void addInstructionFront(Instruction e) {
-      statements.addFirst(e);
+      statements.add(0, e);
+      codeChanged();
+      if (maintainPassing()) {
+        queuePassing(e);
+      }
     }
 
     public void addInstructions(List<Instruction> instructions) {
@@ -1225,11 +1771,21 @@ public class ICTree {
         stmt.setParent(this);
       }
       this.statements.addAll(stmts);
+      codeChanged();
+      if (maintainPassing()) {
+        for (Statement stmt: stmts) {
+          queuePassing(stmt);
+        }
+      }
     }
 
     public void addContinuation(Continuation c) {
       c.setParent(this);
       this.continuations.add(c);
+      codeChanged();
+      if (maintainPassing()) {
+        queuePassing(c);
+      }
     }
 
     public List<Continuation> getContinuations() {
@@ -1242,6 +1798,7 @@ public class ICTree {
 
     public void removeContinuation(int i) {
       continuations.remove(i);
+      codeChanged();
     }
 
     public List<Var> variables() {
@@ -1364,11 +1921,16 @@ public class ICTree {
       public void set(Continuation e) {
         e.setParent(Block.this);
         it.set(e);
+        codeChanged();
+        if (maintainPassing()) {
+          queuePassing(e);
+        }
       }
 
       @Override
       public void remove() {
         it.remove();
+        codeChanged();
       }
 
       @Override
@@ -1405,6 +1967,140 @@ public class ICTree {
       public void add(Continuation e) {
         it.add(e);
         e.setParent(Block.this);
+        codeChanged();
+        if (maintainPassing()) {
+          queuePassing(e);
+        }
+      }
+    }
+
+    /**
+     * Wrapper around statement ListIterator to notify parent function
+     * of changes.
+     */
+    private final class StmtIt implements ListIterator<Statement> {
+      private StmtIt(ListIterator<Statement> it) {
+        this.it = it;
+      }
+
+      final ListIterator<Statement> it;
+      @Override
+      public void set(Statement e) {
+        it.set(e);
+        codeChanged();
+        if (maintainPassing()) {
+          queuePassing(e);
+        }
+      }
+
+      @Override
+      public void remove() {
+        it.remove();
+        codeChanged();
+      }
+
+      @Override
+      public int previousIndex() {
+        return it.previousIndex();
+      }
+
+      @Override
+      public Statement previous() {
+        return it.previous();
+      }
+
+      @Override
+      public int nextIndex() {
+        return it.nextIndex();
+      }
+
+      @Override
+      public Statement next() {
+        return it.next();
+      }
+
+      @Override
+      public boolean hasPrevious() {
+        return it.hasPrevious();
+      }
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public void add(Statement e) {
+        it.add(e);
+        codeChanged();
+        if (maintainPassing()) {
+          queuePassing(e);
+        }
+      }
+    }
+
+    /**
+     * Wrapper around cleanup ListIterator to keep variable passing
+     * up to date.
+     */
+    private final class CleanupIt implements ListIterator<CleanupAction> {
+      private CleanupIt(ListIterator<CleanupAction> it) {
+        this.it = it;
+      }
+
+      final ListIterator<CleanupAction> it;
+      @Override
+      public void set(CleanupAction e) {
+        it.set(e);
+        codeChanged();
+        if (maintainPassing()) {
+          queuePassing(e);
+        }
+      }
+
+      @Override
+      public void remove() {
+        it.remove();
+        codeChanged();
+      }
+
+      @Override
+      public int previousIndex() {
+        return it.previousIndex();
+      }
+
+      @Override
+      public CleanupAction previous() {
+        return it.previous();
+      }
+
+      @Override
+      public int nextIndex() {
+        return it.nextIndex();
+      }
+
+      @Override
+      public CleanupAction next() {
+        return it.next();
+      }
+
+      @Override
+      public boolean hasPrevious() {
+        return it.hasPrevious();
+      }
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public void add(CleanupAction e) {
+        it.add(e);
+        codeChanged();
+        if (maintainPassing()) {
+          queuePassing(e);
+        }
       }
     }
 
@@ -1484,28 +2180,95 @@ public class ICTree {
       return new AllContIt();
     }
 
+    /**
+     * @return an iterator over variables declared in block.  Modifications
+     * through iterator are reported to the parent function
+     */
     public ListIterator<Var> variableIterator() {
-      return variables.variableIterator();
+      return new VarIt(variables.variableIterator());
+    }
+
+    /**
+     * Wrapper around variable ListIterator to notify parent function
+     * of changes.
+     */
+    private final class VarIt implements ListIterator<Var> {
+      private VarIt(ListIterator<Var> it) {
+        this.it = it;
+      }
+
+      final ListIterator<Var> it;
+      @Override
+      public void set(Var e) {
+        it.set(e);
+        codeChanged();
+      }
+
+      @Override
+      public void remove() {
+        it.remove();
+        codeChanged();
+      }
+
+      @Override
+      public int previousIndex() {
+        return it.previousIndex();
+      }
+
+      @Override
+      public Var previous() {
+        return it.previous();
+      }
+
+      @Override
+      public int nextIndex() {
+        return it.nextIndex();
+      }
+
+      @Override
+      public Var next() {
+        return it.next();
+      }
+
+      @Override
+      public boolean hasPrevious() {
+        return it.hasPrevious();
+      }
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public void add(Var e) {
+        it.add(e);
+        codeChanged();
+      }
     }
 
     public List<Statement> getStatements() {
       return Collections.unmodifiableList(statements);
     }
 
+    /**
+     * @return an iterator over statements.  Modifications through iterator
+     * are reported to the parent function
+     */
     public ListIterator<Statement> statementIterator() {
-      return statements.listIterator();
+      return new StmtIt(statements.listIterator());
     }
 
     public ListIterator<Statement> statementIterator(int i) {
-      return statements.listIterator(i);
+      return new StmtIt(statements.listIterator(i));
     }
 
     public ListIterator<Statement> statementEndIterator() {
-      return statements.listIterator(statements.size());
+      return new StmtIt(statements.listIterator(statements.size()));
     }
 
     public ListIterator<CleanupAction> cleanupIterator() {
-      return cleanupActions.listIterator();
+      return new CleanupIt(cleanupActions.listIterator());
     }
 
     public List<CleanupAction> getCleanups() {
@@ -1513,7 +2276,12 @@ public class ICTree {
     }
 
     public void addCleanup(Var var, Instruction action) {
-      this.cleanupActions.add(new CleanupAction(var, action));
+      CleanupAction cleanup = new CleanupAction(var, action);
+      this.cleanupActions.add(cleanup);
+      codeChanged();
+      if (maintainPassing()) {
+        queuePassing(cleanup);
+      }
     }
 
     // Remove cleanup actions for variable
@@ -1527,6 +2295,7 @@ public class ICTree {
         CleanupAction ca = it.next();
         if (ca.var().equals(var)) {
           it.remove();
+          codeChanged();
           if (target != null) {
             target.addCleanup(ca.var, ca.action);
           }
@@ -1548,6 +2317,39 @@ public class ICTree {
         return;
       renameInDefs(renames, mode);
       renameInCode(id, renames, mode, recursive);
+      codeChanged();
+      if (maintainPassing()) {
+        // Code may now use new variables.  Nested blocks are queued by
+        // recursive calls.
+        queuePassingAll();
+      }
+    }
+
+    /**
+     * Rename variables in an instruction in this block in place.  Changes
+     * to instructions are not otherwise visible to the block, so this
+     * should be used instead of renaming the instruction directly.
+     * @param function
+     * @param inst instruction in this block
+     * @param renames
+     * @param mode
+     */
+    public void renameVars(FnID function, Instruction inst,
+                           Map<Var, Arg> renames, RenameMode mode) {
+      if (renames.isEmpty()) {
+        return;
+      }
+      // Instructions don't report whether they changed, so compare
+      String before = inst.toString();
+      inst.renameVars(function, renames, mode);
+      if (inst.toString().equals(before)) {
+        return;
+      }
+      codeChanged();
+      if (maintainPassing()) {
+        // May now use variables that are not yet passed in
+        queuePassing(inst);
+      }
     }
 
     private void renameInDefs(Map<Var, Arg> renames, RenameMode mode) {
@@ -1593,7 +2395,11 @@ public class ICTree {
                                      RenameMode mode) {
       for (CleanupAction a: cleanupActions) {
         a.renameVars(id, renames, mode);
+        if (maintainPassing()) {
+          queuePassing(a);
+        }
       }
+      codeChanged();
     }
 
     /**
@@ -1615,7 +2421,9 @@ public class ICTree {
         Statement stmt = it.next();
         if (stmt.type() == StatementType.INSTRUCTION) {
           Instruction inst = stmt.instruction();
-          inst.removeVars(removeVars);
+          if (inst.removeVars(removeVars)) {
+            codeChanged();
+          }
           // See if we can remove instruction
           int removeable = 0;
           int notRemoveable = 0;
@@ -1652,6 +2460,7 @@ public class ICTree {
       if (this.parentFunction != null) {
         this.parentFunction.addUsedVarNames(variables);
       }
+      codeChanged();
     }
 
     public void addVariable(Var variable) {
@@ -1663,6 +2472,7 @@ public class ICTree {
       if (this.parentFunction != null) {
         parentFunction.addUsedVarName(variable);
       }
+      codeChanged();
     }
 
     public Var declareUnmapped(Type t, String name, Alloc storage,
@@ -1691,11 +2501,13 @@ public class ICTree {
 
     public void removeContinuation(Continuation c) {
       this.continuations.remove(c);
+      codeChanged();
     }
 
     public void removeContinuations(
                     Collection<? extends Continuation> c) {
       this.continuations.removeAll(c);
+      codeChanged();
     }
 
     /**
@@ -1748,6 +2560,12 @@ public class ICTree {
         }
       }
       this.cleanupActions.addAll(b.cleanupActions);
+      codeChanged();
+      if (maintainPassing()) {
+        for (CleanupAction cleanup: b.cleanupActions) {
+          queuePassing(cleanup);
+        }
+      }
     }
 
     public void insertInline(Block b) {
@@ -1755,12 +2573,15 @@ public class ICTree {
     }
 
     public void removeVarDeclarations(Set<Var> vars) {
-      variables.removeAllVariables(vars);
+      if (variables.removeAllVariables(vars)) {
+        codeChanged();
+      }
       ListIterator<CleanupAction> it = cleanupActions.listIterator();
       while (it.hasNext()) {
         CleanupAction a = it.next();
         if (vars.contains(a.var)) {
           it.remove();
+          codeChanged();
         }
       }
     }
@@ -1799,6 +2620,12 @@ public class ICTree {
     public void replaceStatements(List<Statement> newStatements) {
       this.statements.clear();
       this.statements.addAll(newStatements);
+      codeChanged();
+      if (maintainPassing()) {
+        for (Statement stmt: newStatements) {
+          queuePassing(stmt);
+        }
+      }
     }
 
     @Override
@@ -1882,11 +2709,13 @@ public class ICTree {
     public void modifyInitRefcount(Var blockVar, RefCountType rcType,
                                    long incr) {
       variables.modifyInitRefcount(blockVar, rcType, incr);
+      codeChanged();
     }
 
     public void setInitRefcount(Var blockVar, RefCountType rcType,
                                    long val) {
       variables.setInitRefcount(blockVar, rcType, val);
+      codeChanged();
     }
 
   }
@@ -20,6 +20,7 @@
  */
 package exm.stc.tclbackend;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -41,6 +42,8 @@ import com.google.common.collect.ListMultimap;
 
 import exm.stc.common.CompilerBackend;
 import exm.stc.common.Logging;
+import exm.stc.common.Profiler;
+import exm.stc.common.Profiler.Sample;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.STCFatal;
 import exm.stc.common.exceptions.STCRuntimeError;
@@ -110,6 +113,7 @@ import exm.stc.tclbackend.tree.TclList;
 import exm.stc.tclbackend.tree.TclString;
 import exm.stc.tclbackend.tree.TclTarget;
 import exm.stc.tclbackend.tree.TclTree;
+import exm.stc.tclbackend.tree.TclWriter;
 import exm.stc.tclbackend.tree.Text;
 import exm.stc.tclbackend.tree.Token;
 import exm.stc.tclbackend.tree.Value;
@@ -132,6 +136,9 @@ public class TurbineGenerator implements CompilerBackend {
    */
   private final List<String> autoPaths = new ArrayList<String>();
 
+  /** Size in chars of buffer for generated code */
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
   private static final String TCLTMP_SPLITLEN = "tcltmp:splitlen";
   private static final String TCLTMP_SPLITEND = "tcltmp:splitend";
   private static final String TCLTMP_CONTAINER_SIZE = "tcltmp:container_sz";
@@ -158,6 +165,7 @@ public class TurbineGenerator implements CompilerBackend {
 
   private final String timestamp;
   private final Logger logger;
+  private final Profiler profiler;
 
   /**
      Our output Tcl
@@ -290,10 +298,11 @@ public class TurbineGenerator implements CompilerBackend {
 
   private final List<VarDecl> globalVars = new ArrayList<VarDecl>();
 
-  public TurbineGenerator(Logger logger, String timestamp)
+  public TurbineGenerator(Logger logger, String timestamp, Profiler profiler)
   {
     this.logger = logger;
     this.timestamp = timestamp;
+    this.profiler = profiler;
     pointPush(tree);
 
     execContextStack.push(ExecContext.control());
@@ -305,8 +314,10 @@ public class TurbineGenerator implements CompilerBackend {
     this.foreignFuncs = foreignFuncs;
 
     //String[] rpaths = Settings.getRpaths();
-    File input_file   = new File(Settings.get(Settings.INPUT_FILENAME));
-    File output_file  = new File(Settings.get(Settings.OUTPUT_FILENAME));
+    File input_file   = new File(Settings.resolvePath(
+                                   Settings.get(Settings.INPUT_FILENAME)));
+    File output_file  = new File(Settings.resolvePath(
+                                   Settings.get(Settings.OUTPUT_FILENAME)));
     tree.add(new Text(""));
     tree.add(new Comment("Generated by stc version " + Settings.get(Settings.STC_VERSION)));
     tree.add(new Comment("date                    : " + timestamp));
@@ -450,25 +461,32 @@ public class TurbineGenerator implements CompilerBackend {
    */
   @Override
   public void generate(OutputStream output) throws IOException {
-    StringBuilder sb = new StringBuilder(10*1024);
+    Sample start = profiler.sample();
+    // Stream code straight to output rather than building a string
+    TclWriter out = new TclWriter(new BufferedWriter(
+                  new OutputStreamWriter(output), OUTPUT_BUFFER_SIZE));
     try
     {
-      tree.appendTo(sb);
+      tree.appendTo(out);
     }
     catch (Exception e)
     {
       System.out.println("CODE GENERATOR INTERNAL ERROR");
       System.out.println(e.getMessage());
       e.printStackTrace();
-      System.out.println("code generated before error:");
-      System.out.println(sb);
       System.out.println("exiting");
       throw new STCFatal(ExitCode.ERROR_INTERNAL.code());
     }
-    OutputStreamWriter w = new OutputStreamWriter(output);
-    w.write(sb.toString());
     // Check everything is flushed to underlying stream
-    w.flush();
+    out.flush();
+
+    if (profiler.enabled()) {
+      Sample end = profiler.sample();
+      Map<String, Long> sizes = new HashMap<String, Long>();
+      sizes.put("chars", out.length());
+      profiler.record(Profiler.STAGE_BACKEND, "generate", null, start, end,
+                      null, sizes);
+    }
   }
 
 
@@ -200,12 +200,12 @@ public class TurbineTypes {
       baseType = ai.baseType;
     } else if (Types.isStruct(type)) {
       depth = 0;
-      baseType = new RefType(type, false);
+      baseType = RefType.create(type, false);
     } else if (Types.isFuture((type)) || Types.isStruct(type)) {
       depth = 0;
       // Indicate that it's a future not a value
       // TODO: does mutability matter?
-      baseType = new RefType(type, false);
+      baseType = RefType.create(type, false);
     } else if (Types.isPrimValue(type) || Types.isStructLocal(type)) {
       depth = 0;
       baseType = type;
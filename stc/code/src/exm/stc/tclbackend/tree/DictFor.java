@@ -38,19 +38,19 @@ public class DictFor extends Sequence
   }
 
   @Override
-  public void appendTo(StringBuilder sb)
+  public void appendTo(TclWriter out)
   {
-    indent(sb);
-    sb.append("dict for {");
-    loopKeyVar.appendTo(sb);
-    sb.append(" ");
-    loopValVar.appendTo(sb);
-    sb.append("} ");
-    list.appendTo(sb);
-    sb.append(" ");
+    indent(out);
+    out.append("dict for {");
+    loopKeyVar.appendTo(out);
+    out.append(" ");
+    loopValVar.appendTo(out);
+    out.append("} ");
+    list.appendTo(out);
+    out.append(" ");
     loopBody.setIndentation(this.indentation);
-    loopBody.appendToAsBlock(sb);
-    sb.append("\n");
+    loopBody.appendToAsBlock(out);
+    out.append("\n");
   }
   
 
@@ -19,8 +19,8 @@ package exm.stc.tclbackend.tree;
 public abstract class Expression extends TclTree
 {
   @Override
-  public final void appendTo(StringBuilder sb) {
-    appendTo(sb, ExprContext.TCL_CODE);
+  public final void appendTo(TclWriter out) {
+    appendTo(out, ExprContext.TCL_CODE);
   }
   
   public static enum ExprContext {
@@ -31,10 +31,10 @@ public abstract class Expression extends TclTree
   
   /**
    * 
-   * @param sb
+   * @param out
    * @param mode how to escape expression  
    */
-  public abstract void appendTo(StringBuilder sb, ExprContext mode);
+  public abstract void appendTo(TclWriter out, ExprContext mode);
 
   /**
    * @return true if we can include in a string that is valid tcl list
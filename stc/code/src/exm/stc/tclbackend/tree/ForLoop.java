@@ -55,22 +55,22 @@ public class ForLoop extends TclTree {
   }
   
   @Override
-  public void appendTo(StringBuilder sb)
+  public void appendTo(TclWriter out)
   { 
     Value loopVarVal = new Value(loopVar);
-    indent(sb);
+    indent(out);
     
     // E.g. for { set i 0 } { $i <= $n } { incr i $k } 
-    sb.append("for ");
+    out.append("for ");
     // initializer
-    sb.append("{ set " + loopVar + " " + start.toString() + " } ");
+    out.append("{ set " + loopVar + " " + start.toString() + " } ");
     // condition
-    sb.append("{ " + loopVarVal.toString() + " <= " + end.toString() + " } "); 
+    out.append("{ " + loopVarVal.toString() + " <= " + end.toString() + " } "); 
     // next
-    sb.append("{ incr " + loopVar + " " + incr.toString() + " } "); 
+    out.append("{ incr " + loopVar + " " + incr.toString() + " } "); 
     
     loopBody.setIndentation(this.indentation);
-    loopBody.appendToAsBlock(sb);
-    sb.append("\n");
+    loopBody.appendToAsBlock(out);
+    out.append("\n");
   }
 }
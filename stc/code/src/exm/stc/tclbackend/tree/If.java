@@ -59,23 +59,23 @@ public class If extends TclTree
   }
 
   @Override
-  public void appendTo(StringBuilder sb)
+  public void appendTo(TclWriter out)
   {
 
-    indent(sb);
-    sb.append("if { ");
-    condition.appendTo(sb);
-    sb.append(" } ");
+    indent(out);
+    out.append("if { ");
+    condition.appendTo(out);
+    out.append(" } ");
     // then block
     thenBlock.setIndentation(indentation);
-    thenBlock.appendToAsBlock(sb);
+    thenBlock.appendToAsBlock(out);
     if (elseBlock != null) {
-      sb.append(" else ");
+      out.append(" else ");
       // else block
       elseBlock.setIndentation(indentation);
-      elseBlock.appendToAsBlock(sb);
+      elseBlock.appendToAsBlock(out);
     }
-    sb.append("\n");
+    out.append("\n");
   }
   
 
@@ -27,7 +27,7 @@ public class LiteralFloat extends Expression {
   }
 
   @Override
-  public void appendTo(StringBuilder sb, ExprContext mode) {
+  public void appendTo(TclWriter out, ExprContext mode) {
     String tclLiteral; 
     if (Double.isInfinite(value)) {
       if (value > 0.0) {
@@ -40,7 +40,7 @@ public class LiteralFloat extends Expression {
     } else {
       tclLiteral = Double.toString(value);
     }
-    sb.append(tclLiteral);
+    out.append(tclLiteral);
   }
   
 
@@ -31,8 +31,8 @@ public class LiteralInt extends Expression {
   }
 
   @Override
-  public void appendTo(StringBuilder sb, ExprContext mode) {
-    sb.append(Long.toString(value));
+  public void appendTo(TclWriter out, ExprContext mode) {
+    out.append(Long.toString(value));
   }
 
   public static Expression boolValue(boolean val) {
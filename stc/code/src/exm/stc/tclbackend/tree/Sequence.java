@@ -67,10 +67,10 @@ public class Sequence extends TclTree {
   }
 
   @Override
-  public void appendTo(StringBuilder sb) {
+  public void appendTo(TclWriter out) {
     for (TclTree member: members) {
       member.setIndentation(indentation);
-      member.appendTo(sb);
+      member.appendTo(out);
     }
   }
 }
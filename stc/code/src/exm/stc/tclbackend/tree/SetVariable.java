@@ -28,13 +28,13 @@ public class SetVariable extends TclTree
   }
 
   @Override
-  public void appendTo(StringBuilder sb)
+  public void appendTo(TclWriter out)
   {
-    indent(sb);
-    sb.append("set ");
-    sb.append(variable);
-    sb.append(' ');
-    expression.appendTo(sb);
-    sb.append('\n');
+    indent(out);
+    out.append("set ");
+    out.append(variable);
+    out.append(' ');
+    expression.appendTo(out);
+    out.append('\n');
   }
 }
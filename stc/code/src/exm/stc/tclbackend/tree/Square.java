@@ -81,26 +81,26 @@ public class Square extends Expression
   }
 
   @Override
-  public void appendTo(StringBuilder sb, ExprContext mode)
+  public void appendTo(TclWriter out, ExprContext mode)
   {
     boolean brace = treatAsList && mode == ExprContext.LIST_STRING;
 
     if (brace)
-        sb.append("{");
+        out.append("{");
 
-    sb.append("[ ");
+    out.append("[ ");
     Iterator<Expression> it = items.iterator();
     while (it.hasNext())
     {
       Expression tree = it.next();
-      tree.appendTo(sb, mode);
+      tree.appendTo(out, mode);
       if (it.hasNext())
-        sb.append(' ');
+        out.append(' ');
     }
-    sb.append(" ]");
+    out.append(" ]");
 
     if (brace)
-      sb.append("}");
+      out.append("}");
   }
 
   public static Square fnCall(String fnName, Expression... args) {
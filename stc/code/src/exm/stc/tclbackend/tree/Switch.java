@@ -45,35 +45,35 @@ public class Switch extends TclTree {
    * and a default case if needed
    */
   @Override
-  public void appendTo(StringBuilder sb) {
+  public void appendTo(TclWriter out) {
     
-    indent(sb);
+    indent(out);
     // Open switch block
-    sb.append("switch ");
-    condition.appendTo(sb);
-    sb.append(" {\n");
+    out.append("switch ");
+    condition.appendTo(out);
+    out.append(" {\n");
     increaseIndent();
     
     for (int i=0; i < cases.size(); i++) {
       Sequence caseBody = cases.get(i);
-      indent(sb);
+      indent(out);
       if (hasDefault && i == (cases.size() - 1)) {
-        sb.append("default ");
+        out.append("default ");
       } else {
         Integer caseLabel = caseLabels.get(i);
-        sb.append(Integer.toString(caseLabel));
-        sb.append(" ");
+        out.append(Integer.toString(caseLabel));
+        out.append(" ");
       }
       caseBody.setIndentation(indentation);
-      caseBody.appendToAsBlock(sb);
-      sb.append("\n");
+      caseBody.appendToAsBlock(out);
+      out.append("\n");
     }
     
     // Close off switch block
-    sb.append("\n");
+    out.append("\n");
     decreaseIndent();
-    indent(sb);
-    sb.append("}\n");
+    indent(out);
+    out.append("}\n");
   }
 
 }
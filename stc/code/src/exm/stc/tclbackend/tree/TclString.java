@@ -54,17 +54,18 @@ public class TclString extends Expression
     this("", false);
     assert(mode == ExprContext.LIST_STRING ||
            mode == ExprContext.VALUE_STRING);
+    TclWriter out = new TclWriter(sb);
     boolean first = true;
     for (Expression e: exprs) {
       if (first) {
         first = false;
       } else if (mode == ExprContext.LIST_STRING) {
-        sb.append(' ');
+        out.append(' ');
       }
       if (mode == ExprContext.LIST_STRING) {
         assert(e.supportsStringList()) : e;
       }
-      e.appendTo(sb, mode);
+      e.appendTo(out, mode);
     }
   }
 
@@ -74,7 +75,7 @@ public class TclString extends Expression
   }
 
   @Override
-  public void appendTo(StringBuilder outSb, ExprContext mode)
+  public void appendTo(TclWriter out, ExprContext mode)
   {
     CharSequence str;
     if (this.escape) {
@@ -84,15 +85,15 @@ public class TclString extends Expression
     }
 
     if (mode == ExprContext.TCL_CODE) {
-      outSb.append('\"');
-      outSb.append(str);
-      outSb.append('\"');
+      out.append('\"');
+      out.append(str);
+      out.append('\"');
     } else if (mode == ExprContext.LIST_STRING) {
       throw new STCRuntimeError("Don't support string escaping for inclusion " +
       		                      "within string");
     } else {
       assert(mode == ExprContext.VALUE_STRING);
-      outSb.append(str);
+      out.append(str);
     }
   }
 
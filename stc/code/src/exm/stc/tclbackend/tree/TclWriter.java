@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package exm.stc.tclbackend.tree;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Destination for generated Tcl code.  Code is either accumulated in a
+ * StringBuilder, or written straight through to a Writer so that the
+ * code for a whole program doesn't need to be held in memory.
+ *
+ * Like PrintWriter, methods don't throw IOException: the first error is
+ * saved and reported by flush().
+ */
+public class TclWriter {
+  private final StringBuilder buffer;
+  private final Writer writer;
+
+  /** Number of characters appended */
+  private long length = 0;
+
+  /** First error writing to writer */
+  private IOException error = null;
+
+  public TclWriter(StringBuilder buffer) {
+    this.buffer = buffer;
+    this.writer = null;
+  }
+
+  public TclWriter(Writer writer) {
+    this.buffer = null;
+    this.writer = writer;
+  }
+
+  public TclWriter append(char c) {
+    length++;
+    if (buffer != null) {
+      buffer.append(c);
+    } else if (error == null) {
+      try {
+        writer.write(c);
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+    return this;
+  }
+
+  public TclWriter append(CharSequence s) {
+    length += s.length();
+    if (buffer != null) {
+      buffer.append(s);
+    } else if (error == null) {
+      try {
+        writer.append(s);
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+    return this;
+  }
+
+  public TclWriter appendSpaces(int n) {
+    for (int i = 0; i < n; i++) {
+      append(' ');
+    }
+    return this;
+  }
+
+  /**
+   * @return number of characters appended so far
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * Flush to underlying writer, if any
+   * @throws IOException if any error occurred while writing
+   */
+  public void flush() throws IOException {
+    if (error != null) {
+      throw error;
+    }
+    if (writer != null) {
+      writer.flush();
+    }
+  }
+
+  /**
+   * @return code accumulated in buffer
+   */
+  @Override
+  public String toString() {
+    if (buffer != null) {
+      return buffer.toString();
+    }
+    return super.toString();
+  }
+}
@@ -29,10 +29,10 @@ public class Text extends TclTree
   }
 
   @Override
-  public void appendTo(StringBuilder sb)
+  public void appendTo(TclWriter out)
   {
-    indent(sb);
-    sb.append(text);
-    sb.append('\n');
+    indent(out);
+    out.append(text);
+    out.append('\n');
   }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import exm.stc.common.Settings;
+import exm.stc.common.util.CacheDir;
+import exm.stc.common.util.Misc;
+import exm.stc.common.util.Pair;
+import exm.stc.frontend.LoadedModules;
+import exm.stc.frontend.LoadedModules.LocatedModule;
+
+/**
+ * On-disk cache of compiled output, used to implement stc -u.
+ *
+ * An entry is found with a key computed from the (preprocessed) main
+ * source file, the compiler settings, module search path, metadata such as
+ * macros and compile-time arguments, and the compiler version and jar.
+ * Each entry records the imported modules that the compile loaded.  An
+ * entry is only used if each of those modules still resolves to the
+ * same file in the search path, with the same contents.
+ *
+ * Entries are stored as two files in the cache directory: KEY.tic with the
+ * output and KEY.deps listing the modules.  The .deps file is written
+ * last, so an entry is only visible once complete.
+ *
+ * Every compile with -u adds an entry.  Once the cache directory exceeds
+ * stc.cache.max-size, least recently used files are evicted.
+ */
+public class CompileCache {
+
+  private static final HashFunction HASH = Hashing.sha256();
+  private static final Charset CHARSET = Charsets.UTF_8;
+
+  /** Settings that don't affect the compiled output */
+  private static final List<String> IGNORED_SETTINGS = Arrays.asList(
+      Settings.LOG_FILE, Settings.LOG_TRACE, Settings.PROFILE_STC,
+      Settings.IC_OUTPUT_FILE, Settings.COMPILE_CACHE_DIR,
+      Settings.CACHE_MAX_SIZE, Settings.PARSE_CACHE);
+
+  private static final String OUTPUT_SUFFIX = ".tic";
+  private static final String DEPS_SUFFIX = ".deps";
+
+  private final Logger logger;
+  private final File dir;
+
+  public CompileCache(Logger logger, File dir) {
+    this.logger = logger;
+    this.dir = dir;
+  }
+
+  /**
+   * Create cache in directory from settings, or default location.
+   */
+  public static CompileCache fromSettings(Logger logger) {
+    return new CompileCache(logger, Settings.getCacheDir());
+  }
+
+  /**
+   * Compute cache key for compilation of input with current settings.
+   * @param input contents of main file, after preprocessing
+   * @return key
+   */
+  public String key(byte[] input) {
+    Hasher h = HASH.newHasher();
+    h.putBytes(input);
+
+    for (String key: Settings.getKeys()) {
+      if (!IGNORED_SETTINGS.contains(key)) {
+        putString(h, key);
+        putString(h, Settings.get(key));
+      }
+    }
+    for (Pair<String, String> kv: Settings.getMetadata()) {
+      putString(h, kv.val1);
+      putString(h, kv.val2);
+    }
+    for (String dir: Settings.getModulePath()) {
+      putString(h, dir);
+    }
+    putString(h, compilerFingerprint());
+    return h.hash().toString();
+  }
+
+  /**
+   * Look for up-to-date cached output
+   * @param key
+   * @param output file to copy cached output to
+   * @return true if output was found and copied
+   */
+  public boolean lookup(String key, File output) {
+    File cachedOutput = new File(dir, key + OUTPUT_SUFFIX);
+    File deps = new File(dir, key + DEPS_SUFFIX);
+    if (!deps.isFile() || !cachedOutput.isFile()) {
+      logger.debug("No compile cache entry " + key);
+      return false;
+    }
+
+    try {
+      for (String line: Files.readLines(deps, CHARSET)) {
+        if (line.length() == 0) {
+          continue;
+        }
+        String fields[] = line.split("\t", 3);
+        if (fields.length != 3) {
+          logger.debug("Malformed compile cache entry " + deps);
+          return false;
+        }
+        String hash = fields[0];
+        List<String> modulePath = Arrays.asList(fields[1].split("/"));
+        String filePath = fields[2];
+
+        String resolved = LoadedModules.findModuleFile(modulePath);
+        if (resolved == null || !resolved.equals(filePath)) {
+          logger.debug("Compile cache: module " + fields[1] +
+                        " now resolves to " + resolved);
+          return false;
+        }
+        if (!hash.equals(hashFile(new File(Settings.resolvePath(filePath))))) {
+          logger.debug("Compile cache: module " + filePath + " changed");
+          return false;
+        }
+      }
+
+      Files.copy(cachedOutput, output);
+      CacheDir.touch(cachedOutput);
+      CacheDir.touch(deps);
+    } catch (IOException e) {
+      logger.warn("Error reading from compile cache in " + dir + ": " +
+                   e.getMessage());
+      return false;
+    }
+    logger.debug("Compile cache hit " + key);
+    return true;
+  }
+
+  /**
+   * Add compiled output to cache
+   * @param key key from key()
+   * @param modules modules loaded by compile.  Modules not located in
+   *        the module search path, e.g. the main module, are covered by
+   *        the key so are not recorded.
+   * @param output compiled output
+   */
+  public void store(String key, List<LocatedModule> modules, File output) {
+    try {
+      List<String> lines = new ArrayList<String>();
+      for (LocatedModule module: modules) {
+        if (module.modulePath == null) {
+          continue;
+        }
+        lines.add(hashFile(new File(Settings.resolvePath(module.filePath))) + "\t" +
+                  StringUtils.join(module.modulePath, '/') + "\t" +
+                  module.filePath);
+      }
+
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Could not create directory");
+      }
+      // Write to temporary files and rename so readers never see
+      // a partial entry
+      File tmpOutput = File.createTempFile(key, OUTPUT_SUFFIX, dir);
+      Files.copy(output, tmpOutput);
+      rename(tmpOutput, new File(dir, key + OUTPUT_SUFFIX));
+
+      File tmpDeps = File.createTempFile(key, DEPS_SUFFIX, dir);
+      Files.write(StringUtils.join(lines, '\n'), tmpDeps, CHARSET);
+      rename(tmpDeps, new File(dir, key + DEPS_SUFFIX));
+
+      CacheDir.added(logger, Settings.getCacheDir(), output,
+                     Settings.getCacheMaxBytes());
+    } catch (IOException e) {
+      logger.warn("Error writing to compile cache in " + dir + ": " +
+                   e.getMessage());
+      return;
+    }
+    logger.debug("Added compile cache entry " + key);
+  }
+
+  private static void rename(File from, File to) throws IOException {
+    if (!from.renameTo(to)) {
+      from.delete();
+      throw new IOException("Could not rename " + from + " to " + to);
+    }
+  }
+
+  private static String hashFile(File file) throws IOException {
+    return Files.hash(file, HASH).toString();
+  }
+
+  private static void putString(Hasher h, String s) {
+    // Include length so that concatenations are unambiguous
+    h.putInt(s.length());
+    h.putString(s, CHARSET);
+  }
+
+  /**
+   * Identify compiler build
+   */
+  private static String compilerFingerprint() {
+    String version = Settings.get(Settings.STC_VERSION);
+    String jarHash = Misc.compilerJarHash();
+    return jarHash == null ? version : version + ":" + jarHash;
+  }
+}
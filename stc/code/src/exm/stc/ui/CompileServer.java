@@ -0,0 +1,374 @@
+/*
+ * Copyright 2013 University of Chicago and Argonne National Laboratory
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package exm.stc.ui;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import exm.stc.common.Logging;
+import exm.stc.common.Settings;
+import exm.stc.common.lang.CompileTimeArgs;
+import exm.stc.common.util.Misc;
+
+/**
+ * Long-running compiler process that compiles programs on behalf of the
+ * stc script, so that each compile doesn't pay for JVM startup, class
+ * loading and JIT warmup.
+ *
+ * The server listens on a loopback TCP port.  The port and a random
+ * token are written to a state file readable only by the user, and
+ * requests must start with the token.  Compiler settings and other global
+ * state are reset before each request, and requests are handled one at a
+ * time since that state is shared.
+ *
+ * Protocol, in UTF-8 lines.  The client sends:
+ * <pre>
+ *   TOKEN
+ *   CWD dir          (or STOP to shut down the server)
+ *   D key=value      (compiler setting, as passed with java -D)
+ *   A arg            (command line argument to Main)
+ *   END
+ * </pre>
+ * The server replies with "1 line" or "2 line" for each line of output
+ * to stdout or stderr, then "EXIT code".  It replies "RETRY" if the
+ * client should run the compiler itself, e.g. because the compiler was
+ * rebuilt since the server started.
+ */
+public class CompileServer {
+
+  /** Time allowed for client to send request */
+  private static final int REQUEST_TIMEOUT_MS = 10000;
+
+  private static final String END = "END";
+  private static final String STOP = "STOP";
+  private static final String CWD_PREFIX = "CWD ";
+  private static final String PROP_PREFIX = "D ";
+  private static final String ARG_PREFIX = "A ";
+
+  private final ServerSocket serverSocket;
+  private final File stateFile;
+  private final String token;
+  private final String stcHome;
+
+  /** Compiler jar, used to check if server is stale */
+  private final File jar;
+  private final long jarModified;
+
+  private final PrintStream stdout;
+  private final PrintStream stderr;
+
+  private CompileServer(File stateFile, int idleTimeoutMs)
+      throws IOException {
+    this.serverSocket = new ServerSocket(0, 50,
+                                InetAddress.getByName("127.0.0.1"));
+    this.serverSocket.setSoTimeout(idleTimeoutMs);
+    this.stateFile = stateFile;
+    this.token = newToken();
+    this.stcHome = System.getProperty(Settings.STC_HOME, "");
+    this.jar = Misc.compilerJar();
+    this.jarModified = jar == null ? 0 : jar.lastModified();
+    this.stdout = System.out;
+    this.stderr = System.err;
+  }
+
+  /**
+   * Usage: CompileServer STATE_FILE [IDLE_TIMEOUT_SECONDS]
+   */
+  public static void main(String[] args) {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: CompileServer <state file> " +
+                         "[idle timeout seconds]");
+      System.exit(ExitCode.ERROR_COMMAND.code());
+    }
+
+    int idleTimeoutMs = 0;
+    if (args.length == 2) {
+      try {
+        idleTimeoutMs = Integer.parseInt(args[1]) * 1000;
+      } catch (NumberFormatException e) {
+        System.err.println("Invalid idle timeout: " + args[1]);
+        System.exit(ExitCode.ERROR_COMMAND.code());
+      }
+    }
+
+    try {
+      final CompileServer server = new CompileServer(new File(args[0]),
+                                                     idleTimeoutMs);
+      server.writeStateFile();
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          server.removeStateFile();
+        }
+      });
+      server.serve();
+    } catch (IOException e) {
+      System.err.println("STC server error: " + e.getMessage());
+      System.exit(ExitCode.ERROR_IO.code());
+    }
+    System.exit(ExitCode.SUCCESS.code());
+  }
+
+  private void serve() throws IOException {
+    stderr.println("STC server listening on port " +
+                   serverSocket.getLocalPort());
+    boolean running = true;
+    while (running) {
+      Socket conn;
+      try {
+        conn = serverSocket.accept();
+      } catch (SocketTimeoutException e) {
+        stderr.println("STC server idle, exiting");
+        break;
+      }
+      try {
+        running = handle(conn);
+      } catch (IOException e) {
+        stderr.println("STC server: error handling request: " +
+                       e.getMessage());
+      } finally {
+        conn.close();
+      }
+    }
+    serverSocket.close();
+  }
+
+  /**
+   * Handle a single request
+   * @param conn
+   * @return false if server should shut down
+   * @throws IOException
+   */
+  private boolean handle(Socket conn) throws IOException {
+    conn.setSoTimeout(REQUEST_TIMEOUT_MS);
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+                            conn.getInputStream(), Charsets.UTF_8));
+    OutputStream out = new BufferedOutputStream(conn.getOutputStream());
+
+    if (!token.equals(in.readLine())) {
+      stderr.println("STC server: rejected request with invalid token");
+      return true;
+    }
+
+    String line = in.readLine();
+    if (STOP.equals(line)) {
+      reply(out, "EXIT " + ExitCode.SUCCESS.code());
+      return false;
+    } else if (line == null || !line.startsWith(CWD_PREFIX)) {
+      throw new IOException("Malformed request: " + line);
+    }
+    File workDir = new File(line.substring(CWD_PREFIX.length()));
+
+    Properties props = new Properties();
+    List<String> args = new ArrayList<String>();
+    while (!END.equals(line = in.readLine())) {
+      if (line == null) {
+        throw new IOException("Request truncated");
+      } else if (line.startsWith(PROP_PREFIX)) {
+        String prop = line.substring(PROP_PREFIX.length());
+        int eq = prop.indexOf('=');
+        if (eq < 0) {
+          props.setProperty(prop, "");
+        } else {
+          props.setProperty(prop.substring(0, eq), prop.substring(eq + 1));
+        }
+      } else if (line.startsWith(ARG_PREFIX)) {
+        args.add(line.substring(ARG_PREFIX.length()));
+      } else {
+        throw new IOException("Malformed request line: " + line);
+      }
+    }
+
+    if (jarChanged()) {
+      // Compiler was rebuilt: let client use new version
+      reply(out, "RETRY");
+      stderr.println("STC server: compiler jar changed, exiting");
+      return false;
+    }
+    if (!stcHome.equals(props.getProperty(Settings.STC_HOME, ""))) {
+      // Request from a different installation
+      reply(out, "RETRY");
+      return true;
+    }
+
+    int exitCode = compile(args, props, workDir, out);
+    reply(out, "EXIT " + exitCode);
+    return true;
+  }
+
+  /**
+   * Run the compiler with output redirected to the client
+   * @return exit code
+   */
+  private int compile(List<String> args, Properties props, File workDir,
+                      OutputStream out) {
+    TaggedLineStream outStream = new TaggedLineStream(out, '1');
+    TaggedLineStream errStream = new TaggedLineStream(out, '2');
+    PrintStream compileOut = new PrintStream(outStream, true);
+    PrintStream compileErr = new PrintStream(errStream, true);
+    System.setOut(compileOut);
+    System.setErr(compileErr);
+    int exitCode;
+    try {
+      resetGlobalState();
+      exitCode = Main.run(args.toArray(new String[args.size()]), props,
+                          workDir);
+    } catch (Throwable t) {
+      t.printStackTrace();
+      exitCode = ExitCode.ERROR_INTERNAL.code();
+    } finally {
+      // Close log files from this compile
+      resetGlobalState();
+      compileOut.flush();
+      compileErr.flush();
+      System.setOut(stdout);
+      System.setErr(stderr);
+    }
+    try {
+      outStream.finish();
+      errStream.finish();
+    } catch (IOException e) {
+      // Client may have gone away
+    }
+    return exitCode;
+  }
+
+  /**
+   * Reset global state set up by previous compile
+   */
+  private static void resetGlobalState() {
+    Logging.reset();
+    Settings.reset();
+    CompileTimeArgs.clear();
+  }
+
+  private boolean jarChanged() {
+    return jar != null && jar.lastModified() != jarModified;
+  }
+
+  private static void reply(OutputStream out, String line)
+      throws IOException {
+    synchronized (out) {
+      out.write((line + "\n").getBytes(Charsets.UTF_8));
+      out.flush();
+    }
+  }
+
+  private static String newToken() {
+    byte bytes[] = new byte[16];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder sb = new StringBuilder();
+    for (byte b: bytes) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Write port and token to state file, readable only by the user.
+   * Written to a temporary file and renamed so that clients never see a
+   * partial file.
+   */
+  private void writeStateFile() throws IOException {
+    File dir = stateFile.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Could not create directory " + dir);
+    }
+    File tmp = File.createTempFile(stateFile.getName(), ".tmp", dir);
+    tmp.setReadable(false, false);
+    tmp.setWritable(false, false);
+    tmp.setReadable(true, true);
+    tmp.setWritable(true, true);
+    Files.write(serverSocket.getLocalPort() + " " + token + "\n", tmp,
+                Charsets.UTF_8);
+    if (!tmp.renameTo(stateFile)) {
+      tmp.delete();
+      throw new IOException("Could not rename " + tmp + " to " + stateFile);
+    }
+  }
+
+  private void removeStateFile() {
+    // Don't remove if another server replaced it
+    try {
+      String contents = Files.toString(stateFile, Charsets.UTF_8);
+      if (contents.trim().endsWith(" " + token)) {
+        stateFile.delete();
+      }
+    } catch (IOException e) {
+      // Already removed
+    }
+  }
+
+  /**
+   * Output stream that sends each line to the client, prefixed with a
+   * tag identifying the stream.
+   */
+  private static class TaggedLineStream extends OutputStream {
+    private final OutputStream out;
+    private final char tag;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    TaggedLineStream(OutputStream out, char tag) {
+      this.out = out;
+      this.tag = tag;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (b == '\n') {
+        sendLine();
+      } else {
+        line.write(b);
+      }
+    }
+
+    /**
+     * Send any incomplete last line
+     */
+    void finish() throws IOException {
+      if (line.size() > 0) {
+        sendLine();
+      }
+    }
+
+    private void sendLine() throws IOException {
+      synchronized (out) {
+        out.write(tag);
+        out.write(' ');
+        line.writeTo(out);
+        out.write('\n');
+      }
+      line.reset();
+    }
+  }
+}
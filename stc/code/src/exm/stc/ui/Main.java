@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -42,12 +43,16 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.log4j.Logger;
 
+import com.google.common.base.Charsets;
+
 import exm.stc.common.Logging;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.InvalidOptionException;
+import exm.stc.common.exceptions.PreprocessorException;
 import exm.stc.common.exceptions.STCFatal;
 import exm.stc.common.exceptions.STCRuntimeError;
 import exm.stc.common.lang.CompileTimeArgs;
+import exm.stc.frontend.Preprocessor;
 
 /**
  * Command line interface to STC compiler.  Some compiler options
@@ -63,31 +68,70 @@ public class Main {
 
 
   public static void main(String[] args) {
+    System.exit(run(args, System.getProperties(), null));
+  }
+
+  /**
+   * Run compiler with command line arguments.  May be called multiple
+   * times in the same process, as long as global state is reset in
+   * between (see {@link CompileServer}).
+   * @param args command line arguments
+   * @param props compiler settings, e.g. from the wrapper script
+   * @param workDir directory to resolve relative paths against, or null
+   *                for the process working directory
+   * @return exit code
+   */
+  public static int run(String[] args, Properties props, File workDir) {
+    Settings.setWorkingDir(workDir);
+    try {
+      return compile(args, props);
+    } catch (STCFatal ex) {
+      return ex.exitCode;
+    } finally {
+      deleteTemporaries();
+    }
+  }
 
+  private static int compile(String[] args, Properties props) {
     Args stcArgs = processArgs(args);
 
     try {
-      Settings.initSTCProperties();
+      Settings.initSTCProperties(props);
     } catch (InvalidOptionException ex) {
       System.err.println("Error setting up options: " + ex.getMessage());
-      System.exit(1);
+      return 1;
     }
     Logger logger = null;
     try {
       logger = setupLogging();
     } catch (InvalidOptionException ex) {
       System.err.println("Error setting up logging: " + ex.getMessage());
-      System.exit(1);
+      return 1;
     }
 
 
     boolean preprocess = preprocessEnabled(logger);
-    File inputFile = setupInputFile(logger, preprocess, stcArgs);
+    File inputFile = setupInputFile(stcArgs);
+    // Preprocessor output, or null if not preprocessed
+    String preprocessed = null;
+    if (preprocess) {
+      preprocessed = runPreprocessor(logger, stcArgs, outputCharset());
+    }
     PrintStream icOutput = setupICOutput();
     File finalOutput = selectOutputFile(stcArgs);
 
-    if (skipCompile(stcArgs, finalOutput)) {
-      System.exit(ExitCode.SUCCESS.code());
+    CompileCache cache = null;
+    String cacheKey = null;
+    if (stcArgs.updateOutput && !preprocessOnly()) {
+      cache = CompileCache.fromSettings(logger);
+      cacheKey = cacheKey(logger, cache, inputFile, preprocessed);
+      if (cacheKey == null) {
+        cache = null;
+      } else if (useCachedOutput() && cache.lookup(cacheKey, finalOutput)) {
+        logger.debug("Output up to date. Done.");
+        cleanupFiles(true, stcArgs);
+        return ExitCode.SUCCESS.code();
+      }
     }
 
     // Use intermediate file so we don't create invalid output in case of
@@ -97,20 +141,29 @@ public class Main {
 
     try {
       if (preprocessOnly()) {
-        copyToOutput(inputFile, finalOutput);
+        if (preprocessed != null) {
+          writeToOutput(preprocessed, outputCharset(), finalOutput);
+        } else {
+          copyToOutput(inputFile, finalOutput);
+        }
       } else {
         STCompiler stc = new STCompiler(logger);
-        stc.compile(inputFile.getPath(), stcArgs.inputFilename, preprocess,
-                     outStream, icOutput);
+        // Keep path as given so that it appears the same in output
+        stc.compile(stcArgs.inputFilename, preprocessed, outStream,
+                    icOutput);
         copyToOutput(tmpOutput, finalOutput);
+        if (cache != null) {
+          cache.store(cacheKey, stc.loadedModules(), tmpOutput);
+        }
       }
 
       cleanupFiles(true, stcArgs);
     } catch (STCFatal ex) {
       // Cleanup output file if present
       cleanupFiles(false, stcArgs);
-      System.exit(ex.exitCode);
+      return ex.exitCode;
     }
+    return ExitCode.SUCCESS.code();
   }
 
 
@@ -131,7 +184,9 @@ public class Main {
                                     "Preprocessor definition");
     opts.addOption(preprocArg);
 
-    opts.addOption(UPDATE_FLAG, false, "Update output only if out of date");
+    opts.addOption(UPDATE_FLAG, false, "Update output only if out of date, " +
+                   "using cache of compiled output (bounded by " +
+                   "stc.cache.max-size)");
     return opts;
   }
 
@@ -147,8 +202,7 @@ public class Main {
       // Use Apache CLI-provided messages
       System.err.println(ex.getMessage());
       usage(opts);
-      System.exit(1);
-      return null;
+      throw new STCFatal(1);
     }
 
     boolean updateOutput = cmd.hasOption(UPDATE_FLAG);
@@ -173,7 +227,7 @@ public class Main {
       System.out.println("Expected input file and optional output file, but got "
               + remainingArgs.length + " arguments");
       usage(opts);
-      System.exit(ExitCode.ERROR_COMMAND.code());
+      throw new STCFatal(ExitCode.ERROR_COMMAND.code());
     }
 
     String input = remainingArgs[0];
@@ -188,19 +242,29 @@ public class Main {
   }
 
   /**
-   * Check conditions for skipping compilation entirely
-   * @param args
-   * @param infile
-   * @param outfile
-   * @return
+   * @return cache key, or null if it could not be computed
    */
-  private static boolean skipCompile(Args args, File outfile) {
-    if (args.updateOutput &&
-        !olderThan(outfile, new File(args.inputFilename))) {
-      Logging.getSTCLogger().debug("Output up to date. Done.");
-      return true;
+  private static String cacheKey(Logger logger, CompileCache cache,
+                                 File inputFile, String preprocessed) {
+    try {
+      byte input[] = preprocessed != null ?
+          preprocessed.getBytes(Charset.defaultCharset()) :
+          FileUtils.readFileToByteArray(inputFile);
+      return cache.key(input);
+    } catch (IOException e) {
+      logger.warn("Not using compile cache: error computing key: " +
+                  e.getMessage());
+      return null;
     }
-    return false;
+  }
+
+  /**
+   * Check if we can skip compilation if cached output is available.
+   * Compilation is needed if outputs other than the Tcl were requested.
+   */
+  private static boolean useCachedOutput() {
+    return Settings.get(Settings.IC_OUTPUT_FILE).length() == 0 &&
+           Settings.get(Settings.PROFILE_STC).length() == 0;
   }
 
 
@@ -216,6 +280,15 @@ public class Main {
     return skipCompile;
   }
 
+  /**
+   * @return charset for preprocessor output.  Output of -E is passed
+   *         through byte-for-byte, otherwise it is decoded like an
+   *         unpreprocessed file.
+   */
+  private static Charset outputCharset() {
+    return preprocessOnly() ? Charsets.ISO_8859_1 : Charset.defaultCharset();
+  }
+
   private static boolean preprocessEnabled(Logger logger) {
     try {
       if (Settings.getBoolean(Settings.USE_C_PREPROCESSOR)) {
@@ -223,7 +296,7 @@ public class Main {
       }
     } catch (InvalidOptionException e) {
       STCompiler.reportInternalError(logger, e);
-      System.exit(1);
+      throw new STCFatal(1);
     }
     return false;
   }
@@ -253,6 +326,9 @@ public class Main {
 
   private static Logger setupLogging() throws InvalidOptionException {
     String logfile = Settings.get(Settings.LOG_FILE);
+    if (logfile.length() > 0) {
+      logfile = Settings.resolvePath(logfile);
+    }
     boolean trace = Settings.getBoolean(Settings.LOG_TRACE);
     return Logging.setupLogging(logfile, trace);
   }
@@ -267,43 +343,59 @@ public class Main {
   }
 
   /**
-   * Setup input file.  If necessary, run through CPP
+   * Check input file is readable
+   * @param args
+   * @return input file, resolved against working directory
+   */
+  private static File setupInputFile(Args args) {
+    File result = new File(Settings.resolvePath(args.inputFilename));
+    if (!result.isFile() || !result.canRead()) {
+      System.out.println("Input file \"" + result + "\" is not readable");
+      throw new STCFatal(1);
+    }
+    return result;
+  }
+
+  /**
+   * Run input file through C preprocessor.  Uses the built-in
+   * preprocessor unless an external one was requested.
    * @param logger
-   * @param preprocess
    * @param args
-   * @return
+   * @param charset encoding to read input files with
+   * @return preprocessed text
    */
-  private static File setupInputFile(Logger logger, boolean preprocess, Args args) {
-    File result;
+  private static String runPreprocessor(Logger logger, Args args,
+                                        Charset charset) {
     try {
-      if (preprocess) {
-        File input = new File(args.inputFilename);
-        if (!input.isFile() || !input.canRead()) {
-          System.out.println("Input file \"" + input + "\" is not readable");
-          System.exit(1);
-        }
-
-        result = File.createTempFile("stc-preproc", ".swift");
+      if (useExternalPreprocessor()) {
+        File result = File.createTempFile("stc-preproc", ".swift");
         temporaries.add(result);
-        runPreprocessor(logger, args.inputFilename, result.getPath(),
-                        args.preprocessorMacros);
-      } else {
-        result = new File(args.inputFilename);
+        // Preprocessor runs in working directory, so keep path as given
+        runExternalPreprocessor(logger, args.inputFilename,
+                        result.getPath(), args.preprocessorMacros);
+        return FileUtils.readFileToString(result, charset);
       }
-      if (!result.isFile() || !result.canRead()) {
-        System.out.println("Input file \"" + result + "\" is not readable");
-        System.exit(1);
+
+      Preprocessor preprocessor = new Preprocessor(logger,
+                                              Settings.getModulePath());
+      for (String macro: args.preprocessorMacros) {
+        preprocessor.define(macro);
       }
-      return result;
+      return preprocessor.preprocess(args.inputFilename, charset);
+    } catch (PreprocessorException ex) {
+      System.err.println("stc error:");
+      System.err.println(ex.getMessage());
+      throw new STCFatal(ExitCode.ERROR_USER.code());
     } catch (IOException ex) {
-      System.out.println("Error while setting up input file: " +
+      System.out.println("Error while preprocessing input file: " +
               ex.toString());
-      System.exit(1);
+      throw new STCFatal(1);
+    } catch (STCFatal ex) {
+      throw ex;
     } catch (Throwable t) {
       STCompiler.reportInternalError(logger, t);
-      System.exit(1);
+      throw new STCFatal(1);
     }
-    return null;
   }
 
   private static File selectOutputFile(Args args) {
@@ -321,7 +413,7 @@ public class Main {
       }
       outputFilename = prefix + ".tic";
     }
-    return new File(outputFilename);
+    return new File(Settings.resolvePath(outputFilename));
   }
 
   private static File setupTmpOutput() {
@@ -332,8 +424,7 @@ public class Main {
     } catch (IOException e) {
       System.out.println("Error while setting up temporary output: "
           + e.getMessage());
-      System.exit(1);
-      return null;
+      throw new STCFatal(1);
     }
   }
 
@@ -345,14 +436,13 @@ public class Main {
       e.printStackTrace();
       System.err.println("Unexpected error opening " +
                          outfile.getAbsolutePath() + " for output.") ;
-      System.exit(1);
-      return null;
+      throw new STCFatal(1);
     }
   }
 
 
-  private static void runPreprocessor(Logger logger, String input, String output,
-                                      List<String> preprocArgs) {
+  private static void runExternalPreprocessor(Logger logger, String input,
+                          String output, List<String> preprocArgs) {
     List<String> cmd = new ArrayList<String>();
     /*
       -undef flag is provided to disable non-standard macros
@@ -379,7 +469,8 @@ public class Main {
     String cmdString = StringUtils.join(cmd, ' ');
     try {
       logger.debug("Running cpp: " + cmdString);
-      Process cpp = Runtime.getRuntime().exec(cmd.toArray(new String[]{}));
+      Process cpp = Runtime.getRuntime().exec(cmd.toArray(new String[]{}),
+                                        null, Settings.getWorkingDir());
       int cppExitCode = -1;
       boolean done = false;
       do {
@@ -403,18 +494,32 @@ public class Main {
         System.out.println(cppStderr);
         System.out.println("Aborting due to failure in cpp preprocessor invoked as: " +
             cmdString + ". " + ("Exit code was " + cppExitCode + ". "));
-        System.exit(1);
+        throw new STCFatal(1);
       } else if (cppStderr.length() != 0){
         logger.warn("Preprocessor warnings:\n" + cppStderr);
       }
     } catch (IOException e) {
       System.out.println("I/O error while launching preprocessor with command line:" +
                           cmdString + ": " + e.getMessage());
-      System.exit(1);
+      throw new STCFatal(1);
     }
   }
 
 
+  /**
+   * @return true if cpp or gcc should be used instead of the built-in
+   *         preprocessor
+   */
+  private static boolean useExternalPreprocessor() {
+    try {
+      return Settings.getBoolean(Settings.PREPROCESSOR_FORCE_CPP) ||
+             Settings.getBoolean(Settings.PREPROCESSOR_FORCE_GCC);
+    } catch (InvalidOptionException e) {
+      System.out.println("Internal error with settings: " + e.getMessage());
+      throw new STCFatal(ExitCode.ERROR_INTERNAL.code());
+    }
+  }
+
   public static boolean useGCCProcessor() {
     try {
       if ((SystemUtils.IS_OS_MAC_OSX &&
@@ -427,12 +532,35 @@ public class Main {
       }
     } catch (InvalidOptionException e) {
       System.out.println("Internal error with settings: " + e.getMessage());
-      System.exit(ExitCode.ERROR_INTERNAL.code());
-      return false;
+      throw new STCFatal(ExitCode.ERROR_INTERNAL.code());
     }
   }
 
 
+  /**
+   * Write text to output file.  In event of failure, throw a fatal error
+   * @param text
+   * @param charset
+   * @param output
+   */
+  private static void writeToOutput(String text, Charset charset,
+                                    File output) {
+    try {
+      // Use output stream since it interacts better with non-seekable
+      // devices such as /dev/stdout
+      OutputStream outStream = new FileOutputStream(output);
+      try {
+        outStream.write(text.getBytes(charset));
+      } finally {
+        outStream.close();
+      }
+    } catch (IOException e) {
+      System.out.println("Error writing " + output);
+      e.printStackTrace();
+      throw new STCFatal(1);
+    }
+  }
+
   /**
    * Copy input file to output file.  In event of failure, throw a fatal error
    * @param inputFile
@@ -451,12 +579,6 @@ public class Main {
     }
   }
 
-  private static boolean olderThan(File file1, File file2) {
-    long modTime1 = file1.lastModified();
-    long modTime2 = file2.lastModified();
-    return modTime1 < modTime2;
-  }
-
   private static PrintStream setupICOutput() {
     String icFileName = Settings.get(Settings.IC_OUTPUT_FILE);
     if (icFileName == null || icFileName.equals("")) {
@@ -466,7 +588,8 @@ public class Main {
     try
     {
       @SuppressWarnings("resource")
-      FileOutputStream stream = new FileOutputStream(icFileName);
+      FileOutputStream stream = new FileOutputStream(
+                                    Settings.resolvePath(icFileName));
       BufferedOutputStream buffer = new BufferedOutputStream(stream);
       output = new PrintStream(buffer);
     }
@@ -474,23 +597,28 @@ public class Main {
     {
       System.out.println("Error opening IC output file " + icFileName
                       + ": " + e.getMessage());
-      System.exit(ExitCode.ERROR_IO.code());
+      throw new STCFatal(ExitCode.ERROR_IO.code());
     }
     return output;
   }
 
   private static void cleanupFiles(boolean success, Args stcArgs) {
     if (!success && stcArgs.outputFilename != null) {
-      File outFile = new File(stcArgs.outputFilename);
+      File outFile = new File(Settings.resolvePath(stcArgs.outputFilename));
       if (outFile.exists()) {
         outFile.delete();
       }
     }
+    deleteTemporaries();
+  }
+
+  private static void deleteTemporaries() {
     for (File temp: temporaries) {
       if (temp.exists()) {
         temp.delete();
       }
     }
+    temporaries.clear();
   }
 
   private static class Args {
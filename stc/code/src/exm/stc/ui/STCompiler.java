@@ -15,18 +15,24 @@
  */
 package exm.stc.ui;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import exm.stc.common.Profiler;
 import exm.stc.common.Settings;
 import exm.stc.common.exceptions.STCFatal;
 import exm.stc.common.exceptions.UserException;
 import exm.stc.common.lang.ForeignFunctions;
 import exm.stc.common.util.Misc;
 import exm.stc.frontend.ASTWalker;
+import exm.stc.frontend.LoadedModules.LocatedModule;
 import exm.stc.ic.STCMiddleEnd;
 import exm.stc.tclbackend.TurbineGenerator;
 
@@ -37,6 +43,8 @@ public class STCompiler {
 
   private Logger logger;
 
+  /** Modules loaded by last compile */
+  private List<LocatedModule> loadedModules = null;
 
   public STCompiler(Logger logger) {
     super();
@@ -50,29 +58,32 @@ public class STCompiler {
    * This function contains the high-level logic orchestrating the different
    * passes of the compiler
    * @param inputFile
-   * @param originalInputFile
+   * @param preprocessedSource output of preprocessor for input file, or
+   *                           null if not preprocessed
    * @param output
    * @param icOutput
    */
-  public void compile(String inputFile, String originalInputFile,
-                      boolean preprocessed, OutputStream output,
-          PrintStream icOutput) {
+  public void compile(String inputFile, String preprocessedSource,
+                      OutputStream output, PrintStream icOutput) {
     try {
       logger.info("STC starting: " + Misc.timestamp());
 
-      boolean profile = Settings.getBoolean(Settings.PROFILE_STC);
-
-      /*
-       * Walk AST, and build intermediate representation
-       * This is where type checking and other semantic analysis happens.
-       */
-      int compileIterations = profile ? 100000 : 1;
-      for (int i = 0; i < compileIterations; i++) {
-        compileOnce(inputFile, originalInputFile, preprocessed, output, icOutput);
+      String profileFile = Settings.get(Settings.PROFILE_STC);
+      Profiler profiler;
+      if (profileFile.length() > 0) {
+        profiler = Profiler.create();
+      } else {
+        profiler = Profiler.disabled();
       }
 
+      compileOnce(inputFile, preprocessedSource, output, icOutput, profiler);
+
       output.close();
 
+      if (profiler.enabled()) {
+        writeProfile(profiler, profileFile);
+      }
+
       if (icOutput != null) {
         icOutput.close();
       }
@@ -100,13 +111,28 @@ public class STCompiler {
     }
   }
 
-  private void compileOnce(String inputFile, String originalInputFile,
-      boolean preprocessed,
-      OutputStream output, PrintStream icOutput) throws UserException {
+  /**
+   * Walk AST, and build intermediate representation
+   * This is where type checking and other semantic analysis happens.
+   * Done in a separate method so that the ASTs are not reachable while
+   * the rest of the compiler runs.
+   * @return modules loaded
+   */
+  private static List<LocatedModule> runFrontend(STCMiddleEnd intermediate,
+      ForeignFunctions foreignFuncs, String inputFile,
+      String preprocessedSource, Profiler profiler) throws UserException {
+    ASTWalker walker = new ASTWalker(intermediate, foreignFuncs, profiler);
+    walker.walk(inputFile, preprocessedSource);
+    return walker.loadedModules();
+  }
+
+  private void compileOnce(String inputFile, String preprocessedSource,
+      OutputStream output, PrintStream icOutput, Profiler profiler) throws UserException {
     ForeignFunctions foreignFuncs = new ForeignFunctions();
-    STCMiddleEnd intermediate = new STCMiddleEnd(logger, icOutput, foreignFuncs);
-    ASTWalker walker = new ASTWalker(intermediate, foreignFuncs);
-    walker.walk(inputFile, originalInputFile, preprocessed);
+    STCMiddleEnd intermediate = new STCMiddleEnd(logger, icOutput,
+                                            foreignFuncs, profiler);
+    loadedModules = runFrontend(intermediate, foreignFuncs, inputFile,
+                                preprocessedSource, profiler);
 
     /* Optimise intermediate representation by repeatedly rewriting tree
      * NOTE: currently the optimizer pass is actually required for correctness,
@@ -116,7 +142,8 @@ public class STCompiler {
     intermediate.optimize();
 
     /* Generate output tcl code from intermediate representation */
-    TurbineGenerator codeGen = new TurbineGenerator(logger, Misc.timestamp());
+    TurbineGenerator codeGen = new TurbineGenerator(logger, Misc.timestamp(),
+                                                    profiler);
     intermediate.regenerate(codeGen);
     try {
       codeGen.generate(output);
@@ -127,6 +154,30 @@ public class STCompiler {
     }
   }
 
+  /**
+   * @return modules loaded by the last compile, including the main module
+   */
+  public List<LocatedModule> loadedModules() {
+    return loadedModules;
+  }
+
+  private void writeProfile(Profiler profiler, String profileFile) {
+    try {
+      Writer w = new BufferedWriter(new FileWriter(
+                                    Settings.resolvePath(profileFile)));
+      try {
+        profiler.writeReport(w);
+      } finally {
+        w.close();
+      }
+    } catch (IOException e) {
+      System.err.println("I/O error while writing profile to " + profileFile);
+      System.err.println(e.getMessage());
+      throw new STCFatal(ExitCode.ERROR_IO.code());
+    }
+    logger.debug("Wrote compiler profile to " + profileFile);
+  }
+
   public static void reportInternalError(Logger logger, Throwable e) {
     logger.error("STC internal error: please report this", e);
   }
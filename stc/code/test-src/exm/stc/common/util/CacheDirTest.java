@@ -0,0 +1,80 @@
+package exm.stc.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheDirTest {
+
+  private static final Logger logger = Logger.getLogger(CacheDirTest.class);
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testPruneLeastRecentlyUsed() throws IOException {
+    File sub = tmp.newFolder("sub");
+    File files[] = new File[4];
+    for (int i = 0; i < files.length; i++) {
+      // Put some files in subdirectory to check they're included
+      File dir = i % 2 == 0 ? tmp.getRoot() : sub;
+      files[i] = write(new File(dir, "f" + i), 100, 1000000L * (i + 1));
+    }
+    // Most recently used after touch
+    CacheDir.touch(files[0]);
+
+    assertEquals(400, CacheDir.prune(logger, tmp.getRoot(), 400));
+    // Prunes to 75% of limit, oldest first
+    assertEquals(200, CacheDir.prune(logger, tmp.getRoot(), 300));
+    assertTrue(files[0].exists());
+    assertFalse(files[1].exists());
+    assertFalse(files[2].exists());
+    assertTrue(files[3].exists());
+  }
+
+  @Test
+  public void testAdded() throws IOException {
+    File dir = tmp.getRoot();
+    File files[] = new File[4];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = write(new File(dir, "f" + i), 100, 1000000L * (i + 1));
+      // No limit
+      CacheDir.added(logger, dir, files[i], -1);
+    }
+    for (File f: files) {
+      assertTrue(f.exists());
+      f.delete();
+    }
+
+    for (int i = 0; i < files.length; i++) {
+      files[i] = write(new File(dir, "f" + i), 100, 1000000L * (i + 1));
+      CacheDir.added(logger, dir, files[i], 350);
+    }
+    // Fourth file goes over limit, pruning oldest to get under 262 bytes
+    assertFalse(files[0].exists());
+    assertFalse(files[1].exists());
+    assertTrue(files[2].exists());
+    assertTrue(files[3].exists());
+  }
+
+  private static File write(File f, int bytes, long modified)
+      throws IOException {
+    FileOutputStream out = new FileOutputStream(f);
+    try {
+      out.write(new byte[bytes]);
+    } finally {
+      out.close();
+    }
+    assertTrue(f.setLastModified(modified));
+    return f;
+  }
+}
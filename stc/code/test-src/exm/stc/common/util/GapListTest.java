@@ -0,0 +1,249 @@
+package exm.stc.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check GapList against LinkedList with random sequences of operations
+ */
+public class GapListTest {
+
+  @Test
+  public void testBasic() {
+    GapList<Integer> l = new GapList<Integer>();
+    l.add(1);
+    l.add(0, 0);
+    l.add(2);
+    l.add(1, 5);
+    assertEquals(Arrays.asList(0, 5, 1, 2), l);
+    assertEquals(5, (int)l.remove(1));
+    assertEquals(Arrays.asList(0, 1, 2), l);
+    assertEquals(1, (int)l.set(1, 7));
+    assertEquals(Arrays.asList(0, 7, 2), l);
+    l.addAll(1, Arrays.asList(3, 4));
+    assertEquals(Arrays.asList(0, 3, 4, 7, 2), l);
+    l.clear();
+    assertEquals(0, l.size());
+  }
+
+  @Test
+  public void testBounds() {
+    GapList<Integer> l = new GapList<Integer>(Arrays.asList(1, 2));
+    for (int bad: new int[] {-1, 2}) {
+      try {
+        l.get(bad);
+        fail("Expected exception for get(" + bad + ")");
+      } catch (IndexOutOfBoundsException e) {
+        // Expected
+      }
+    }
+    try {
+      l.add(3, 0);
+      fail("Expected exception for add(3)");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Random list operations, including at both ends and after growing,
+   * so that the gap is moved in both directions and reallocated
+   */
+  @Test
+  public void testRandomOps() {
+    Random r = new Random(1234);
+    for (int trial = 0; trial < 50; trial++) {
+      GapList<Integer> gl = new GapList<Integer>();
+      List<Integer> ll = new LinkedList<Integer>();
+      for (int op = 0; op < 2000; op++) {
+        randomOp(r, gl, ll);
+        assertEquals(ll.size(), gl.size());
+      }
+      assertEquals(ll, gl);
+    }
+  }
+
+  private void randomOp(Random r, List<Integer> gl, List<Integer> ll) {
+    int size = ll.size();
+    int val = r.nextInt(1000);
+    switch (r.nextInt(10)) {
+      case 0:
+        gl.add(val);
+        ll.add(val);
+        break;
+      case 1:
+        gl.add(0, val);
+        ll.add(0, val);
+        break;
+      case 2:
+      case 3: {
+        int i = r.nextInt(size + 1);
+        gl.add(i, val);
+        ll.add(i, val);
+        break;
+      }
+      case 4:
+        if (size > 0) {
+          int i = r.nextBoolean() ? 0 : size - 1;
+          assertEquals(ll.remove(i), gl.remove(i));
+        }
+        break;
+      case 5:
+        if (size > 0) {
+          int i = r.nextInt(size);
+          assertEquals(ll.remove(i), gl.remove(i));
+        }
+        break;
+      case 6:
+        if (size > 0) {
+          int i = r.nextInt(size);
+          assertEquals(ll.set(i, val), gl.set(i, val));
+        }
+        break;
+      case 7: {
+        List<Integer> added = new ArrayList<Integer>();
+        int n = r.nextInt(20);
+        for (int j = 0; j < n; j++) {
+          added.add(r.nextInt(1000));
+        }
+        int i = r.nextInt(size + 1);
+        assertEquals(ll.addAll(i, added), gl.addAll(i, added));
+        break;
+      }
+      case 8:
+        if (size > 0) {
+          int i = r.nextInt(size);
+          assertEquals(ll.get(i), gl.get(i));
+        }
+        break;
+      case 9:
+        if (r.nextInt(20) == 0) {
+          gl.clear();
+          ll.clear();
+        }
+        break;
+    }
+  }
+
+  /**
+   * Modify lists through list iterators walking forwards and backwards
+   */
+  @Test
+  public void testRandomIterator() {
+    Random r = new Random(5678);
+    for (int trial = 0; trial < 200; trial++) {
+      GapList<Integer> gl = new GapList<Integer>();
+      List<Integer> ll = new LinkedList<Integer>();
+      int n = r.nextInt(30);
+      for (int i = 0; i < n; i++) {
+        gl.add(i);
+        ll.add(i);
+      }
+
+      boolean forward = r.nextBoolean();
+      ListIterator<Integer> git = gl.listIterator(forward ? 0 : n);
+      ListIterator<Integer> lit = ll.listIterator(forward ? 0 : n);
+      // Whether remove() or set() are allowed
+      boolean canModify = false;
+      for (int step = 0; step < 100; step++) {
+        assertEquals(lit.hasNext(), git.hasNext());
+        assertEquals(lit.hasPrevious(), git.hasPrevious());
+        assertEquals(lit.nextIndex(), git.nextIndex());
+        int val = 1000 + step;
+        int op = r.nextInt(5);
+        if (op == 0 && canModify) {
+          git.remove();
+          lit.remove();
+          canModify = false;
+        } else if (op == 1 && canModify) {
+          git.set(val);
+          lit.set(val);
+        } else if (op == 2) {
+          git.add(val);
+          lit.add(val);
+          canModify = false;
+        } else if (forward ? lit.hasNext() : lit.hasPrevious()) {
+          if (forward) {
+            assertEquals(lit.next(), git.next());
+          } else {
+            assertEquals(lit.previous(), git.previous());
+          }
+          canModify = true;
+        }
+        assertEquals(ll, gl);
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentModification() {
+    GapList<Integer> gl = new GapList<Integer>(Arrays.asList(1, 2, 3));
+    List<Integer> ll = new LinkedList<Integer>(Arrays.asList(1, 2, 3));
+
+    assertEquals(checkCME(ll, true), checkCME(gl, true));
+    assertEquals(checkCME(ll, false), checkCME(gl, false));
+
+    // Set is not a structural modification
+    gl = new GapList<Integer>(Arrays.asList(1, 2, 3));
+    Iterator<Integer> it = gl.iterator();
+    it.next();
+    gl.set(0, 10);
+    assertEquals(2, (int)it.next());
+  }
+
+  /**
+   * @param add if true, add to list during iteration, otherwise remove
+   * @return true if ConcurrentModificationException thrown
+   */
+  private boolean checkCME(List<Integer> l, boolean add) {
+    Iterator<Integer> it = l.iterator();
+    it.next();
+    if (add) {
+      l.add(0, 4);
+    } else {
+      l.remove(l.size() - 1);
+    }
+    try {
+      it.next();
+      return false;
+    } catch (ConcurrentModificationException e) {
+      return true;
+    }
+  }
+
+  @Test
+  public void testIteratorRemoveAll() {
+    GapList<Integer> gl = new GapList<Integer>();
+    for (int i = 0; i < 100; i++) {
+      gl.add(i);
+    }
+    Iterator<Integer> it = gl.iterator();
+    while (it.hasNext()) {
+      if (it.next() % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(50, gl.size());
+    for (int i = 0; i < 50; i++) {
+      assertEquals(2 * i + 1, (int)gl.get(i));
+    }
+    it = gl.iterator();
+    while (it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+    assertFalse(gl.iterator().hasNext());
+  }
+}
@@ -0,0 +1,167 @@
+package exm.stc.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HierarchicalMapTest {
+
+  @Test
+  public void testBasic() {
+    HierarchicalMap<String, Integer> root =
+                                  new HierarchicalMap<String, Integer>();
+    root.put("a", 1);
+    root.put("r", 5);
+    HierarchicalMap<String, Integer> child = root.makeChildMap();
+    child.put("b", 2);
+    child.put("a", 10);
+
+    assertEquals(10, (int)child.get("a"));
+    assertEquals(1, (int)root.get("a"));
+    assertEquals(2, (int)child.get("b"));
+    assertFalse(root.containsKey("b"));
+    assertEquals(0, child.getDepth("b"));
+    assertEquals(0, child.getDepth("a"));
+    assertEquals(1, child.getDepth("r"));
+    assertEquals(5, (int)child.get("r"));
+    assertEquals(-1, child.getDepth("c"));
+
+    // Removal also removes from ancestors
+    assertEquals(10, (int)child.remove("a"));
+    assertFalse(child.containsKey("a"));
+    assertFalse(root.containsKey("a"));
+  }
+
+  @Test
+  public void testParentWrittenWhileChildLive() {
+    HierarchicalMap<String, Integer> root =
+                                  new HierarchicalMap<String, Integer>();
+    HierarchicalMap<String, Integer> mid = root.makeChildMap();
+    HierarchicalMap<String, Integer> leaf = mid.makeChildMap();
+    HierarchicalMap<String, Integer> sibling = mid.makeChildMap();
+    leaf.put("x", 1);
+    assertNull(leaf.get("a"));
+
+    root.put("a", 1);
+    assertEquals(1, (int)leaf.get("a"));
+    assertEquals(1, (int)sibling.get("a"));
+
+    mid.put("a", 2);
+    assertEquals(2, (int)leaf.get("a"));
+    assertEquals(1, (int)root.get("a"));
+
+    // Overridden in mid, so root change not visible below
+    root.put("a", 3);
+    assertEquals(2, (int)leaf.get("a"));
+
+    // Local entry in leaf overrides later change to parent
+    leaf.put("b", 10);
+    mid.put("b", 20);
+    assertEquals(10, (int)leaf.get("b"));
+    assertEquals(20, (int)sibling.get("b"));
+
+    // Removal from ancestor
+    root.remove("a");
+    assertEquals(2, (int)leaf.get("a"));
+    mid.remove("a");
+    assertFalse(leaf.containsKey("a"));
+    assertFalse(sibling.containsKey("a"));
+
+    // Null values
+    root.put("n", null);
+    assertTrue(leaf.containsKey("n"));
+    assertNull(leaf.get("n"));
+
+    // Child created after parent changed
+    mid.put("c", 5);
+    HierarchicalMap<String, Integer> late = leaf.makeChildMap();
+    assertEquals(5, (int)late.get("c"));
+    assertEquals(10, (int)late.get("b"));
+    mid.put("c", 6);
+    assertEquals(6, (int)late.get("c"));
+
+    // Clearing a map detaches it from its parent
+    leaf.clear();
+    assertFalse(late.containsKey("c"));
+    assertFalse(late.containsKey("b"));
+    assertTrue(late.isEmpty());
+    assertEquals(6, (int)sibling.get("c"));
+  }
+
+  /**
+   * Random updates to a tree of maps, checked against walking the chain
+   * of local maps
+   */
+  @Test
+  public void testRandom() {
+    checkRandom(new Random(2468), 20, 3000, 1);
+  }
+
+  /**
+   * Many lookups between updates, so that snapshots are built and updated
+   */
+  @Test
+  public void testRandomManyLookups() {
+    checkRandom(new Random(1357), 3, 300, 2000);
+  }
+
+  private void checkRandom(Random r, int trials, int ops, int lookups) {
+    for (int trial = 0; trial < trials; trial++) {
+      List<HierarchicalMap<Integer, Integer>> maps =
+                      new ArrayList<HierarchicalMap<Integer, Integer>>();
+      List<Integer> parents = new ArrayList<Integer>();
+      List<Map<Integer, Integer>> expected =
+                      new ArrayList<Map<Integer, Integer>>();
+      maps.add(new HierarchicalMap<Integer, Integer>());
+      parents.add(-1);
+      expected.add(new HashMap<Integer, Integer>());
+
+      for (int op = 0; op < ops; op++) {
+        int m = r.nextInt(maps.size());
+        int key = r.nextInt(30);
+        int choice = r.nextInt(10);
+        if (choice == 0 && maps.size() < 40) {
+          maps.add(maps.get(m).makeChildMap());
+          parents.add(m);
+          expected.add(new HashMap<Integer, Integer>());
+        } else if (choice < 5) {
+          int val = r.nextInt(100);
+          maps.get(m).put(key, val);
+          expected.get(m).put(key, val);
+        } else if (choice < 6) {
+          maps.get(m).remove(key);
+          for (int i = m; i >= 0; i = parents.get(i)) {
+            expected.get(i).remove(key);
+          }
+        } else {
+          for (int i = 0; i < lookups; i++) {
+            checkLookup(maps, parents, expected, r.nextInt(maps.size()),
+                        r.nextInt(30));
+          }
+        }
+      }
+    }
+  }
+
+  private void checkLookup(List<HierarchicalMap<Integer, Integer>> maps,
+      List<Integer> parents, List<Map<Integer, Integer>> expected,
+      int m, int key) {
+    Integer val = null;
+    boolean found = false;
+    for (int i = m; i >= 0 && !found; i = parents.get(i)) {
+      found = expected.get(i).containsKey(key);
+      val = expected.get(i).get(key);
+    }
+    assertEquals(found, maps.get(m).containsKey(key));
+    assertEquals(val, maps.get(m).get(key));
+  }
+}
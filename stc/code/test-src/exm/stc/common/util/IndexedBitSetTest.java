@@ -0,0 +1,132 @@
+package exm.stc.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Check IndexedBitSet against HashSet with random sequences of operations
+ */
+public class IndexedBitSetTest {
+
+  @Test
+  public void testBasic() {
+    Indexer<String> ix = new Indexer<String>();
+    IndexedBitSet<String> s = new IndexedBitSet<String>(ix);
+    assertTrue(s.isEmpty());
+    assertTrue(s.add("c"));
+    assertTrue(s.add("a"));
+    assertFalse(s.add("c"));
+    assertEquals(2, s.size());
+    assertTrue(s.contains("a"));
+    assertFalse(s.contains("b"));
+    // Unindexed or wrong type
+    assertFalse(s.contains(1));
+    assertFalse(s.remove("b"));
+
+    // Iteration in index order, i.e. order first added to indexer
+    assertEquals(Arrays.asList("c", "a"), new ArrayList<String>(s));
+
+    IndexedBitSet<String> copy = new IndexedBitSet<String>(s);
+    assertTrue(s.remove("c"));
+    assertEquals(Arrays.asList("a"), new ArrayList<String>(s));
+    assertEquals(Arrays.asList("c", "a"), new ArrayList<String>(copy));
+    assertEquals(new HashSet<String>(Arrays.asList("a", "c")), copy);
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    Indexer<Integer> ix = new Indexer<Integer>();
+    IndexedBitSet<Integer> s = new IndexedBitSet<Integer>(ix);
+    for (int i = 0; i < 10; i++) {
+      s.add(i);
+    }
+    Iterator<Integer> it = s.iterator();
+    while (it.hasNext()) {
+      if (it.next() % 3 != 0) {
+        it.remove();
+      }
+    }
+    assertEquals(Arrays.asList(0, 3, 6, 9), new ArrayList<Integer>(s));
+  }
+
+  /**
+   * Bulk operations, both with bitsets sharing the indexer, which use
+   * word operations, and with other collections
+   */
+  @Test
+  public void testRandomOps() {
+    Random r = new Random(4321);
+    for (int trial = 0; trial < 50; trial++) {
+      Indexer<Integer> ix = new Indexer<Integer>();
+      Indexer<Integer> otherIx = new Indexer<Integer>();
+      IndexedBitSet<Integer> bs = new IndexedBitSet<Integer>(ix);
+      Set<Integer> hs = new HashSet<Integer>();
+      for (int op = 0; op < 500; op++) {
+        randomOp(r, ix, otherIx, bs, hs);
+        assertEquals(hs.size(), bs.size());
+      }
+      assertEquals(hs, bs);
+    }
+  }
+
+  private void randomOp(Random r, Indexer<Integer> ix,
+      Indexer<Integer> otherIx, IndexedBitSet<Integer> bs,
+      Set<Integer> hs) {
+    int val = r.nextInt(100);
+    int op = r.nextInt(7);
+    if (op == 0) {
+      assertEquals(hs.add(val), bs.add(val));
+    } else if (op == 1) {
+      assertEquals(hs.remove(val), bs.remove(val));
+    } else if (op == 2) {
+      assertEquals(hs.contains(val), bs.contains(val));
+    } else {
+      Collection<Integer> arg = randomCollection(r,
+                                        r.nextBoolean() ? ix : otherIx);
+      if (op == 3) {
+        assertEquals(hs.addAll(arg), bs.addAll(arg));
+      } else if (op == 4) {
+        assertEquals(hs.removeAll(arg), bs.removeAll(arg));
+      } else if (op == 5) {
+        assertEquals(hs.retainAll(arg), bs.retainAll(arg));
+      } else {
+        assertEquals(hs.containsAll(arg), bs.containsAll(arg));
+        // Check subset case too
+        List<Integer> sub = new ArrayList<Integer>(hs);
+        IndexedBitSet<Integer> subBs = new IndexedBitSet<Integer>(ix);
+        subBs.addAll(sub.subList(0, sub.size() / 2));
+        assertTrue(bs.containsAll(subBs));
+      }
+    }
+  }
+
+  /**
+   * @return either an IndexedBitSet or a list of random values
+   */
+  private Collection<Integer> randomCollection(Random r,
+                                               Indexer<Integer> ix) {
+    Collection<Integer> c;
+    if (r.nextBoolean()) {
+      c = new IndexedBitSet<Integer>(ix);
+    } else {
+      c = new ArrayList<Integer>();
+    }
+    int n = r.nextInt(20);
+    for (int i = 0; i < n; i++) {
+      c.add(r.nextInt(100));
+    }
+    return c;
+  }
+}
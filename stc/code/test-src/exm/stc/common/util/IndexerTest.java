@@ -0,0 +1,38 @@
+package exm.stc.common.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class IndexerTest {
+
+  @Test
+  public void testIndexInFirstSeenOrder() {
+    Indexer<String> ix = new Indexer<String>();
+    assertEquals(0, ix.size());
+    assertEquals(-1, ix.lookup("a"));
+
+    assertEquals(0, ix.index("b"));
+    assertEquals(1, ix.index("a"));
+    assertEquals(2, ix.index("c"));
+    // Already indexed
+    assertEquals(0, ix.index("b"));
+    // Identified by equals(), not identity
+    assertEquals(1, ix.index(new String("a")));
+    assertEquals(3, ix.size());
+
+    assertEquals("b", ix.get(0));
+    assertEquals("a", ix.get(1));
+    assertEquals("c", ix.get(2));
+  }
+
+  @Test
+  public void testLookupDoesNotAssign() {
+    Indexer<String> ix = new Indexer<String>();
+    ix.index("a");
+    assertEquals(-1, ix.lookup("b"));
+    assertEquals(-1, ix.lookup(42));
+    assertEquals(1, ix.size());
+    assertEquals(0, ix.lookup("a"));
+  }
+}
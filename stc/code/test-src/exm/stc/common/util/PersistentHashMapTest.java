@@ -0,0 +1,236 @@
+package exm.stc.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+  /**
+   * Key with chosen hash code, to force collisions
+   */
+  private static class Key {
+    final int hash;
+    final String name;
+
+    Key(int hash, String name) {
+      this.hash = hash;
+      this.name = name;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key)o;
+      return k.hash == hash && k.name.equals(name);
+    }
+
+    @Override
+    public String toString() {
+      return name + "#" + hash;
+    }
+  }
+
+  @Test
+  public void testBasic() {
+    PersistentHashMap<String, Integer> m = PersistentHashMap.empty();
+    assertTrue(m.isEmpty());
+    assertNull(m.get("a"));
+
+    PersistentHashMap<String, Integer> m1 = m.plus("a", 1).plus("b", 2);
+    assertEquals(2, m1.size());
+    assertEquals(1, (int)m1.get("a"));
+    assertEquals(2, (int)m1.get("b"));
+
+    // Null values are distinct from absent keys
+    PersistentHashMap<String, Integer> m2 = m1.plus("c", null);
+    assertTrue(m2.containsKey("c"));
+    assertNull(m2.get("c"));
+    assertEquals(3, m2.size());
+
+    // Overwrite does not change size
+    PersistentHashMap<String, Integer> m3 = m2.plus("a", 10);
+    assertEquals(3, m3.size());
+    assertEquals(10, (int)m3.get("a"));
+
+    // Unchanged updates return same map
+    assertSame(m3, m3.minus("z"));
+  }
+
+  @Test
+  public void testCollisions() {
+    Key a = new Key(42, "a");
+    Key b = new Key(42, "b");
+    Key c = new Key(42, "c");
+    // Differs from others in high bits only
+    Key d = new Key(42 | (1 << 30), "d");
+
+    PersistentHashMap<Key, Integer> m = PersistentHashMap.empty();
+    m = m.plus(a, 1).plus(b, 2).plus(c, 3).plus(d, 4);
+    assertEquals(4, m.size());
+    assertEquals(1, (int)m.get(a));
+    assertEquals(2, (int)m.get(b));
+    assertEquals(3, (int)m.get(c));
+    assertEquals(4, (int)m.get(d));
+    assertFalse(m.containsKey(new Key(42, "e")));
+    assertEquals(4, entries(m).size());
+
+    m = m.plus(b, 20);
+    assertEquals(4, m.size());
+    assertEquals(20, (int)m.get(b));
+
+    m = m.minus(a);
+    assertFalse(m.containsKey(a));
+    assertEquals(20, (int)m.get(b));
+    m = m.minus(new Key(42, "e"));
+    assertEquals(3, m.size());
+    m = m.minus(b).minus(c);
+    assertEquals(1, m.size());
+    assertEquals(4, (int)m.get(d));
+    m = m.minus(d);
+    assertTrue(m.isEmpty());
+    assertFalse(m.iterator().hasNext());
+  }
+
+  @Test
+  public void testRemoveToEmpty() {
+    PersistentHashMap<Integer, Integer> m = PersistentHashMap.empty();
+    for (int i = 0; i < 1000; i++) {
+      m = m.plus(i, i);
+    }
+    for (int i = 0; i < 1000; i++) {
+      m = m.minus(i);
+      assertEquals(999 - i, m.size());
+      assertFalse(m.containsKey(i));
+    }
+    assertTrue(m.isEmpty());
+    assertFalse(m.iterator().hasNext());
+
+    // Can reuse after emptying
+    m = m.plus(5, 5);
+    assertEquals(5, (int)m.get(5));
+  }
+
+  @Test
+  public void testSnapshotIsolation() {
+    PersistentHashMap<Integer, Integer> m = PersistentHashMap.empty();
+    for (int i = 0; i < 100; i++) {
+      m = m.plus(i, i);
+    }
+    PersistentHashMap<Integer, Integer> snapshot = m;
+    Map<Integer, Integer> expected = toMap(snapshot);
+
+    for (int i = 0; i < 100; i += 2) {
+      m = m.minus(i);
+    }
+    for (int i = 1; i < 100; i += 2) {
+      m = m.plus(i, -i);
+    }
+    m = m.plus(1000, 1000);
+
+    assertEquals(expected, toMap(snapshot));
+    assertEquals(100, snapshot.size());
+    assertEquals(51, m.size());
+    assertEquals(-1, (int)m.get(1));
+    assertEquals(1, (int)snapshot.get(1));
+  }
+
+  /**
+   * Random updates checked against HashMap, with few hash codes so that
+   * there are many collisions
+   */
+  @Test
+  public void testRandom() {
+    Random r = new Random(4321);
+    for (int trial = 0; trial < 20; trial++) {
+      PersistentHashMap<Key, Integer> m = PersistentHashMap.empty();
+      Map<Key, Integer> expected = new HashMap<Key, Integer>();
+      int hashes = 1 + r.nextInt(200);
+      for (int op = 0; op < 2000; op++) {
+        Key k = new Key(r.nextInt(hashes), "k" + r.nextInt(5));
+        PersistentHashMap<Key, Integer> prev = m;
+        if (r.nextInt(3) == 0) {
+          m = m.minus(k);
+          expected.remove(k);
+        } else {
+          int v = r.nextInt(100);
+          m = m.plus(k, v);
+          expected.put(k, v);
+        }
+        assertEquals(expected.size(), m.size());
+        assertEquals(expected.get(k), m.get(k));
+        checkChangedKeys(prev, m);
+      }
+      assertEquals(expected, toMap(m));
+    }
+  }
+
+  @Test
+  public void testChangedKeys() {
+    PersistentHashMap<Integer, Integer> m = PersistentHashMap.empty();
+    for (int i = 0; i < 1000; i++) {
+      m = m.plus(i, i);
+    }
+    assertTrue(m.changedKeys(m).isEmpty());
+
+    PersistentHashMap<Integer, Integer> m2 = m.plus(5, 50).minus(7)
+                                              .plus(2000, 1);
+    Set<Integer> changed = new HashSet<Integer>(m.changedKeys(m2));
+    assertTrue(changed.containsAll(Arrays.asList(5, 7, 2000)));
+    // Shared subtries are skipped
+    assertTrue(changed.size() < 100);
+    checkChangedKeys(m, m2);
+    checkChangedKeys(m2, m);
+    checkChangedKeys(PersistentHashMap.<Integer, Integer>empty(), m);
+  }
+
+  /**
+   * Check that all keys that differ between maps are found
+   */
+  private static <K, V> void checkChangedKeys(PersistentHashMap<K, V> a,
+                                               PersistentHashMap<K, V> b) {
+    Set<K> changed = new HashSet<K>(a.changedKeys(b));
+    Map<K, V> ma = toMap(a);
+    Map<K, V> mb = toMap(b);
+    Set<K> keys = new HashSet<K>(ma.keySet());
+    keys.addAll(mb.keySet());
+    for (K k: keys) {
+      if (ma.containsKey(k) != mb.containsKey(k) ||
+          ma.get(k) != mb.get(k)) {
+        assertTrue("Missing changed key " + k, changed.contains(k));
+      }
+    }
+  }
+
+  private static <K, V> Map<K, V> toMap(PersistentHashMap<K, V> m) {
+    Map<K, V> result = new HashMap<K, V>();
+    for (Entry<K, V> e: m) {
+      result.put(e.getKey(), e.getValue());
+    }
+    assertEquals(m.size(), result.size());
+    return result;
+  }
+
+  private static <K, V> Set<K> entries(PersistentHashMap<K, V> m) {
+    return toMap(m).keySet();
+  }
+}
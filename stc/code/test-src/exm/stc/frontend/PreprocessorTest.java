@@ -0,0 +1,268 @@
+package exm.stc.frontend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import exm.stc.ast.FilePosition;
+import exm.stc.ast.FilePosition.LineMapping;
+import exm.stc.common.Logging;
+import exm.stc.common.Settings;
+import exm.stc.common.exceptions.PreprocessorException;
+
+public class PreprocessorTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setup() {
+    Logging.setupLogging("", false);
+  }
+
+  @Test
+  public void testStringsAndComments() throws Exception {
+    String out = preprocess(
+        "#define FOO 42\n" +
+        "// FOO in comment\n" +
+        "/* FOO\n" +
+        "   FOO in block comment */\n" +
+        "int x = FOO; string s = \"FOO in string\";\n" +
+        "string t = \"escaped \\\" FOO\"; /* FOO */ int y = FOO;\n");
+    List<String> lines = codeLines(out);
+    assertEquals(Arrays.asList(
+        "int x = 42; string s = \"FOO in string\";",
+        "string t = \"escaped \\\" FOO\"; int y = 42;"), lines);
+  }
+
+  @Test
+  public void testSelfReferential() throws Exception {
+    String out = preprocess(
+        "#define SELF SELF + 1\n" +
+        "#define A B\n" +
+        "#define B A\n" +
+        "#define C D + C\n" +
+        "#define D C\n" +
+        "int x = SELF; int y = A; int z = B; int w = C;\n");
+    assertEquals(Arrays.asList(
+        "int x = SELF + 1; int y = A; int z = B; int w = C + C;"),
+        codeLines(out));
+  }
+
+  @Test
+  public void testLineContinuation() throws Exception {
+    String out = preprocess(
+        "#define LONG 1 + \\\n" +
+        "  2\n" +
+        "int w = LONG;\n" +
+        "int after = 3;\n");
+    assertEquals(Arrays.asList("int w = 1 + 2;", "int after = 3;"),
+                 codeLines(out));
+    // Line after continuation must still map to its original line
+    LineMapping map = lineMapping(out);
+    int outLine = outputLine(out, "int after");
+    assertPosition(map, outLine, "main.swift", 4);
+  }
+
+  @Test
+  public void testIfDefined() throws Exception {
+    String src =
+        "#define FOO 2\n" +
+        "#if defined(FOO) && !defined BAR\n" +
+        "int a = 1;\n" +
+        "#elif FOO > 1\n" +
+        "int b = 1;\n" +
+        "#else\n" +
+        "int c = 1;\n" +
+        "#endif\n" +
+        "#if 0\n" +
+        "int d = 1;\n" +
+        "#elif defined FOO && FOO * 2 == 4\n" +
+        "int e = 1;\n" +
+        "#elif 1\n" +
+        "int f = 1;\n" +
+        "#endif\n" +
+        "#if defined(UNDEFINED) || UNDEFINED\n" +
+        "int g = 1;\n" +
+        "#endif\n";
+    assertEquals(Arrays.asList("int a = 1;", "int e = 1;"),
+                 codeLines(preprocess(src)));
+    assertEquals(Arrays.asList("int b = 1;", "int e = 1;"),
+                 codeLines(preprocess(src, "BAR")));
+  }
+
+  @Test
+  public void testIncludeGuards() throws Exception {
+    write("guarded.swift",
+        "#ifndef GUARDED_H\n" +
+        "#define GUARDED_H\n" +
+        "int guarded = 1;\n" +
+        "#endif\n");
+    write("once.swift",
+        "#pragma once\n" +
+        "int once = 1;\n");
+    String out = preprocess(
+        "#include \"guarded.swift\"\n" +
+        "#include \"once.swift\"\n" +
+        "#include \"guarded.swift\"\n" +
+        "#include \"once.swift\"\n" +
+        "int main = 1;\n");
+    assertEquals(Arrays.asList("int guarded = 1;", "int once = 1;",
+                               "int main = 1;"), codeLines(out));
+  }
+
+  /**
+   * Check that line markers in output give original position of each line
+   * when read back by parser
+   */
+  @Test
+  public void testLineMarkers() throws Exception {
+    write("inc.swift",
+        "\n" +
+        "int inc_2 = 1;\n" +
+        "#define X 1\n" +
+        "\n" +
+        "int inc_5 = X;\n");
+    StringBuilder src = new StringBuilder();
+    src.append("int main_1 = 1;\n");
+    src.append("#include \"inc.swift\"\n");
+    src.append("int main_3 = 1;\n");
+    // Enough blank lines that preprocessor emits marker instead
+    for (int i = 4; i < 20; i++) {
+      src.append("\n");
+    }
+    src.append("int main_20 = 1;\n");
+    src.append("#if 0\nint skipped = 1;\n#endif\n");
+    src.append("int main_24 = \\\n  1;\n");
+    src.append("int main_26 = 1;\n");
+    String out = preprocess(src.toString());
+    LineMapping map = lineMapping(out);
+
+    String lines[] = out.split("\n", -1);
+    int checked = 0;
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i];
+      if (line.startsWith("int ")) {
+        String var = line.substring(4, line.indexOf(' ', 4));
+        String file = var.substring(0, var.indexOf('_')) + ".swift";
+        int origLine = Integer.parseInt(
+                          var.substring(var.indexOf('_') + 1));
+        assertPosition(map, i + 1, file, origLine);
+        checked++;
+      }
+    }
+    assertEquals(7, checked);
+  }
+
+  @Test
+  public void testFunctionLikeMacro() throws Exception {
+    try {
+      preprocess("int a = 1;\n#define F(x) x + 1\n");
+      fail("Expected exception");
+    } catch (PreprocessorException e) {
+      assertTrue(e.getMessage(),
+                 e.getMessage().contains("function-like macro F "));
+      assertTrue(e.getMessage(), e.getMessage().contains("main.swift:2:"));
+      // Suggests workaround
+      assertTrue(e.getMessage(),
+                 e.getMessage().contains(Settings.PREPROCESSOR_FORCE_CPP));
+    }
+
+    // Space before parenthesis makes it object-like
+    assertEquals(Arrays.asList("int b = (x) x + 1;"),
+        codeLines(preprocess("#define F (x) x + 1\nint b = F;\n")));
+
+    try {
+      preprocess("int a = 1;\n", "G(y)=y");
+      fail("Expected exception");
+    } catch (PreprocessorException e) {
+      assertTrue(e.getMessage(),
+                 e.getMessage().contains("function-like macro G(y)"));
+    }
+  }
+
+  @Test
+  public void testCommandLineDefines() throws Exception {
+    String out = preprocess(
+        "#ifdef FLAG\nint f = FLAG;\n#endif\nint v = VAL;\n",
+        "FLAG", "VAL=7 * 6");
+    assertEquals(Arrays.asList("int f = 1;", "int v = 7 * 6;"),
+                 codeLines(out));
+  }
+
+  private File write(String name, String contents) throws IOException {
+    File f = new File(tmp.getRoot(), name);
+    FileUtils.writeStringToFile(f, contents, UTF8);
+    return f;
+  }
+
+  private String preprocess(String src, String ...defines)
+      throws IOException, PreprocessorException {
+    File main = write("main.swift", src);
+    Preprocessor pp = new Preprocessor(Logger.getLogger(getClass()),
+                          Arrays.asList(tmp.getRoot().getPath()));
+    for (String def: defines) {
+      pp.define(def);
+    }
+    return pp.preprocess(main.getPath(), UTF8);
+  }
+
+  /**
+   * @return non-blank lines of output, excluding line markers
+   */
+  private static List<String> codeLines(String out) {
+    List<String> result = new ArrayList<String>();
+    for (String line: out.split("\n")) {
+      if (!line.trim().isEmpty() && !line.startsWith("#")) {
+        result.add(line.trim());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return 1-based line number of output line starting with prefix
+   */
+  private static int outputLine(String out, String prefix) {
+    String lines[] = out.split("\n", -1);
+    for (int i = 0; i < lines.length; i++) {
+      if (lines[i].startsWith(prefix)) {
+        return i + 1;
+      }
+    }
+    fail("No line starting with " + prefix + " in:\n" + out);
+    return -1;
+  }
+
+  private static LineMapping lineMapping(String out) throws IOException {
+    return ParsedModule.parse("main", "main.swift", new StringReader(out),
+                              true).lineMapping;
+  }
+
+  private void assertPosition(LineMapping map, int outLine, String file,
+                              int line) {
+    FilePosition pos = map.getFilePosition(outLine);
+    assertEquals("Output line " + outLine,
+                 new File(tmp.getRoot(), file).getPath(), pos.file);
+    assertEquals("Output line " + outLine, line, pos.line);
+    assertFalse(pos.file.startsWith("<"));
+  }
+}
@@ -1,10 +1,14 @@
 package exm.stc.frontend.typecheck;
 
 import static exm.stc.frontend.typecheck.FunctionTypeChecker.checkOverloadsAmbiguity;
+import static exm.stc.frontend.typecheck.FunctionTypeChecker.concretiseInputsCached;
 import static exm.stc.frontend.typecheck.FunctionTypeChecker.concretiseInputsNonOverloaded;
 import static exm.stc.frontend.typecheck.FunctionTypeChecker.concretiseInputsOverloaded;
 import static exm.stc.frontend.typecheck.FunctionTypeChecker.selectArgType;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -20,6 +24,7 @@ import org.junit.rules.ExpectedException;
 import exm.stc.common.Logging;
 import exm.stc.common.exceptions.InvalidOverloadException;
 import exm.stc.common.exceptions.TypeMismatchException;
+import exm.stc.common.exceptions.UserException;
 import exm.stc.common.lang.DefaultVals;
 import exm.stc.common.lang.FnID;
 import exm.stc.common.lang.ForeignFunctions;
@@ -42,7 +47,7 @@ public class FunctionTypeCheckerTest {
 
   private static final FnID FAKE_FN_ID = new FnID("foobar", "foobar");
 
-  private static final SubType FLOAT_SUB_TYPE = new SubType(Types.F_FLOAT, "float2");
+  private static final SubType FLOAT_SUB_TYPE = SubType.create(Types.F_FLOAT, "float2");
   private static final Type INT_OR_FLOAT =
       UnionType.createUnionType(Types.F_INT, Types.F_FLOAT);
   private static final Type FLOAT_OR_INT =
@@ -100,7 +105,7 @@ public class FunctionTypeCheckerTest {
         selectArgType(INT_OR_FLOAT, Types.F_FLOAT, false));
   }
 
-  private static final FunctionType VARARGS_TYPE = new FunctionType(
+  private static final FunctionType VARARGS_TYPE = FunctionType.create(
                             Arrays.asList(Types.F_INT, INT_OR_FLOAT),
                             Arrays.asList(Types.F_STRING), true);
 
@@ -413,6 +418,65 @@ public class FunctionTypeCheckerTest {
     makeFT(Arrays.asList(Types.F_STRING, FLOAT_OR_INT), true);
   }
 
+  @Test
+  public void testCachedMatchReused() throws UserException {
+    GlobalContext context = new GlobalContext("fake.swift",
+                          Logging.getSTCLogger(), new ForeignFunctions());
+    FunctionType ft = makeSimpleFT(Types.F_INT);
+    context.defineFunction("f", ft, generateArgNames(1),
+                           DefaultVals.<Var>noDefaults(ft));
+
+    List<Type> intArgs = Arrays.asList(Types.F_INT);
+    FnMatch match = concretiseInputsCached(context,
+              makeFnCallInfo("f", context.lookupFunction("f"), intArgs));
+    assertEquals("Matched args", intArgs,
+                 match.concreteAlts.get(0).getInputs());
+
+    // Separately constructed but equivalent call should hit cache
+    FnMatch match2 = concretiseInputsCached(context,
+              makeFnCallInfo("f", context.lookupFunction("f"), intArgs));
+    assertSame("Cached match reused", match, match2);
+
+    // Different argument types should not
+    List<Type> floatArgs = Arrays.asList(Types.F_FLOAT);
+    FnCallInfo floatCall = makeFnCallInfo("f", context.lookupFunction("f"),
+                                          floatArgs);
+    assertNull("Not cached", context.fnCallCache().lookupInputs(floatCall));
+  }
+
+  @Test
+  public void testCacheInvalidatedByDefine() throws UserException {
+    GlobalContext context = new GlobalContext("fake.swift",
+                          Logging.getSTCLogger(), new ForeignFunctions());
+    FunctionType ft = makeSimpleFT(Types.F_INT);
+    context.defineFunction("f", ft, generateArgNames(1),
+                           DefaultVals.<Var>noDefaults(ft));
+
+    List<Type> intArgs = Arrays.asList(Types.F_INT);
+    FnCallInfo call = makeFnCallInfo("f", context.lookupFunction("f"),
+                                     intArgs);
+    FnMatch match = concretiseInputsCached(context, call);
+    assertSame(match, context.fnCallCache().lookupInputs(call));
+
+    FunctionType ft2 = makeSimpleFT(Types.F_STRING);
+    context.defineFunction("g", ft2, generateArgNames(1),
+                           DefaultVals.<Var>noDefaults(ft2));
+    assertNull("Cache invalidated by new function",
+               context.fnCallCache().lookupInputs(call));
+
+    // Overloading f must not reuse stale resolution
+    context.defineFunction("f", ft2, generateArgNames(1),
+                           DefaultVals.<Var>noDefaults(ft2));
+    FnCallInfo overloadedCall = makeFnCallInfo("f",
+                              context.lookupFunction("f"), intArgs);
+    assertEquals("Both overloads visible", 2,
+                 overloadedCall.fnTypes.size());
+    FnMatch match2 = concretiseInputsCached(context, overloadedCall);
+    assertNotSame(match, match2);
+    assertEquals("Resolves to int overload", intArgs,
+                 match2.concreteAlts.get(0).getInputs());
+  }
+
   private FnCallInfo makeFnCallInfo(String name, List<FnOverload> fnTypes,
       List<Type> argTypes) {
     return new FnCallInfo(name, fnTypes, argTypes,
@@ -546,7 +610,7 @@ public class FunctionTypeCheckerTest {
 
   private FunctionType makeFT(List<Type> outputs, List<Type> inputs,
       boolean varArgs) {
-    return new FunctionType(inputs, outputs, varArgs);
+    return FunctionType.create(inputs, outputs, varArgs);
   }
 
 }
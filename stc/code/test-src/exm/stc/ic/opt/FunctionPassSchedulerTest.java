@@ -0,0 +1,128 @@
+package exm.stc.ic.opt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import exm.stc.common.Logging;
+import exm.stc.common.Settings;
+import exm.stc.common.exceptions.InvalidOptionException;
+import exm.stc.ui.STCompiler;
+
+/**
+ * Check that optimizing functions in parallel gives the same output as
+ * optimizing them serially.
+ */
+public class FunctionPassSchedulerTest {
+
+  /** Location of Turbine, relative to the stc/code directory */
+  private static final File TURBINE_HOME = new File("../../turbine/code");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setup() throws InvalidOptionException {
+    Logging.setupLogging("", false);
+    Properties props = new Properties();
+    props.setProperty(Settings.STC_HOME, new File(".").getAbsolutePath());
+    props.setProperty(Settings.TURBINE_HOME, TURBINE_HOME.getAbsolutePath());
+    Settings.initSTCProperties(props);
+  }
+
+  @After
+  public void resetSettings() {
+    Settings.set(Settings.OPT_PARALLEL_THREADS, "1");
+    Settings.set(Settings.OPT_CHECK_FIXED_POINT, "false");
+    Settings.set(Settings.OPT_FUNCTION_INLINE, "true");
+  }
+
+  @Test
+  public void testSerialMatchesParallel() throws IOException {
+    Assume.assumeTrue(
+          new File(TURBINE_HOME, "export/builtins.swift").exists());
+    File src = tmp.newFile("parallel.swift");
+    FileUtils.writeStringToFile(src, program(12));
+
+    // Also check that fixed point tracking sees all changes
+    Settings.set(Settings.OPT_CHECK_FIXED_POINT, "true");
+    // Keep functions separate
+    Settings.set(Settings.OPT_FUNCTION_INLINE, "false");
+
+    Settings.set(Settings.OPT_PARALLEL_THREADS, "1");
+    String serial = compile(src);
+    assertTrue(serial, serial.contains("proc f:f11"));
+
+    Settings.set(Settings.OPT_PARALLEL_THREADS, "4");
+    assertEquals(serial, compile(src));
+  }
+
+  /**
+   * Program with a tree of functions, each calling its parent, so that
+   * there are several waves with several functions each.  Functions
+   * optimized concurrently create constants with the same value, and
+   * constants with different values that get the same name.
+   */
+  private static String program(int functions) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("import sys;\n\n");
+    for (int i = 0; i < functions; i++) {
+      sb.append("(int o) f").append(i).append(" (int x) {\n");
+      if (i == 0) {
+        sb.append("  int v = x + 7;\n");
+      } else {
+        sb.append("  int v = f").append((i - 1) / 2).append("(x + 7);\n");
+      }
+      sb.append("  trace(\"function \" + \"number \" + \"")
+        .append(i).append("\");\n");
+      sb.append("  foreach j in [1:").append(i % 3 + 2).append("] {\n");
+      sb.append("    trace(\"loop\", ").append(i).append(", v + j * 7);\n");
+      sb.append("  }\n");
+      sb.append("  if (v %% 2 == 0) {\n");
+      sb.append("    o = v + ").append(100 + i).append(";\n");
+      sb.append("  } else {\n");
+      sb.append("    o = v * 7 - 3;\n");
+      sb.append("  }\n");
+      sb.append("}\n\n");
+    }
+    sb.append("main {\n");
+    sb.append("  int n = toint(argv(\"n\"));\n");
+    for (int i = 0; i < functions; i++) {
+      sb.append("  trace(f").append(i).append("(n));\n");
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  /**
+   * @return intermediate code after each pass, then compiled program
+   *         without comments, since they include settings
+   */
+  private static String compile(File src) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream ic = new ByteArrayOutputStream();
+    Settings.set(Settings.INPUT_FILENAME, src.getPath());
+    new STCompiler(Logging.getSTCLogger()).compile(src.getPath(), null,
+                                          out, new PrintStream(ic));
+    StringBuilder result = new StringBuilder(ic.toString());
+    for (String line: out.toString().split("\n")) {
+      if (!line.trim().startsWith("#")) {
+        result.append(line).append("\n");
+      }
+    }
+    return result.toString();
+  }
+}